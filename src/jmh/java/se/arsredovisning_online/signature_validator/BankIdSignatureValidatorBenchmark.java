@@ -0,0 +1,34 @@
+package se.arsredovisning_online.signature_validator;
+
+import org.openjdk.jmh.annotations.*;
+import org.w3c.dom.Document;
+
+import javax.xml.parsers.DocumentBuilderFactory;
+import java.io.ByteArrayInputStream;
+import java.util.concurrent.TimeUnit;
+
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(2)
+public class BankIdSignatureValidatorBenchmark {
+    private Document signature;
+
+    @Setup
+    public void setUp() throws Exception {
+        DocumentBuilderFactory factory = DocumentBuilderFactory.newInstance();
+        factory.setNamespaceAware(true);
+        signature = factory.newDocumentBuilder().parse(new ByteArrayInputStream(BenchmarkFixtures.read("/signatur_1_Anna_Andersson.xml")));
+    }
+
+    @Benchmark
+    public boolean validate() {
+        BankIdSignatureValidator validator = new BankIdSignatureValidator(signature, true);
+        if (!validator.validate()) {
+            throw new IllegalStateException(validator.getValidationErrors().toString());
+        }
+        return true;
+    }
+}
@@ -0,0 +1,75 @@
+package se.arsredovisning_online.signature_validator;
+
+import com.google.gson.JsonArray;
+import com.google.gson.JsonObject;
+import com.google.gson.JsonParser;
+import org.apache.commons.io.IOUtils;
+import org.apache.pdfbox.pdmodel.PDDocument;
+import org.apache.pdfbox.pdmodel.PDEmbeddedFilesNameTreeNode;
+import org.apache.pdfbox.pdmodel.common.filespecification.PDComplexFileSpecification;
+import org.apache.pdfbox.pdmodel.common.filespecification.PDEmbeddedFile;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.nio.charset.StandardCharsets;
+import java.util.HashMap;
+import java.util.Map;
+
+final class BenchmarkFixtures {
+    static final String DEMOBOLAGET = "/Årsredovisning (signerat original) - Demobolaget AB - räkenskapsåret 2017.pdf";
+    static final String DEMO_MED_REVISION = "/Årsredovisning (signerat original) - Demo med revision AB - räkenskapsåret 2017.pdf";
+    static final String REVISIONSBERATTELSE = "/Revisionsberättelse (signerat original) - Demo med revision AB - räkenskapsåret 2017.pdf";
+
+    private BenchmarkFixtures() {
+    }
+
+    static byte[] read(String name) {
+        try (InputStream input = BenchmarkFixtures.class.getResourceAsStream(name)) {
+            if (input == null) {
+                throw new IllegalArgumentException("Fixture not found: " + name);
+            }
+            return IOUtils.toByteArray(input);
+        } catch (IOException e) {
+            throw new RuntimeException(e);
+        }
+    }
+
+    /**
+     * Returns a copy of a signed PDF whose manifest lists its signatures over and over until there are
+     * {@code count} of them, so that validation cost can be measured as a function of signature count.
+     */
+    static byte[] withSignatureCount(byte[] pdf, int count) throws IOException {
+        try (PDDocument document = PDDocument.load(pdf)) {
+            PDEmbeddedFilesNameTreeNode embeddedFiles = document.getDocumentCatalog().getNames().getEmbeddedFiles();
+            Map<String, PDComplexFileSpecification> names = new HashMap<>(embeddedFiles.getNames());
+
+            JsonObject manifest;
+            try (InputStream manifestStream = names.get("manifest.json").getEmbeddedFile().createInputStream()) {
+                manifest = new JsonParser().parse(new InputStreamReader(manifestStream, StandardCharsets.UTF_8)).getAsJsonObject();
+            }
+            JsonArray signatures = manifest.getAsJsonArray("signatures");
+            JsonArray repeated = new JsonArray();
+            for (int i = 0; i < count; i++) {
+                repeated.add(signatures.get(i % signatures.size()));
+            }
+            manifest.add("signatures", repeated);
+
+            byte[] manifestBytes = manifest.toString().getBytes(StandardCharsets.UTF_8);
+            PDEmbeddedFile embeddedFile = new PDEmbeddedFile(document, new ByteArrayInputStream(manifestBytes));
+            embeddedFile.setSubtype("application/json");
+            embeddedFile.setSize(manifestBytes.length);
+            PDComplexFileSpecification fileSpecification = new PDComplexFileSpecification();
+            fileSpecification.setFile("manifest.json");
+            fileSpecification.setEmbeddedFile(embeddedFile);
+            names.put("manifest.json", fileSpecification);
+            embeddedFiles.setNames(names);
+
+            ByteArrayOutputStream output = new ByteArrayOutputStream();
+            document.save(output);
+            return output.toByteArray();
+        }
+    }
+}
@@ -0,0 +1,80 @@
+package se.arsredovisning_online.signature_validator;
+
+import org.openjdk.jmh.annotations.*;
+
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * The first and the typical validation of a document, per choice of security providers. Other XML signature
+ * providers, such as Santuario's {@code ApacheXMLDSig}, can be compared with {@code -p xmlSignatureProvider=...}
+ * when they are on the classpath.
+ */
+@State(Scope.Benchmark)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+public class CryptoProviderBenchmark {
+    @State(Scope.Benchmark)
+    public static class Providers {
+        @Param({CryptoProviders.DEFAULT})
+        public String xmlSignatureProvider;
+
+        @Param({CryptoProviders.DEFAULT, "BC"})
+        public String jcaProvider;
+
+        private byte[] bytes;
+
+        @Setup
+        public void setUp() {
+            CryptoProviders.setXmlSignatureProvider(xmlSignatureProvider);
+            CryptoProviders.setJcaProvider(jcaProvider);
+            bytes = BenchmarkFixtures.read(BenchmarkFixtures.DEMOBOLAGET);
+        }
+    }
+
+    /**
+     * How many warm-up validations run before the first document, as with {@code -warmup} on the server.
+     */
+    @State(Scope.Benchmark)
+    public static class Startup {
+        @Param({"0", "20"})
+        public int warmupIterations;
+
+        @Setup
+        public void setUp(Providers providers) throws IOException {
+            if (warmupIterations > 0) {
+                ValidatorWarmup.run(warmupIterations);
+            }
+        }
+    }
+
+    @Setup(Level.Invocation)
+    public void clearVerificationCaches() {
+        SignatureVerificationCache.clear();
+        TrustAnchors.clearVerificationCache();
+    }
+
+    /**
+     * The first document in a new JVM, class loading and interpreted code included.
+     */
+    @Benchmark
+    @BenchmarkMode(Mode.SingleShotTime)
+    @Warmup(iterations = 0)
+    @Measurement(iterations = 1)
+    @Fork(10)
+    public boolean firstValidation(Providers providers, Startup startup) {
+        return validate(providers.bytes);
+    }
+
+    @Benchmark
+    @BenchmarkMode(Mode.AverageTime)
+    @Warmup(iterations = 3, time = 2)
+    @Measurement(iterations = 5, time = 2)
+    @Fork(2)
+    public boolean steadyStateValidation(Providers providers) {
+        return validate(providers.bytes);
+    }
+
+    private static boolean validate(byte[] pdf) {
+        return new SignedPdfValidator(PdfSource.of(pdf), true).validate();
+    }
+}
@@ -0,0 +1,34 @@
+package se.arsredovisning_online.signature_validator;
+
+import org.openjdk.jmh.annotations.*;
+
+import java.io.ByteArrayInputStream;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(2)
+public class DigestMakerBenchmark {
+    @Param({"1024", "196608", "4194304", "33554432"})
+    public int attachmentSize;
+
+    @Param({"plaintext", "sha256", "sha512"})
+    public String digestMethod;
+
+    private byte[] attachment;
+
+    @Setup
+    public void setUp() {
+        attachment = new byte[attachmentSize];
+        new Random(attachmentSize).nextBytes(attachment);
+    }
+
+    @Benchmark
+    public String getEncodedDigest() {
+        return DigestMaker.getEncodedDigest(new ByteArrayInputStream(attachment), digestMethod);
+    }
+}
@@ -0,0 +1,175 @@
+package se.arsredovisning_online.signature_validator;
+
+import java.lang.management.GarbageCollectorMXBean;
+import java.lang.management.ManagementFactory;
+import java.lang.management.MemoryPoolMXBean;
+import java.lang.management.MemoryType;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Locale;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Validates synthetic PDFs from a number of threads for a while and reports throughput, latency and memory, to
+ * find where validation stops scaling:
+ * <pre>
+ * mvn -P benchmark test-compile exec:exec -Dbenchmark.main=se.arsredovisning_online.signature_validator.LoadTest \
+ *     -Djmh.args="-signatures 64 -size 8m -layout kids -threads 8 -seconds 60"
+ * </pre>
+ * Each thread validates its own documents and the signature verification cache is cleared before each one, so
+ * every signature is verified like in a new upload. With {@code -cached true} the cache is left alone instead.
+ */
+public class LoadTest {
+    private int signatures = 16;
+    private int size = 1024 * 1024;
+    private SyntheticPdfs.Layout layout = SyntheticPdfs.Layout.FLAT;
+    private SyntheticPdfs.Defect defect = SyntheticPdfs.Defect.NONE;
+    private int threads = Runtime.getRuntime().availableProcessors();
+    private int seconds = 30;
+    private boolean attachmentsOnly;
+    private boolean cached;
+    private MemoryPolicy memoryPolicy = MemoryPolicy.mainMemoryOnly();
+
+    public static void main(String[] args) throws Exception {
+        LoadTest loadTest = new LoadTest();
+        try {
+            loadTest.parse(Arrays.asList(args));
+        } catch (IllegalArgumentException e) {
+            System.out.println("Användning: ");
+            System.out.println("java " + LoadTest.class.getCanonicalName() + " [-signatures 16] [-size 1m] [-layout flat|kids] [-defect none|signature_value|signed_data|untrusted_signer|visible_data] [-threads n] [-seconds 30] [-attachmentsonly true|false] [-cached true|false] [-memory memory|mixed:64m|tempfile]");
+            System.exit(1);
+        }
+        loadTest.run();
+    }
+
+    private void parse(List<String> args) {
+        if (args.size() % 2 != 0) {
+            throw new IllegalArgumentException(args.get(args.size() - 1));
+        }
+        for (int i = 0; i < args.size(); i += 2) {
+            String value = args.get(i + 1);
+            switch (args.get(i)) {
+                case "-signatures":
+                    signatures = Integer.parseInt(value);
+                    break;
+                case "-size":
+                    size = (int) MemoryPolicy.parseSize(value);
+                    break;
+                case "-layout":
+                    layout = SyntheticPdfs.Layout.valueOf(value.toUpperCase(Locale.ROOT));
+                    break;
+                case "-defect":
+                    defect = SyntheticPdfs.Defect.valueOf(value.toUpperCase(Locale.ROOT));
+                    break;
+                case "-threads":
+                    threads = Integer.parseInt(value);
+                    break;
+                case "-seconds":
+                    seconds = Integer.parseInt(value);
+                    break;
+                case "-attachmentsonly":
+                    attachmentsOnly = Boolean.parseBoolean(value);
+                    break;
+                case "-cached":
+                    cached = Boolean.parseBoolean(value);
+                    break;
+                case "-memory":
+                    memoryPolicy = MemoryPolicy.parse(value);
+                    break;
+                default:
+                    throw new IllegalArgumentException(args.get(i));
+            }
+        }
+    }
+
+    private void run() throws Exception {
+        System.err.printf(Locale.ROOT, "Skapar %d PDF-filer med %d signaturer och %d byte original (%s)...%n",
+                threads, signatures, size, layout.name().toLowerCase(Locale.ROOT));
+        SyntheticPdfs pdfs = new SyntheticPdfs();
+        List<byte[]> documents = new ArrayList<>();
+        for (int i = 0; i < threads; i++) {
+            documents.add(pdfs.pdf(signatures, size, layout, defect));
+        }
+        ValidationEngine engine = ValidationEngine.builder(false)
+                .signatureTrustAnchors(pdfs.trustAnchors())
+                .sealTrustAnchors(pdfs.trustAnchors())
+                .attachmentsOnly(attachmentsOnly)
+                .memoryPolicy(memoryPolicy)
+                .build();
+
+        // One round outside the measurement, for class loading and the first JIT compilations
+        for (byte[] document : documents) {
+            engine.validate(PdfSource.of(document));
+        }
+        System.gc();
+        for (MemoryPoolMXBean pool : ManagementFactory.getMemoryPoolMXBeans()) {
+            pool.resetPeakUsage();
+        }
+        long gcCount = gcCount();
+        long gcMillis = gcMillis();
+
+        List<Long> durations = Collections.synchronizedList(new ArrayList<>());
+        AtomicInteger invalid = new AtomicInteger();
+        long start = System.nanoTime();
+        long deadline = start + TimeUnit.SECONDS.toNanos(seconds);
+        List<Thread> workers = new ArrayList<>();
+        for (byte[] document : documents) {
+            Thread worker = new Thread(() -> {
+                while (System.nanoTime() < deadline) {
+                    if (!cached) {
+                        SignatureVerificationCache.clear();
+                    }
+                    ValidationReport report = engine.validate(PdfSource.of(document));
+                    durations.add(report.getDuration().toNanos());
+                    if (!report.isValid()) {
+                        invalid.incrementAndGet();
+                    }
+                }
+            });
+            worker.start();
+            workers.add(worker);
+        }
+        for (Thread worker : workers) {
+            worker.join();
+        }
+
+        BatchValidator.Summary summary = new BatchValidator.Summary(durations, invalid.get(), System.nanoTime() - start);
+        System.out.println(summary);
+        System.out.printf(Locale.ROOT, "%.1f signaturer/s på %d trådar%n", summary.getDocumentsPerSecond() * signatures, threads);
+        System.out.printf(Locale.ROOT, "Heap: högst %d MB använt av %d MB, %d skräpsamlingar på %d ms%n",
+                peakHeapBytes() / (1024 * 1024), Runtime.getRuntime().maxMemory() / (1024 * 1024),
+                gcCount() - gcCount, gcMillis() - gcMillis);
+    }
+
+    /**
+     * The sum of the peak usage of every heap pool, which overestimates a little since pools peak at different times.
+     */
+    private static long peakHeapBytes() {
+        long peak = 0;
+        for (MemoryPoolMXBean pool : ManagementFactory.getMemoryPoolMXBeans()) {
+            if (pool.getType() == MemoryType.HEAP) {
+                peak += pool.getPeakUsage().getUsed();
+            }
+        }
+        return peak;
+    }
+
+    private static long gcCount() {
+        long count = 0;
+        for (GarbageCollectorMXBean collector : ManagementFactory.getGarbageCollectorMXBeans()) {
+            count += Math.max(0, collector.getCollectionCount());
+        }
+        return count;
+    }
+
+    private static long gcMillis() {
+        long millis = 0;
+        for (GarbageCollectorMXBean collector : ManagementFactory.getGarbageCollectorMXBeans()) {
+            millis += Math.max(0, collector.getCollectionTime());
+        }
+        return millis;
+    }
+}
@@ -0,0 +1,67 @@
+package se.arsredovisning_online.signature_validator;
+
+import org.openjdk.jmh.annotations.*;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.TimeUnit;
+
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(2)
+public class ManifestBenchmark {
+    private byte[] manifest;
+
+    /**
+     * A group report sized manifest, with one visible data document per signature.
+     */
+    @State(Scope.Benchmark)
+    public static class Large {
+        @Param({"100", "1000"})
+        public int signatureCount;
+
+        private byte[] manifest;
+
+        @Setup
+        public void setUp() {
+            StringBuilder json = new StringBuilder("{\"documents\":[{\"name\":\"original.xhtml\",\"type\":\"original_xbrl\",\"digest_method\":\"sha256\"}");
+            for (int i = 0; i < signatureCount; i++) {
+                json.append(",{\"name\":\"visible_").append(i).append(".txt\",\"type\":\"board_ceo_visible_data\",\"digest_method\":\"plaintext\"}");
+            }
+            json.append("],\"signatures\":[");
+            for (int i = 0; i < signatureCount; i++) {
+                json.append(i == 0 ? "" : ",").append("{\"signature_file\":\"signatur_").append(i)
+                        .append(".xml\",\"visible_data\":\"visible_").append(i).append(".txt\",\"non_visible_data\":\"original.xhtml\"}");
+            }
+            manifest = json.append("]}").toString().getBytes(StandardCharsets.UTF_8);
+        }
+    }
+
+    @Setup
+    public void setUp() {
+        manifest = BenchmarkFixtures.read("/manifest.json");
+    }
+
+    @Benchmark
+    public Manifest createFromStream() throws IOException {
+        return Manifest.createFromStream(new ByteArrayInputStream(manifest));
+    }
+
+    /**
+     * Parsing plus the two digest method lookups that validation does per signature.
+     */
+    @Benchmark
+    public int createLargeAndLookUpDocuments(Large large) throws IOException {
+        Manifest manifest = Manifest.createFromStream(new ByteArrayInputStream(large.manifest));
+        int found = 0;
+        for (Manifest.Signature signature : manifest.getSignatures()) {
+            found += manifest.getDocumentByName(signature.getVisibleData()) != null ? 1 : 0;
+            found += manifest.getDocumentByName(signature.getNonVisibleData()) != null ? 1 : 0;
+        }
+        return found;
+    }
+}
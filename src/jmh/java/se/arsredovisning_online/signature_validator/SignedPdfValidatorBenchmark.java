@@ -0,0 +1,98 @@
+package se.arsredovisning_online.signature_validator;
+
+import org.apache.pdfbox.io.MemoryUsageSetting;
+import org.apache.pdfbox.pdmodel.PDDocument;
+import org.openjdk.jmh.annotations.*;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(2)
+public class SignedPdfValidatorBenchmark {
+    /**
+     * End to end validation of the demo PDFs as they are.
+     */
+    @State(Scope.Benchmark)
+    public static class Fixture {
+        @Param({BenchmarkFixtures.DEMOBOLAGET, BenchmarkFixtures.DEMO_MED_REVISION, BenchmarkFixtures.REVISIONSBERATTELSE})
+        public String pdf;
+
+        private byte[] bytes;
+
+        @Setup
+        public void setUp() {
+            bytes = BenchmarkFixtures.read(pdf);
+        }
+    }
+
+    /**
+     * The Demobolaget PDF with its manifest signatures repeated to the given count.
+     */
+    @State(Scope.Benchmark)
+    public static class SignatureCount {
+        @Param({"1", "4", "16", "64"})
+        public int signatureCount;
+
+        private byte[] bytes;
+
+        @Setup
+        public void setUp() throws IOException {
+            bytes = BenchmarkFixtures.withSignatureCount(BenchmarkFixtures.read(BenchmarkFixtures.DEMOBOLAGET), signatureCount);
+        }
+    }
+
+    @Setup(Level.Invocation)
+    public void clearVerificationCache() {
+        // Measure the full verification of every signature, not cache hits from earlier invocations
+        SignatureVerificationCache.clear();
+    }
+
+    @Benchmark
+    public boolean validate(Fixture fixture) throws IOException {
+        return validate(fixture.bytes);
+    }
+
+    @Benchmark
+    public boolean validateAttachmentsOnly(Fixture fixture) throws IOException {
+        return validate(fixture.bytes, true);
+    }
+
+    @Benchmark
+    public boolean validateBySignatureCount(SignatureCount fixture) throws IOException {
+        // Adding signatures rewrites the document, which breaks its seal
+        return validate(fixture.bytes, false, false);
+    }
+
+    @Benchmark
+    public List<String> validateSeal(Fixture fixture) throws IOException {
+        PdfSource pdf = PdfSource.of(fixture.bytes);
+        try (PDDocument document = pdf.load(MemoryUsageSetting.setupMainMemoryOnly(), true)) {
+            return new PdfSealValidator(TrustAnchors.sealTest()).validate(document, pdf.getLoadedBytes());
+        }
+    }
+
+    private static boolean validate(byte[] pdf) throws IOException {
+        return validate(pdf, false);
+    }
+
+    private static boolean validate(byte[] pdf, boolean attachmentsOnly) throws IOException {
+        return validate(pdf, attachmentsOnly, true);
+    }
+
+    private static boolean validate(byte[] pdf, boolean attachmentsOnly, boolean sealValidation) throws IOException {
+        SignedPdfValidator validator = new SignedPdfValidator(new ByteArrayInputStream(pdf), true);
+        validator.setAttachmentsOnly(attachmentsOnly);
+        validator.setSealValidation(sealValidation);
+        if (!validator.validate()) {
+            throw new IllegalStateException(validator.getValidationErrors().toString());
+        }
+        return true;
+    }
+}
@@ -0,0 +1,50 @@
+package se.arsredovisning_online.signature_validator;
+
+import org.openjdk.jmh.annotations.*;
+
+import java.io.ByteArrayInputStream;
+import java.util.concurrent.TimeUnit;
+
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(2)
+public class SingleSignatureValidatorBenchmark {
+    /**
+     * Whether the signature has been verified before, so that only the data comparisons run.
+     */
+    @Param({"false", "true"})
+    public boolean verified;
+
+    private byte[] visibleData;
+    private byte[] nonVisibleData;
+    private byte[] signature;
+
+    @Setup
+    public void setUp() {
+        visibleData = BenchmarkFixtures.read("/styrelseledamot_vd_visible_data.txt");
+        nonVisibleData = BenchmarkFixtures.read("/original_årsredovisning.xhtml");
+        signature = BenchmarkFixtures.read("/signatur_1_Anna_Andersson.xml");
+    }
+
+    @Setup(Level.Invocation)
+    public void clearVerificationCache() {
+        if (!verified) {
+            SignatureVerificationCache.clear();
+        }
+    }
+
+    @Benchmark
+    public boolean validate() {
+        SingleSignatureValidator validator = new SingleSignatureValidator(
+                new ByteArrayInputStream(visibleData), "plaintext",
+                new ByteArrayInputStream(nonVisibleData), "sha256",
+                new ByteArrayInputStream(signature), true);
+        if (!validator.validate()) {
+            throw new IllegalStateException(validator.getValidationErrors().toString());
+        }
+        return true;
+    }
+}
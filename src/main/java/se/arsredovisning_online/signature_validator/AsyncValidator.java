@@ -0,0 +1,172 @@
+package se.arsredovisning_online.signature_validator;
+
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+import java.io.Closeable;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Validates documents without blocking the caller, completing a future with a {@link ValidationReport}.
+ * <p>
+ * At most {@code capacity} documents are running or waiting at any time. When that many are, a new document is
+ * either turned away at once with a future failed by {@link RejectedExecutionException}, or the caller waits
+ * for room, depending on the {@link Backpressure}. Cancelling a future stops its validation at the next phase
+ * boundary, so a cancelled document stops using the worker soon after instead of running to the end.
+ */
+public class AsyncValidator implements Closeable {
+    public enum Backpressure {
+        /** Fail the returned future when there is no room. */
+        REJECT,
+        /** Block the submitting thread until there is room. */
+        WAIT
+    }
+
+    private final Executor executor;
+    private final ExecutorService ownExecutor;
+    private final Semaphore capacity;
+    private final Backpressure backpressure;
+    private final ValidationEngine engine;
+    private Logger logger = LogManager.getLogger(AsyncValidator.class);
+
+    /**
+     * Validates on a pool of its own, one thread per core, with room for four waiting documents per thread.
+     */
+    public AsyncValidator(boolean test) {
+        this(test, Runtime.getRuntime().availableProcessors(), Backpressure.REJECT);
+    }
+
+    public AsyncValidator(boolean test, int threads, Backpressure backpressure) {
+        this(ValidationEngine.builder(test).build(), threads, backpressure);
+    }
+
+    public AsyncValidator(ValidationEngine engine, int threads, Backpressure backpressure) {
+        this(engine, newPool(threads, threads * 4), threads * 5, backpressure, true);
+    }
+
+    /**
+     * Validates on the caller's executor, with at most {@code capacity} documents submitted to it at a time.
+     */
+    public AsyncValidator(boolean test, Executor executor, int capacity, Backpressure backpressure) {
+        this(ValidationEngine.builder(test).build(), executor, capacity, backpressure);
+    }
+
+    /**
+     * Validates with {@code engine} on the caller's executor.
+     */
+    public AsyncValidator(ValidationEngine engine, Executor executor, int capacity, Backpressure backpressure) {
+        this(engine, executor, capacity, backpressure, false);
+    }
+
+    private AsyncValidator(ValidationEngine engine, Executor executor, int capacity, Backpressure backpressure, boolean ownsExecutor) {
+        this.engine = engine;
+        this.executor = executor;
+        this.ownExecutor = ownsExecutor ? (ExecutorService) executor : null;
+        this.capacity = new Semaphore(capacity);
+        this.backpressure = backpressure;
+    }
+
+    /**
+     * Starts validating {@code pdf}. With {@link Backpressure#WAIT} this blocks while the validator is full, and
+     * an interrupt while waiting fails the future with {@link CancellationException}.
+     */
+    public CompletableFuture<ValidationReport> validate(PdfSource pdf) {
+        CompletableFuture<ValidationReport> future = new CompletableFuture<>();
+        if (backpressure == Backpressure.REJECT) {
+            if (!capacity.tryAcquire()) {
+                future.completeExceptionally(new RejectedExecutionException("För många samtidiga valideringar."));
+                return future;
+            }
+        } else {
+            try {
+                capacity.acquire();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                future.completeExceptionally(new CancellationException("Valideringen avbröts."));
+                return future;
+            }
+        }
+        try {
+            executor.execute(new Task(pdf, future));
+        } catch (RejectedExecutionException e) {
+            capacity.release();
+            future.completeExceptionally(e);
+        }
+        return future;
+    }
+
+    /**
+     * The number of documents that can be submitted before the validator is full.
+     */
+    public int getAvailableCapacity() {
+        return capacity.availablePermits();
+    }
+
+    /**
+     * Stops the built-in pool. The futures of queued documents are cancelled and documents already running are
+     * left to finish. A caller-supplied executor is left alone.
+     */
+    @Override
+    public void close() {
+        if (ownExecutor != null) {
+            for (Runnable queued : ownExecutor.shutdownNow()) {
+                ((Task) queued).cancel();
+            }
+        }
+    }
+
+    /**
+     * One submitted document, which gives its room back whether it runs or is dropped from the queue.
+     */
+    private class Task implements Runnable {
+        private final PdfSource pdf;
+        private final CompletableFuture<ValidationReport> future;
+
+        Task(PdfSource pdf, CompletableFuture<ValidationReport> future) {
+            this.pdf = pdf;
+            this.future = future;
+        }
+
+        @Override
+        public void run() {
+            if (future.isDone()) {
+                capacity.release();
+                return;
+            }
+            // The room is given back before the future completes, so whoever waits on it can submit again at once
+            ValidationReport report;
+            try {
+                report = engine.validate(pdf, future::isDone);
+            } catch (CancellationException e) {
+                logger.debug("Valideringen av " + pdf + " avbröts.");
+                capacity.release();
+                future.completeExceptionally(e);
+                return;
+            } catch (RuntimeException | Error e) {
+                logger.debug("Valideringen av " + pdf + " misslyckades.", e);
+                capacity.release();
+                future.completeExceptionally(e);
+                return;
+            }
+            capacity.release();
+            future.complete(report);
+        }
+
+        void cancel() {
+            capacity.release();
+            future.cancel(false);
+        }
+    }
+
+    private static ThreadPoolExecutor newPool(int threads, int queueSize) {
+        return new ThreadPoolExecutor(threads, threads, 0, TimeUnit.MILLISECONDS, new ArrayBlockingQueue<>(queueSize));
+    }
+}
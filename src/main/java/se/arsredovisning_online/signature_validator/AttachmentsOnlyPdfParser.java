@@ -0,0 +1,93 @@
+package se.arsredovisning_online.signature_validator;
+
+import org.apache.pdfbox.cos.COSArray;
+import org.apache.pdfbox.cos.COSBase;
+import org.apache.pdfbox.cos.COSDictionary;
+import org.apache.pdfbox.cos.COSName;
+import org.apache.pdfbox.cos.COSObject;
+import org.apache.pdfbox.io.RandomAccessRead;
+import org.apache.pdfbox.io.ScratchFile;
+
+import java.io.IOException;
+
+/**
+ * A PDF parser that only resolves the objects reachable from {@code /Root/Names/EmbeddedFiles}, plus the
+ * signature dictionaries of the form fields so that the seal can be validated.
+ * <p>
+ * The regular parser resolves every object reachable from the document catalog up front, which for an
+ * image-heavy annual report means every page, font and image. Signature validation only needs the
+ * attachments, so here the page tree root is resolved (the parser insists on it being a dictionary) but none of
+ * the pages below it. Anything that is not resolved reads as {@code null}, so documents parsed this way must
+ * not be used for anything but reading attachments.
+ */
+class AttachmentsOnlyPdfParser extends ExtentRecordingPdfParser {
+    private static final int MAX_FIELD_DEPTH = 32;
+
+    AttachmentsOnlyPdfParser(RandomAccessRead source, ScratchFile scratchFile) throws IOException {
+        super(source, scratchFile);
+    }
+
+    @Override
+    protected void parseDictObjects(COSDictionary dictionary, COSName... excludeObjects) throws IOException {
+        if (!COSName.CATALOG.equals(dictionary.getCOSName(COSName.TYPE))) {
+            super.parseDictObjects(dictionary, excludeObjects);
+            return;
+        }
+
+        resolve(dictionary.getItem(COSName.PAGES));
+        COSBase names = resolve(dictionary.getItem(COSName.NAMES));
+        if (names instanceof COSDictionary) {
+            COSBase embeddedFiles = resolve(((COSDictionary) names).getItem(COSName.EMBEDDED_FILES));
+            if (embeddedFiles instanceof COSDictionary) {
+                super.parseDictObjects((COSDictionary) embeddedFiles, (COSName[]) null);
+            }
+        }
+
+        COSBase acroForm = resolve(dictionary.getItem(COSName.ACRO_FORM));
+        if (acroForm instanceof COSDictionary) {
+            resolveFields(resolve(((COSDictionary) acroForm).getItem(COSName.FIELDS)), 0);
+        }
+    }
+
+    /**
+     * Resolves the field tree and the signature values in it, but nothing the fields point to otherwise, such as
+     * their widgets and pages.
+     */
+    private void resolveFields(COSBase fields, int depth) throws IOException {
+        if (!(fields instanceof COSArray) || depth > MAX_FIELD_DEPTH) {
+            return;
+        }
+        for (COSBase item : (COSArray) fields) {
+            COSBase field = resolve(item);
+            if (field instanceof COSDictionary) {
+                COSDictionary fieldDictionary = (COSDictionary) field;
+                resolve(fieldDictionary.getItem(COSName.FT));
+                resolve(fieldDictionary.getItem(COSName.T));
+                COSBase value = resolve(fieldDictionary.getItem(COSName.V));
+                if (value instanceof COSDictionary && COSName.SIG.equals(((COSDictionary) value).getCOSName(COSName.TYPE, COSName.SIG))) {
+                    resolveSignature((COSDictionary) value);
+                }
+                resolveFields(resolve(fieldDictionary.getItem(COSName.KIDS)), depth + 1);
+            }
+        }
+    }
+
+    private void resolveSignature(COSDictionary signature) throws IOException {
+        for (COSName key : new COSName[]{COSName.FILTER, COSName.SUB_FILTER, COSName.CONTENTS}) {
+            resolve(signature.getItem(key));
+        }
+        COSBase byteRange = resolve(signature.getItem(COSName.BYTERANGE));
+        if (byteRange instanceof COSArray) {
+            for (COSBase item : (COSArray) byteRange) {
+                resolve(item);
+            }
+        }
+    }
+
+    private COSBase resolve(COSBase base) throws IOException {
+        if (base instanceof COSObject) {
+            return parseObjectDynamically((COSObject) base, false);
+        }
+        return base;
+    }
+}
@@ -12,14 +12,12 @@ import javax.xml.crypto.dsig.XMLSignatureFactory;
 import javax.xml.crypto.dsig.dom.DOMValidateContext;
 import javax.xml.crypto.dsig.keyinfo.KeyInfo;
 import javax.xml.crypto.dsig.keyinfo.X509Data;
+import java.security.GeneralSecurityException;
 import java.security.Key;
+import java.security.Provider;
 import java.security.PublicKey;
-import java.security.cert.Certificate;
-import java.security.cert.CertificateException;
-import java.security.cert.CertificateFactory;
 import java.security.cert.X509Certificate;
 import java.util.ArrayList;
-import java.util.Base64;
 import java.util.List;
 
 /**
@@ -32,6 +30,9 @@ public class BankIdSignatureValidator {
     private final List<String> validationErrors = new ArrayList<>();
     private Document document;
     private boolean test;
+    private OcspChecker ocspChecker;
+    private TrustAnchors trustAnchors;
+    private long keySelectionNanos;
     private Logger logger = LogManager.getLogger(BankIdSignatureValidator.class);
 
     public BankIdSignatureValidator(Document document) {
@@ -41,7 +42,20 @@ public class BankIdSignatureValidator {
     public BankIdSignatureValidator(Document document, boolean test) {
         this.document = document;
         this.test = test;
-        hackDocumentIdAttribute(document);
+    }
+
+    /**
+     * Also requires a valid OCSP response saying that the signer certificate is not revoked.
+     */
+    public void setOcspChecker(OcspChecker ocspChecker) {
+        this.ocspChecker = ocspChecker;
+    }
+
+    /**
+     * Validates the certificate chain against these roots instead of BankID's.
+     */
+    public void setTrustAnchors(TrustAnchors trustAnchors) {
+        this.trustAnchors = trustAnchors;
     }
 
     public List<String> getValidationErrors() {
@@ -63,11 +77,14 @@ public class BankIdSignatureValidator {
         DOMValidateContext valContext = getValidateContext(signatureNode);
         XMLSignature signature = getSignature(fac, valContext);
 
+        long start = System.nanoTime();
         boolean isValid = signature.validate(valContext);
 
         if (!isValid) {
             createErrorInfo(valContext, signature);
         }
+        // The key selector verifies the chain as part of validating the signature, and records that on its own
+        ValidationMetrics.record(ValidationMetrics.Phase.REFERENCE_VALIDATION, System.nanoTime() - start - keySelectionNanos);
         if (isValid && validationErrors.isEmpty()) {
             logger.debug("Signaturen är giltig.");
             return true;
@@ -86,11 +103,17 @@ public class BankIdSignatureValidator {
     }
 
     private XMLSignatureFactory getSignatureFactory() {
-        return XMLSignatureFactory.getInstance("DOM");
+        return XmlFactories.signatureFactory();
     }
 
     private DOMValidateContext getValidateContext(Node signatureNode) {
-        return new DOMValidateContext(new CertificatePublicKeySelector(), signatureNode);
+        DOMValidateContext context = new DOMValidateContext(new CertificatePublicKeySelector(), signatureNode);
+        registerSignedDataId(context);
+        Provider provider = CryptoProviders.jcaProvider();
+        if (provider != null) {
+            context.setProperty(CryptoProviders.SIGNATURE_PROVIDER_PROPERTY, provider);
+        }
+        return context;
     }
 
     private XMLSignature getSignature(XMLSignatureFactory fac, DOMValidateContext valContext) throws MarshalException {
@@ -117,27 +140,28 @@ public class BankIdSignatureValidator {
         return validationErrors.add(message);
     }
 
-    private void hackDocumentIdAttribute(Document document) {
-        // Horrible hack to avoid "Cannot resolve element with ID bidSignedData" error
+    private void registerSignedDataId(DOMValidateContext context) {
+        // Without a schema nothing says that Id is an ID attribute, and the reference "#bidSignedData" would not
+        // resolve. Registering it with the context rather than the DOM leaves the caller's document untouched.
         // See https://stackoverflow.com/questions/17331187/xml-dig-sig-error-after-upgrade-to-java7u25
         Element bidSignedData = findSignedData(document);
-        Attr idAttr = bidSignedData.getAttributeNode("Id");
-        bidSignedData.setIdAttributeNode(idAttr, true);
+        if (bidSignedData != null && bidSignedData.hasAttribute("Id")) {
+            context.setIdAttributeNS(bidSignedData, null, "Id");
+        }
     }
 
     private Element findSignedData(Document doc) {
         return (Element) doc.getElementsByTagName("bankIdSignedData").item(0);
     }
 
-    private Certificate getRootCertificate() throws CertificateException {
+    private TrustAnchors getTrustAnchors() {
+        if (trustAnchors != null) {
+            return trustAnchors;
+        }
         if (test) {
             logger.debug("Använder BankID:s rotcertifikat för testmiljön.");
         }
-        byte[] bytes = test
-                ? Base64.getMimeDecoder().decode(BANKID_ROOT_CERT_TEST)
-                : Base64.getMimeDecoder().decode(BANKID_ROOT_CERT);
-        CertificateFactory certificateFactory = CertificateFactory.getInstance("X.509");
-        return certificateFactory.generateCertificate(new java.io.ByteArrayInputStream(bytes));
+        return TrustAnchors.forMode(test);
     }
 
     private class CertificatePublicKeySelector extends KeySelector {
@@ -146,6 +170,41 @@ public class BankIdSignatureValidator {
                 throw new KeySelectorException("KeyInfo saknas.");
             }
 
+            List<X509Certificate> chain = new ArrayList<>();
+            long start = System.nanoTime();
+            KeySelectorResult result;
+            try {
+                result = selectVerifiedKey(keyInfo, chain);
+            } finally {
+                long nanos = System.nanoTime() - start;
+                keySelectionNanos += nanos;
+                ValidationMetrics.record(ValidationMetrics.Phase.CHAIN_VERIFICATION, nanos);
+            }
+
+            if (ocspChecker != null) {
+                start = System.nanoTime();
+                checkRevocation(chain);
+                long nanos = System.nanoTime() - start;
+                keySelectionNanos += nanos;
+                ValidationMetrics.record(ValidationMetrics.Phase.REVOCATION_CHECK, nanos);
+            }
+            return result;
+        }
+
+        private void checkRevocation(List<X509Certificate> chain) {
+            if (chain.size() < 2) {
+                addError("Certifikatets spärrstatus kan inte kontrolleras utan utfärdarens certifikat.");
+                return;
+            }
+            try {
+                ocspChecker.check(chain.get(0), chain.get(1));
+                logger.debug("Certifikatet är inte spärrat.");
+            } catch (GeneralSecurityException e) {
+                addError(e.getMessage());
+            }
+        }
+
+        private KeySelectorResult selectVerifiedKey(KeyInfo keyInfo, List<X509Certificate> chain) throws KeySelectorException {
             X509Certificate firstCertificate = null;
             X509Certificate prevCertificate = null;
 
@@ -156,12 +215,13 @@ public class BankIdSignatureValidator {
                     for (Object item : x509Content) {
                         if (item instanceof X509Certificate) {
                             X509Certificate cert = ((X509Certificate) item);
+                            chain.add(cert);
                             if (firstCertificate == null) {
                                 firstCertificate = cert;
                             }
                             if (prevCertificate != null) {
                                 try {
-                                    prevCertificate.verify(cert.getPublicKey());
+                                    TrustAnchors.verifyIssuedBy(prevCertificate, cert);
                                 } catch (Exception e) {
                                     addError("Certifikatkedjan är inte giltig.");
                                 }
@@ -174,7 +234,7 @@ public class BankIdSignatureValidator {
 
             if (prevCertificate != null) {
                 try {
-                    prevCertificate.verify(getRootCertificate().getPublicKey());
+                    getTrustAnchors().verifyAnchored(prevCertificate);
                 } catch (Exception e) {
                     addError("Certifikatkedjan är inte giltig.");
                 }
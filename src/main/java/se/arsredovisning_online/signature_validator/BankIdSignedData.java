@@ -0,0 +1,144 @@
+package se.arsredovisning_online.signature_validator;
+
+import org.w3c.dom.Document;
+import org.w3c.dom.Element;
+import org.w3c.dom.Node;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Base64;
+
+/**
+ * The fields of {@code <bankIdSignedData>} that validation needs, collected in a single walk over the signature
+ * DOM instead of one XPath descendant scan per field.
+ */
+public class BankIdSignedData {
+    private String userVisibleData = "";
+    private String userNonVisibleData = "";
+    private String serverName = "";
+    private String displayName = "";
+    private String nonce = "";
+
+    private BankIdSignedData() {
+    }
+
+    /**
+     * Extracts the data from {@code Signature/Object/bankIdSignedData}, matching on local names like the
+     * signature files do. Missing fields are returned as empty strings.
+     */
+    public static BankIdSignedData extract(Document document) {
+        BankIdSignedData data = new BankIdSignedData();
+        Element signedData = findSignedData(document.getDocumentElement());
+        if (signedData != null) {
+            for (Element child = firstChildElement(signedData); child != null; child = nextSiblingElement(child)) {
+                switch (child.getLocalName()) {
+                    case "usrVisibleData":
+                        data.userVisibleData = child.getTextContent();
+                        break;
+                    case "usrNonVisibleData":
+                        data.userNonVisibleData = child.getTextContent();
+                        break;
+                    case "srvInfo":
+                        data.readServerInfo(child);
+                        break;
+                    default:
+                        break;
+                }
+            }
+        }
+        return data;
+    }
+
+    /**
+     * Base64 encoded user visible data, as stored in the signature.
+     */
+    public String getUserVisibleData() {
+        return userVisibleData;
+    }
+
+    /**
+     * Base64 encoded user non-visible data, as stored in the signature.
+     */
+    public String getUserNonVisibleData() {
+        return userNonVisibleData;
+    }
+
+    /**
+     * Distinguished name of the signer's certificate as reported by the BankID server, e.g.
+     * {@code cn=FP Testcert 2,name=Test av BankID,serialNumber=12345678,o=Testbank A AB (publ),c=SE}.
+     */
+    public String getServerName() {
+        return serverName;
+    }
+
+    public String getDisplayName() {
+        return displayName;
+    }
+
+    public String getNonce() {
+        return nonce;
+    }
+
+    private void readServerInfo(Element serverInfo) {
+        for (Element child = firstChildElement(serverInfo); child != null; child = nextSiblingElement(child)) {
+            switch (child.getLocalName()) {
+                case "name":
+                    serverName = decode(child.getTextContent());
+                    break;
+                case "displayName":
+                    displayName = decode(child.getTextContent());
+                    break;
+                case "nonce":
+                    nonce = child.getTextContent();
+                    break;
+                default:
+                    break;
+            }
+        }
+    }
+
+    private static Element findSignedData(Element element) {
+        if (element == null) {
+            return null;
+        }
+        if ("bankIdSignedData".equals(element.getLocalName()) && hasParent(element, "Object")
+                && hasParent((Element) element.getParentNode(), "Signature")) {
+            return element;
+        }
+        for (Element child = firstChildElement(element); child != null; child = nextSiblingElement(child)) {
+            Element found = findSignedData(child);
+            if (found != null) {
+                return found;
+            }
+        }
+        return null;
+    }
+
+    private static boolean hasParent(Element element, String localName) {
+        Node parent = element.getParentNode();
+        return parent instanceof Element && localName.equals(parent.getLocalName());
+    }
+
+    private static Element firstChildElement(Node node) {
+        Node child = node.getFirstChild();
+        while (child != null && !(child instanceof Element)) {
+            child = child.getNextSibling();
+        }
+        return (Element) child;
+    }
+
+    private static Element nextSiblingElement(Node node) {
+        Node sibling = node.getNextSibling();
+        while (sibling != null && !(sibling instanceof Element)) {
+            sibling = sibling.getNextSibling();
+        }
+        return (Element) sibling;
+    }
+
+    private static String decode(String base64) {
+        try {
+            return new String(Base64.getMimeDecoder().decode(base64), StandardCharsets.UTF_8);
+        } catch (IllegalArgumentException e) {
+            return base64;
+        }
+    }
+}
@@ -0,0 +1,213 @@
+package se.arsredovisning_online.signature_validator;
+
+import com.google.gson.Gson;
+import com.google.gson.JsonArray;
+import com.google.gson.JsonObject;
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.PrintStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.FileSystems;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.PathMatcher;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Locale;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+/**
+ * Validates many PDFs in one JVM on a bounded worker pool, writing one JSON line per document.
+ * <p>
+ * Inputs can be directories (all PDFs directly inside), glob patterns such as {@code archive/**&#47;*.pdf}
+ * or file lists given as {@code @list.txt} with one path per line.
+ */
+public class BatchValidator {
+    private static final Gson gson = new Gson();
+
+    private final int threads;
+    private final ValidationEngine engine;
+    private Logger logger = LogManager.getLogger(BatchValidator.class);
+
+    public BatchValidator(boolean test) {
+        this(test, Runtime.getRuntime().availableProcessors());
+    }
+
+    public BatchValidator(boolean test, int threads) {
+        this(ValidationEngine.builder(test).build(), threads);
+    }
+
+    public BatchValidator(ValidationEngine engine, int threads) {
+        this.engine = engine;
+        this.threads = threads;
+    }
+
+    public Summary validate(List<Path> files, PrintStream out) {
+        // The queue is bounded so that a huge file list does not turn into a huge backlog of tasks
+        ThreadPoolExecutor executor = new ThreadPoolExecutor(threads, threads, 0, TimeUnit.MILLISECONDS,
+                new ArrayBlockingQueue<>(threads * 4), new ThreadPoolExecutor.CallerRunsPolicy());
+        List<Long> durations = Collections.synchronizedList(new ArrayList<>());
+        AtomicInteger invalid = new AtomicInteger();
+
+        long start = System.nanoTime();
+        for (Path file : files) {
+            executor.execute(() -> {
+                Result result = validateFile(file);
+                durations.add(result.nanos);
+                if (!result.errors.isEmpty()) {
+                    invalid.incrementAndGet();
+                }
+                synchronized (out) {
+                    out.println(result.toJson());
+                }
+            });
+        }
+        executor.shutdown();
+        try {
+            executor.awaitTermination(Long.MAX_VALUE, TimeUnit.NANOSECONDS);
+        } catch (InterruptedException e) {
+            executor.shutdownNow();
+            Thread.currentThread().interrupt();
+        }
+        return new Summary(new ArrayList<>(durations), invalid.get(), System.nanoTime() - start);
+    }
+
+    private Result validateFile(Path file) {
+        long start = System.nanoTime();
+        List<String> errors;
+        try {
+            errors = engine.validate(PdfSource.of(file)).getErrors();
+        } catch (RuntimeException e) {
+            logger.debug("Validering av " + file + " avbröts.", e);
+            errors = Collections.singletonList(String.valueOf(e.getMessage()));
+        }
+        return new Result(file, errors, System.nanoTime() - start);
+    }
+
+    static List<Path> resolveInputs(List<String> inputs) throws IOException {
+        List<Path> files = new ArrayList<>();
+        for (String input : inputs) {
+            if (input.startsWith("@")) {
+                for (String line : Files.readAllLines(Paths.get(input.substring(1)), StandardCharsets.UTF_8)) {
+                    if (!line.trim().isEmpty()) {
+                        files.add(Paths.get(line.trim()));
+                    }
+                }
+            } else if (isGlob(input)) {
+                files.addAll(expandGlob(input));
+            } else if (Files.isDirectory(Paths.get(input))) {
+                try (Stream<Path> children = Files.list(Paths.get(input))) {
+                    files.addAll(children.filter(BatchValidator::isPdf).sorted().collect(Collectors.toList()));
+                }
+            } else {
+                files.add(Paths.get(input));
+            }
+        }
+        return files;
+    }
+
+    private static boolean isGlob(String input) {
+        return input.indexOf('*') >= 0 || input.indexOf('?') >= 0 || input.indexOf('[') >= 0 || input.indexOf('{') >= 0;
+    }
+
+    private static List<Path> expandGlob(String pattern) throws IOException {
+        // Walk from the directory before the first wildcard, and match whole paths against the pattern
+        int firstWildcard = pattern.length();
+        for (char wildcard : "*?[{".toCharArray()) {
+            if (pattern.indexOf(wildcard) >= 0) {
+                firstWildcard = Math.min(firstWildcard, pattern.indexOf(wildcard));
+            }
+        }
+        int lastSeparator = pattern.lastIndexOf(File.separatorChar, firstWildcard);
+        Path current = Paths.get(".");
+        Path root = lastSeparator < 0 ? current : Paths.get(pattern.substring(0, Math.max(1, lastSeparator)));
+        PathMatcher matcher = FileSystems.getDefault().getPathMatcher("glob:" + pattern);
+
+        try (Stream<Path> paths = Files.walk(root)) {
+            return paths.filter(Files::isRegularFile)
+                    .map(path -> lastSeparator < 0 ? current.relativize(path) : path)
+                    .filter(matcher::matches)
+                    .sorted()
+                    .collect(Collectors.toList());
+        }
+    }
+
+    private static boolean isPdf(Path path) {
+        return Files.isRegularFile(path) && path.getFileName().toString().toLowerCase(Locale.ROOT).endsWith(".pdf");
+    }
+
+    private static class Result {
+        private final Path file;
+        private final List<String> errors;
+        private final long nanos;
+
+        Result(Path file, List<String> errors, long nanos) {
+            this.file = file;
+            this.errors = errors;
+            this.nanos = nanos;
+        }
+
+        String toJson() {
+            JsonObject json = new JsonObject();
+            json.addProperty("file", file.toString());
+            json.addProperty("valid", errors.isEmpty());
+            JsonArray errorArray = new JsonArray();
+            for (String error : errors) {
+                errorArray.add(error);
+            }
+            json.add("errors", errorArray);
+            json.addProperty("millis", TimeUnit.NANOSECONDS.toMillis(nanos));
+            return gson.toJson(json);
+        }
+    }
+
+    public static class Summary {
+        private final List<Long> sortedNanos;
+        private final int invalid;
+        private final long elapsedNanos;
+
+        Summary(List<Long> nanos, int invalid, long elapsedNanos) {
+            this.sortedNanos = new ArrayList<>(nanos);
+            Collections.sort(this.sortedNanos);
+            this.invalid = invalid;
+            this.elapsedNanos = elapsedNanos;
+        }
+
+        public int getDocumentCount() {
+            return sortedNanos.size();
+        }
+
+        public int getInvalidCount() {
+            return invalid;
+        }
+
+        public double getDocumentsPerSecond() {
+            return elapsedNanos == 0 ? 0 : sortedNanos.size() / (elapsedNanos / 1e9);
+        }
+
+        public long getPercentileMillis(double percentile) {
+            if (sortedNanos.isEmpty()) {
+                return 0;
+            }
+            int index = (int) Math.ceil(percentile / 100 * sortedNanos.size()) - 1;
+            return TimeUnit.NANOSECONDS.toMillis(sortedNanos.get(Math.max(0, index)));
+        }
+
+        @Override
+        public String toString() {
+            return String.format(Locale.ROOT, "%d dokument (%d ogiltiga) på %.1f s: %.1f dokument/s, p50 %d ms, p99 %d ms",
+                    getDocumentCount(), invalid, elapsedNanos / 1e9, getDocumentsPerSecond(),
+                    getPercentileMillis(50), getPercentileMillis(99));
+        }
+    }
+}
@@ -0,0 +1,96 @@
+package se.arsredovisning_online.signature_validator;
+
+import org.bouncycastle.jce.provider.BouncyCastleProvider;
+
+import javax.xml.crypto.dsig.XMLSignatureFactory;
+import java.security.Provider;
+import java.security.Security;
+
+/**
+ * The security providers that verify signatures, chosen once for the whole process.
+ * <p>
+ * The XML signature provider parses and canonicalizes signature files. It is given by the name it is registered
+ * under, e.g. {@code XMLDSig} for the one in the JDK or {@code ApacheXMLDSig} for Apache Santuario, or by class
+ * name if it is on the classpath but not registered. The JCA provider does the RSA and ECDSA operations of the XML
+ * signatures, certificate chains and PDF seal; {@code BC} selects Bouncy Castle. {@link #DEFAULT} keeps what the
+ * JDK would pick.
+ */
+public final class CryptoProviders {
+    public static final String DEFAULT = "default";
+
+    /**
+     * Property of an XML validate context naming the provider of its signature algorithms. Both the JDK and
+     * Santuario read it.
+     */
+    static final String SIGNATURE_PROVIDER_PROPERTY = "org.jcp.xml.dsig.internal.dom.SignatureProvider";
+
+    private static volatile Provider xmlSignatureProvider;
+    private static volatile Provider jcaProvider;
+
+    private CryptoProviders() {
+    }
+
+    public static void setXmlSignatureProvider(String name) {
+        xmlSignatureProvider = resolve(name);
+    }
+
+    public static void setJcaProvider(String name) {
+        Provider provider = resolve(name);
+        if (provider != jcaProvider) {
+            // Outcomes verified by one provider say nothing about another
+            TrustAnchors.clearVerificationCache();
+            SignatureVerificationCache.clear();
+            RevisionCache.invalidateAll();
+        }
+        jcaProvider = provider;
+    }
+
+    /**
+     * The provider of XML signature factories, never {@code null}.
+     */
+    static Provider xmlSignatureProvider() {
+        Provider provider = xmlSignatureProvider;
+        if (provider == null) {
+            provider = XMLSignatureFactory.getInstance("DOM").getProvider();
+            xmlSignatureProvider = provider;
+        }
+        return provider;
+    }
+
+    /**
+     * The provider of signature algorithms, or {@code null} for the JDK's choice.
+     */
+    static Provider jcaProvider() {
+        return jcaProvider;
+    }
+
+    /**
+     * The selected providers, for logs and benchmark reports.
+     */
+    public static String describe() {
+        Provider jca = jcaProvider;
+        return "XML-signaturer: " + xmlSignatureProvider().getName() + ", kryptografi: " + (jca == null ? DEFAULT : jca.getName());
+    }
+
+    private static synchronized Provider resolve(String name) {
+        if (name == null || name.equals(DEFAULT)) {
+            return null;
+        }
+        Provider provider = Security.getProvider(name);
+        if (provider != null) {
+            return provider;
+        }
+        if (name.equals(BouncyCastleProvider.PROVIDER_NAME)) {
+            provider = new BouncyCastleProvider();
+        } else {
+            try {
+                provider = (Provider) Class.forName(name).getDeclaredConstructor().newInstance();
+            } catch (ReflectiveOperationException | ClassCastException e) {
+                throw new IllegalArgumentException("Okänd säkerhetsleverantör: " + name, e);
+            }
+        }
+        // Registered last, so it is only used where it is asked for by name
+        Security.addProvider(provider);
+        return Security.getProvider(provider.getName());
+    }
+}
@@ -1,38 +1,130 @@
 package se.arsredovisning_online.signature_validator;
 
-import org.apache.commons.io.IOUtils;
-
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
 import java.io.InputStream;
 import java.security.MessageDigest;
 import java.security.NoSuchAlgorithmException;
 import java.util.Base64;
+import java.util.HashMap;
+import java.util.Map;
 
+/**
+ * Digests embedded files as they are read, through a fixed-size per-thread buffer and per-thread
+ * {@link MessageDigest} instances, so digesting itself allocates nothing in proportion to the attachment. Whatever
+ * the input stream buffers is another matter; see {@link EmbeddedFileIndex#open(String, boolean)} for which
+ * embedded files are decoded as they are read.
+ */
 class DigestMaker {
+    static final String PLAINTEXT = "plaintext";
+
+    private static final int BUFFER_SIZE = 8192;
+    private static final ThreadLocal<byte[]> buffers = ThreadLocal.withInitial(() -> new byte[BUFFER_SIZE]);
+    private static final ThreadLocal<Map<String, MessageDigest>> digests = ThreadLocal.withInitial(HashMap::new);
+
     static String getEncodedDigest(InputStream data, String digestMethod) {
+        return Base64.getEncoder().encodeToString(getDigest(data, digestMethod));
+    }
+
+    static byte[] getDigest(InputStream data, String digestMethod) {
+        try {
+            if (PLAINTEXT.equals(digestMethod)) {
+                return readFully(data);
+            }
+            return digest(data, getMessageDigest(digestMethod));
+        } catch (IOException e) {
+            throw new RuntimeException(e);
+        }
+    }
+
+    /**
+     * Checks {@code data} against a Base64 encoded digest, as stored in the signature file. The comparison is
+     * made on the raw bytes; plaintext data is compared while it is being read instead of being buffered.
+     */
+    static boolean matches(InputStream data, String digestMethod, String expectedBase64) {
+        byte[] expected;
+        try {
+            // Strict, like the string comparison this replaced; the MIME decoder would skip any junk
+            expected = Base64.getDecoder().decode(expectedBase64.trim());
+        } catch (IllegalArgumentException e) {
+            return false;
+        }
+
         try {
-            Base64.Encoder encoder = Base64.getEncoder();
-            byte[] bytes = getDigestBytes(IOUtils.toByteArray(data), digestMethod);
-            return encoder.encodeToString(bytes);
-        } catch (Exception e) {
+            if (PLAINTEXT.equals(digestMethod)) {
+                return contentEquals(data, expected);
+            }
+            return MessageDigest.isEqual(expected, digest(data, getMessageDigest(digestMethod)));
+        } catch (IOException e) {
             throw new RuntimeException(e);
         }
     }
 
-    private static byte[] getDigestBytes(byte[] bytes, String digestMethod) {
+    private static byte[] digest(InputStream data, MessageDigest digest) throws IOException {
+        byte[] buffer = buffers.get();
+        digest.reset();
+        int read;
+        while ((read = data.read(buffer)) != -1) {
+            digest.update(buffer, 0, read);
+        }
+        return digest.digest();
+    }
+
+    private static boolean contentEquals(InputStream data, byte[] expected) throws IOException {
+        byte[] buffer = buffers.get();
+        int position = 0;
+        int read;
+        while ((read = data.read(buffer)) != -1) {
+            if (position + read > expected.length) {
+                return false;
+            }
+            for (int i = 0; i < read; i++) {
+                if (buffer[i] != expected[position + i]) {
+                    return false;
+                }
+            }
+            position += read;
+        }
+        return position == expected.length;
+    }
+
+    private static byte[] readFully(InputStream data) throws IOException {
+        byte[] buffer = buffers.get();
+        ByteArrayOutputStream output = new ByteArrayOutputStream();
+        int read;
+        while ((read = data.read(buffer)) != -1) {
+            output.write(buffer, 0, read);
+        }
+        return output.toByteArray();
+    }
+
+    private static MessageDigest getMessageDigest(String digestMethod) {
+        String algorithm = getAlgorithm(digestMethod);
+        if (algorithm == null) {
+            throw new RuntimeException("Unhandled digest method: " + digestMethod);
+        }
+        return digests.get().computeIfAbsent(algorithm, DigestMaker::createMessageDigest);
+    }
+
+    private static String getAlgorithm(String digestMethod) {
+        if (digestMethod == null) {
+            return null;
+        }
         switch (digestMethod) {
-            case "plaintext":
-                return bytes;
             case "sha256":
-                return getSha256Digest(bytes);
+                return "SHA-256";
+            case "sha384":
+                return "SHA-384";
+            case "sha512":
+                return "SHA-512";
             default:
-                throw new RuntimeException("Unhandled digest method: " + digestMethod);
+                return null;
         }
     }
 
-    private static byte[] getSha256Digest(byte[] bytes) {
+    private static MessageDigest createMessageDigest(String algorithm) {
         try {
-            MessageDigest digest = MessageDigest.getInstance("SHA-256");
-            return digest.digest(bytes);
+            return MessageDigest.getInstance(algorithm);
         } catch (NoSuchAlgorithmException e) {
             throw new RuntimeException(e);
         }
@@ -0,0 +1,203 @@
+package se.arsredovisning_online.signature_validator;
+
+import org.apache.pdfbox.cos.COSArray;
+import org.apache.pdfbox.cos.COSBase;
+import org.apache.pdfbox.cos.COSDictionary;
+import org.apache.pdfbox.cos.COSName;
+import org.apache.pdfbox.cos.COSNull;
+import org.apache.pdfbox.cos.COSObject;
+import org.apache.pdfbox.cos.COSStream;
+import org.apache.pdfbox.pdmodel.PDDocument;
+import org.apache.pdfbox.pdmodel.PDDocumentNameDictionary;
+import org.apache.pdfbox.pdmodel.PDEmbeddedFilesNameTreeNode;
+import org.apache.pdfbox.pdmodel.common.PDNameTreeNode;
+import org.apache.pdfbox.pdmodel.common.filespecification.PDComplexFileSpecification;
+import org.apache.pdfbox.pdmodel.common.filespecification.PDEmbeddedFile;
+
+import java.io.BufferedInputStream;
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.zip.InflaterInputStream;
+
+/**
+ * All embedded file specifications of a document, collected once from the {@code EmbeddedFiles} name tree
+ * including any {@code Kids}. Streams are only opened when asked for, and the caller is expected to close them.
+ */
+class EmbeddedFileIndex {
+    private static final int BUFFER_SIZE = 64 * 1024;
+
+    private final Map<String, PDComplexFileSpecification> files;
+    private final Object lock;
+
+    private EmbeddedFileIndex(Map<String, PDComplexFileSpecification> files, Object lock) {
+        this.files = files;
+        this.lock = lock;
+    }
+
+    static EmbeddedFileIndex build(PDDocument document) throws IOException {
+        Map<String, PDComplexFileSpecification> files = new LinkedHashMap<>();
+        PDDocumentNameDictionary names = document.getDocumentCatalog().getNames();
+        if (names != null && names.getEmbeddedFiles() != null) {
+            collect(names.getEmbeddedFiles(), files);
+        }
+        return new EmbeddedFileIndex(Collections.unmodifiableMap(files), document);
+    }
+
+    private static void collect(PDNameTreeNode<PDComplexFileSpecification> node, Map<String, PDComplexFileSpecification> files) throws IOException {
+        Map<String, PDComplexFileSpecification> leaves = node.getNames();
+        if (leaves != null) {
+            for (Map.Entry<String, PDComplexFileSpecification> entry : leaves.entrySet()) {
+                files.putIfAbsent(entry.getKey(), entry.getValue());
+            }
+        }
+        List<PDNameTreeNode<PDComplexFileSpecification>> kids = node.getKids();
+        if (kids != null) {
+            for (PDNameTreeNode<PDComplexFileSpecification> kid : kids) {
+                collect(kid, files);
+            }
+        }
+    }
+
+    boolean isEmpty() {
+        return files.isEmpty();
+    }
+
+    boolean contains(String name) {
+        return files.containsKey(name);
+    }
+
+    Set<String> getNames() {
+        return files.keySet();
+    }
+
+    PDComplexFileSpecification get(String name) {
+        return files.get(name);
+    }
+
+    /**
+     * Identifies the contents of an embedded file with {@link PdfRevisions#fingerprint}, or returns {@code null}
+     * if there is no such file or it cannot be identified.
+     */
+    String fingerprint(String name, PdfRevisions revisions) {
+        PDComplexFileSpecification fileSpecification = files.get(name);
+        if (fileSpecification == null) {
+            return null;
+        }
+        synchronized (lock) {
+            // The stream getEmbeddedFile() returns, but as the reference to it
+            COSBase embeddedFiles = fileSpecification.getCOSObject().getDictionaryObject(COSName.EF);
+            if (!(embeddedFiles instanceof COSDictionary)) {
+                return null;
+            }
+            COSBase reference = ((COSDictionary) embeddedFiles).getItem(COSName.F);
+            return reference instanceof COSObject ? revisions.fingerprint((COSObject) reference) : null;
+        }
+    }
+
+    /**
+     * Opens the decoded contents of an embedded file, or returns {@code null} if there is no such file.
+     */
+    InputStream open(String name) throws IOException {
+        return open(name, false);
+    }
+
+    /**
+     * Opens the decoded contents of an embedded file, or returns {@code null} if there is no such file.
+     * <p>
+     * Unfiltered and FlateDecode streams are inflated as they are read, so no more is decoded than the reader
+     * asks for and a limit on the reader stops a Flate bomb early. PDFBox decodes any other filter in full when
+     * the stream is opened; with {@code streamingOnly} such a file is refused instead.
+     * <p>
+     * PDFBox documents are not thread safe, so opening, and reading the encoded bytes, is serialized on the
+     * document. Decoding runs on the reader's thread.
+     */
+    InputStream open(String name, boolean streamingOnly) throws IOException {
+        PDComplexFileSpecification fileSpecification = files.get(name);
+        if (fileSpecification == null) {
+            return null;
+        }
+        synchronized (lock) {
+            PDEmbeddedFile embeddedFile = fileSpecification.getEmbeddedFile();
+            if (embeddedFile == null) {
+                throw new IOException("Den bifogade filen " + name + " saknar innehåll.");
+            }
+            COSStream stream = embeddedFile.getCOSObject();
+            List<COSName> filters = embeddedFile.getFilters();
+            if (filters == null || filters.isEmpty()) {
+                return new LockedInputStream(stream.createRawInputStream(), lock);
+            }
+            if (filters.size() == 1 && COSName.FLATE_DECODE.equals(filters.get(0)) && !hasPredictor(stream)) {
+                return new InflaterInputStream(new BufferedInputStream(new LockedInputStream(stream.createRawInputStream(), lock), BUFFER_SIZE));
+            }
+            if (streamingOnly) {
+                throw new IOException("Den bifogade filen " + name + " är kodad med " + filters + ", som inte kan läsas med en storleksgräns.");
+            }
+            return stream.createInputStream();
+        }
+    }
+
+    private static boolean hasPredictor(COSStream stream) {
+        COSBase parameters = stream.getDictionaryObject(COSName.DECODE_PARMS, COSName.DP);
+        if (parameters instanceof COSArray && ((COSArray) parameters).size() == 1) {
+            parameters = ((COSArray) parameters).getObject(0);
+        }
+        if (parameters == null || parameters instanceof COSNull) {
+            return false;
+        }
+        return !(parameters instanceof COSDictionary) || ((COSDictionary) parameters).getInt(COSName.PREDICTOR, 1) > 1;
+    }
+
+    /**
+     * Reads the encoded bytes of a stream under the document lock: several readers may share the same stream,
+     * and each read seeks its underlying buffer.
+     */
+    private static class LockedInputStream extends FilterInputStream {
+        private final Object lock;
+
+        LockedInputStream(InputStream in, Object lock) {
+            super(in);
+            this.lock = lock;
+        }
+
+        @Override
+        public int read() throws IOException {
+            synchronized (lock) {
+                return super.read();
+            }
+        }
+
+        @Override
+        public int read(byte[] b, int off, int len) throws IOException {
+            synchronized (lock) {
+                return super.read(b, off, len);
+            }
+        }
+
+        @Override
+        public long skip(long n) throws IOException {
+            synchronized (lock) {
+                return super.skip(n);
+            }
+        }
+
+        @Override
+        public int available() throws IOException {
+            synchronized (lock) {
+                return super.available();
+            }
+        }
+
+        @Override
+        public void close() throws IOException {
+            synchronized (lock) {
+                super.close();
+            }
+        }
+    }
+}
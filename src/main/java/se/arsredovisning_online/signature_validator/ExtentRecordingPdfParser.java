@@ -0,0 +1,41 @@
+package se.arsredovisning_online.signature_validator;
+
+import org.apache.pdfbox.cos.COSDictionary;
+import org.apache.pdfbox.cos.COSStream;
+import org.apache.pdfbox.io.RandomAccessRead;
+import org.apache.pdfbox.io.ScratchFile;
+import org.apache.pdfbox.pdfparser.PDFParser;
+
+import java.io.IOException;
+import java.util.Collections;
+import java.util.IdentityHashMap;
+import java.util.Map;
+
+/**
+ * A PDF parser that remembers where in the file it stopped reading each stream, just past {@code endstream}.
+ * <p>
+ * Together with the offset of the object in the cross-reference table, that is the whole byte range a stream
+ * was read from, which {@link PdfRevisions} needs to tell whether the stream lies within an earlier revision.
+ */
+class ExtentRecordingPdfParser extends PDFParser {
+    private final Map<COSStream, Long> streamEnds = Collections.synchronizedMap(new IdentityHashMap<>());
+
+    ExtentRecordingPdfParser(RandomAccessRead source, ScratchFile scratchFile) throws IOException {
+        super(source, "", null, null, scratchFile);
+    }
+
+    @Override
+    protected COSStream parseCOSStream(COSDictionary dictionary) throws IOException {
+        COSStream stream = super.parseCOSStream(dictionary);
+        streamEnds.put(stream, source.getPosition());
+        return stream;
+    }
+
+    /**
+     * Where reading {@code stream} ended, or {@code -1} if it was not parsed by this parser.
+     */
+    long getStreamEnd(COSStream stream) {
+        Long end = streamEnds.get(stream);
+        return end == null ? -1 : end;
+    }
+}
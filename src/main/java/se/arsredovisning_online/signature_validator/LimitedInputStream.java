@@ -0,0 +1,67 @@
+package se.arsredovisning_online.signature_validator;
+
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+
+/**
+ * Stops reading with a {@link ValidationLimits.ExceededException} once more than a given number of bytes has been
+ * read or a deadline has passed, whichever the reader gets to first.
+ */
+class LimitedInputStream extends FilterInputStream {
+    private final long maxBytes;
+    private final long deadlineNanos;
+    private final String tooLargeMessage;
+    private long count;
+
+    /**
+     * @param maxBytes      at most this many bytes, or {@code 0} for no limit
+     * @param deadlineNanos a {@link System#nanoTime()} to stop at, or {@code 0} for no deadline
+     */
+    LimitedInputStream(InputStream in, long maxBytes, long deadlineNanos, String tooLargeMessage) {
+        super(in);
+        this.maxBytes = maxBytes;
+        this.deadlineNanos = deadlineNanos;
+        this.tooLargeMessage = tooLargeMessage;
+    }
+
+    @Override
+    public int read() throws IOException {
+        ValidationLimits.checkDeadline(deadlineNanos);
+        int b = super.read();
+        if (b != -1) {
+            count(1);
+        }
+        return b;
+    }
+
+    @Override
+    public int read(byte[] b, int off, int len) throws IOException {
+        ValidationLimits.checkDeadline(deadlineNanos);
+        int read = super.read(b, off, len);
+        if (read > 0) {
+            count(read);
+        }
+        return read;
+    }
+
+    @Override
+    public long skip(long n) throws IOException {
+        ValidationLimits.checkDeadline(deadlineNanos);
+        long skipped = super.skip(n);
+        count(skipped);
+        return skipped;
+    }
+
+    @Override
+    public boolean markSupported() {
+        return false;
+    }
+
+    private void count(long read) {
+        count += read;
+        if (maxBytes > 0 && count > maxBytes) {
+            throw new ValidationLimits.ExceededException(tooLargeMessage);
+        }
+    }
+}
@@ -1,19 +1,79 @@
 package se.arsredovisning_online.signature_validator;
 
 import com.google.gson.Gson;
+import com.google.gson.JsonParseException;
+import com.google.gson.JsonSyntaxException;
+import com.google.gson.TypeAdapter;
+import com.google.gson.stream.JsonReader;
+import com.google.gson.stream.JsonToken;
 
+import java.io.IOException;
 import java.io.InputStream;
 import java.io.InputStreamReader;
+import java.nio.charset.StandardCharsets;
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
 import java.util.List;
-import java.util.Optional;
+import java.util.Map;
 
+/**
+ * The parsed manifest.json of a document, with its documents indexed by name.
+ */
 public class Manifest {
+    private static final Gson gson = new Gson();
+    private static final TypeAdapter<Document> documentAdapter = gson.getAdapter(Document.class);
+    private static final TypeAdapter<Signature> signatureAdapter = gson.getAdapter(Signature.class);
+
     private final List<Document> documents = new ArrayList<>();
     private final List<Signature> signatures = new ArrayList<>();
+    private final Map<String, Document> documentsByName = new HashMap<>();
 
+    /**
+     * Reads the manifest one document and signature at a time. Throws {@link JsonParseException} if the JSON is
+     * malformed or a signature refers to a document the manifest does not list.
+     */
     public static Manifest createFromStream(InputStream json) {
-        return new Gson().fromJson(new InputStreamReader(json), Manifest.class);
+        return createFromStream(json, 0);
+    }
+
+    /**
+     * Stops with {@link ValidationLimits.ExceededException} as soon as the manifest lists more than
+     * {@code maxSignatures} signatures, before they are all held in memory. 0 means no limit.
+     */
+    static Manifest createFromStream(InputStream json, int maxSignatures) {
+        Manifest manifest = new Manifest();
+        JsonReader reader = new JsonReader(new InputStreamReader(json, StandardCharsets.UTF_8));
+        try {
+            reader.beginObject();
+            while (reader.hasNext()) {
+                String name = reader.nextName();
+                if (name.equals("documents") && reader.peek() == JsonToken.BEGIN_ARRAY) {
+                    reader.beginArray();
+                    while (reader.hasNext()) {
+                        manifest.addDocument(documentAdapter.read(reader));
+                    }
+                    reader.endArray();
+                } else if (name.equals("signatures") && reader.peek() == JsonToken.BEGIN_ARRAY) {
+                    reader.beginArray();
+                    while (reader.hasNext()) {
+                        if (maxSignatures > 0 && manifest.signatures.size() == maxSignatures) {
+                            throw new ValidationLimits.ExceededException("Innehållsförteckningen (manifest.json) listar fler än "
+                                    + maxSignatures + " signaturer.");
+                        }
+                        manifest.addSignature(signatureAdapter.read(reader));
+                    }
+                    reader.endArray();
+                } else {
+                    reader.skipValue();
+                }
+            }
+            reader.endObject();
+        } catch (IOException | IllegalStateException | JsonSyntaxException e) {
+            throw new JsonParseException("Innehållsförteckningen (manifest.json) är inte giltig JSON.", e);
+        }
+        manifest.checkReferences();
+        return manifest;
     }
 
     public List<Document> getDocuments() {
@@ -25,8 +85,34 @@ public class Manifest {
     }
 
     public Document getDocumentByName(String name) {
-        Optional<Document> optionalDocument = documents.stream().filter((document) -> document.name.equals(name)).findFirst();
-        return optionalDocument.orElse(null);
+        return documentsByName.get(name);
+    }
+
+    private void addDocument(Document document) {
+        if (document == null || document.name == null) {
+            throw new JsonParseException("Innehållsförteckningen (manifest.json) innehåller ett dokument utan namn.");
+        }
+        documents.add(document);
+        // Like a scan from the start, the first document of a name wins
+        documentsByName.putIfAbsent(document.name, document);
+    }
+
+    private void addSignature(Signature signature) {
+        if (signature == null || signature.signature_file == null) {
+            throw new JsonParseException("Innehållsförteckningen (manifest.json) innehåller en signatur utan signaturfil.");
+        }
+        signatures.add(signature);
+    }
+
+    private void checkReferences() {
+        for (Signature signature : signatures) {
+            for (String filename : Arrays.asList(signature.visible_data, signature.non_visible_data)) {
+                if (filename == null || !documentsByName.containsKey(filename)) {
+                    throw new JsonParseException("Innehållsförteckningen (manifest.json) saknar dokumentet " + filename
+                            + " som " + signature.signature_file + " hänvisar till.");
+                }
+            }
+        }
     }
 
     public static class Document {
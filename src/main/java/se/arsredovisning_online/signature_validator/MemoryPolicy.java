@@ -0,0 +1,130 @@
+package se.arsredovisning_online.signature_validator;
+
+import org.apache.pdfbox.io.MemoryUsageSetting;
+
+import java.io.File;
+import java.util.Locale;
+
+/**
+ * How much heap a PDF may use while it is being loaded, and where the rest goes.
+ * <p>
+ * With {@link #mixed(long)} each document keeps at most the given number of bytes on the heap and spills the
+ * rest to temporary files, so a fixed heap can serve a predictable number of concurrent documents.
+ */
+public final class MemoryPolicy {
+    private static final long UNRESTRICTED = -1;
+
+    private final Mode mode;
+    private final long maxMainMemoryBytes;
+    private final File tempDirectory;
+
+    private enum Mode {
+        MAIN_MEMORY_ONLY, MIXED, TEMP_FILE_ONLY
+    }
+
+    private MemoryPolicy(Mode mode, long maxMainMemoryBytes, File tempDirectory) {
+        this.mode = mode;
+        this.maxMainMemoryBytes = maxMainMemoryBytes;
+        this.tempDirectory = tempDirectory;
+    }
+
+    /**
+     * Everything on the heap, which is how PDFBox loads documents by default.
+     */
+    public static MemoryPolicy mainMemoryOnly() {
+        return new MemoryPolicy(Mode.MAIN_MEMORY_ONLY, UNRESTRICTED, null);
+    }
+
+    /**
+     * Everything on the heap, but loading fails once a document needs more than {@code maxBytes}.
+     */
+    public static MemoryPolicy mainMemoryOnly(long maxBytes) {
+        return new MemoryPolicy(Mode.MAIN_MEMORY_ONLY, maxBytes, null);
+    }
+
+    public static MemoryPolicy mixed(long maxMainMemoryBytes) {
+        return new MemoryPolicy(Mode.MIXED, maxMainMemoryBytes, null);
+    }
+
+    public static MemoryPolicy tempFileOnly() {
+        return new MemoryPolicy(Mode.TEMP_FILE_ONLY, 0, null);
+    }
+
+    public MemoryPolicy withTempDirectory(File tempDirectory) {
+        return new MemoryPolicy(mode, maxMainMemoryBytes, tempDirectory);
+    }
+
+    /**
+     * Parses {@code memory}, {@code memory:<size>}, {@code mixed:<size>} or {@code tempfile}, where sizes may
+     * have a k, m or g suffix.
+     */
+    public static MemoryPolicy parse(String policy) {
+        String[] parts = policy.trim().toLowerCase(Locale.ROOT).split(":", 2);
+        switch (parts[0]) {
+            case "memory":
+                return parts.length == 1 ? mainMemoryOnly() : mainMemoryOnly(parseSize(parts[1]));
+            case "mixed":
+                if (parts.length == 1) {
+                    throw new IllegalArgumentException("Ange hur mycket minne varje dokument får använda, t.ex. mixed:64m.");
+                }
+                return mixed(parseSize(parts[1]));
+            case "tempfile":
+                return tempFileOnly();
+            default:
+                throw new IllegalArgumentException("Okänd minnespolicy: " + policy);
+        }
+    }
+
+    static long parseSize(String size) {
+        if (size.isEmpty()) {
+            throw new IllegalArgumentException("Ange en storlek, t.ex. 64m.");
+        }
+        long multiplier = 1;
+        String digits = size;
+        switch (size.charAt(size.length() - 1)) {
+            case 'k':
+                multiplier = 1024;
+                break;
+            case 'm':
+                multiplier = 1024 * 1024;
+                break;
+            case 'g':
+                multiplier = 1024 * 1024 * 1024;
+                break;
+            default:
+                break;
+        }
+        if (multiplier > 1) {
+            digits = size.substring(0, size.length() - 1);
+        }
+        try {
+            return Math.multiplyExact(Long.parseLong(digits), multiplier);
+        } catch (ArithmeticException e) {
+            throw new IllegalArgumentException("Storleken är för stor: " + size, e);
+        }
+    }
+
+    /**
+     * Creates a new setting for every document; PDFBox keeps per-document state in the scratch file it sets up.
+     */
+    MemoryUsageSetting toMemoryUsageSetting() {
+        MemoryUsageSetting setting;
+        switch (mode) {
+            case MIXED:
+                setting = MemoryUsageSetting.setupMixed(maxMainMemoryBytes);
+                break;
+            case TEMP_FILE_ONLY:
+                setting = MemoryUsageSetting.setupTempFileOnly();
+                break;
+            default:
+                setting = MemoryUsageSetting.setupMainMemoryOnly(maxMainMemoryBytes);
+                break;
+        }
+        return tempDirectory != null ? setting.setTempDir(tempDirectory) : setting;
+    }
+
+    @Override
+    public String toString() {
+        return toMemoryUsageSetting().toString();
+    }
+}
@@ -0,0 +1,253 @@
+package se.arsredovisning_online.signature_validator;
+
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+import org.bouncycastle.asn1.x509.KeyPurposeId;
+import org.bouncycastle.cert.X509CertificateHolder;
+import org.bouncycastle.cert.jcajce.JcaX509CertificateConverter;
+import org.bouncycastle.cert.jcajce.JcaX509CertificateHolder;
+import org.bouncycastle.cert.ocsp.BasicOCSPResp;
+import org.bouncycastle.cert.ocsp.CertificateStatus;
+import org.bouncycastle.cert.ocsp.OCSPException;
+import org.bouncycastle.cert.ocsp.OCSPResp;
+import org.bouncycastle.cert.ocsp.RevokedStatus;
+import org.bouncycastle.cert.ocsp.SingleResp;
+import org.bouncycastle.operator.DigestCalculatorProvider;
+import org.bouncycastle.operator.OperatorCreationException;
+import org.bouncycastle.operator.jcajce.JcaContentVerifierProviderBuilder;
+import org.bouncycastle.operator.jcajce.JcaDigestCalculatorProviderBuilder;
+
+import java.io.IOException;
+import java.security.GeneralSecurityException;
+import java.security.cert.CertificateException;
+import java.security.cert.CertificateParsingException;
+import java.security.cert.X509Certificate;
+import java.time.Clock;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Checks the revocation status of signer certificates against stored OCSP responses.
+ * <p>
+ * A response is accepted if it is signed by the issuer itself or by a delegated responder certificate that the
+ * issuer has issued for OCSP signing. Accepted responder certificates and the resulting status of each
+ * certificate serial are remembered for {@code ttl} (or until the response's nextUpdate, if sooner), so repeated
+ * validations of the same signer neither read nor verify the response again.
+ * <p>
+ * A response must have been produced before now and, unless an explicit validation time has been set with
+ * {@link #withValidationTime(Instant)}, its nextUpdate must not have passed.
+ */
+public class OcspChecker {
+    static final int MAX_CACHED_ENTRIES = 4096;
+
+    private static final String OCSP_SIGNING = KeyPurposeId.id_kp_OCSPSigning.getId();
+
+    private final OcspResponseSource source;
+    private final long ttlMillis;
+    private final Clock clock;
+    private final Instant validationTime;
+    private final Map<String, CachedStatus> statuses = lruMap();
+    private final Map<String, Long> verifiedResponders = lruMap();
+    private final DigestCalculatorProvider digestCalculatorProvider;
+    private Logger logger = LogManager.getLogger(OcspChecker.class);
+
+    public OcspChecker(OcspResponseSource source) {
+        this(source, Duration.ofHours(1));
+    }
+
+    public OcspChecker(OcspResponseSource source, Duration ttl) {
+        this(source, ttl, Clock.systemUTC());
+    }
+
+    OcspChecker(OcspResponseSource source, Duration ttl, Clock clock) {
+        this(source, ttl.toMillis(), clock, null);
+    }
+
+    private OcspChecker(OcspResponseSource source, long ttlMillis, Clock clock, Instant validationTime) {
+        this.source = source;
+        this.ttlMillis = ttlMillis;
+        this.clock = clock;
+        this.validationTime = validationTime;
+        try {
+            this.digestCalculatorProvider = new JcaDigestCalculatorProviderBuilder().build();
+        } catch (OperatorCreationException e) {
+            throw new RuntimeException(e);
+        }
+    }
+
+    /**
+     * A checker that accepts responses whose nextUpdate is at or after {@code validationTime} rather than now,
+     * for validating a document as of when it was signed. The new checker has caches of its own.
+     */
+    public OcspChecker withValidationTime(Instant validationTime) {
+        return new OcspChecker(source, ttlMillis, clock, validationTime);
+    }
+
+    /**
+     * Throws if {@code certificate} is revoked, its status is unknown, or there is no valid response for it.
+     */
+    public void check(X509Certificate certificate, X509Certificate issuer) throws GeneralSecurityException {
+        String key = TrustAnchors.fingerprint(issuer) + "/" + certificate.getSerialNumber().toString(16);
+        long now = clock.millis();
+        synchronized (statuses) {
+            CachedStatus cached = statuses.get(key);
+            if (cached != null && cached.expiresAt > now) {
+                cached.throwIfNotGood();
+                return;
+            }
+        }
+
+        CachedStatus status = verifyResponse(certificate, issuer, now);
+        synchronized (statuses) {
+            statuses.put(key, status);
+        }
+        status.throwIfNotGood();
+    }
+
+    int cachedStatusCount() {
+        synchronized (statuses) {
+            return statuses.size();
+        }
+    }
+
+    private CachedStatus verifyResponse(X509Certificate certificate, X509Certificate issuer, long now) throws GeneralSecurityException {
+        byte[] encoded;
+        try {
+            encoded = source.getResponse(certificate, issuer);
+        } catch (IOException e) {
+            logger.debug("Kunde inte läsa OCSP-svar.", e);
+            throw new CertificateException("Kunde inte läsa OCSP-svaret för certifikatet.", e);
+        }
+        if (encoded == null) {
+            throw new CertificateException("OCSP-svar saknas för certifikatet.");
+        }
+
+        try {
+            OCSPResp response = new OCSPResp(encoded);
+            if (response.getStatus() != OCSPResp.SUCCESSFUL) {
+                throw new CertificateException("OCSP-svaret är inte giltigt.");
+            }
+            BasicOCSPResp basicResponse = (BasicOCSPResp) response.getResponseObject();
+            verifyResponder(basicResponse, issuer, now);
+
+            JcaX509CertificateHolder issuerHolder = new JcaX509CertificateHolder(issuer);
+            for (SingleResp singleResponse : basicResponse.getResponses()) {
+                if (singleResponse.getCertID().getSerialNumber().equals(certificate.getSerialNumber())
+                        && singleResponse.getCertID().matchesIssuer(issuerHolder, digestCalculatorProvider)) {
+                    checkValidityPeriod(singleResponse, now);
+                    long expiresAt = now + ttlMillis;
+                    if (singleResponse.getNextUpdate() != null && validationTime == null) {
+                        expiresAt = Math.min(expiresAt, singleResponse.getNextUpdate().getTime());
+                    }
+                    return new CachedStatus(singleResponse.getCertStatus(), expiresAt);
+                }
+            }
+            throw new CertificateException("OCSP-svaret gäller inte certifikatet.");
+        } catch (IOException | OCSPException | ClassCastException e) {
+            logger.debug("Ogiltigt OCSP-svar.", e);
+            throw new CertificateException("OCSP-svaret är inte giltigt.", e);
+        }
+    }
+
+    private void checkValidityPeriod(SingleResp response, long now) throws CertificateException {
+        if (response.getThisUpdate().getTime() > now) {
+            throw new CertificateException("OCSP-svaret är utfärdat i framtiden.");
+        }
+        long validAt = validationTime != null ? validationTime.toEpochMilli() : now;
+        if (response.getNextUpdate() != null && response.getNextUpdate().getTime() < validAt) {
+            throw new CertificateException("OCSP-svaret har gått ut.");
+        }
+    }
+
+    /**
+     * Finds the certificate that signed the response among the issuer and the certificates in the response.
+     */
+    private void verifyResponder(BasicOCSPResp response, X509Certificate issuer, long now) throws GeneralSecurityException {
+        List<X509Certificate> candidates = new ArrayList<>();
+        candidates.add(issuer);
+        JcaX509CertificateConverter converter = new JcaX509CertificateConverter();
+        for (X509CertificateHolder holder : response.getCerts()) {
+            candidates.add(converter.getCertificate(holder));
+        }
+
+        for (X509Certificate candidate : candidates) {
+            if (isSignedBy(response, candidate)) {
+                verifyResponderCertificate(candidate, issuer, now);
+                return;
+            }
+        }
+        throw new CertificateException("OCSP-svaret är inte signerat av certifikatets utfärdare.");
+    }
+
+    private void verifyResponderCertificate(X509Certificate responder, X509Certificate issuer, long now) throws GeneralSecurityException {
+        if (responder.equals(issuer)) {
+            return;
+        }
+        String key = TrustAnchors.fingerprint(responder) + "/" + TrustAnchors.fingerprint(issuer);
+        synchronized (verifiedResponders) {
+            Long expiresAt = verifiedResponders.get(key);
+            if (expiresAt != null && expiresAt > now) {
+                return;
+            }
+        }
+
+        try {
+            TrustAnchors.verifyIssuedBy(responder, issuer);
+        } catch (GeneralSecurityException e) {
+            throw new CertificateException("OCSP-svaret är inte signerat av certifikatets utfärdare.", e);
+        }
+        List<String> extendedKeyUsage;
+        try {
+            extendedKeyUsage = responder.getExtendedKeyUsage();
+        } catch (CertificateParsingException e) {
+            extendedKeyUsage = null;
+        }
+        if (extendedKeyUsage == null || !extendedKeyUsage.contains(OCSP_SIGNING)) {
+            throw new CertificateException("OCSP-svaret är inte signerat av certifikatets utfärdare.");
+        }
+
+        synchronized (verifiedResponders) {
+            verifiedResponders.put(key, Math.min(now + ttlMillis, responder.getNotAfter().getTime()));
+        }
+    }
+
+    private static boolean isSignedBy(BasicOCSPResp response, X509Certificate candidate) {
+        try {
+            return response.isSignatureValid(new JcaContentVerifierProviderBuilder().build(candidate.getPublicKey()));
+        } catch (OperatorCreationException | OCSPException e) {
+            return false;
+        }
+    }
+
+    private static <V> Map<String, V> lruMap() {
+        return new LinkedHashMap<String, V>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<String, V> eldest) {
+                return size() > MAX_CACHED_ENTRIES;
+            }
+        };
+    }
+
+    private static class CachedStatus {
+        private final CertificateStatus status;
+        private final long expiresAt;
+
+        CachedStatus(CertificateStatus status, long expiresAt) {
+            this.status = status;
+            this.expiresAt = expiresAt;
+        }
+
+        void throwIfNotGood() throws CertificateException {
+            if (status instanceof RevokedStatus) {
+                throw new CertificateException("Certifikatet är spärrat.");
+            }
+            if (status != CertificateStatus.GOOD) {
+                throw new CertificateException("Certifikatets spärrstatus är okänd.");
+            }
+        }
+    }
+}
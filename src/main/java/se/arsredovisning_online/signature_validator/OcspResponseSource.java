@@ -0,0 +1,42 @@
+package se.arsredovisning_online.signature_validator;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.security.cert.X509Certificate;
+import java.util.Base64;
+
+/**
+ * Supplies stored OCSP responses, e.g. the one returned with a BankID collect response, so that revocation can be
+ * checked without contacting the responder.
+ */
+public interface OcspResponseSource {
+    /**
+     * Returns the DER encoded OCSP response for {@code certificate}, or {@code null} if there is none.
+     */
+    byte[] getResponse(X509Certificate certificate, X509Certificate issuer) throws IOException;
+
+    /**
+     * Reads responses from files named after the certificate serial number in lower case hex, e.g.
+     * {@code 1a2b3c.ocsp}. The files may hold the response in DER or Base64, as BankID delivers it.
+     */
+    static OcspResponseSource fromDirectory(Path directory) {
+        return (certificate, issuer) -> {
+            Path file = directory.resolve(certificate.getSerialNumber().toString(16) + ".ocsp");
+            if (!Files.isRegularFile(file)) {
+                return null;
+            }
+            byte[] response = Files.readAllBytes(file);
+            // A DER response is a SEQUENCE, tag 0x30, which is also the character '0'. Base64 of such a response
+            // starts with 'M' instead, since 0x30 encodes to 'M', so a leading 0x30 means DER.
+            if (response.length > 0 && response[0] == 0x30) {
+                return response;
+            }
+            try {
+                return Base64.getMimeDecoder().decode(response);
+            } catch (IllegalArgumentException e) {
+                throw new IOException("OCSP-svaret i " + file + " är varken DER eller Base64.", e);
+            }
+        };
+    }
+}
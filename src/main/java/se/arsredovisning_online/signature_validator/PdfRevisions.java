@@ -0,0 +1,182 @@
+package se.arsredovisning_online.signature_validator;
+
+import org.apache.pdfbox.cos.COSArray;
+import org.apache.pdfbox.cos.COSBase;
+import org.apache.pdfbox.cos.COSDictionary;
+import org.apache.pdfbox.cos.COSName;
+import org.apache.pdfbox.cos.COSObject;
+import org.apache.pdfbox.cos.COSObjectKey;
+import org.apache.pdfbox.cos.COSStream;
+import org.apache.pdfbox.io.RandomAccessRead;
+import org.apache.pdfbox.pdmodel.PDDocument;
+
+import java.io.IOException;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * The revisions of a PDF, i.e. the original and every incremental update appended to it, each ending with
+ * {@code %%EOF}. Each revision is fingerprinted with the SHA-256 of the file from its first byte up to the end of
+ * that revision, all in one pass over the file.
+ * <p>
+ * Two documents with the same fingerprint for a revision have the same bytes up to there, so anything that was
+ * read entirely from those bytes, such as an embedded file written before the last update or a seal over an
+ * earlier revision, is the same in both. The fingerprints do not depend on the {@code %%EOF} markers being
+ * genuine: a marker inside a stream only adds a revision that nothing can be attributed to by mistake.
+ */
+final class PdfRevisions {
+    private static final byte[] EOF_MARKER = {'%', '%', 'E', 'O', 'F'};
+    private static final int BUFFER_SIZE = 64 * 1024;
+    /**
+     * Line endings after {@code %%EOF} that a seal may cover without starting a new revision.
+     */
+    private static final int MAX_TRAILING_BYTES = 2;
+
+    private final RandomAccessRead pdf;
+    private final PdfSource source;
+    private final Map<COSObjectKey, Long> xrefTable;
+    private final List<Long> ends;
+    private final List<String> fingerprints;
+
+    private PdfRevisions(RandomAccessRead pdf, PdfSource source, Map<COSObjectKey, Long> xrefTable, List<Long> ends, List<String> fingerprints) {
+        this.pdf = pdf;
+        this.source = source;
+        this.xrefTable = xrefTable;
+        this.ends = ends;
+        this.fingerprints = fingerprints;
+    }
+
+    /**
+     * Finds and fingerprints the revisions of {@code document}, which must have been loaded from {@code source}
+     * and be open.
+     */
+    static PdfRevisions scan(PDDocument document, PdfSource source) throws IOException {
+        RandomAccessRead pdf = source.getLoadedBytes();
+        MessageDigest digest = createDigest();
+        List<Long> ends = new ArrayList<>();
+        List<String> fingerprints = new ArrayList<>();
+        byte[] buffer = new byte[BUFFER_SIZE];
+        long position = 0;
+        int matched = 0;
+        int read;
+        pdf.seek(0);
+        while ((read = pdf.read(buffer, 0, buffer.length)) > 0) {
+            int digested = 0;
+            for (int i = 0; i < read; i++) {
+                matched = nextMatch(matched, buffer[i]);
+                if (matched == EOF_MARKER.length) {
+                    matched = 0;
+                    digest.update(buffer, digested, i + 1 - digested);
+                    digested = i + 1;
+                    ends.add(position + i + 1);
+                    fingerprints.add(TrustAnchors.toHex(clone(digest).digest()));
+                }
+            }
+            digest.update(buffer, digested, read - digested);
+            position += read;
+        }
+        return new PdfRevisions(pdf, source, document.getDocument().getXrefTable(), ends, fingerprints);
+    }
+
+    int size() {
+        return ends.size();
+    }
+
+    /**
+     * Identifies the bytes from the start of the file to {@code end}, as the fingerprint of a revision ending
+     * there or a few line-ending bytes before. Returns {@code null} if {@code end} is not the end of a revision.
+     */
+    String fingerprintOf(long end) throws IOException {
+        for (int i = ends.size() - 1; i >= 0; i--) {
+            long revisionEnd = ends.get(i);
+            if (revisionEnd <= end && end - revisionEnd <= MAX_TRAILING_BYTES) {
+                byte[] trailing = new byte[(int) (end - revisionEnd)];
+                pdf.seek(revisionEnd);
+                if (trailing.length > 0 && pdf.read(trailing, 0, trailing.length) != trailing.length) {
+                    return null;
+                }
+                return fingerprints.get(i) + (trailing.length == 0 ? "" : "+" + TrustAnchors.toHex(trailing));
+            }
+            if (revisionEnd < end) {
+                return null;
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Identifies the contents of a stream by where it was read from and the first revision that holds all of it,
+     * or returns {@code null} if it cannot be told apart from other streams that way. Streams whose decoding
+     * depends on other objects, through an indirect filter or decode parameters, are never identified, as those
+     * objects may have been replaced by a later update.
+     */
+    String fingerprint(COSObject reference) {
+        if (!(reference.getObject() instanceof COSStream)) {
+            return null;
+        }
+        COSStream stream = (COSStream) reference.getObject();
+        Long offset = xrefTable.get(new COSObjectKey(reference.getObjectNumber(), reference.getGenerationNumber()));
+        long end = source.getStreamEnd(stream);
+        if (offset == null || offset <= 0 || end <= offset
+                || !isDirect(stream.getItem(COSName.FILTER)) || !isDirect(stream.getItem(COSName.DECODE_PARMS))) {
+            return null;
+        }
+        for (int i = 0; i < ends.size(); i++) {
+            if (ends.get(i) >= end) {
+                return offset + "-" + end + "@" + fingerprints.get(i);
+            }
+        }
+        return null;
+    }
+
+    private static boolean isDirect(COSBase value) {
+        if (value instanceof COSObject) {
+            return false;
+        }
+        if (value instanceof COSArray) {
+            for (COSBase item : (COSArray) value) {
+                if (!isDirect(item)) {
+                    return false;
+                }
+            }
+        }
+        if (value instanceof COSDictionary) {
+            for (COSBase item : ((COSDictionary) value).getValues()) {
+                if (!isDirect(item)) {
+                    return false;
+                }
+            }
+        }
+        return true;
+    }
+
+    private static int nextMatch(int matched, byte b) {
+        if (b == EOF_MARKER[matched]) {
+            return matched + 1;
+        }
+        // "%%%EOF" still ends with a marker
+        if (b == '%') {
+            return matched == 2 ? 2 : 1;
+        }
+        return 0;
+    }
+
+    private static MessageDigest createDigest() {
+        try {
+            return MessageDigest.getInstance("SHA-256");
+        } catch (NoSuchAlgorithmException e) {
+            throw new RuntimeException(e);
+        }
+    }
+
+    private static MessageDigest clone(MessageDigest digest) {
+        try {
+            return (MessageDigest) digest.clone();
+        } catch (CloneNotSupportedException e) {
+            throw new RuntimeException(e);
+        }
+    }
+}
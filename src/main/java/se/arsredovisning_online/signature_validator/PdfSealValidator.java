@@ -0,0 +1,377 @@
+package se.arsredovisning_online.signature_validator;
+
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+import org.apache.pdfbox.cos.COSBase;
+import org.apache.pdfbox.cos.COSName;
+import org.apache.pdfbox.cos.COSString;
+import org.apache.pdfbox.io.RandomAccessRead;
+import org.apache.pdfbox.pdmodel.PDDocument;
+import org.apache.pdfbox.pdmodel.interactive.digitalsignature.PDSignature;
+import org.bouncycastle.asn1.ASN1ObjectIdentifier;
+import org.bouncycastle.asn1.cms.CMSObjectIdentifiers;
+import org.bouncycastle.cert.X509CertificateHolder;
+import org.bouncycastle.cert.jcajce.JcaX509CertificateConverter;
+import org.bouncycastle.cms.CMSException;
+import org.bouncycastle.cms.CMSSignedData;
+import org.bouncycastle.cms.CMSTypedData;
+import org.bouncycastle.cms.SignerInformation;
+import org.bouncycastle.cms.jcajce.JcaSimpleSignerInfoVerifierBuilder;
+import org.bouncycastle.operator.OperatorCreationException;
+import org.bouncycastle.util.Selector;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.security.GeneralSecurityException;
+import java.security.Provider;
+import java.security.cert.X509Certificate;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Validates the PDF signatures (the seal) of a document: that the {@code /ByteRange} of every signature
+ * dictionary covers everything from the start of the file except its own signature value, that the CMS
+ * SignedData matches those bytes, and that the last one covers the whole file.
+ * <p>
+ * An incremental update after the last seal, like an attachment or a registration stamp added later, is allowed
+ * as long as it only adds files: see {@link UnsealedUpdate}. The names of those files are kept, since the seal
+ * does not vouch for them.
+ * <p>
+ * The signed bytes are streamed straight from the source the document was parsed from, a few kilobytes at a
+ * time, so the seal check never holds a second copy of the PDF. With trust anchors the signer certificate must
+ * also chain up to one of them through the certificates in the signature. Without them integrity is still
+ * checked, but the document is not valid, since anyone can seal a PDF with a key of their own.
+ */
+class PdfSealValidator {
+    static final int MAX_CHAIN_LENGTH = 10;
+
+    // TEST of EE Certification Centre Root CA, which issues the test seals of the document service
+    static final String SEAL_ROOT_CERT_TEST = "MIIEEzCCAvugAwIBAgIQc/jtqiMEFERMtVvsSsH7sjANBgkqhkiG9w0BAQUFADB9\nMQswCQYDVQQGEwJFRTEiMCAGA1UECgwZQVMgU2VydGlmaXRzZWVyaW1pc2tlc2t1\nczEwMC4GA1UEAwwnVEVTVCBvZiBFRSBDZXJ0aWZpY2F0aW9uIENlbnRyZSBSb290\nIENBMRgwFgYJKoZIhvcNAQkBFglwa2lAc2suZWUwIhgPMjAxMDEwMDcxMjM0NTZa\nGA8yMDMwMTIxNzIzNTk1OVowfTELMAkGA1UEBhMCRUUxIjAgBgNVBAoMGUFTIFNl\ncnRpZml0c2VlcmltaXNrZXNrdXMxMDAuBgNVBAMMJ1RFU1Qgb2YgRUUgQ2VydGlm\naWNhdGlvbiBDZW50cmUgUm9vdCBDQTEYMBYGCSqGSIb3DQEJARYJcGtpQHNrLmVl\nMIIBIjANBgkqhkiG9w0BAQEFAAOCAQ8AMIIBCgKCAQEA1gGpqCtDmNNEHUjC8LXq\nxRdC1kpjDgkzOTxQynzDxw/xCjy5hhyG3xX4RPrW9Z6k5ZNTNS+xzrZgQ9m5U6uM\nywYpx3F3DVgbdQLd8DsLmuVOz02k/TwoRt1uP6xtV9qG0HsGvN81q3HvPR/zKtA7\nMmNZuwuDFQwsguKgDR2Jfk44eKmLfyzvh+Xe6Cr5+zRnsVYwMA9bgBaOZMv1TwTT\nVNi9H1ltK32Z+IhUX8W5f2qVP33R1wWCKapK1qTX/baXFsBJj++F8I8R6+gSyC3D\nkV5N/pOlWPzZYx+kHRkRe/oddURA9InJwojbnsH+zJOa2VrNKakNv2HnuYCIonzu\npwIDAQABo4GKMIGHMA8GA1UdEwEB/wQFMAMBAf8wDgYDVR0PAQH/BAQDAgEGMB0G\nA1UdDgQWBBS1NAqdpS8QxechDr7EsWVHGwN2/jBFBgNVHSUEPjA8BggrBgEFBQcD\nAgYIKwYBBQUHAwEGCCsGAQUFBwMDBggrBgEFBQcDBAYIKwYBBQUHAwgGCCsGAQUF\nBwMJMA0GCSqGSIb3DQEBBQUAA4IBAQAj72VtxIw6p5lqeNmWoQ48j8HnUBM+6mI0\nI+VkQr0EfQhfmQ5KFaZwnIqxWrEPaxRjYwV0xKa1AixVpFOb1j+XuVmgf7khxXTy\nBmd8JRLwl7teCkD1SDnU/yHmwY7MV9FbFBd+5XK4teHVvEVRsJ1oFwgcxVhyoviR\nSnbIPaOvk+0nxKClrlS6NW5TWZ+yG55z8OCESHaL6JcimkLFjRjSsQDWIEtDvP4S\ntH3vIMUPPiKdiNkGjVLSdChwkW3z+m0EvAjyD9rnGCmjeEm5diLFu7VMNVqupsbZ\nSfDzzBLc5+6TqgQTOG7GaZk2diMkn03iLdHGFrh8ML+mXG9SjEPI\n";
+
+    private static final int BUFFER_SIZE = 64 * 1024;
+
+    private final TrustAnchors trustAnchors;
+    private final PdfRevisions revisions;
+    private final RevisionCache revisionCache;
+    private List<String> unsealedFiles = Collections.emptyList();
+    private Logger logger = LogManager.getLogger(PdfSealValidator.class);
+
+    PdfSealValidator(TrustAnchors trustAnchors) {
+        this(trustAnchors, null, null);
+    }
+
+    /**
+     * Reuses the outcome of signatures over revisions that have been verified before, in {@code revisionCache}.
+     */
+    PdfSealValidator(TrustAnchors trustAnchors, PdfRevisions revisions, RevisionCache revisionCache) {
+        this.trustAnchors = trustAnchors;
+        this.revisions = revisions;
+        this.revisionCache = revisionCache;
+    }
+
+    /**
+     * Returns the reasons the seal is not valid, or an empty list if it is.
+     *
+     * @param pdf the bytes {@code document} was parsed from
+     */
+    List<String> validate(PDDocument document, RandomAccessRead pdf) throws IOException {
+        List<String> errors = new ArrayList<>();
+        List<PDSignature> signatures = document.getSignatureDictionaries();
+        if (signatures.isEmpty()) {
+            errors.add("PDF:en saknar signatur.");
+            return errors;
+        }
+        if (trustAnchors == null) {
+            errors.add("Det går inte att kontrollera vem som har signerat PDF:en, eftersom inga betrodda rotcertifikat för PDF-signaturen har angetts.");
+        }
+
+        long length = pdf.length();
+        boolean coversWholeFile = false;
+        long sealedEnd = 0;
+        for (PDSignature signature : signatures) {
+            long[] byteRange = getByteRange(signature, pdf, length);
+            if (byteRange == null) {
+                errors.add("PDF-signaturens ByteRange är ogiltig.");
+                continue;
+            }
+            long end = byteRange[byteRange.length - 2] + byteRange[byteRange.length - 1];
+            if (end == length) {
+                coversWholeFile = true;
+            }
+            sealedEnd = Math.max(sealedEnd, end);
+            String error = verify(signature, pdf, byteRange);
+            if (error != null) {
+                errors.add(error);
+            }
+        }
+        if (!coversWholeFile && !isAddedAfterSeal(document, pdf, sealedEnd, errors)) {
+            errors.add("PDF:en har ändrats efter att den signerades.");
+        }
+        return errors;
+    }
+
+    /**
+     * The embedded files that were added after the last seal, and so are not covered by it.
+     */
+    List<String> getUnsealedFiles() {
+        return unsealedFiles;
+    }
+
+    /**
+     * Whether everything after the valid seals ending at {@code sealedEnd} is updates that only add files.
+     */
+    private boolean isAddedAfterSeal(PDDocument document, RandomAccessRead pdf, long sealedEnd, List<String> errors) throws IOException {
+        if (sealedEnd == 0 || !errors.isEmpty() || document.isEncrypted()) {
+            return false;
+        }
+        UnsealedUpdate update = UnsealedUpdate.read(pdf, sealedEnd);
+        if (update == null) {
+            return false;
+        }
+        unsealedFiles = update.getAddedFiles();
+        logger.info("Bifogade filer som har lagts till efter att PDF:en signerades: " + unsealedFiles);
+        return true;
+    }
+
+    /**
+     * The byte range as offset and length pairs, or {@code null} unless it is {@code [0 a b c]} with the file up
+     * to {@code b + c}, and the gap from {@code a} to {@code b} is exactly the hex string of {@code /Contents}.
+     * Anything else would leave bytes outside the signature that could be changed without breaking it.
+     */
+    private static long[] getByteRange(PDSignature signature, RandomAccessRead pdf, long length) throws IOException {
+        int[] byteRange = signature.getByteRange();
+        if (byteRange.length != 4 || byteRange[0] != 0) {
+            return null;
+        }
+        long gapStart = byteRange[1];
+        long gapEnd = byteRange[2];
+        long tailLength = byteRange[3];
+        if (gapStart < 0 || gapEnd <= gapStart || tailLength < 0 || gapEnd + tailLength > length) {
+            return null;
+        }
+        COSBase contents = signature.getCOSObject().getDictionaryObject(COSName.CONTENTS);
+        if (!(contents instanceof COSString) || !isSignatureValue(pdf, gapStart, gapEnd, ((COSString) contents).getBytes())) {
+            return null;
+        }
+        return new long[]{0, gapStart, gapEnd, tailLength};
+    }
+
+    /**
+     * Whether the bytes from {@code start} to {@code end} are {@code value} written as a hex string.
+     */
+    private static boolean isSignatureValue(RandomAccessRead pdf, long start, long end, byte[] value) throws IOException {
+        if (end - start != 2L * value.length + 2) {
+            return false;
+        }
+        byte[] gap = new byte[(int) (end - start)];
+        pdf.seek(start);
+        int position = 0;
+        while (position < gap.length) {
+            int read = pdf.read(gap, position, gap.length - position);
+            if (read < 0) {
+                return false;
+            }
+            position += read;
+        }
+        if (gap[0] != '<' || gap[gap.length - 1] != '>') {
+            return false;
+        }
+        for (int i = 0; i < value.length; i++) {
+            int high = Character.digit(gap[1 + 2 * i], 16);
+            int low = Character.digit(gap[2 + 2 * i], 16);
+            if (high < 0 || low < 0 || (byte) (high << 4 | low) != value[i]) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private String verify(PDSignature signature, RandomAccessRead pdf, long[] byteRange) throws IOException {
+        String key = getRevisionKey(signature, byteRange);
+        if (key != null) {
+            List<String> cached = revisionCache.get(key);
+            if (cached != null) {
+                logger.debug("PDF-signaturen har verifierats tidigare, använder sparat resultat.");
+                return cached.isEmpty() ? null : cached.get(0);
+            }
+        }
+        String error = verify(signature, new ByteRangeContent(pdf, byteRange));
+        if (key != null) {
+            revisionCache.put(key, error == null ? Collections.emptyList() : Collections.singletonList(error));
+        }
+        return error;
+    }
+
+    /**
+     * What the outcome of a signature depends on: the revision it signs, the gap in it and the signature value,
+     * which may have been replaced by a later update. {@code null} if the signed bytes do not end a revision.
+     */
+    private String getRevisionKey(PDSignature signature, long[] byteRange) throws IOException {
+        if (revisions == null || revisionCache == null) {
+            return null;
+        }
+        COSBase contents = signature.getCOSObject().getDictionaryObject(COSName.CONTENTS);
+        if (!(contents instanceof COSString)) {
+            return null;
+        }
+        String revision = revisions.fingerprintOf(byteRange[byteRange.length - 2] + byteRange[byteRange.length - 1]);
+        if (revision == null) {
+            return null;
+        }
+        byte[] value = DigestMaker.getDigest(new ByteArrayInputStream(((COSString) contents).getBytes()), "sha256");
+        return "seal/" + revision + "/" + Arrays.toString(byteRange) + "/" + TrustAnchors.toHex(value)
+                + "/" + (trustAnchors == null ? "-" : trustAnchors.getFingerprint());
+    }
+
+    private String verify(PDSignature signature, ByteRangeContent content) throws IOException {
+        COSBase contents = signature.getCOSObject().getDictionaryObject(COSName.CONTENTS);
+        if (!(contents instanceof COSString)) {
+            return "PDF-signaturen saknar signaturvärde.";
+        }
+
+        try {
+            CMSSignedData signedData = new CMSSignedData(content, ((COSString) contents).getBytes());
+            Collection<SignerInformation> signers = signedData.getSignerInfos().getSigners();
+            if (signers.isEmpty()) {
+                return "PDF-signaturen är ogiltig.";
+            }
+            for (SignerInformation signer : signers) {
+                List<X509Certificate> chain = getChain(signedData, signer);
+                if (chain.isEmpty()) {
+                    return "PDF-signaturen saknar signerarens certifikat.";
+                }
+                if (!signer.verify(verifierBuilder().build(chain.get(0)))) {
+                    return "PDF-signaturen är ogiltig.";
+                }
+                if (trustAnchors != null && !isTrusted(chain)) {
+                    return "PDF-signaturens certifikat är inte utfärdat av en betrodd utfärdare.";
+                }
+            }
+            return null;
+        } catch (CMSException | OperatorCreationException | GeneralSecurityException e) {
+            if (content.readFailure != null) {
+                // Reading the signed bytes failed, which says nothing about the signature
+                throw content.readFailure;
+            }
+            logger.debug("Ogiltig PDF-signatur.", e);
+            return "PDF-signaturen är ogiltig.";
+        }
+    }
+
+    /**
+     * The signer certificate followed by the certificates in the signature that issued it, in order.
+     */
+    @SuppressWarnings("unchecked")
+    private static List<X509Certificate> getChain(CMSSignedData signedData, SignerInformation signer) throws GeneralSecurityException {
+        JcaX509CertificateConverter converter = new JcaX509CertificateConverter();
+        List<X509Certificate> certificates = new ArrayList<>();
+        for (X509CertificateHolder holder : (Collection<X509CertificateHolder>) signedData.getCertificates().getMatches(null)) {
+            certificates.add(converter.getCertificate(holder));
+        }
+
+        List<X509Certificate> chain = new ArrayList<>();
+        Collection<X509CertificateHolder> signerCertificates = signedData.getCertificates().getMatches((Selector<X509CertificateHolder>) signer.getSID());
+        if (signerCertificates.isEmpty()) {
+            return chain;
+        }
+        X509Certificate current = converter.getCertificate(signerCertificates.iterator().next());
+        chain.add(current);
+        while (chain.size() < MAX_CHAIN_LENGTH && !current.getIssuerX500Principal().equals(current.getSubjectX500Principal())) {
+            X509Certificate issuer = null;
+            for (X509Certificate candidate : certificates) {
+                if (candidate.getSubjectX500Principal().equals(current.getIssuerX500Principal())) {
+                    issuer = candidate;
+                    break;
+                }
+            }
+            if (issuer == null) {
+                break;
+            }
+            chain.add(issuer);
+            current = issuer;
+        }
+        return chain;
+    }
+
+    private static JcaSimpleSignerInfoVerifierBuilder verifierBuilder() {
+        JcaSimpleSignerInfoVerifierBuilder builder = new JcaSimpleSignerInfoVerifierBuilder();
+        Provider provider = CryptoProviders.jcaProvider();
+        return provider == null ? builder : builder.setProvider(provider);
+    }
+
+    /**
+     * Walks the chain until a certificate is anchored in a trusted root, verifying each link on the way.
+     */
+    private boolean isTrusted(List<X509Certificate> chain) {
+        for (int i = 0; i < chain.size(); i++) {
+            try {
+                trustAnchors.verifyAnchored(chain.get(i));
+                return true;
+            } catch (GeneralSecurityException e) {
+                logger.debug("Certifikatet är inte utfärdat av en betrodd rot: " + e.getMessage());
+            }
+            if (i + 1 < chain.size()) {
+                try {
+                    TrustAnchors.verifyIssuedBy(chain.get(i), chain.get(i + 1));
+                } catch (GeneralSecurityException e) {
+                    return false;
+                }
+            }
+        }
+        return false;
+    }
+
+    /**
+     * The signed bytes of a signature, read from the PDF on demand.
+     */
+    private static class ByteRangeContent implements CMSTypedData {
+        private final RandomAccessRead pdf;
+        private final long[] byteRange;
+        private IOException readFailure;
+
+        ByteRangeContent(RandomAccessRead pdf, long[] byteRange) {
+            this.pdf = pdf;
+            this.byteRange = byteRange;
+        }
+
+        @Override
+        public ASN1ObjectIdentifier getContentType() {
+            return CMSObjectIdentifiers.data;
+        }
+
+        @Override
+        public void write(OutputStream out) throws IOException {
+            try {
+                copy(out);
+            } catch (IOException e) {
+                readFailure = e;
+                throw e;
+            }
+        }
+
+        private void copy(OutputStream out) throws IOException {
+            byte[] buffer = new byte[BUFFER_SIZE];
+            for (int i = 0; i < byteRange.length; i += 2) {
+                pdf.seek(byteRange[i]);
+                long remaining = byteRange[i + 1];
+                while (remaining > 0) {
+                    int read = pdf.read(buffer, 0, (int) Math.min(buffer.length, remaining));
+                    if (read < 0) {
+                        throw new IOException("PDF:en tog slut innan hela ByteRange hade lästs.");
+                    }
+                    out.write(buffer, 0, read);
+                    remaining -= read;
+                }
+            }
+        }
+
+        @Override
+        public Object getContent() {
+            return byteRange;
+        }
+    }
+}
@@ -0,0 +1,212 @@
+package se.arsredovisning_online.signature_validator;
+
+import org.apache.pdfbox.cos.COSStream;
+import org.apache.pdfbox.io.IOUtils;
+import org.apache.pdfbox.io.MemoryUsageSetting;
+import org.apache.pdfbox.io.RandomAccessBuffer;
+import org.apache.pdfbox.io.RandomAccessBufferedFileInputStream;
+import org.apache.pdfbox.io.RandomAccessRead;
+import org.apache.pdfbox.io.ScratchFile;
+import org.apache.pdfbox.pdmodel.PDDocument;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+
+/**
+ * Where a PDF to validate comes from. Files are read through a file-backed random-access source instead of
+ * being copied onto the heap first.
+ */
+public abstract class PdfSource {
+    private RandomAccessRead loaded;
+    private ExtentRecordingPdfParser loadedParser;
+    private long maxBytes;
+
+    public static PdfSource of(InputStream pdf) {
+        return new StreamSource(pdf);
+    }
+
+    public static PdfSource of(Path pdf) {
+        return new FileSource(pdf);
+    }
+
+    public static PdfSource of(byte[] pdf) {
+        return new BytesSource(pdf);
+    }
+
+    /**
+     * Refuses to read more than {@code maxBytes} of the PDF, or any amount with {@code 0}. Sources of a known
+     * size are refused before they are read at all.
+     */
+    void limitSize(long maxBytes) {
+        this.maxBytes = maxBytes;
+    }
+
+    /**
+     * Loads the document the way {@link PDDocument#load} does, optionally with {@link AttachmentsOnlyPdfParser}.
+     */
+    PDDocument load(MemoryUsageSetting memoryUsageSetting, boolean attachmentsOnly) throws IOException {
+        ScratchFile scratchFile = new ScratchFile(memoryUsageSetting);
+        RandomAccessRead source = null;
+        try {
+            checkSize();
+            source = open(scratchFile);
+            ExtentRecordingPdfParser parser = attachmentsOnly
+                    ? new AttachmentsOnlyPdfParser(source, scratchFile)
+                    : new ExtentRecordingPdfParser(source, scratchFile);
+            parser.parse();
+            PDDocument document = parser.getPDDocument();
+            loaded = source;
+            loadedParser = parser;
+            return document;
+        } catch (IOException | RuntimeException e) {
+            IOUtils.closeQuietly(scratchFile);
+            IOUtils.closeQuietly(source);
+            throw e;
+        }
+    }
+
+    /**
+     * The bytes of the document last returned by {@link #load}, read from wherever they already are rather than
+     * copied. Only usable until that document is closed.
+     */
+    RandomAccessRead getLoadedBytes() {
+        return loaded;
+    }
+
+    /**
+     * Where in the bytes of the document last returned by {@link #load} reading {@code stream} ended, or
+     * {@code -1} if that is not known.
+     */
+    long getStreamEnd(COSStream stream) {
+        return loadedParser == null ? -1 : loadedParser.getStreamEnd(stream);
+    }
+
+    abstract RandomAccessRead open(ScratchFile scratchFile) throws IOException;
+
+    /**
+     * The size of the PDF in bytes, or {@code -1} if it is not known without reading it.
+     */
+    abstract long size() throws IOException;
+
+    /**
+     * Fails if the PDF is known to be larger than {@link #limitSize} allows.
+     */
+    void checkSize() throws IOException {
+        if (maxBytes > 0 && size() > maxBytes) {
+            throw new ValidationLimits.ExceededException(tooLargeMessage());
+        }
+    }
+
+    /**
+     * {@code input}, failing once it has given more bytes than the PDF may have.
+     */
+    InputStream limited(InputStream input) {
+        return maxBytes > 0 ? new LimitedInputStream(input, maxBytes, 0, tooLargeMessage()) : input;
+    }
+
+    private String tooLargeMessage() {
+        return "PDF:en är större än " + maxBytes + " byte.";
+    }
+
+    /**
+     * The SHA-256 of the PDF bytes.
+     */
+    abstract byte[] sha256() throws IOException;
+
+    private static class StreamSource extends PdfSource {
+        private final InputStream pdf;
+        private byte[] bytes;
+
+        StreamSource(InputStream pdf) {
+            this.pdf = pdf;
+        }
+
+        @Override
+        RandomAccessRead open(ScratchFile scratchFile) throws IOException {
+            if (bytes != null) {
+                return new RandomAccessBuffer(bytes);
+            }
+            return scratchFile.createBuffer(limited(pdf));
+        }
+
+        @Override
+        long size() {
+            return bytes != null ? bytes.length : -1;
+        }
+
+        @Override
+        byte[] sha256() throws IOException {
+            // A stream can only be read once, so keep what was hashed for loading
+            if (bytes == null) {
+                bytes = IOUtils.toByteArray(limited(pdf));
+            }
+            return DigestMaker.getDigest(new ByteArrayInputStream(bytes), "sha256");
+        }
+
+        @Override
+        public String toString() {
+            return pdf.toString();
+        }
+    }
+
+    private static class FileSource extends PdfSource {
+        private final Path pdf;
+
+        FileSource(Path pdf) {
+            this.pdf = pdf;
+        }
+
+        @Override
+        RandomAccessRead open(ScratchFile scratchFile) throws IOException {
+            return new RandomAccessBufferedFileInputStream(pdf.toFile());
+        }
+
+        @Override
+        long size() throws IOException {
+            return Files.size(pdf);
+        }
+
+        @Override
+        byte[] sha256() throws IOException {
+            try (InputStream input = Files.newInputStream(pdf)) {
+                return DigestMaker.getDigest(input, "sha256");
+            }
+        }
+
+        @Override
+        public String toString() {
+            return pdf.toString();
+        }
+    }
+
+    private static class BytesSource extends PdfSource {
+        private final byte[] pdf;
+
+        BytesSource(byte[] pdf) {
+            this.pdf = pdf;
+        }
+
+        @Override
+        RandomAccessRead open(ScratchFile scratchFile) {
+            return new RandomAccessBuffer(pdf);
+        }
+
+        @Override
+        long size() {
+            return pdf.length;
+        }
+
+        @Override
+        byte[] sha256() {
+            return DigestMaker.getDigest(new ByteArrayInputStream(pdf), "sha256");
+        }
+
+        @Override
+        public String toString() {
+            return "PDF (" + pdf.length + " bytes)";
+        }
+    }
+}
@@ -0,0 +1,308 @@
+package se.arsredovisning_online.signature_validator;
+
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+import java.io.BufferedInputStream;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileLock;
+import java.nio.channels.OverlappingFileLockException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Remembers validation results on disk, keyed by the SHA-256 of the PDF and whether test roots were used.
+ * <p>
+ * The file is append-only: a header with a fingerprint of the trusted roots followed by one length-prefixed
+ * record per result. When the roots change the header no longer matches and the whole file is discarded. The
+ * most recently used {@code maxEntries} results are kept; once the file holds twice as many records it is
+ * rewritten with only those. A lock file next to it is held while the cache is open, also while the file is
+ * being rewritten, so only one process can use it. A record that cannot be read ends the file: it and everything
+ * after it are dropped.
+ */
+public class ResultCache implements Closeable {
+    public static final int DEFAULT_MAX_ENTRIES = 100_000;
+
+    private static final int MAGIC = 0x53565243;
+    private static final int VERSION = 1;
+
+    private final Path file;
+    private final int maxEntries;
+    private final String trustFingerprint;
+    private final Map<String, List<String>> entries;
+    private FileChannel lockChannel;
+    private FileChannel channel;
+    private int recordCount;
+    private Logger logger = LogManager.getLogger(ResultCache.class);
+
+    public ResultCache(Path file) throws IOException {
+        this(file, DEFAULT_MAX_ENTRIES);
+    }
+
+    public ResultCache(Path file, int maxEntries) throws IOException {
+        this(file, maxEntries, TrustAnchors.production().getFingerprint() + TrustAnchors.test().getFingerprint());
+    }
+
+    ResultCache(Path file, int maxEntries, String trustFingerprint) throws IOException {
+        this.file = file;
+        this.maxEntries = maxEntries;
+        this.trustFingerprint = trustFingerprint;
+        this.entries = new LinkedHashMap<String, List<String>>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<String, List<String>> eldest) {
+                return size() > ResultCache.this.maxEntries;
+            }
+        };
+        lock();
+        try {
+            open();
+        } catch (IOException e) {
+            lockChannel.close();
+            throw e;
+        }
+    }
+
+    /**
+     * Returns the validation errors stored for the document, an empty list if it was valid, or {@code null} if
+     * it has not been validated with these roots before.
+     */
+    synchronized List<String> get(byte[] pdfDigest, boolean test) {
+        return get(pdfDigest, test, null);
+    }
+
+    /**
+     * Like {@link #get(byte[], boolean)}, for a result that also depends on other settings, described by
+     * {@code configuration}.
+     */
+    synchronized List<String> get(byte[] pdfDigest, boolean test, String configuration) {
+        return entries.get(key(pdfDigest, test, configuration));
+    }
+
+    synchronized void put(byte[] pdfDigest, boolean test, List<String> errors) throws IOException {
+        put(pdfDigest, test, null, errors);
+    }
+
+    synchronized void put(byte[] pdfDigest, boolean test, String configuration, List<String> errors) throws IOException {
+        String key = key(pdfDigest, test, configuration);
+        List<String> value = Collections.unmodifiableList(new ArrayList<>(errors));
+        entries.put(key, value);
+        append(key, value);
+        if (recordCount > 2 * maxEntries) {
+            compact();
+        }
+    }
+
+    public synchronized int size() {
+        return entries.size();
+    }
+
+    @Override
+    public synchronized void close() throws IOException {
+        if (channel != null) {
+            channel.close();
+            channel = null;
+        }
+        if (lockChannel != null) {
+            lockChannel.close();
+            lockChannel = null;
+        }
+    }
+
+    /**
+     * Locks a separate file rather than the cache itself, since the cache is replaced when it is compacted and
+     * a lock on it would be released in between.
+     */
+    private void lock() throws IOException {
+        Path lockFile = file.resolveSibling(file.getFileName() + ".lock");
+        lockChannel = FileChannel.open(lockFile, StandardOpenOption.CREATE, StandardOpenOption.WRITE);
+        FileLock lock;
+        try {
+            lock = lockChannel.tryLock();
+        } catch (OverlappingFileLockException e) {
+            lock = null;
+        }
+        if (lock == null) {
+            lockChannel.close();
+            throw new IOException("Resultatcachen " + file + " används redan av en annan process.");
+        }
+    }
+
+    private void open() throws IOException {
+        channel = FileChannel.open(file, StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE);
+        long validLength = load();
+        if (validLength < 0) {
+            if (channel.size() > 0) {
+                logger.info("Rensar resultatcachen " + file + " eftersom rotcertifikaten har ändrats.");
+            }
+            entries.clear();
+            recordCount = 0;
+            channel.truncate(0);
+            channel.position(0);
+            channel.write(ByteBuffer.wrap(header()));
+        } else {
+            // Drop a record that was only partly written when the process died, or could not be read
+            channel.truncate(validLength);
+            channel.position(validLength);
+        }
+    }
+
+    /**
+     * Reads the existing records into memory. Returns the length of the well-formed part of the file, or -1 if
+     * the file is empty or was written for other roots.
+     */
+    private long load() throws IOException {
+        channel.position(0);
+        DataInputStream input = new DataInputStream(new BufferedInputStream(new UnclosableInputStream(channel)));
+        long position;
+        try {
+            if (input.readInt() != MAGIC || input.readInt() != VERSION || !trustFingerprint.equals(input.readUTF())) {
+                return -1;
+            }
+            position = header().length;
+        } catch (EOFException e) {
+            return -1;
+        }
+
+        while (true) {
+            try {
+                int length = input.readInt();
+                if (length < 0 || length > channel.size() - position - 4) {
+                    return position;
+                }
+                byte[] record = new byte[length];
+                input.readFully(record);
+                if (!readRecord(record)) {
+                    logger.warn("Resultatcachen " + file + " har en trasig post vid position " + position + ", den och resten av filen kasseras.");
+                    return position;
+                }
+                position += 4 + length;
+                recordCount++;
+            } catch (EOFException e) {
+                return position;
+            }
+        }
+    }
+
+    /**
+     * Returns {@code false}, without adding anything, if the record is malformed.
+     */
+    private boolean readRecord(byte[] record) {
+        DataInputStream input = new DataInputStream(new ByteArrayInputStream(record));
+        try {
+            String key = input.readUTF();
+            int errorCount = input.readShort();
+            if (errorCount < 0) {
+                return false;
+            }
+            List<String> errors = new ArrayList<>(errorCount);
+            for (int i = 0; i < errorCount; i++) {
+                errors.add(input.readUTF());
+            }
+            entries.put(key, Collections.unmodifiableList(errors));
+            return true;
+        } catch (IOException e) {
+            return false;
+        }
+    }
+
+    private void append(String key, List<String> errors) throws IOException {
+        channel.write(ByteBuffer.wrap(record(key, errors)));
+        recordCount++;
+    }
+
+    private void compact() throws IOException {
+        logger.debug("Komprimerar resultatcachen " + file + ".");
+        Path compacted = file.resolveSibling(file.getFileName() + ".tmp");
+        try (FileChannel output = FileChannel.open(compacted, StandardOpenOption.CREATE, StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING)) {
+            output.write(ByteBuffer.wrap(header()));
+            for (Map.Entry<String, List<String>> entry : entries.entrySet()) {
+                output.write(ByteBuffer.wrap(record(entry.getKey(), entry.getValue())));
+            }
+        }
+        // The lock file stays locked throughout, so no other process can append to the old file in between
+        channel.close();
+        Files.move(compacted, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        recordCount = 0;
+        entries.clear();
+        open();
+    }
+
+    private byte[] header() throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        DataOutputStream output = new DataOutputStream(bytes);
+        output.writeInt(MAGIC);
+        output.writeInt(VERSION);
+        output.writeUTF(trustFingerprint);
+        return bytes.toByteArray();
+    }
+
+    private static byte[] record(String key, List<String> errors) throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        DataOutputStream output = new DataOutputStream(bytes);
+        output.writeInt(0);
+        output.writeUTF(key);
+        int errorCount = Math.min(errors.size(), Short.MAX_VALUE);
+        output.writeShort(errorCount);
+        for (int i = 0; i < errorCount; i++) {
+            output.writeUTF(truncate(errors.get(i)));
+        }
+        byte[] record = bytes.toByteArray();
+        ByteBuffer.wrap(record).putInt(record.length - 4);
+        return record;
+    }
+
+    private static String truncate(String error) {
+        // writeUTF is limited to 65535 encoded bytes, error messages are never anywhere near that
+        return error.length() > 16 * 1024 ? error.substring(0, 16 * 1024) : error;
+    }
+
+    private static String key(byte[] pdfDigest, boolean test, String configuration) {
+        StringBuilder key = new StringBuilder(pdfDigest.length * 2 + 5);
+        for (byte b : pdfDigest) {
+            key.append(Character.forDigit((b >> 4) & 0xf, 16)).append(Character.forDigit(b & 0xf, 16));
+        }
+        key.append(test ? "/test" : "/prod");
+        if (configuration != null) {
+            key.append('/').append(configuration);
+        }
+        return key.toString();
+    }
+
+    /**
+     * Reads from the channel without closing it when the reader is done.
+     */
+    private static class UnclosableInputStream extends InputStream {
+        private final FileChannel channel;
+
+        UnclosableInputStream(FileChannel channel) {
+            this.channel = channel;
+        }
+
+        @Override
+        public int read() throws IOException {
+            byte[] single = new byte[1];
+            return read(single, 0, 1) < 0 ? -1 : single[0] & 0xff;
+        }
+
+        @Override
+        public int read(byte[] buffer, int offset, int length) throws IOException {
+            return channel.read(ByteBuffer.wrap(buffer, offset, length));
+        }
+    }
+}
@@ -0,0 +1,79 @@
+package se.arsredovisning_online.signature_validator;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Remembers the outcome of the parts of a document that were read from an earlier revision: the checks of each
+ * signature in the manifest and each PDF signature of the seal. Keys are built from {@link PdfRevisions}
+ * fingerprints, so a document amended with an incremental update only has its new parts validated.
+ * <p>
+ * An outcome only holds for the configuration it was reached with, so each {@link ValidationEngine} owns its own
+ * cache and engines configured differently never see each other's outcomes.
+ */
+final class RevisionCache {
+    static final int MAX_ENTRIES = 4096;
+
+    // Bumped by invalidateAll(), which every cache notices on its next access
+    private static final AtomicInteger generation = new AtomicInteger();
+
+    private final Map<String, List<String>> outcomes = new LinkedHashMap<String, List<String>>(16, 0.75f, true) {
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<String, List<String>> eldest) {
+            return size() > MAX_ENTRIES;
+        }
+    };
+    private int seenGeneration = generation.get();
+
+    /**
+     * Returns the validation errors stored for {@code key}, an empty list if that part was valid, or {@code null}
+     * if it has not been validated.
+     */
+    List<String> get(String key) {
+        synchronized (outcomes) {
+            checkGeneration();
+            return outcomes.get(key);
+        }
+    }
+
+    void put(String key, List<String> errors) {
+        List<String> outcome = Collections.unmodifiableList(new ArrayList<>(errors));
+        synchronized (outcomes) {
+            checkGeneration();
+            outcomes.put(key, outcome);
+        }
+    }
+
+    int size() {
+        synchronized (outcomes) {
+            checkGeneration();
+            return outcomes.size();
+        }
+    }
+
+    void clear() {
+        synchronized (outcomes) {
+            outcomes.clear();
+        }
+    }
+
+    /**
+     * Empties every cache in the process, for when something all outcomes depend on changes, like the provider
+     * that verified them.
+     */
+    static void invalidateAll() {
+        generation.incrementAndGet();
+    }
+
+    private void checkGeneration() {
+        int current = generation.get();
+        if (current != seenGeneration) {
+            outcomes.clear();
+            seenGeneration = current;
+        }
+    }
+}
@@ -0,0 +1,80 @@
+package se.arsredovisning_online.signature_validator;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Remembers the outcome of {@link BankIdSignatureValidator} per signature file, process-wide.
+ * <p>
+ * The same signature files turn up in many PDFs, e.g. the annual report and the audit report of a company, or a
+ * corrected re-issue. The outcome only depends on the signature bytes and the roots, so it is keyed by the
+ * SHA-256 of the file and the trust mode.
+ */
+final class SignatureVerificationCache {
+    static final int MAX_ENTRIES = 4096;
+
+    private static final Map<String, List<String>> outcomes = new LinkedHashMap<String, List<String>>(16, 0.75f, true) {
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<String, List<String>> eldest) {
+            return size() > MAX_ENTRIES;
+        }
+    };
+
+    private SignatureVerificationCache() {
+    }
+
+    /**
+     * Returns the validation errors of an earlier verification, an empty list if the signature was valid, or
+     * {@code null} if it has not been verified with these roots.
+     */
+    static List<String> get(byte[] signatureDigest, boolean test) {
+        return get(signatureDigest, test, null);
+    }
+
+    /**
+     * As {@link #get(byte[], boolean)}, for a signature validated against {@code trustAnchors} instead of BankID's
+     * roots unless that is {@code null}.
+     */
+    static List<String> get(byte[] signatureDigest, boolean test, TrustAnchors trustAnchors) {
+        synchronized (outcomes) {
+            return outcomes.get(key(signatureDigest, test, trustAnchors));
+        }
+    }
+
+    static void put(byte[] signatureDigest, boolean test, List<String> errors) {
+        put(signatureDigest, test, null, errors);
+    }
+
+    static void put(byte[] signatureDigest, boolean test, TrustAnchors trustAnchors, List<String> errors) {
+        List<String> outcome = Collections.unmodifiableList(new ArrayList<>(errors));
+        synchronized (outcomes) {
+            outcomes.put(key(signatureDigest, test, trustAnchors), outcome);
+        }
+    }
+
+    static int size() {
+        synchronized (outcomes) {
+            return outcomes.size();
+        }
+    }
+
+    static void clear() {
+        synchronized (outcomes) {
+            outcomes.clear();
+        }
+    }
+
+    private static String key(byte[] signatureDigest, boolean test, TrustAnchors trustAnchors) {
+        StringBuilder key = new StringBuilder(signatureDigest.length * 2 + 5);
+        for (byte b : signatureDigest) {
+            key.append(Character.forDigit((b >> 4) & 0xf, 16)).append(Character.forDigit(b & 0xf, 16));
+        }
+        if (trustAnchors != null) {
+            return key.append('/').append(trustAnchors.getFingerprint()).toString();
+        }
+        return key.append(test ? "/test" : "/prod").toString();
+    }
+}
@@ -1,5 +1,6 @@
 package se.arsredovisning_online.signature_validator;
 
+import com.google.gson.JsonParseException;
 import org.apache.logging.log4j.Level;
 import org.apache.logging.log4j.LogManager;
 import org.apache.logging.log4j.Logger;
@@ -7,23 +8,52 @@ import org.apache.logging.log4j.core.LoggerContext;
 import org.apache.logging.log4j.core.config.Configuration;
 import org.apache.logging.log4j.core.config.Configurator;
 import org.apache.logging.log4j.core.config.LoggerConfig;
-import org.apache.pdfbox.cos.COSInputStream;
 import org.apache.pdfbox.pdmodel.PDDocument;
-import org.apache.pdfbox.pdmodel.PDEmbeddedFilesNameTreeNode;
-import org.apache.pdfbox.pdmodel.common.filespecification.PDComplexFileSpecification;
 
-import java.io.FileInputStream;
 import java.io.IOException;
 import java.io.InputStream;
+import java.nio.file.Paths;
 import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.Collections;
+import java.util.LinkedHashSet;
 import java.util.List;
+import java.util.Set;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.function.BooleanSupplier;
 
 import static java.lang.System.exit;
 
+/**
+ * Validates one PDF, once. To validate many documents with the same settings, possibly from several threads, use
+ * a {@link ValidationEngine}.
+ */
 public class SignedPdfValidator {
-    private InputStream pdf;
+    private final PdfSource pdf;
     private final boolean test;
+    private Executor executor;
+    private MemoryPolicy memoryPolicy = MemoryPolicy.mainMemoryOnly();
+    private boolean attachmentsOnly;
+    private ValidationMode mode = ValidationMode.EXHAUSTIVE;
+    private OcspChecker ocspChecker;
+    private ResultCache resultCache;
+    private boolean sealValidation = true;
+    private TrustAnchors sealTrustAnchors;
+    private TrustAnchors signatureTrustAnchors;
+    private ValidationLimits limits = ValidationLimits.defaults();
+    private RevisionCache revisionCache;
+    private PdfRevisions revisions;
+    private BooleanSupplier cancelled;
+    private long deadline;
+    private boolean cacheable = true;
+    private List<String> unsealedAttachments = Collections.emptyList();
     private List<String> validationErrors = new ArrayList<>();
     private Logger logger = LogManager.getLogger(SignedPdfValidator.class);
 
@@ -32,55 +62,469 @@ public class SignedPdfValidator {
     }
 
     public SignedPdfValidator(InputStream pdf, boolean test) throws IOException {
+        this(PdfSource.of(pdf), test);
+    }
+
+    public SignedPdfValidator(PdfSource pdf, boolean test) {
         this.pdf = pdf;
         this.test = test;
     }
 
+    /**
+     * Validates the signatures of the document in parallel, one task per signature. Without an executor the
+     * signatures are validated one at a time on the calling thread.
+     */
+    public void setExecutor(Executor executor) {
+        this.executor = executor;
+    }
+
+    /**
+     * Limits how much heap the document may use while it is loaded. The default keeps the whole document on
+     * the heap.
+     */
+    public void setMemoryPolicy(MemoryPolicy memoryPolicy) {
+        this.memoryPolicy = memoryPolicy;
+    }
+
+    /**
+     * Only parses the parts of the PDF that lead to its attachments, never pages, fonts or images, so that
+     * validation time follows the size of the attachments rather than the size of the document.
+     */
+    public void setAttachmentsOnly(boolean attachmentsOnly) {
+        this.attachmentsOnly = attachmentsOnly;
+    }
+
+    /**
+     * In {@link ValidationMode#FAIL_FAST} the checks of all signatures run in order of cost, cheapest first, and
+     * validation stops at the first error. Signatures are then always validated on the calling thread.
+     */
+    public void setValidationMode(ValidationMode mode) {
+        this.mode = mode;
+    }
+
+    /**
+     * Also requires a valid OCSP response for every signer certificate, saying that it is not revoked.
+     */
+    public void setOcspChecker(OcspChecker ocspChecker) {
+        this.ocspChecker = ocspChecker;
+    }
+
+    /**
+     * Reuses the result of an earlier validation of the same bytes with the same roots instead of validating
+     * again. Streams are read onto the heap to be hashed, so use a file source for large documents.
+     */
+    public void setResultCache(ResultCache resultCache) {
+        this.resultCache = resultCache;
+    }
+
+    /**
+     * Whether to validate the PDF signature of the document itself, on by default. Only meant for documents that
+     * have knowingly been rewritten since they were sealed.
+     */
+    public void setSealValidation(boolean sealValidation) {
+        this.sealValidation = sealValidation;
+    }
+
+    /**
+     * Requires the PDF signature to chain up to one of these roots. Unless set, the roots of the test seals are
+     * used for test documents, and a production document is not valid since nobody vouches for its seal.
+     */
+    public void setSealTrustAnchors(TrustAnchors sealTrustAnchors) {
+        this.sealTrustAnchors = sealTrustAnchors;
+    }
+
+    /**
+     * Validates the certificate chains of the signature files against these roots instead of BankID's.
+     */
+    public void setSignatureTrustAnchors(TrustAnchors signatureTrustAnchors) {
+        this.signatureTrustAnchors = signatureTrustAnchors;
+    }
+
+    /**
+     * What the document may cost before it is rejected, {@link ValidationLimits#defaults()} unless set.
+     */
+    public void setLimits(ValidationLimits limits) {
+        this.limits = limits;
+    }
+
+    /**
+     * Splits the document into its revisions, the original and each incremental update, and reuses the outcome
+     * of seal signatures and manifest signatures that were read entirely from revisions validated before, as kept
+     * in {@code revisionCache}. An amended document then only costs a pass over its bytes plus validating what the
+     * update added or replaced. Signatures are only reused in exhaustive mode and without revocation checks.
+     * <p>
+     * An update that is not sealed again, e.g. with an attachment or a registration stamp, keeps the seal valid as
+     * long as it only adds files, which are then listed by {@link #getUnsealedAttachments()}.
+     */
+    void setRevisionCache(RevisionCache revisionCache) {
+        this.revisionCache = revisionCache;
+    }
+
+    /**
+     * Checked between the phases of validation and between signatures. Once it returns true, {@link #validate()}
+     * gives up by throwing {@link CancellationException}.
+     */
+    void setCancellation(BooleanSupplier cancelled) {
+        this.cancelled = cancelled;
+    }
+
     public boolean validate() {
-        validateSeal();
-        validateSignatures();
+        long start = System.nanoTime();
+        ValidationMetrics.documentStarted();
+        deadline = limits.deadlineFrom(start);
+        pdf.limitSize(limits.getMaxPdfBytes());
+        boolean valid = false;
+        try {
+            if (resultCache != null) {
+                valid = validateWithCache();
+            } else {
+                validateDocument();
+                valid = validationErrors.isEmpty();
+            }
+            return valid;
+        } catch (ValidationLimits.ExceededException e) {
+            // Never cached: the same document may well be within the limits of another configuration or attempt
+            logger.warn(e.getMessage());
+            addError(e.getMessage());
+            return false;
+        } finally {
+            ValidationMetrics.documentFinished(System.nanoTime() - start, valid);
+        }
+    }
+
+    private boolean validateWithCache() {
+        if (ocspChecker != null) {
+            // Revocation status changes over time, so the result of a document cannot be kept indefinitely
+            validateDocument();
+            return validationErrors.isEmpty();
+        }
+
+        byte[] digest;
+        try {
+            pdf.checkSize();
+            digest = pdf.sha256();
+        } catch (IOException e) {
+            addError(e.getMessage());
+            return false;
+        }
+
+        String configuration = getCacheConfiguration();
+        List<String> cachedErrors = resultCache.get(digest, test, configuration);
+        if (cachedErrors != null) {
+            logger.info("Dokumentet har validerats tidigare, använder sparat resultat.");
+            validationErrors.addAll(cachedErrors);
+            return validationErrors.isEmpty();
+        }
+
+        validateDocument();
+        // A document that could not be read at all may well be readable next time. Fail-fast errors are
+        // incomplete, so only its valid results can be reused by exhaustive validation.
+        if (cacheable && (mode == ValidationMode.EXHAUSTIVE || validationErrors.isEmpty())) {
+            try {
+                resultCache.put(digest, test, configuration, validationErrors);
+            } catch (IOException e) {
+                logger.warn("Kunde inte spara resultatet i resultatcachen.", e);
+            }
+        }
         return validationErrors.isEmpty();
     }
 
-    private void validateSignatures() {
-        try (PDDocument document = PDDocument.load(pdf)) {
+    /**
+     * What, besides the roots of the signatures, the result of a document depends on.
+     */
+    private String getCacheConfiguration() {
+        String roots = signatureTrustAnchors == null ? null : "roots-" + signatureTrustAnchors.getFingerprint();
+        if (!sealValidation) {
+            return roots;
+        }
+        String seal = sealTrustAnchors == null ? "seal" : "seal-" + sealTrustAnchors.getFingerprint();
+        return roots == null ? seal : roots + "/" + seal;
+    }
+
+    public List<String> getValidationErrors() {
+        return validationErrors;
+    }
+
+    /**
+     * The attachments that were added to the PDF after it was sealed, which the seal does not vouch for. None of
+     * them may be part of a signature.
+     */
+    public List<String> getUnsealedAttachments() {
+        return unsealedAttachments;
+    }
+
+    private void validateDocument() {
+        checkCancelled();
+        try (PDDocument document = load()) {
+            checkCancelled();
+            if (revisionCache != null && !document.isEncrypted()) {
+                long start = System.nanoTime();
+                revisions = PdfRevisions.scan(document, pdf);
+                logger.debug("PDF:en har " + revisions.size() + " versioner, fingeravtryck på "
+                        + TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start) + " ms.");
+                checkCancelled();
+            }
+            if (mode == ValidationMode.EXHAUSTIVE) {
+                validationErrors.addAll(validateSeal(document));
+                checkCancelled();
+            }
             logger.info("Validerar bifogade signaturer mot bifogade original.");
-            Manifest manifest = extractManifest(document);
-            if (manifest != null) {
-                for (Manifest.Signature signature : manifest.getSignatures()) {
-                    String visibleDataFilename = signature.getVisibleData();
-                    String nonVisibleDataFilename = signature.getNonVisibleData();
-                    String signatureFilename = signature.getSignatureFile();
-
-                    logger.info("Validerar " + signatureFilename);
-
-                    InputStream visibleDataStream = getEmbeddedFileAsStream(document, visibleDataFilename);
-                    InputStream nonVisibleDataStream = getEmbeddedFileAsStream(document, nonVisibleDataFilename);
-                    InputStream signatureStream = getEmbeddedFileAsStream(document, signatureFilename);
-
-                    SingleSignatureValidator signatureValidator = new SingleSignatureValidator(
-                            visibleDataStream,
-                            getDigestMethod(visibleDataFilename, manifest),
-                            nonVisibleDataStream,
-                            getDigestMethod(nonVisibleDataFilename, manifest),
-                            signatureStream, test);
-                    if (!signatureValidator.validate()) {
-                        addError("Validering av " + signatureFilename + " misslyckades.");
-                        validationErrors.addAll(signatureValidator.getValidationErrors());
-                    }
+            EmbeddedFileIndex embeddedFiles = EmbeddedFileIndex.build(document);
+            Manifest manifest = extractManifest(embeddedFiles);
+            checkCancelled();
+            if (manifest != null && mode == ValidationMode.EXHAUSTIVE) {
+                validationErrors.addAll(checkSealed(manifest));
+            }
+            if (manifest != null && mode == ValidationMode.FAIL_FAST) {
+                validationErrors.addAll(validateFailFast(document, embeddedFiles, manifest));
+            } else if (manifest != null) {
+                for (List<String> signatureErrors : validateEachSignature(embeddedFiles, manifest)) {
+                    validationErrors.addAll(signatureErrors);
                 }
             }
         } catch (IOException e) {
+            cacheable = false;
             addError(e.getMessage());
         }
     }
 
+    private PDDocument load() throws IOException {
+        long start = System.nanoTime();
+        try {
+            return pdf.load(memoryPolicy.toMemoryUsageSetting(), attachmentsOnly);
+        } finally {
+            ValidationMetrics.record(ValidationMetrics.Phase.PDF_LOAD, System.nanoTime() - start);
+        }
+    }
+
+    /**
+     * Validates every signature in the manifest, on the executor if one has been set. The returned errors are
+     * always in manifest order, whichever signature finishes first.
+     */
+    private List<List<String>> validateEachSignature(EmbeddedFileIndex embeddedFiles, Manifest manifest) {
+        List<List<String>> errors = new ArrayList<>();
+        if (executor == null) {
+            for (Manifest.Signature signature : manifest.getSignatures()) {
+                errors.add(validateSignature(embeddedFiles, manifest, signature));
+            }
+            return errors;
+        }
+
+        // Once one signature fails, the others are skipped, but every task is waited for before the failure is
+        // thrown: the document is closed as soon as this returns, and they may still be reading from it
+        AtomicBoolean failed = new AtomicBoolean();
+        List<CompletableFuture<List<String>>> futures = new ArrayList<>();
+        for (Manifest.Signature signature : manifest.getSignatures()) {
+            futures.add(CompletableFuture.supplyAsync(() -> {
+                if (failed.get()) {
+                    return null;
+                }
+                try {
+                    return validateSignature(embeddedFiles, manifest, signature);
+                } catch (RuntimeException | Error e) {
+                    failed.set(true);
+                    throw e;
+                }
+            }, executor));
+        }
+        RuntimeException failure = null;
+        for (CompletableFuture<List<String>> future : futures) {
+            try {
+                errors.add(future.join());
+            } catch (CompletionException e) {
+                if (failure == null) {
+                    failure = e.getCause() instanceof RuntimeException ? (RuntimeException) e.getCause() : e;
+                }
+            }
+        }
+        if (failure != null) {
+            throw failure;
+        }
+        return errors;
+    }
+
+    private List<String> validateSignature(EmbeddedFileIndex embeddedFiles, Manifest manifest, Manifest.Signature signature) {
+        checkCancelled();
+        String revisionKey = getRevisionKey(embeddedFiles, manifest, signature);
+        if (revisionKey != null) {
+            List<String> cachedErrors = revisionCache.get(revisionKey);
+            if (cachedErrors != null) {
+                logger.info(signature.getSignatureFile() + " har validerats i en tidigare version av dokumentet.");
+                return new ArrayList<>(cachedErrors);
+            }
+        }
+        List<String> errors = validateSignatureFiles(embeddedFiles, manifest, signature);
+        if (revisionKey != null) {
+            revisionCache.put(revisionKey, errors);
+        }
+        return errors;
+    }
+
+    private List<String> validateSignatureFiles(EmbeddedFileIndex embeddedFiles, Manifest manifest, Manifest.Signature signature) {
+        List<String> errors = new ArrayList<>();
+        SingleSignatureValidator signatureValidator = checkData(embeddedFiles, manifest, signature, ValidationMode.EXHAUSTIVE, errors);
+        checkCancelled();
+        if (signatureValidator != null) {
+            signatureValidator.validateSignature();
+            addSignatureErrors(signature, signatureValidator, errors);
+        }
+        return errors;
+    }
+
+    /**
+     * What the outcome of a signature depends on, when all three of its files were read from earlier revisions:
+     * where each was read from, its digest method and the roots. {@code null} if it cannot be reused.
+     */
+    private String getRevisionKey(EmbeddedFileIndex embeddedFiles, Manifest manifest, Manifest.Signature signature) {
+        if (revisions == null || ocspChecker != null) {
+            return null;
+        }
+        StringBuilder key = new StringBuilder("signature/")
+                .append(signatureTrustAnchors == null ? (test ? "test" : "prod") : signatureTrustAnchors.getFingerprint());
+        for (String filename : Arrays.asList(signature.getVisibleData(), signature.getNonVisibleData(), signature.getSignatureFile())) {
+            String fingerprint = filename == null ? null : embeddedFiles.fingerprint(filename, revisions);
+            if (fingerprint == null) {
+                return null;
+            }
+            key.append('/').append(filename).append(':').append(getDigestMethod(filename, manifest)).append('=').append(fingerprint);
+        }
+        return key.toString();
+    }
+
+    /**
+     * Checks that every file the manifest refers to exists, then compares the data of every signature, then
+     * validates the seal, and only then verifies the XML signatures. Stops at the first error.
+     * <p>
+     * Signature files are parsed once for the comparison and once more for the verification, so that no more than
+     * one of them is held in memory at a time.
+     */
+    private List<String> validateFailFast(PDDocument document, EmbeddedFileIndex embeddedFiles, Manifest manifest) throws IOException {
+        List<String> errors = new ArrayList<>();
+        for (Manifest.Signature signature : manifest.getSignatures()) {
+            for (String filename : Arrays.asList(signature.getVisibleData(), signature.getNonVisibleData(), signature.getSignatureFile())) {
+                if (!embeddedFiles.contains(filename)) {
+                    errors.add("Validering av " + signature.getSignatureFile() + " misslyckades.");
+                    errors.add("PDF:en saknar den bifogade filen " + filename + ".");
+                    return errors;
+                }
+            }
+        }
+
+        for (Manifest.Signature signature : manifest.getSignatures()) {
+            checkCancelled();
+            SingleSignatureValidator signatureValidator = checkData(embeddedFiles, manifest, signature, ValidationMode.FAIL_FAST, errors);
+            if (signatureValidator == null || addSignatureErrors(signature, signatureValidator, errors)) {
+                return errors;
+            }
+        }
+
+        checkCancelled();
+        errors.addAll(validateSeal(document));
+        if (errors.isEmpty()) {
+            errors.addAll(checkSealed(manifest));
+        }
+        if (!errors.isEmpty()) {
+            return errors;
+        }
+
+        for (Manifest.Signature signature : manifest.getSignatures()) {
+            checkCancelled();
+            SingleSignatureValidator signatureValidator = readSignature(embeddedFiles, signature, errors);
+            if (signatureValidator == null) {
+                return errors;
+            }
+            signatureValidator.validateSignature();
+            if (addSignatureErrors(signature, signatureValidator, errors)) {
+                return errors;
+            }
+        }
+        return errors;
+    }
+
+    /**
+     * Reads only the signature file of a signature, for verifying it after its data has been compared. Returns
+     * {@code null}, with the reason in {@code errors}, if it cannot be read.
+     */
+    private SingleSignatureValidator readSignature(EmbeddedFileIndex embeddedFiles, Manifest.Signature signature, List<String> errors) {
+        String signatureFilename = signature.getSignatureFile();
+        List<String> fileErrors = new ArrayList<>();
+        try (InputStream signatureStream = getEmbeddedFileAsStream(embeddedFiles, signatureFilename, fileErrors)) {
+            if (signatureStream == null) {
+                errors.add("Validering av " + signatureFilename + " misslyckades.");
+                errors.addAll(fileErrors);
+                return null;
+            }
+
+            SingleSignatureValidator signatureValidator = new SingleSignatureValidator(null, null, null, null, signatureStream, test, limits);
+            signatureValidator.setOcspChecker(ocspChecker);
+            signatureValidator.setTrustAnchors(signatureTrustAnchors);
+            return signatureValidator;
+        } catch (IOException e) {
+            errors.add(e.getMessage());
+            return null;
+        }
+    }
+
+    /**
+     * Reads the files of a signature and compares the data files with the signature file. Returns {@code null},
+     * with the reason in {@code errors}, if the files cannot be read.
+     */
+    private SingleSignatureValidator checkData(EmbeddedFileIndex embeddedFiles, Manifest manifest, Manifest.Signature signature,
+                                               ValidationMode checkMode, List<String> errors) {
+        String visibleDataFilename = signature.getVisibleData();
+        String nonVisibleDataFilename = signature.getNonVisibleData();
+        String signatureFilename = signature.getSignatureFile();
+
+        logger.info("Validerar " + signatureFilename);
+
+        List<String> fileErrors = new ArrayList<>();
+        try (InputStream visibleDataStream = getEmbeddedFileAsStream(embeddedFiles, visibleDataFilename, fileErrors);
+             InputStream nonVisibleDataStream = getEmbeddedFileAsStream(embeddedFiles, nonVisibleDataFilename, fileErrors);
+             InputStream signatureStream = getEmbeddedFileAsStream(embeddedFiles, signatureFilename, fileErrors)) {
+            if (visibleDataStream == null || nonVisibleDataStream == null || signatureStream == null) {
+                errors.add("Validering av " + signatureFilename + " misslyckades.");
+                errors.addAll(fileErrors);
+                return null;
+            }
+
+            SingleSignatureValidator signatureValidator = new SingleSignatureValidator(
+                    visibleDataStream,
+                    getDigestMethod(visibleDataFilename, manifest),
+                    nonVisibleDataStream,
+                    getDigestMethod(nonVisibleDataFilename, manifest),
+                    signatureStream, test, limits);
+            signatureValidator.setOcspChecker(ocspChecker);
+            signatureValidator.setTrustAnchors(signatureTrustAnchors);
+            signatureValidator.checkData(checkMode);
+            return signatureValidator;
+        } catch (IOException e) {
+            errors.add(e.getMessage());
+            return null;
+        }
+    }
+
+    private static boolean addSignatureErrors(Manifest.Signature signature, SingleSignatureValidator signatureValidator, List<String> errors) {
+        if (signatureValidator.getValidationErrors().isEmpty()) {
+            return false;
+        }
+        errors.add("Validering av " + signature.getSignatureFile() + " misslyckades.");
+        errors.addAll(signatureValidator.getValidationErrors());
+        return true;
+    }
+
+    private void checkCancelled() {
+        if (cancelled != null && cancelled.getAsBoolean()) {
+            throw new CancellationException("Valideringen avbröts.");
+        }
+        ValidationLimits.checkDeadline(deadline);
+    }
+
     private void addError(String message) {
         validationErrors.add(message);
     }
 
-    private String getDigestMethod(String visibleDataFilename, Manifest manifest) {
-        Manifest.Document document = manifest.getDocumentByName(visibleDataFilename);
+    private String getDigestMethod(String filename, Manifest manifest) {
+        Manifest.Document document = manifest.getDocumentByName(filename);
         if (document != null) {
             return document.getDigestMethod();
         } else {
@@ -88,38 +532,99 @@ public class SignedPdfValidator {
         }
     }
 
-    private void validateSeal() {
-        logger.info("Vi har ännu inte implementerat validering av PDF-filens signatur.");
-        // TODO: Validate
+    private List<String> validateSeal(PDDocument document) throws IOException {
+        if (!sealValidation) {
+            return Collections.emptyList();
+        }
+        logger.info("Validerar PDF-filens signatur.");
+        long start = System.nanoTime();
+        try {
+            TrustAnchors trustAnchors = sealTrustAnchors != null ? sealTrustAnchors : test ? TrustAnchors.sealTest() : null;
+            PdfSealValidator sealValidator = new PdfSealValidator(trustAnchors, revisions, revisionCache);
+            List<String> errors = sealValidator.validate(document, pdf.getLoadedBytes());
+            unsealedAttachments = sealValidator.getUnsealedFiles();
+            if (!unsealedAttachments.isEmpty()) {
+                // The result cache only keeps errors, and a cached result would not tell which files are unsealed
+                cacheable = false;
+            }
+            return errors;
+        } finally {
+            ValidationMetrics.record(ValidationMetrics.Phase.SEAL, System.nanoTime() - start);
+        }
     }
 
-    private Manifest extractManifest(PDDocument document) {
-        logger.debug("Läser innehållsförteckning.");
-        COSInputStream manifestStream = getEmbeddedFileAsStream(document, "manifest.json");
-        if (manifestStream != null) {
-            return Manifest.createFromStream(manifestStream);
-        } else {
-            validationErrors.add("PDF:en har ingen bifogad innehållsförteckning (manifest.json).");
-            return null;
+    /**
+     * Requires the manifest and every file it refers to to be covered by the seal.
+     */
+    private List<String> checkSealed(Manifest manifest) {
+        List<String> errors = new ArrayList<>();
+        if (unsealedAttachments.isEmpty()) {
+            return errors;
+        }
+        Set<String> filenames = new LinkedHashSet<>();
+        filenames.add("manifest.json");
+        for (Manifest.Signature signature : manifest.getSignatures()) {
+            filenames.addAll(Arrays.asList(signature.getVisibleData(), signature.getNonVisibleData(), signature.getSignatureFile()));
+        }
+        for (String filename : filenames) {
+            if (unsealedAttachments.contains(filename)) {
+                errors.add("Den bifogade filen " + filename + " har lagts till efter att PDF:en signerades.");
+            }
         }
+        return errors;
     }
 
-    private COSInputStream getEmbeddedFileAsStream(PDDocument document, String filename) {
-        PDEmbeddedFilesNameTreeNode embeddedFiles = document.getDocumentCatalog().getNames().getEmbeddedFiles();
-        if (embeddedFiles == null) {
-            validationErrors.add("PDF:en innehåller inga bifogade filer.");
-        } else {
-            try {
-                PDComplexFileSpecification manifestFileSpecification = embeddedFiles.getNames().get(filename);
-                return manifestFileSpecification.getEmbeddedFile().createInputStream();
-            } catch (IOException e) {
-                validationErrors.add("Misslyckades med att läsa bifogade filer.");
-                validationErrors.add(e.getMessage());
+    private Manifest extractManifest(EmbeddedFileIndex embeddedFiles) {
+        logger.debug("Läser innehållsförteckning.");
+        long start = System.nanoTime();
+        List<String> errors = new ArrayList<>();
+        try (InputStream manifestStream = getEmbeddedFileAsStream(embeddedFiles, "manifest.json", errors)) {
+            if (manifestStream != null) {
+                try {
+                    return Manifest.createFromStream(manifestStream, limits.getMaxSignatures());
+                } catch (JsonParseException e) {
+                    // The manifest is there, it just cannot be used
+                    validationErrors.add(e.getMessage());
+                    return null;
+                }
             }
+        } catch (IOException e) {
+            errors.add(e.getMessage());
+        } finally {
+            ValidationMetrics.record(ValidationMetrics.Phase.MANIFEST, System.nanoTime() - start);
         }
+        validationErrors.addAll(errors);
+        validationErrors.add("PDF:en har ingen bifogad innehållsförteckning (manifest.json).");
         return null;
     }
 
+    /**
+     * Opens an embedded file for reading, decoded, within the size limit of embedded files and the deadline.
+     */
+    private InputStream getEmbeddedFileAsStream(EmbeddedFileIndex embeddedFiles, String filename, List<String> errors) {
+        if (embeddedFiles.isEmpty()) {
+            errors.add("PDF:en innehåller inga bifogade filer.");
+            return null;
+        }
+        long start = System.nanoTime();
+        try {
+            // With a size limit, files PDFBox would decode in full before the limit sees a byte are refused
+            InputStream stream = embeddedFiles.open(filename, limits.getMaxAttachmentBytes() > 0);
+            if (stream == null) {
+                errors.add("PDF:en saknar den bifogade filen " + filename + ".");
+                return null;
+            }
+            return new LimitedInputStream(stream, limits.getMaxAttachmentBytes(), deadline,
+                    "Den bifogade filen " + filename + " är större än " + limits.getMaxAttachmentBytes() + " byte.");
+        } catch (IOException e) {
+            errors.add("Misslyckades med att läsa bifogade filer.");
+            errors.add(e.getMessage());
+            return null;
+        } finally {
+            ValidationMetrics.record(ValidationMetrics.Phase.EMBEDDED_FILE_READ, System.nanoTime() - start);
+        }
+    }
+
     public static void main(String[] args) throws IOException {
         List<String> argList = new ArrayList<>(Arrays.asList(args));
         if (argList.contains("-v")) {
@@ -137,17 +642,163 @@ public class SignedPdfValidator {
             argList.remove("-t");
         }
 
-        if (argList.size() != 1) {
-            System.out.println("Användning: ");
-            System.out.println("java " + SignedPdfValidator.class.getCanonicalName() + " [-v] pdf-file");
-            exit(1);
+        boolean parallel = false;
+        if (argList.contains("-p")) {
+            parallel = true;
+            argList.remove("-p");
         }
 
-        SignedPdfValidator validator = new SignedPdfValidator(new FileInputStream(argList.get(0)), test);
-        if (validator.validate()) {
-            System.out.println("Signaturerna stämmer.");
-        } else {
-            System.out.println("Signaturerna stämmer inte.");
+        ValidationMode mode = ValidationMode.EXHAUSTIVE;
+        if (argList.contains("-f")) {
+            mode = ValidationMode.FAIL_FAST;
+            argList.remove("-f");
+        }
+
+        boolean incremental = false;
+        if (argList.contains("-i")) {
+            incremental = true;
+            argList.remove("-i");
+        }
+
+        boolean attachmentsOnly = false;
+        if (argList.contains("-l")) {
+            attachmentsOnly = true;
+            argList.remove("-l");
+        }
+
+        MemoryPolicy memoryPolicy = MemoryPolicy.mainMemoryOnly();
+        int memoryIndex = argList.indexOf("-m");
+        if (memoryIndex >= 0 && memoryIndex + 1 < argList.size()) {
+            try {
+                memoryPolicy = MemoryPolicy.parse(argList.get(memoryIndex + 1));
+            } catch (IllegalArgumentException e) {
+                System.out.println(e.getMessage());
+                exit(1);
+            }
+            argList.remove(memoryIndex + 1);
+            argList.remove(memoryIndex);
+        }
+
+        OcspChecker ocspChecker = null;
+        int ocspIndex = argList.indexOf("-o");
+        if (ocspIndex >= 0 && ocspIndex + 1 < argList.size()) {
+            ocspChecker = new OcspChecker(OcspResponseSource.fromDirectory(Paths.get(argList.get(ocspIndex + 1))));
+            argList.remove(ocspIndex + 1);
+            argList.remove(ocspIndex);
+        }
+
+        TrustAnchors sealTrustAnchors = null;
+        int sealRootsIndex = argList.indexOf("-s");
+        if (sealRootsIndex >= 0 && sealRootsIndex + 1 < argList.size()) {
+            sealTrustAnchors = TrustAnchors.fromFile(Paths.get(argList.get(sealRootsIndex + 1)));
+            argList.remove(sealRootsIndex + 1);
+            argList.remove(sealRootsIndex);
+        }
+
+        ResultCache resultCache = null;
+        int cacheIndex = argList.indexOf("-c");
+        if (cacheIndex >= 0 && cacheIndex + 1 < argList.size()) {
+            resultCache = new ResultCache(Paths.get(argList.get(cacheIndex + 1)));
+            argList.remove(cacheIndex + 1);
+            argList.remove(cacheIndex);
+        }
+
+        int xmlProviderIndex = argList.indexOf("-x");
+        if (xmlProviderIndex >= 0 && xmlProviderIndex + 1 < argList.size()) {
+            CryptoProviders.setXmlSignatureProvider(argList.get(xmlProviderIndex + 1));
+            argList.remove(xmlProviderIndex + 1);
+            argList.remove(xmlProviderIndex);
+        }
+
+        int jcaProviderIndex = argList.indexOf("-j");
+        if (jcaProviderIndex >= 0 && jcaProviderIndex + 1 < argList.size()) {
+            CryptoProviders.setJcaProvider(argList.get(jcaProviderIndex + 1));
+            argList.remove(jcaProviderIndex + 1);
+            argList.remove(jcaProviderIndex);
+        }
+
+        ValidationLimits limits = ValidationLimits.defaults();
+        int limitsIndex = argList.indexOf("-g");
+        if (limitsIndex >= 0 && limitsIndex + 1 < argList.size()) {
+            try {
+                limits = ValidationLimits.parse(argList.get(limitsIndex + 1));
+            } catch (IllegalArgumentException e) {
+                System.out.println(e.getMessage());
+                exit(1);
+            }
+            argList.remove(limitsIndex + 1);
+            argList.remove(limitsIndex);
+        }
+
+        if (argList.contains("-u")) {
+            argList.remove("-u");
+            ValidatorWarmup.run(ValidatorWarmup.DEFAULT_ITERATIONS);
+        }
+
+        // With -b and -w on a pool of its own, apart from the threads the documents are validated on
+        ExecutorService executor = parallel ? Executors.newFixedThreadPool(Runtime.getRuntime().availableProcessors()) : null;
+        ValidationEngine engine = ValidationEngine.builder(test)
+                .memoryPolicy(memoryPolicy)
+                .attachmentsOnly(attachmentsOnly)
+                .resultCache(resultCache)
+                .validationMode(mode)
+                .ocspChecker(ocspChecker)
+                .sealTrustAnchors(sealTrustAnchors)
+                .limits(limits)
+                .incremental(incremental)
+                .signatureExecutor(executor)
+                .build();
+
+        try {
+            int watchIndex = argList.indexOf("-w");
+            if (watchIndex >= 0 && watchIndex + 1 < argList.size()) {
+                AsyncValidator asyncValidator = new AsyncValidator(engine, Runtime.getRuntime().availableProcessors(), AsyncValidator.Backpressure.WAIT);
+                try (SpoolWatcher watcher = new SpoolWatcher(Paths.get(argList.get(watchIndex + 1)), asyncValidator)) {
+                    // Runs until the process is stopped; results are recorded before files are moved, so that is safe
+                    watcher.run();
+                } finally {
+                    asyncValidator.close();
+                }
+                return;
+            }
+
+            if (argList.contains("-b")) {
+                argList.remove("-b");
+                BatchValidator batchValidator = new BatchValidator(engine, Runtime.getRuntime().availableProcessors());
+                BatchValidator.Summary summary = batchValidator.validate(BatchValidator.resolveInputs(argList), System.out);
+                System.err.println(summary);
+                return;
+            }
+
+            if (argList.size() != 1) {
+                System.out.println("Användning: ");
+                System.out.println("java " + SignedPdfValidator.class.getCanonicalName() + " [-v] [-t] [-p] [-f] [-l] [-m memory|mixed:64m|tempfile] [-c cachefil] [-o ocspkatalog] [-s rotcertifikat.pem] [-x xml-leverantör] [-j jca-leverantör] [-g gränser] [-u] pdf-file");
+                System.out.println("java " + SignedPdfValidator.class.getCanonicalName() + " [-v] [-t] [-p] [-f] [-l] [-i] [-m memory|mixed:64m|tempfile] [-c cachefil] [-o ocspkatalog] [-s rotcertifikat.pem] [-x xml-leverantör] [-j jca-leverantör] [-g gränser] [-u] -b katalog|glob|@fillista...");
+                System.out.println("java " + SignedPdfValidator.class.getCanonicalName() + " [-v] [-t] [-p] [-f] [-l] [-i] [-m memory|mixed:64m|tempfile] [-c cachefil] [-o ocspkatalog] [-s rotcertifikat.pem] [-x xml-leverantör] [-j jca-leverantör] [-g gränser] [-u] -w inkorg");
+                exit(1);
+            }
+
+            SignedPdfValidator validator = new SignedPdfValidator(PdfSource.of(Paths.get(argList.get(0))), test);
+            validator.setMemoryPolicy(memoryPolicy);
+            validator.setAttachmentsOnly(attachmentsOnly);
+            validator.setResultCache(resultCache);
+            validator.setValidationMode(mode);
+            validator.setOcspChecker(ocspChecker);
+            validator.setSealTrustAnchors(sealTrustAnchors);
+            validator.setLimits(limits);
+            validator.setExecutor(executor);
+            if (validator.validate()) {
+                System.out.println("Signaturerna stämmer.");
+            } else {
+                System.out.println("Signaturerna stämmer inte.");
+            }
+        } finally {
+            if (executor != null) {
+                executor.shutdown();
+            }
+            if (resultCache != null) {
+                resultCache.close();
+            }
         }
     }
 }
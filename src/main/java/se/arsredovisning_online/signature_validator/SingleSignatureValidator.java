@@ -1,13 +1,13 @@
 package se.arsredovisning_online.signature_validator;
 
+import org.apache.commons.io.IOUtils;
 import org.apache.logging.log4j.LogManager;
 import org.apache.logging.log4j.Logger;
 import org.w3c.dom.Document;
+import org.xml.sax.SAXException;
 
-import javax.xml.parsers.DocumentBuilderFactory;
-import javax.xml.xpath.XPath;
-import javax.xml.xpath.XPathExpressionException;
-import javax.xml.xpath.XPathFactory;
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
 import java.io.InputStream;
 import java.util.ArrayList;
 import java.util.List;
@@ -18,8 +18,12 @@ public class SingleSignatureValidator {
     private final InputStream nonVisibleData;
     private final String nonVisibleDataDigestMethod;
     private boolean test;
+    private OcspChecker ocspChecker;
+    private TrustAnchors trustAnchors;
     private List<String> validationErrors = new ArrayList<>();
+    private final byte[] signatureDigest;
     private final Document signatureDocument;
+    private final BankIdSignedData signedData;
     private Logger logger = LogManager.getLogger(SingleSignatureValidator.class);
 
     public SingleSignatureValidator(InputStream visibleData, String visibleDataDigestMethod, InputStream nonVisibleData, String nonVisibleDataDigestMethod, InputStream signature) {
@@ -27,53 +31,121 @@ public class SingleSignatureValidator {
     }
 
     public SingleSignatureValidator(InputStream visibleData, String visibleDataDigestMethod, InputStream nonVisibleData, String nonVisibleDataDigestMethod, InputStream signature, boolean test) {
+        this(visibleData, visibleDataDigestMethod, nonVisibleData, nonVisibleDataDigestMethod, signature, test, ValidationLimits.defaults());
+    }
+
+    /**
+     * Only the XML depth limit applies here; the streams are expected to enforce any size limits themselves.
+     */
+    SingleSignatureValidator(InputStream visibleData, String visibleDataDigestMethod, InputStream nonVisibleData, String nonVisibleDataDigestMethod, InputStream signature, boolean test,
+                             ValidationLimits limits) {
         this.visibleData = visibleData;
         this.visibleDataDigestMethod = visibleDataDigestMethod;
         this.nonVisibleData = nonVisibleData;
         this.nonVisibleDataDigestMethod = nonVisibleDataDigestMethod;
         this.test = test;
-        this.signatureDocument = parseSignatureFile(signature);
+        long start = System.nanoTime();
+        byte[] signatureBytes = readSignatureFile(signature);
+        this.signatureDigest = DigestMaker.getDigest(new ByteArrayInputStream(signatureBytes), "sha256");
+        this.signatureDocument = parseSignatureFile(signatureBytes, limits.getMaxXmlDepth());
+        long parsed = System.nanoTime();
+        ValidationMetrics.record(ValidationMetrics.Phase.XML_PARSE, parsed - start);
+        this.signedData = BankIdSignedData.extract(signatureDocument);
+        ValidationMetrics.record(ValidationMetrics.Phase.DATA_EXTRACTION, System.nanoTime() - parsed);
+    }
+
+    /**
+     * Also checks that the signer certificate is not revoked. Revocation status can change, so outcomes are then
+     * not shared through the signature verification cache; the checker keeps its own cache with a TTL.
+     */
+    public void setOcspChecker(OcspChecker ocspChecker) {
+        this.ocspChecker = ocspChecker;
+    }
+
+    /**
+     * Validates the certificate chain against these roots instead of BankID's.
+     */
+    public void setTrustAnchors(TrustAnchors trustAnchors) {
+        this.trustAnchors = trustAnchors;
     }
 
     public boolean validate() {
-        checkVisibleData();
-        checkNonVisibleData();
+        return validate(ValidationMode.EXHAUSTIVE);
+    }
+
+    /**
+     * Compares the data files with the signature file before verifying the signature itself, which is by far the
+     * most expensive step. In {@link ValidationMode#FAIL_FAST} nothing more is done after the first mismatch.
+     */
+    public boolean validate(ValidationMode mode) {
+        checkData(mode);
+        if (mode == ValidationMode.FAIL_FAST && !validationErrors.isEmpty()) {
+            return false;
+        }
         validateSignature();
 
         return validationErrors.isEmpty();
     }
 
-    private void validateSignature() {
-        BankIdSignatureValidator validator = new BankIdSignatureValidator(signatureDocument, test);
-        if (!validator.validate()) {
+    void checkData(ValidationMode mode) {
+        if (!checkVisibleData() && mode == ValidationMode.FAIL_FAST) {
+            return;
+        }
+        checkNonVisibleData();
+    }
+
+    void validateSignature() {
+        if (ocspChecker != null) {
+            BankIdSignatureValidator validator = new BankIdSignatureValidator(signatureDocument, test);
+            validator.setTrustAnchors(trustAnchors);
+            validator.setOcspChecker(ocspChecker);
+            validator.validate();
             validationErrors.addAll(validator.getValidationErrors());
+            return;
         }
+
+        List<String> cachedErrors = SignatureVerificationCache.get(signatureDigest, test, trustAnchors);
+        if (cachedErrors != null) {
+            logger.debug("Signaturen har verifierats tidigare, använder sparat resultat.");
+            validationErrors.addAll(cachedErrors);
+            return;
+        }
+
+        BankIdSignatureValidator validator = new BankIdSignatureValidator(signatureDocument, test);
+        validator.setTrustAnchors(trustAnchors);
+        validator.validate();
+        SignatureVerificationCache.put(signatureDigest, test, trustAnchors, validator.getValidationErrors());
+        validationErrors.addAll(validator.getValidationErrors());
     }
 
-    private void checkVisibleData() {
+    private boolean checkVisibleData() {
         if (compareData(
                 visibleData,
                 visibleDataDigestMethod,
-                "//*[local-name()='Signature']/*[local-name()='Object']/*[local-name()='bankIdSignedData']/*[local-name()='usrVisibleData']/text()",
+                signedData.getUserVisibleData(),
                 "Synligt data (\"user visible data\") i separat fil matchar inte signaturfilen.")) {
             logger.debug("Synligt data (\"user visible data\") i separat fil matchar signaturfilen.");
+            return true;
         }
+        return false;
     }
 
-    private void checkNonVisibleData() {
+    private boolean checkNonVisibleData() {
         if (compareData(
                 nonVisibleData,
                 nonVisibleDataDigestMethod,
-                "//*[local-name()='Signature']/*[local-name()='Object']/*[local-name()='bankIdSignedData']/*[local-name()='usrNonVisibleData']/text()",
+                signedData.getUserNonVisibleData(),
                 "Osynligt data (\"non-visible data\") i separat fil matchar inte signaturfilen.")) {
             logger.debug("Osynligt data (\"non-visible data\") i separat fil matchar signaturfilen.");
+            return true;
         }
+        return false;
     }
 
-    private boolean compareData(InputStream nonVisibleData, String nonVisibleDataDigestMethod, String xPath, String errorMessage) {
-        String nonVisibleDataDigest = DigestMaker.getEncodedDigest(nonVisibleData, nonVisibleDataDigestMethod);
-        String nonVisibleDataFromSignatureFile = getXPath(signatureDocument, xPath);
-        boolean valid = nonVisibleDataDigest.equals(nonVisibleDataFromSignatureFile);
+    private boolean compareData(InputStream data, String digestMethod, String dataFromSignatureFile, String errorMessage) {
+        long start = System.nanoTime();
+        boolean valid = DigestMaker.matches(data, digestMethod, dataFromSignatureFile);
+        ValidationMetrics.record(ValidationMetrics.Phase.DIGEST, System.nanoTime() - start);
         if (!valid) {
             validationErrors.add(errorMessage);
             logger.debug(errorMessage);
@@ -81,26 +153,31 @@ public class SingleSignatureValidator {
         return valid;
     }
 
-    private String getXPath(Document document, String path) {
+    private static byte[] readSignatureFile(InputStream signatureAsStream) {
         try {
-            XPath xPath = XPathFactory.newInstance().newXPath();
-            return xPath.evaluate(path, document);
-        } catch (XPathExpressionException e) {
+            return IOUtils.toByteArray(signatureAsStream);
+        } catch (IOException e) {
             throw new RuntimeException(e);
         }
     }
 
-    private static Document parseSignatureFile(InputStream signatureAsStream) {
-        DocumentBuilderFactory dbf = DocumentBuilderFactory.newInstance();
-        dbf.setNamespaceAware(true);
-
+    private static Document parseSignatureFile(byte[] signature, int maxDepth) {
         try {
-            return dbf.newDocumentBuilder().parse(signatureAsStream);
+            return XmlFactories.documentBuilderWithMaxDepth(maxDepth).parse(new ByteArrayInputStream(signature));
+        } catch (SAXException e) {
+            if (XmlFactories.isDepthLimitExceeded(e)) {
+                throw new ValidationLimits.ExceededException("Signaturfilen är nästlad djupare än " + maxDepth + " nivåer.");
+            }
+            throw new RuntimeException(e);
         } catch (Exception e) {
             throw new RuntimeException(e);
         }
     }
 
+    public BankIdSignedData getSignedData() {
+        return signedData;
+    }
+
     public List<String> getValidationErrors() {
         return validationErrors;
     }
@@ -0,0 +1,342 @@
+package se.arsredovisning_online.signature_validator;
+
+import com.google.gson.Gson;
+import com.google.gson.JsonArray;
+import com.google.gson.JsonObject;
+import com.google.gson.JsonParseException;
+import com.google.gson.JsonParser;
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+import java.io.BufferedReader;
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.ClosedWatchServiceException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.nio.file.StandardWatchEventKinds;
+import java.nio.file.WatchEvent;
+import java.nio.file.WatchKey;
+import java.nio.file.WatchService;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.time.Duration;
+import java.time.LocalDateTime;
+import java.time.format.DateTimeFormatter;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+import java.util.Queue;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Stream;
+
+/**
+ * Watches an incoming directory and validates every PDF that lands there, as soon as it has been completely
+ * written.
+ * <p>
+ * A file counts as completely written once its size and modification time have not changed for the quiet
+ * period. Each validated file is moved to {@code valid/} or {@code invalid/} below the incoming directory and its
+ * result is appended to {@code results.jsonl}, in the same format as {@link BatchValidator}. The result is
+ * written before the file is moved, so the journal doubles as checkpoint: after a crash, files that were
+ * validated but not yet moved are moved according to their recorded result instead of being validated again.
+ * <p>
+ * On start the journal is rotated: it is renamed to {@code results-<time>.jsonl} and a new one is started with
+ * only the results of files still in the incoming directory, so that startup never reads more than what has
+ * been recorded since the previous start.
+ */
+public class SpoolWatcher implements Closeable {
+    static final String RESULTS = "results.jsonl";
+    static final String VALID = "valid";
+    static final String INVALID = "invalid";
+
+    private static final Gson gson = new Gson();
+
+    private final Path incoming;
+    private final AsyncValidator validator;
+    private final WatchService watchService;
+    private final Map<Path, Observation> pending = new HashMap<>();
+    private final Map<String, Boolean> checkpoint = new HashMap<>();
+    private final Set<Path> inProgress = ConcurrentHashMap.newKeySet();
+    private final Queue<Path> retries = new ConcurrentLinkedQueue<>();
+    private long quietNanos = TimeUnit.SECONDS.toNanos(1);
+    private Logger logger = LogManager.getLogger(SpoolWatcher.class);
+
+    public SpoolWatcher(Path incoming, AsyncValidator validator) throws IOException {
+        this.incoming = incoming;
+        this.validator = validator;
+        Files.createDirectories(incoming.resolve(VALID));
+        Files.createDirectories(incoming.resolve(INVALID));
+        this.watchService = incoming.getFileSystem().newWatchService();
+        incoming.register(watchService, StandardWatchEventKinds.ENTRY_CREATE, StandardWatchEventKinds.ENTRY_MODIFY);
+    }
+
+    /**
+     * How long a file must stay unchanged before it is validated. One second by default.
+     */
+    public void setQuietPeriod(Duration quietPeriod) {
+        this.quietNanos = quietPeriod.toNanos();
+    }
+
+    /**
+     * Handles what is already in the directory, then everything that arrives, until {@link #close()} is called
+     * or the thread is interrupted.
+     */
+    public void run() throws IOException {
+        readCheckpoint();
+        scan();
+        try {
+            while (!Thread.currentThread().isInterrupted()) {
+                WatchKey key = watchService.poll(Math.max(1, TimeUnit.NANOSECONDS.toMillis(quietNanos) / 2), TimeUnit.MILLISECONDS);
+                if (key != null) {
+                    for (WatchEvent<?> event : key.pollEvents()) {
+                        if (event.kind() == StandardWatchEventKinds.OVERFLOW) {
+                            scan();
+                        } else {
+                            observe(incoming.resolve((Path) event.context()));
+                        }
+                    }
+                    key.reset();
+                }
+                for (Path file = retries.poll(); file != null; file = retries.poll()) {
+                    observe(file);
+                }
+                submitSettled();
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } catch (ClosedWatchServiceException e) {
+            logger.debug("Slutar bevaka " + incoming);
+        }
+    }
+
+    @Override
+    public void close() throws IOException {
+        watchService.close();
+    }
+
+    /**
+     * Reads which files have a recorded result but may still be in the incoming directory, and rotates the
+     * journal if it holds any results of files that have been moved since.
+     */
+    private void readCheckpoint() throws IOException {
+        Path results = incoming.resolve(RESULTS);
+        if (!Files.exists(results)) {
+            return;
+        }
+        List<String> kept = new ArrayList<>();
+        boolean dropped = false;
+        try (BufferedReader reader = Files.newBufferedReader(results, StandardCharsets.UTF_8)) {
+            String line;
+            while ((line = reader.readLine()) != null) {
+                try {
+                    JsonObject json = new JsonParser().parse(line).getAsJsonObject();
+                    Path file = incoming.resolve(json.get("file").getAsString());
+                    // Only files still waiting to be moved matter, so the map stays as small as the directory
+                    if (Files.exists(file)) {
+                        checkpoint.put(checkpointKey(file.getFileName().toString(), json.get("size").getAsLong(),
+                                json.get("modified").getAsLong()), json.get("valid").getAsBoolean());
+                        kept.add(line);
+                        continue;
+                    }
+                } catch (JsonParseException | IllegalStateException | NullPointerException e) {
+                    // A line cut short by a crash
+                    logger.warn("Hoppar över ogiltig rad i " + results);
+                }
+                dropped = true;
+            }
+        }
+        if (dropped) {
+            rotate(results, kept);
+        }
+    }
+
+    /**
+     * Starts a new journal with {@code kept}. The new journal is complete before the old one is renamed, so a
+     * crash in between at worst leaves both, or validates a few files again.
+     */
+    private void rotate(Path results, List<String> kept) throws IOException {
+        Path next = incoming.resolve(RESULTS + ".tmp");
+        try (OutputStream out = Files.newOutputStream(next, StandardOpenOption.CREATE, StandardOpenOption.TRUNCATE_EXISTING,
+                StandardOpenOption.WRITE, StandardOpenOption.SYNC)) {
+            for (String line : kept) {
+                out.write((line + "\n").getBytes(StandardCharsets.UTF_8));
+            }
+        }
+        String time = LocalDateTime.now().format(DateTimeFormatter.ofPattern("yyyyMMdd-HHmmss", Locale.ROOT));
+        Path archive = incoming.resolve("results-" + time + ".jsonl");
+        for (int i = 1; Files.exists(archive); i++) {
+            archive = incoming.resolve("results-" + time + "-" + i + ".jsonl");
+        }
+        Files.move(results, archive, StandardCopyOption.ATOMIC_MOVE);
+        Files.move(next, results, StandardCopyOption.ATOMIC_MOVE);
+        logger.info("Tidigare resultat finns i " + archive.getFileName());
+    }
+
+    private void scan() throws IOException {
+        try (Stream<Path> children = Files.list(incoming)) {
+            children.forEach(this::observe);
+        }
+    }
+
+    private void observe(Path file) {
+        if (!isPdf(file) || inProgress.contains(file)) {
+            return;
+        }
+        try {
+            BasicFileAttributes attributes = Files.readAttributes(file, BasicFileAttributes.class);
+            Observation previous = pending.get(file);
+            Observation current = new Observation(attributes.size(), attributes.lastModifiedTime().toMillis(), System.nanoTime());
+            if (previous == null || !previous.sameAs(current)) {
+                pending.put(file, current);
+            }
+        } catch (IOException e) {
+            // Moved or deleted since the event
+            pending.remove(file);
+        }
+    }
+
+    private void submitSettled() {
+        long now = System.nanoTime();
+        Iterator<Map.Entry<Path, Observation>> iterator = pending.entrySet().iterator();
+        List<Path> settled = new ArrayList<>();
+        while (iterator.hasNext()) {
+            Map.Entry<Path, Observation> entry = iterator.next();
+            Path file = entry.getKey();
+            Observation observation = entry.getValue();
+            Observation latest;
+            try {
+                BasicFileAttributes attributes = Files.readAttributes(file, BasicFileAttributes.class);
+                latest = new Observation(attributes.size(), attributes.lastModifiedTime().toMillis(), now);
+            } catch (IOException e) {
+                iterator.remove();
+                continue;
+            }
+            if (!observation.sameAs(latest)) {
+                entry.setValue(latest);
+            } else if (now - observation.since >= quietNanos) {
+                iterator.remove();
+                settled.add(file);
+            }
+        }
+        for (Path file : settled) {
+            handle(file);
+        }
+    }
+
+    private void handle(Path file) {
+        long size;
+        long modified;
+        try {
+            BasicFileAttributes attributes = Files.readAttributes(file, BasicFileAttributes.class);
+            size = attributes.size();
+            modified = attributes.lastModifiedTime().toMillis();
+        } catch (IOException e) {
+            return;
+        }
+
+        Boolean recorded = checkpoint.remove(checkpointKey(file.getFileName().toString(), size, modified));
+        if (recorded != null) {
+            logger.info(file.getFileName() + " har redan validerats, flyttar den.");
+            move(file, recorded);
+            return;
+        }
+
+        logger.info("Validerar " + file.getFileName());
+        inProgress.add(file);
+        validator.validate(PdfSource.of(file)).whenComplete((report, failure) -> {
+            if (failure instanceof RejectedExecutionException || failure instanceof CancellationException) {
+                // Not validated at all, so nothing to record. A full validator is tried again later.
+                inProgress.remove(file);
+                if (failure instanceof RejectedExecutionException) {
+                    retries.add(file);
+                }
+                return;
+            }
+            List<String> errors;
+            long nanos;
+            if (failure != null) {
+                errors = new ArrayList<>();
+                errors.add(String.valueOf(failure.getMessage()));
+                nanos = 0;
+            } else {
+                errors = report.getErrors();
+                nanos = report.getDuration().toNanos();
+            }
+            finish(file, size, modified, errors, nanos);
+            inProgress.remove(file);
+        });
+    }
+
+    private synchronized void finish(Path file, long size, long modified, List<String> errors, long nanos) {
+        JsonObject json = new JsonObject();
+        json.addProperty("file", file.getFileName().toString());
+        json.addProperty("valid", errors.isEmpty());
+        JsonArray errorArray = new JsonArray();
+        for (String error : errors) {
+            errorArray.add(error);
+        }
+        json.add("errors", errorArray);
+        json.addProperty("millis", TimeUnit.NANOSECONDS.toMillis(nanos));
+        json.addProperty("size", size);
+        json.addProperty("modified", modified);
+
+        try (OutputStream out = Files.newOutputStream(incoming.resolve(RESULTS), StandardOpenOption.CREATE,
+                StandardOpenOption.APPEND, StandardOpenOption.SYNC)) {
+            out.write((gson.toJson(json) + "\n").getBytes(StandardCharsets.UTF_8));
+        } catch (IOException e) {
+            // Without a recorded result the file stays put and is validated again after a restart
+            logger.error("Kunde inte spara resultatet för " + file.getFileName(), e);
+            return;
+        }
+        move(file, errors.isEmpty());
+    }
+
+    private synchronized void move(Path file, boolean valid) {
+        Path directory = incoming.resolve(valid ? VALID : INVALID);
+        String name = file.getFileName().toString();
+        Path target = directory.resolve(name);
+        for (int i = 1; Files.exists(target); i++) {
+            target = directory.resolve(name.substring(0, name.length() - 4) + "-" + i + name.substring(name.length() - 4));
+        }
+        try {
+            Files.move(file, target, StandardCopyOption.ATOMIC_MOVE);
+        } catch (IOException e) {
+            logger.error("Kunde inte flytta " + file + " till " + directory, e);
+        }
+    }
+
+    private static String checkpointKey(String name, long size, long modified) {
+        return name + "/" + size + "/" + modified;
+    }
+
+    private static boolean isPdf(Path path) {
+        return Files.isRegularFile(path) && path.getFileName().toString().toLowerCase(Locale.ROOT).endsWith(".pdf");
+    }
+
+    private static class Observation {
+        private final long size;
+        private final long modified;
+        private final long since;
+
+        Observation(long size, long modified, long since) {
+            this.size = size;
+            this.modified = modified;
+            this.since = since;
+        }
+
+        boolean sameAs(Observation other) {
+            return size == other.size && modified == other.modified;
+        }
+    }
+}
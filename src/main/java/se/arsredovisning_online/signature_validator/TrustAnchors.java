@@ -0,0 +1,257 @@
+package se.arsredovisning_online.signature_validator;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.security.GeneralSecurityException;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.security.Provider;
+import java.security.cert.Certificate;
+import java.security.cert.CertificateException;
+import java.security.cert.CertificateFactory;
+import java.security.cert.X509Certificate;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Base64;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Registry of trusted root certificates, parsed once and indexed by subject key identifier.
+ * <p>
+ * Also memoizes successful issuer&rarr;subject signature checks process-wide, since the same few BankID
+ * intermediates sign every document we see.
+ */
+public final class TrustAnchors {
+    static final int MAX_CACHED_VERIFICATIONS = 1024;
+
+    private static final String SUBJECT_KEY_IDENTIFIER_OID = "2.5.29.14";
+    private static final String AUTHORITY_KEY_IDENTIFIER_OID = "2.5.29.35";
+
+    private static final TrustAnchors PRODUCTION = fromBase64(BankIdSignatureValidator.BANKID_ROOT_CERT);
+    private static final TrustAnchors TEST = fromBase64(BankIdSignatureValidator.BANKID_ROOT_CERT_TEST);
+    private static final TrustAnchors SEAL_TEST = fromBase64(PdfSealValidator.SEAL_ROOT_CERT_TEST);
+
+    private static final Map<String, Boolean> verifiedPairs = new LinkedHashMap<String, Boolean>(16, 0.75f, true) {
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<String, Boolean> eldest) {
+            return size() > MAX_CACHED_VERIFICATIONS;
+        }
+    };
+
+    private final List<X509Certificate> roots;
+    private final Map<String, X509Certificate> rootsBySubjectKeyIdentifier = new LinkedHashMap<>();
+    private volatile String fingerprint;
+
+    public TrustAnchors(Collection<X509Certificate> roots) {
+        this.roots = Collections.unmodifiableList(new ArrayList<>(roots));
+        for (X509Certificate root : roots) {
+            byte[] keyIdentifier = getSubjectKeyIdentifier(root);
+            if (keyIdentifier != null) {
+                rootsBySubjectKeyIdentifier.put(toHex(keyIdentifier), root);
+            }
+        }
+    }
+
+    public static TrustAnchors production() {
+        return PRODUCTION;
+    }
+
+    public static TrustAnchors test() {
+        return TEST;
+    }
+
+    public static TrustAnchors forMode(boolean test) {
+        return test ? TEST : PRODUCTION;
+    }
+
+    /**
+     * The root of the test seals on PDFs. There is no built-in root for production seals; those roots have to be
+     * given.
+     */
+    public static TrustAnchors sealTest() {
+        return SEAL_TEST;
+    }
+
+    /**
+     * Reads the roots from a file of PEM or DER encoded certificates.
+     */
+    public static TrustAnchors fromFile(Path file) throws IOException {
+        try (InputStream input = Files.newInputStream(file)) {
+            List<X509Certificate> roots = new ArrayList<>();
+            for (Certificate certificate : CertificateFactory.getInstance("X.509").generateCertificates(input)) {
+                roots.add((X509Certificate) certificate);
+            }
+            if (roots.isEmpty()) {
+                throw new IOException("Filen " + file + " innehåller inga certifikat.");
+            }
+            return new TrustAnchors(roots);
+        } catch (CertificateException e) {
+            throw new IOException("Kunde inte läsa certifikaten i " + file + ".", e);
+        }
+    }
+
+    public List<X509Certificate> getRoots() {
+        return roots;
+    }
+
+    /**
+     * Identifies this set of roots, so that anything derived from validating against them can be thrown away
+     * when the roots change.
+     */
+    public String getFingerprint() {
+        if (fingerprint == null) {
+            fingerprint = computeFingerprint();
+        }
+        return fingerprint;
+    }
+
+    private String computeFingerprint() {
+        StringBuilder fingerprints = new StringBuilder();
+        try {
+            for (X509Certificate root : roots) {
+                fingerprints.append(fingerprint(root));
+            }
+            return toHex(MessageDigest.getInstance("SHA-256").digest(fingerprints.toString().getBytes(StandardCharsets.US_ASCII)));
+        } catch (CertificateException | NoSuchAlgorithmException e) {
+            throw new RuntimeException(e);
+        }
+    }
+
+    public X509Certificate findBySubjectKeyIdentifier(byte[] keyIdentifier) {
+        return rootsBySubjectKeyIdentifier.get(toHex(keyIdentifier));
+    }
+
+    /**
+     * Verifies that the last certificate of a chain was issued by one of the roots in this registry.
+     */
+    public void verifyAnchored(X509Certificate certificate) throws GeneralSecurityException {
+        byte[] authorityKeyIdentifier = getAuthorityKeyIdentifier(certificate);
+        if (authorityKeyIdentifier != null) {
+            X509Certificate root = findBySubjectKeyIdentifier(authorityKeyIdentifier);
+            if (root == null) {
+                throw new GeneralSecurityException("No trusted root with key identifier " + toHex(authorityKeyIdentifier));
+            }
+            verifyIssuedBy(certificate, root);
+            return;
+        }
+
+        GeneralSecurityException lastException = new GeneralSecurityException("No trusted roots");
+        for (X509Certificate root : roots) {
+            try {
+                verifyIssuedBy(certificate, root);
+                return;
+            } catch (GeneralSecurityException e) {
+                lastException = e;
+            }
+        }
+        throw lastException;
+    }
+
+    /**
+     * Verifies the signature of {@code subject} with the public key of {@code issuer}. Successful checks are
+     * cached by certificate fingerprint, so a repeated chain costs a hash lookup instead of an RSA operation.
+     */
+    public static void verifyIssuedBy(X509Certificate subject, X509Certificate issuer) throws GeneralSecurityException {
+        String key = fingerprint(subject) + ":" + fingerprint(issuer);
+        synchronized (verifiedPairs) {
+            // get() rather than containsKey() so that a hit refreshes the entry in the access-ordered map
+            if (verifiedPairs.get(key) != null) {
+                return;
+            }
+        }
+        Provider provider = CryptoProviders.jcaProvider();
+        if (provider == null) {
+            subject.verify(issuer.getPublicKey());
+        } else {
+            subject.verify(issuer.getPublicKey(), provider);
+        }
+        synchronized (verifiedPairs) {
+            verifiedPairs.put(key, Boolean.TRUE);
+        }
+    }
+
+    static int cachedVerificationCount() {
+        synchronized (verifiedPairs) {
+            return verifiedPairs.size();
+        }
+    }
+
+    static void clearVerificationCache() {
+        synchronized (verifiedPairs) {
+            verifiedPairs.clear();
+        }
+    }
+
+    private static TrustAnchors fromBase64(String certificate) {
+        try {
+            byte[] bytes = Base64.getMimeDecoder().decode(certificate);
+            CertificateFactory certificateFactory = CertificateFactory.getInstance("X.509");
+            X509Certificate root = (X509Certificate) certificateFactory.generateCertificate(new ByteArrayInputStream(bytes));
+            return new TrustAnchors(Collections.singletonList(root));
+        } catch (CertificateException e) {
+            throw new RuntimeException(e);
+        }
+    }
+
+    static String fingerprint(X509Certificate certificate) throws CertificateException {
+        try {
+            return toHex(MessageDigest.getInstance("SHA-256").digest(certificate.getEncoded()));
+        } catch (NoSuchAlgorithmException e) {
+            throw new RuntimeException(e);
+        }
+    }
+
+    static byte[] getSubjectKeyIdentifier(X509Certificate certificate) {
+        // extnValue is an OCTET STRING wrapping the KeyIdentifier OCTET STRING
+        byte[] extension = certificate.getExtensionValue(SUBJECT_KEY_IDENTIFIER_OID);
+        if (extension == null) {
+            return null;
+        }
+        return readContents(readContents(extension));
+    }
+
+    static byte[] getAuthorityKeyIdentifier(X509Certificate certificate) {
+        // extnValue is an OCTET STRING wrapping SEQUENCE { [0] keyIdentifier OPTIONAL, ... }
+        byte[] extension = certificate.getExtensionValue(AUTHORITY_KEY_IDENTIFIER_OID);
+        if (extension == null) {
+            return null;
+        }
+        byte[] sequence = readContents(readContents(extension));
+        if (sequence.length > 0 && (sequence[0] & 0xff) == 0x80) {
+            return readContents(sequence);
+        }
+        return null;
+    }
+
+    /**
+     * Returns the contents of the DER element at the start of {@code der}.
+     */
+    private static byte[] readContents(byte[] der) {
+        int position = 1;
+        int length = der[position++] & 0xff;
+        if (length > 0x7f) {
+            int lengthBytes = length & 0x7f;
+            length = 0;
+            for (int i = 0; i < lengthBytes; i++) {
+                length = (length << 8) | (der[position++] & 0xff);
+            }
+        }
+        return Arrays.copyOfRange(der, position, position + length);
+    }
+
+    static String toHex(byte[] bytes) {
+        StringBuilder builder = new StringBuilder(bytes.length * 2);
+        for (byte b : bytes) {
+            builder.append(Character.forDigit((b >> 4) & 0xf, 16)).append(Character.forDigit(b & 0xf, 16));
+        }
+        return builder.toString();
+    }
+}
@@ -0,0 +1,326 @@
+package se.arsredovisning_online.signature_validator;
+
+import org.apache.pdfbox.cos.COSArray;
+import org.apache.pdfbox.cos.COSBase;
+import org.apache.pdfbox.cos.COSDictionary;
+import org.apache.pdfbox.cos.COSName;
+import org.apache.pdfbox.cos.COSObject;
+import org.apache.pdfbox.cos.COSObjectKey;
+import org.apache.pdfbox.cos.COSString;
+import org.apache.pdfbox.io.RandomAccessRead;
+import org.apache.pdfbox.io.ScratchFile;
+import org.apache.pdfbox.pdfparser.PDFParser;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Set;
+
+/**
+ * What the incremental updates appended after the last seal did to a document, such as an attachment or a
+ * registration stamp added once the document had been sealed.
+ * <p>
+ * The sealed revision is the file up to the end of the seal, so its cross-reference table tells which objects it
+ * holds. Every one of them must still be read from where the seal covers it, except the catalog, the name
+ * dictionary and the nodes of the embedded files name tree, which an update has to replace to add a file. Those
+ * are compared with their sealed versions instead: the only difference allowed is files added to the name tree.
+ * Anything else, like a changed page or an attachment replaced under the same name, means the sealed document
+ * itself has been changed.
+ * <p>
+ * Both revisions are read from the file as written, not from the loaded document, which PDFBox amends in memory.
+ */
+final class UnsealedUpdate {
+    private static final int MAX_TREE_DEPTH = 32;
+
+    private final List<String> addedFiles;
+
+    private UnsealedUpdate(List<String> addedFiles) {
+        this.addedFiles = addedFiles;
+    }
+
+    /**
+     * Compares the revision of {@code pdf} that ends at {@code sealedEnd} with the whole file. Returns {@code null}
+     * if the updates after it change anything but the embedded files name tree, or do not add any file.
+     */
+    static UnsealedUpdate read(RandomAccessRead pdf, long sealedEnd) throws IOException {
+        RevisionParser sealed = new RevisionParser(new Prefix(pdf, sealedEnd));
+        RevisionParser current = new RevisionParser(new Prefix(pdf, pdf.length()));
+        try {
+            COSDictionary sealedTrailer = sealed.readTrailer();
+            COSDictionary currentTrailer = current.readTrailer();
+            if (sealedTrailer == null || currentTrailer == null) {
+                return null;
+            }
+            Tree sealedTree = new Tree(sealedTrailer, sealed);
+            Tree currentTree = new Tree(currentTrailer, current);
+
+            // Objects of the sealed revision that a later update replaced
+            Map<COSObjectKey, Long> currentXref = current.getDocument().getXrefTable();
+            for (Map.Entry<COSObjectKey, Long> entry : sealed.getDocument().getXrefTable().entrySet()) {
+                if (!entry.getValue().equals(currentXref.get(entry.getKey())) && !currentTree.path.contains(entry.getKey())) {
+                    return null;
+                }
+            }
+
+            if (!sameExcept(sealedTree.catalog, currentTree.catalog, COSName.NAMES)
+                    || !sameExcept(sealedTree.names, currentTree.names, COSName.EMBEDDED_FILES)) {
+                return null;
+            }
+            for (Map.Entry<String, COSBase> file : sealedTree.files.entrySet()) {
+                if (!same(file.getValue(), currentTree.files.get(file.getKey()))) {
+                    return null;
+                }
+            }
+            List<String> addedFiles = new ArrayList<>(currentTree.files.keySet());
+            addedFiles.removeAll(sealedTree.files.keySet());
+            return addedFiles.isEmpty() ? null : new UnsealedUpdate(addedFiles);
+        } finally {
+            sealed.getDocument().close();
+            current.getDocument().close();
+        }
+    }
+
+    /**
+     * The names of the embedded files the seal does not cover.
+     */
+    List<String> getAddedFiles() {
+        return Collections.unmodifiableList(addedFiles);
+    }
+
+    private static boolean sameExcept(COSDictionary sealed, COSDictionary current, COSName except) {
+        if (sealed == null || current == null) {
+            return sealed == current;
+        }
+        Set<COSName> keys = new HashSet<>(sealed.keySet());
+        keys.addAll(current.keySet());
+        keys.remove(except);
+        for (COSName key : keys) {
+            if (!same(sealed.getItem(key), current.getItem(key))) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Whether two values from different parses of the file are the same, references by object number only.
+     */
+    private static boolean same(COSBase sealed, COSBase current) {
+        if (sealed instanceof COSObject || current instanceof COSObject) {
+            return sealed instanceof COSObject && current instanceof COSObject
+                    && ((COSObject) sealed).getObjectNumber() == ((COSObject) current).getObjectNumber()
+                    && ((COSObject) sealed).getGenerationNumber() == ((COSObject) current).getGenerationNumber();
+        }
+        if (sealed instanceof COSDictionary) {
+            if (!(current instanceof COSDictionary) || ((COSDictionary) sealed).size() != ((COSDictionary) current).size()) {
+                return false;
+            }
+            for (Map.Entry<COSName, COSBase> entry : ((COSDictionary) sealed).entrySet()) {
+                if (!same(entry.getValue(), ((COSDictionary) current).getItem(entry.getKey()))) {
+                    return false;
+                }
+            }
+            return true;
+        }
+        if (sealed instanceof COSArray) {
+            if (!(current instanceof COSArray) || ((COSArray) sealed).size() != ((COSArray) current).size()) {
+                return false;
+            }
+            for (int i = 0; i < ((COSArray) sealed).size(); i++) {
+                if (!same(((COSArray) sealed).get(i), ((COSArray) current).get(i))) {
+                    return false;
+                }
+            }
+            return true;
+        }
+        return Objects.equals(sealed, current);
+    }
+
+    /**
+     * The catalog, the name dictionary and the embedded files name tree of one revision, with the files as the
+     * unresolved values of the tree.
+     */
+    private static class Tree {
+        private final Set<COSObjectKey> path = new HashSet<>();
+        private final Map<String, COSBase> files = new LinkedHashMap<>();
+        private final RevisionParser parser;
+        private COSDictionary catalog;
+        private COSDictionary names;
+
+        Tree(COSDictionary trailer, RevisionParser parser) throws IOException {
+            this.parser = parser;
+            catalog = dictionary(trailer.getItem(COSName.ROOT));
+            names = catalog == null ? null : dictionary(catalog.getItem(COSName.NAMES));
+            if (names != null) {
+                addNode(names.getItem(COSName.EMBEDDED_FILES), 0);
+            }
+        }
+
+        private void addNode(COSBase value, int depth) throws IOException {
+            COSDictionary node = dictionary(value);
+            if (node == null || depth > MAX_TREE_DEPTH) {
+                return;
+            }
+            COSBase entries = parser.resolve(node.getItem(COSName.NAMES));
+            if (entries instanceof COSArray) {
+                COSArray array = (COSArray) entries;
+                for (int i = 0; i + 1 < array.size(); i += 2) {
+                    COSBase name = parser.resolve(array.get(i));
+                    if (name instanceof COSString) {
+                        files.putIfAbsent(((COSString) name).getString(), array.get(i + 1));
+                    }
+                }
+            }
+            COSBase kids = parser.resolve(node.getItem(COSName.KIDS));
+            if (kids instanceof COSArray) {
+                for (COSBase kid : (COSArray) kids) {
+                    addNode(kid, depth + 1);
+                }
+            }
+        }
+
+        private COSDictionary dictionary(COSBase value) throws IOException {
+            if (value instanceof COSObject) {
+                COSObject reference = (COSObject) value;
+                path.add(new COSObjectKey(reference.getObjectNumber(), reference.getGenerationNumber()));
+            }
+            COSBase resolved = parser.resolve(value);
+            return resolved instanceof COSDictionary ? (COSDictionary) resolved : null;
+        }
+    }
+
+    /**
+     * Reads the cross-reference sections of a revision, and then only the objects asked for.
+     */
+    private static class RevisionParser extends PDFParser {
+        RevisionParser(RandomAccessRead source) throws IOException {
+            super(source, "", null, null, ScratchFile.getMainMemoryOnlyInstance());
+        }
+
+        COSDictionary readTrailer() {
+            try {
+                return retrieveTrailer();
+            } catch (IOException e) {
+                return null;
+            }
+        }
+
+        COSBase resolve(COSBase value) throws IOException {
+            return value instanceof COSObject ? parseObjectDynamically((COSObject) value, false) : value;
+        }
+    }
+
+    /**
+     * The file up to {@code length}, read through the source the document was parsed from.
+     */
+    private static class Prefix implements RandomAccessRead {
+        private final RandomAccessRead pdf;
+        private final long length;
+        private long position;
+
+        Prefix(RandomAccessRead pdf, long length) {
+            this.pdf = pdf;
+            this.length = length;
+        }
+
+        @Override
+        public int read() throws IOException {
+            if (position >= length) {
+                return -1;
+            }
+            pdf.seek(position);
+            int b = pdf.read();
+            if (b >= 0) {
+                position++;
+            }
+            return b;
+        }
+
+        @Override
+        public int read(byte[] b) throws IOException {
+            return read(b, 0, b.length);
+        }
+
+        @Override
+        public int read(byte[] b, int offset, int length) throws IOException {
+            if (position >= this.length) {
+                return -1;
+            }
+            pdf.seek(position);
+            int read = pdf.read(b, offset, (int) Math.min(length, this.length - position));
+            if (read > 0) {
+                position += read;
+            }
+            return read;
+        }
+
+        @Override
+        public long getPosition() {
+            return position;
+        }
+
+        @Override
+        public void seek(long position) {
+            this.position = position;
+        }
+
+        @Override
+        public long length() {
+            return length;
+        }
+
+        @Override
+        public boolean isClosed() {
+            return pdf.isClosed();
+        }
+
+        @Override
+        public int peek() throws IOException {
+            int b = read();
+            if (b >= 0) {
+                position--;
+            }
+            return b;
+        }
+
+        @Override
+        public void rewind(int bytes) {
+            position -= bytes;
+        }
+
+        @Override
+        public byte[] readFully(int length) throws IOException {
+            byte[] bytes = new byte[length];
+            int offset = 0;
+            while (offset < length) {
+                int read = read(bytes, offset, length - offset);
+                if (read < 0) {
+                    throw new EOFException();
+                }
+                offset += read;
+            }
+            return bytes;
+        }
+
+        @Override
+        public boolean isEOF() {
+            return position >= length;
+        }
+
+        @Override
+        public int available() {
+            return (int) Math.min(Integer.MAX_VALUE, Math.max(0, length - position));
+        }
+
+        @Override
+        public void close() {
+            // The source belongs to the document
+        }
+    }
+}
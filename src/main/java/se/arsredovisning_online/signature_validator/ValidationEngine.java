@@ -0,0 +1,241 @@
+package se.arsredovisning_online.signature_validator;
+
+import java.io.InputStream;
+import java.util.Collections;
+import java.util.concurrent.Executor;
+import java.util.function.BooleanSupplier;
+
+/**
+ * Validates signed PDFs and signature files with a configuration fixed when it is built.
+ * <p>
+ * Unlike {@link SignedPdfValidator} and {@link SingleSignatureValidator}, which hold one document and its errors,
+ * an engine holds nothing but its configuration. Every call keeps its state to itself and returns an immutable
+ * {@link ValidationReport}, so one engine can be shared by all threads of an application:
+ * <pre>
+ * ValidationEngine engine = ValidationEngine.builder(false).validationMode(ValidationMode.FAIL_FAST).build();
+ * ValidationReport report = engine.validate(PdfSource.of(path));
+ * </pre>
+ * A result cache or OCSP checker given to the builder is shared by all calls as well; both are thread-safe. So
+ * are the outcomes of earlier revisions an {@link Builder#incremental(boolean) incremental} engine keeps, which
+ * belong to the engine: an engine built with other settings starts without them.
+ */
+public final class ValidationEngine {
+    private final boolean test;
+    private final MemoryPolicy memoryPolicy;
+    private final boolean attachmentsOnly;
+    private final ValidationMode mode;
+    private final OcspChecker ocspChecker;
+    private final ResultCache resultCache;
+    private final boolean sealValidation;
+    private final TrustAnchors sealTrustAnchors;
+    private final TrustAnchors signatureTrustAnchors;
+    private final ValidationLimits limits;
+    private final RevisionCache revisionCache;
+    private final Executor signatureExecutor;
+
+    private ValidationEngine(Builder builder) {
+        this.test = builder.test;
+        this.memoryPolicy = builder.memoryPolicy;
+        this.attachmentsOnly = builder.attachmentsOnly;
+        this.mode = builder.mode;
+        this.ocspChecker = builder.ocspChecker;
+        this.resultCache = builder.resultCache;
+        this.sealValidation = builder.sealValidation;
+        this.sealTrustAnchors = builder.sealTrustAnchors;
+        this.signatureTrustAnchors = builder.signatureTrustAnchors;
+        this.limits = builder.limits;
+        this.revisionCache = builder.incremental ? new RevisionCache() : null;
+        this.signatureExecutor = builder.signatureExecutor;
+    }
+
+    /**
+     * Starts configuring an engine that validates against BankID's test roots if {@code test} is set, otherwise
+     * against the production roots.
+     */
+    public static Builder builder(boolean test) {
+        return new Builder(test);
+    }
+
+    /**
+     * A builder with this engine's configuration, for an engine that differs in some setting.
+     */
+    public Builder toBuilder() {
+        return new Builder(test)
+                .memoryPolicy(memoryPolicy)
+                .attachmentsOnly(attachmentsOnly)
+                .validationMode(mode)
+                .ocspChecker(ocspChecker)
+                .resultCache(resultCache)
+                .sealValidation(sealValidation)
+                .sealTrustAnchors(sealTrustAnchors)
+                .signatureTrustAnchors(signatureTrustAnchors)
+                .limits(limits)
+                .incremental(revisionCache != null)
+                .signatureExecutor(signatureExecutor);
+    }
+
+    public boolean isTest() {
+        return test;
+    }
+
+    public ValidationMode getValidationMode() {
+        return mode;
+    }
+
+    RevisionCache getRevisionCache() {
+        return revisionCache;
+    }
+
+    /**
+     * Validates a signed PDF: its seal, its manifest and every signature the manifest lists.
+     */
+    public ValidationReport validate(PdfSource pdf) {
+        return validate(pdf, null);
+    }
+
+    /**
+     * Stops with a {@link java.util.concurrent.CancellationException} at the next phase boundary once
+     * {@code cancelled} returns true.
+     */
+    ValidationReport validate(PdfSource pdf, BooleanSupplier cancelled) {
+        long start = System.nanoTime();
+        SignedPdfValidator validator = new SignedPdfValidator(pdf, test);
+        validator.setMemoryPolicy(memoryPolicy);
+        validator.setAttachmentsOnly(attachmentsOnly);
+        validator.setResultCache(resultCache);
+        validator.setValidationMode(mode);
+        validator.setOcspChecker(ocspChecker);
+        validator.setSealValidation(sealValidation);
+        validator.setSealTrustAnchors(sealTrustAnchors);
+        validator.setSignatureTrustAnchors(signatureTrustAnchors);
+        validator.setLimits(limits);
+        validator.setRevisionCache(revisionCache);
+        validator.setExecutor(signatureExecutor);
+        if (cancelled != null) {
+            validator.setCancellation(cancelled);
+        }
+        validator.validate();
+        return new ValidationReport(validator.getValidationErrors(), validator.getUnsealedAttachments(), System.nanoTime() - start);
+    }
+
+    /**
+     * Validates one signature file and the data it signs, as extracted from a PDF. An unreadable signature file,
+     * or one beyond the limits, gives a report with that error rather than an exception.
+     */
+    public ValidationReport validateSignature(InputStream visibleData, String visibleDataDigestMethod,
+                                              InputStream nonVisibleData, String nonVisibleDataDigestMethod,
+                                              InputStream signature) {
+        long start = System.nanoTime();
+        long deadline = limits.deadlineFrom(start);
+        SingleSignatureValidator validator;
+        try {
+            validator = new SingleSignatureValidator(limit(visibleData, deadline), visibleDataDigestMethod,
+                    limit(nonVisibleData, deadline), nonVisibleDataDigestMethod, limit(signature, deadline), test, limits);
+        } catch (RuntimeException e) {
+            return new ValidationReport(Collections.singletonList(String.valueOf(e.getMessage())), System.nanoTime() - start);
+        }
+        validator.setOcspChecker(ocspChecker);
+        validator.setTrustAnchors(signatureTrustAnchors);
+        try {
+            validator.validate(mode);
+        } catch (ValidationLimits.ExceededException e) {
+            return new ValidationReport(Collections.singletonList(e.getMessage()), System.nanoTime() - start);
+        }
+        return new ValidationReport(validator.getValidationErrors(), System.nanoTime() - start);
+    }
+
+    private InputStream limit(InputStream data, long deadline) {
+        return new LimitedInputStream(data, limits.getMaxAttachmentBytes(), deadline,
+                "Filen är större än " + limits.getMaxAttachmentBytes() + " byte.");
+    }
+
+    public static final class Builder {
+        private final boolean test;
+        private MemoryPolicy memoryPolicy = MemoryPolicy.mainMemoryOnly();
+        private boolean attachmentsOnly;
+        private ValidationMode mode = ValidationMode.EXHAUSTIVE;
+        private OcspChecker ocspChecker;
+        private ResultCache resultCache;
+        private boolean sealValidation = true;
+        private TrustAnchors sealTrustAnchors;
+        private TrustAnchors signatureTrustAnchors;
+        private ValidationLimits limits = ValidationLimits.defaults();
+        private boolean incremental;
+        private Executor signatureExecutor;
+
+        private Builder(boolean test) {
+            this.test = test;
+        }
+
+        public Builder memoryPolicy(MemoryPolicy memoryPolicy) {
+            this.memoryPolicy = memoryPolicy;
+            return this;
+        }
+
+        public Builder attachmentsOnly(boolean attachmentsOnly) {
+            this.attachmentsOnly = attachmentsOnly;
+            return this;
+        }
+
+        public Builder validationMode(ValidationMode mode) {
+            this.mode = mode;
+            return this;
+        }
+
+        public Builder ocspChecker(OcspChecker ocspChecker) {
+            this.ocspChecker = ocspChecker;
+            return this;
+        }
+
+        public Builder resultCache(ResultCache resultCache) {
+            this.resultCache = resultCache;
+            return this;
+        }
+
+        public Builder sealValidation(boolean sealValidation) {
+            this.sealValidation = sealValidation;
+            return this;
+        }
+
+        public Builder sealTrustAnchors(TrustAnchors sealTrustAnchors) {
+            this.sealTrustAnchors = sealTrustAnchors;
+            return this;
+        }
+
+        /**
+         * Roots for the certificate chains of the signature files, instead of BankID's production or test roots.
+         */
+        public Builder signatureTrustAnchors(TrustAnchors signatureTrustAnchors) {
+            this.signatureTrustAnchors = signatureTrustAnchors;
+            return this;
+        }
+
+        public Builder limits(ValidationLimits limits) {
+            this.limits = limits;
+            return this;
+        }
+
+        /**
+         * Reuses what was validated in earlier revisions of amended documents, see
+         * {@link SignedPdfValidator#setRevisionCache(RevisionCache)}.
+         */
+        public Builder incremental(boolean incremental) {
+            this.incremental = incremental;
+            return this;
+        }
+
+        /**
+         * Validates the signatures of each document in parallel on this executor, see
+         * {@link SignedPdfValidator#setExecutor(Executor)}. Not the executor the documents themselves run on, since
+         * a document waits for its signatures and a full pool would then wait for itself.
+         */
+        public Builder signatureExecutor(Executor signatureExecutor) {
+            this.signatureExecutor = signatureExecutor;
+            return this;
+        }
+
+        public ValidationEngine build() {
+            return new ValidationEngine(this);
+        }
+    }
+}
@@ -0,0 +1,170 @@
+package se.arsredovisning_online.signature_validator;
+
+import java.time.Duration;
+import java.util.Locale;
+
+/**
+ * How much a single document may cost before validation gives up on it with an error: the size of the PDF, the
+ * decoded size of each embedded file, the number of signatures, the nesting depth of signature files and the
+ * wall-clock time. A limit of zero means no limit.
+ * <p>
+ * Signature files may not declare a DTD at all, so there are no entities to limit. The deadline is checked
+ * between the phases of validation and while embedded files are read; loading the PDF itself and verifying one
+ * XML signature cannot be interrupted.
+ */
+public final class ValidationLimits {
+    private static final long UNLIMITED = 0;
+
+    private final long maxPdfBytes;
+    private final long maxAttachmentBytes;
+    private final int maxSignatures;
+    private final int maxXmlDepth;
+    private final Duration maxDuration;
+
+    private ValidationLimits(long maxPdfBytes, long maxAttachmentBytes, int maxSignatures, int maxXmlDepth, Duration maxDuration) {
+        this.maxPdfBytes = maxPdfBytes;
+        this.maxAttachmentBytes = maxAttachmentBytes;
+        this.maxSignatures = maxSignatures;
+        this.maxXmlDepth = maxXmlDepth;
+        this.maxDuration = maxDuration;
+    }
+
+    /**
+     * Far above anything Årsredovisning Online produces, but low enough that no single document can exhaust the
+     * heap or hold on to a thread indefinitely.
+     */
+    public static ValidationLimits defaults() {
+        return new ValidationLimits(1024L * 1024 * 1024, 256L * 1024 * 1024, 1000, 100, Duration.ofMinutes(5));
+    }
+
+    public static ValidationLimits none() {
+        return new ValidationLimits(UNLIMITED, UNLIMITED, 0, 0, Duration.ZERO);
+    }
+
+    public ValidationLimits withMaxPdfBytes(long maxPdfBytes) {
+        return new ValidationLimits(maxPdfBytes, maxAttachmentBytes, maxSignatures, maxXmlDepth, maxDuration);
+    }
+
+    /**
+     * Limits every embedded file as it is inflated, so a small file that inflates to gigabytes is stopped after
+     * this many bytes. While the limit is set, files in any other encoding than plain FlateDecode are refused,
+     * since PDFBox decodes those in full before the first byte can be counted.
+     */
+    public ValidationLimits withMaxAttachmentBytes(long maxAttachmentBytes) {
+        return new ValidationLimits(maxPdfBytes, maxAttachmentBytes, maxSignatures, maxXmlDepth, maxDuration);
+    }
+
+    public ValidationLimits withMaxSignatures(int maxSignatures) {
+        return new ValidationLimits(maxPdfBytes, maxAttachmentBytes, maxSignatures, maxXmlDepth, maxDuration);
+    }
+
+    public ValidationLimits withMaxXmlDepth(int maxXmlDepth) {
+        return new ValidationLimits(maxPdfBytes, maxAttachmentBytes, maxSignatures, maxXmlDepth, maxDuration);
+    }
+
+    /**
+     * Counted from when validation of the document starts, so time spent waiting in a queue is not included.
+     */
+    public ValidationLimits withMaxDuration(Duration maxDuration) {
+        return new ValidationLimits(maxPdfBytes, maxAttachmentBytes, maxSignatures, maxXmlDepth, maxDuration);
+    }
+
+    public long getMaxPdfBytes() {
+        return maxPdfBytes;
+    }
+
+    public long getMaxAttachmentBytes() {
+        return maxAttachmentBytes;
+    }
+
+    public int getMaxSignatures() {
+        return maxSignatures;
+    }
+
+    public int getMaxXmlDepth() {
+        return maxXmlDepth;
+    }
+
+    public Duration getMaxDuration() {
+        return maxDuration;
+    }
+
+    /**
+     * Parses a comma-separated list of {@code pdf=<size>}, {@code attachment=<size>}, {@code signatures=<n>},
+     * {@code depth=<n>} and {@code time=<seconds>}, applied on top of {@link #defaults()}. Sizes may have a k, m
+     * or g suffix, and {@code none} alone turns all limits off.
+     */
+    public static ValidationLimits parse(String limits) {
+        String spec = limits.trim().toLowerCase(Locale.ROOT);
+        if (spec.equals("none")) {
+            return none();
+        }
+        ValidationLimits result = defaults();
+        for (String part : spec.split(",")) {
+            String[] keyValue = part.trim().split("=", 2);
+            if (keyValue.length != 2) {
+                throw new IllegalArgumentException("Okänd gräns: " + part);
+            }
+            String value = keyValue[1].trim();
+            try {
+                switch (keyValue[0].trim()) {
+                    case "pdf":
+                        result = result.withMaxPdfBytes(MemoryPolicy.parseSize(value));
+                        break;
+                    case "attachment":
+                        result = result.withMaxAttachmentBytes(MemoryPolicy.parseSize(value));
+                        break;
+                    case "signatures":
+                        result = result.withMaxSignatures(Integer.parseInt(value));
+                        break;
+                    case "depth":
+                        result = result.withMaxXmlDepth(Integer.parseInt(value));
+                        break;
+                    case "time":
+                        result = result.withMaxDuration(Duration.ofSeconds(Long.parseLong(value)));
+                        break;
+                    default:
+                        throw new IllegalArgumentException("Okänd gräns: " + part);
+                }
+            } catch (NumberFormatException e) {
+                throw new IllegalArgumentException("Ogiltigt värde för gräns: " + part, e);
+            }
+        }
+        return result;
+    }
+
+    /**
+     * The {@link System#nanoTime()} after which a document started now has run out of time, or {@code 0}
+     * without a time limit.
+     */
+    long deadlineFrom(long startNanos) {
+        if (maxDuration.isZero() || maxDuration.isNegative()) {
+            return 0;
+        }
+        // Never 0 by accident, since that means no deadline
+        long deadline = startNanos + maxDuration.toNanos();
+        return deadline == 0 ? 1 : deadline;
+    }
+
+    static void checkDeadline(long deadlineNanos) {
+        if (deadlineNanos != 0 && System.nanoTime() - deadlineNanos > 0) {
+            throw new ExceededException("Valideringen tog för lång tid och avbröts.");
+        }
+    }
+
+    @Override
+    public String toString() {
+        return String.format(Locale.ROOT, "pdf=%d,attachment=%d,signatures=%d,depth=%d,time=%d",
+                maxPdfBytes, maxAttachmentBytes, maxSignatures, maxXmlDepth, maxDuration.getSeconds());
+    }
+
+    /**
+     * Thrown wherever a limit is exceeded and turned into a validation error of the whole document. Unchecked so
+     * that it passes unchanged through stream readers and parsers on its way there.
+     */
+    static class ExceededException extends RuntimeException {
+        ExceededException(String message) {
+            super(message);
+        }
+    }
+}
@@ -0,0 +1,300 @@
+package se.arsredovisning_online.signature_validator;
+
+import org.apache.logging.log4j.LogManager;
+
+import javax.management.JMException;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+import java.lang.management.ManagementFactory;
+import java.util.Collections;
+import java.util.EnumMap;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Process-wide counters and latency histograms for each phase of a validation, so that slow validations can be
+ * attributed to PDFBox, XML handling or cryptography.
+ * <p>
+ * Histograms have one bucket per power of two microseconds, so percentiles are accurate to within a factor of
+ * two. Everything can be read with {@link #snapshot()} or over JMX once {@link #registerMBean()} has been called.
+ */
+public final class ValidationMetrics {
+    public static final String OBJECT_NAME = "se.arsredovisning_online.signature_validator:type=ValidationMetrics";
+
+    public enum Phase {
+        /** Parsing the PDF into a document. */
+        PDF_LOAD,
+        /** Validating the PDF signature over its byte range. */
+        SEAL,
+        /** Reading and parsing manifest.json. */
+        MANIFEST,
+        /** Opening and decoding an embedded file. */
+        EMBEDDED_FILE_READ,
+        /** Comparing visible or non-visible data with the signature file. */
+        DIGEST,
+        /** Parsing a signature file into a DOM. */
+        XML_PARSE,
+        /** Extracting bankIdSignedData from the DOM. */
+        DATA_EXTRACTION,
+        /** Canonicalization, reference digests and the signature value, excluding the certificate chain. */
+        REFERENCE_VALIDATION,
+        /** Verifying the certificate chain up to a trusted root. */
+        CHAIN_VERIFICATION,
+        /** Checking the signer certificate against its OCSP response, when enabled. */
+        REVOCATION_CHECK,
+        /** A whole document, from start to result. */
+        DOCUMENT
+    }
+
+    private static final int BUCKETS = 40;
+    private static final Map<Phase, PhaseMetrics> phases = new EnumMap<>(Phase.class);
+    private static final AtomicInteger documentsInFlight = new AtomicInteger();
+    private static final LongAdder documentsInvalid = new LongAdder();
+
+    static {
+        for (Phase phase : Phase.values()) {
+            phases.put(phase, new PhaseMetrics());
+        }
+    }
+
+    private ValidationMetrics() {
+    }
+
+    public static void record(Phase phase, long nanos) {
+        phases.get(phase).record(nanos);
+    }
+
+    static void documentStarted() {
+        documentsInFlight.incrementAndGet();
+    }
+
+    static void documentFinished(long nanos, boolean valid) {
+        documentsInFlight.decrementAndGet();
+        if (!valid) {
+            documentsInvalid.increment();
+        }
+        record(Phase.DOCUMENT, nanos);
+    }
+
+    public static Snapshot snapshot() {
+        Map<Phase, PhaseSnapshot> phaseSnapshots = new EnumMap<>(Phase.class);
+        for (Map.Entry<Phase, PhaseMetrics> entry : phases.entrySet()) {
+            phaseSnapshots.put(entry.getKey(), entry.getValue().snapshot(entry.getKey()));
+        }
+        return new Snapshot(documentsInFlight.get(), documentsInvalid.sum(), phaseSnapshots);
+    }
+
+    /**
+     * Clears all counters and histograms. Documents in flight are still counted.
+     */
+    public static void reset() {
+        for (PhaseMetrics metrics : phases.values()) {
+            metrics.reset();
+        }
+        documentsInvalid.reset();
+    }
+
+    /**
+     * Registers the metrics with the platform MBean server as {@value #OBJECT_NAME}, unless already done.
+     */
+    public static synchronized void registerMBean() {
+        try {
+            MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+            ObjectName name = new ObjectName(OBJECT_NAME);
+            if (!server.isRegistered(name)) {
+                server.registerMBean(new MBean(), name);
+            }
+        } catch (JMException e) {
+            LogManager.getLogger(ValidationMetrics.class).warn("Kunde inte registrera mätvärden i JMX.", e);
+        }
+    }
+
+    private static class PhaseMetrics {
+        private final LongAdder count = new LongAdder();
+        private final LongAdder totalNanos = new LongAdder();
+        private final AtomicLong maxNanos = new AtomicLong();
+        private final AtomicLongArray buckets = new AtomicLongArray(BUCKETS);
+
+        void record(long nanos) {
+            count.increment();
+            totalNanos.add(nanos);
+            maxNanos.accumulateAndGet(nanos, Math::max);
+            buckets.incrementAndGet(bucket(nanos));
+        }
+
+        void reset() {
+            count.reset();
+            totalNanos.reset();
+            maxNanos.set(0);
+            for (int i = 0; i < BUCKETS; i++) {
+                buckets.set(i, 0);
+            }
+        }
+
+        PhaseSnapshot snapshot(Phase phase) {
+            long[] bucketCounts = new long[BUCKETS];
+            for (int i = 0; i < BUCKETS; i++) {
+                bucketCounts[i] = buckets.get(i);
+            }
+            return new PhaseSnapshot(phase, count.sum(), totalNanos.sum(), maxNanos.get(), bucketCounts);
+        }
+
+        private static int bucket(long nanos) {
+            long micros = TimeUnit.NANOSECONDS.toMicros(nanos);
+            return Math.min(BUCKETS - 1, 64 - Long.numberOfLeadingZeros(micros));
+        }
+    }
+
+    public static class Snapshot {
+        private final int documentsInFlight;
+        private final long documentsInvalid;
+        private final Map<Phase, PhaseSnapshot> phases;
+
+        Snapshot(int documentsInFlight, long documentsInvalid, Map<Phase, PhaseSnapshot> phases) {
+            this.documentsInFlight = documentsInFlight;
+            this.documentsInvalid = documentsInvalid;
+            this.phases = Collections.unmodifiableMap(phases);
+        }
+
+        public int getDocumentsInFlight() {
+            return documentsInFlight;
+        }
+
+        public long getDocumentsValidated() {
+            return phases.get(Phase.DOCUMENT).getCount();
+        }
+
+        public long getDocumentsInvalid() {
+            return documentsInvalid;
+        }
+
+        public PhaseSnapshot getPhase(Phase phase) {
+            return phases.get(phase);
+        }
+
+        public Map<Phase, PhaseSnapshot> getPhases() {
+            return phases;
+        }
+    }
+
+    public static class PhaseSnapshot {
+        private final Phase phase;
+        private final long count;
+        private final long totalNanos;
+        private final long maxNanos;
+        private final long[] buckets;
+
+        PhaseSnapshot(Phase phase, long count, long totalNanos, long maxNanos, long[] buckets) {
+            this.phase = phase;
+            this.count = count;
+            this.totalNanos = totalNanos;
+            this.maxNanos = maxNanos;
+            this.buckets = buckets;
+        }
+
+        public Phase getPhase() {
+            return phase;
+        }
+
+        public long getCount() {
+            return count;
+        }
+
+        public long getTotalNanos() {
+            return totalNanos;
+        }
+
+        public double getMeanMillis() {
+            return count == 0 ? 0 : totalNanos / 1e6 / count;
+        }
+
+        public double getMaxMillis() {
+            return maxNanos / 1e6;
+        }
+
+        /**
+         * The upper bound of the histogram bucket holding the given percentile, never more than the maximum.
+         */
+        public double getPercentileMillis(double percentile) {
+            long total = 0;
+            for (long bucketCount : buckets) {
+                total += bucketCount;
+            }
+            if (total == 0) {
+                return 0;
+            }
+            long rank = Math.max(1, (long) Math.ceil(percentile / 100 * total));
+            long seen = 0;
+            for (int i = 0; i < buckets.length; i++) {
+                seen += buckets[i];
+                if (seen >= rank) {
+                    return Math.min(getMaxMillis(), (1L << i) / 1e3);
+                }
+            }
+            return getMaxMillis();
+        }
+    }
+
+    private static class MBean implements ValidationMetricsMXBean {
+        @Override
+        public int getDocumentsInFlight() {
+            return documentsInFlight.get();
+        }
+
+        @Override
+        public long getDocumentsValidated() {
+            return phases.get(Phase.DOCUMENT).count.sum();
+        }
+
+        @Override
+        public long getDocumentsInvalid() {
+            return documentsInvalid.sum();
+        }
+
+        @Override
+        public Map<String, Long> getCounts() {
+            Map<String, Long> counts = new LinkedHashMap<>();
+            for (PhaseSnapshot phase : snapshot().getPhases().values()) {
+                counts.put(phase.getPhase().name(), phase.getCount());
+            }
+            return counts;
+        }
+
+        @Override
+        public Map<String, Double> getMeanMillis() {
+            Map<String, Double> means = new LinkedHashMap<>();
+            for (PhaseSnapshot phase : snapshot().getPhases().values()) {
+                means.put(phase.getPhase().name(), phase.getMeanMillis());
+            }
+            return means;
+        }
+
+        @Override
+        public Map<String, Double> getP99Millis() {
+            Map<String, Double> percentiles = new LinkedHashMap<>();
+            for (PhaseSnapshot phase : snapshot().getPhases().values()) {
+                percentiles.put(phase.getPhase().name(), phase.getPercentileMillis(99));
+            }
+            return percentiles;
+        }
+
+        @Override
+        public Map<String, Double> getMaxMillis() {
+            Map<String, Double> maxima = new LinkedHashMap<>();
+            for (PhaseSnapshot phase : snapshot().getPhases().values()) {
+                maxima.put(phase.getPhase().name(), phase.getMaxMillis());
+            }
+            return maxima;
+        }
+
+        @Override
+        public void reset() {
+            ValidationMetrics.reset();
+        }
+    }
+}
@@ -0,0 +1,24 @@
+package se.arsredovisning_online.signature_validator;
+
+import java.util.Map;
+
+/**
+ * JMX view of {@link ValidationMetrics}. Per-phase values are keyed by {@link ValidationMetrics.Phase} name.
+ */
+public interface ValidationMetricsMXBean {
+    int getDocumentsInFlight();
+
+    long getDocumentsValidated();
+
+    long getDocumentsInvalid();
+
+    Map<String, Long> getCounts();
+
+    Map<String, Double> getMeanMillis();
+
+    Map<String, Double> getP99Millis();
+
+    Map<String, Double> getMaxMillis();
+
+    void reset();
+}
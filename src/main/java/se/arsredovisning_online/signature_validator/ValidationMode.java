@@ -0,0 +1,15 @@
+package se.arsredovisning_online.signature_validator;
+
+/**
+ * How much work to do once a document is known to be invalid.
+ */
+public enum ValidationMode {
+    /**
+     * Runs every check and reports every error, for audit reports.
+     */
+    EXHAUSTIVE,
+    /**
+     * Runs the cheapest checks first and stops at the first error, for turning away uploads.
+     */
+    FAIL_FAST
+}
@@ -0,0 +1,49 @@
+package se.arsredovisning_online.signature_validator;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * The outcome of validating one document. Immutable, so it can be handed between threads freely.
+ */
+public final class ValidationReport {
+    private final List<String> errors;
+    private final List<String> unsealedAttachments;
+    private final long nanos;
+
+    ValidationReport(List<String> errors, long nanos) {
+        this(errors, Collections.emptyList(), nanos);
+    }
+
+    ValidationReport(List<String> errors, List<String> unsealedAttachments, long nanos) {
+        this.errors = Collections.unmodifiableList(new ArrayList<>(errors));
+        this.unsealedAttachments = Collections.unmodifiableList(new ArrayList<>(unsealedAttachments));
+        this.nanos = nanos;
+    }
+
+    public boolean isValid() {
+        return errors.isEmpty();
+    }
+
+    public List<String> getErrors() {
+        return errors;
+    }
+
+    /**
+     * The attachments added after the PDF was sealed, see {@link SignedPdfValidator#getUnsealedAttachments()}.
+     */
+    public List<String> getUnsealedAttachments() {
+        return unsealedAttachments;
+    }
+
+    public Duration getDuration() {
+        return Duration.ofNanos(nanos);
+    }
+
+    @Override
+    public String toString() {
+        return (isValid() ? "Giltig" : "Ogiltig " + errors) + " (" + getDuration().toMillis() + " ms)";
+    }
+}
@@ -0,0 +1,272 @@
+package se.arsredovisning_online.signature_validator;
+
+import com.google.gson.Gson;
+import com.google.gson.JsonArray;
+import com.google.gson.JsonObject;
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Locale;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.SynchronousQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Keeps a warm JVM and validates PDFs posted over HTTP.
+ * <p>
+ * {@code POST /validate} takes the PDF as request body and answers with the validation result as JSON.
+ * {@code GET /health} reports how many validations are running and queued, {@code GET /metrics} how long each
+ * phase of validation takes. At most {@code concurrency}
+ * documents are validated at a time and at most {@code queueSize} wait; anything beyond that is turned away
+ * with 503 instead of piling up.
+ */
+public class ValidationServer {
+    private static final Gson gson = new Gson();
+
+    private final HttpServer server;
+    private final ThreadPoolExecutor workers;
+    private final ValidationEngine engine;
+    private Logger logger = LogManager.getLogger(ValidationServer.class);
+
+    public ValidationServer(InetSocketAddress address, boolean test, int concurrency, int queueSize) throws IOException {
+        this(address, ValidationEngine.builder(test).build(), concurrency, queueSize);
+    }
+
+    public ValidationServer(InetSocketAddress address, ValidationEngine engine, int concurrency, int queueSize) throws IOException {
+        this.engine = engine;
+        BlockingQueue<Runnable> queue = queueSize > 0 ? new ArrayBlockingQueue<>(queueSize) : new SynchronousQueue<>();
+        this.workers = new ThreadPoolExecutor(concurrency, concurrency, 0, TimeUnit.MILLISECONDS, queue);
+        this.server = HttpServer.create(address, 0);
+        // Handlers run on the dispatcher thread and only hand the exchange over to the bounded worker pool
+        server.createContext("/validate", this::handleValidate);
+        server.createContext("/health", this::handleHealth);
+        server.createContext("/metrics", this::handleMetrics);
+    }
+
+    public void start() {
+        ValidationMetrics.registerMBean();
+        server.start();
+        logger.info("Lyssnar på " + server.getAddress());
+    }
+
+    public void stop() {
+        server.stop(0);
+        workers.shutdownNow();
+    }
+
+    public int getPort() {
+        return server.getAddress().getPort();
+    }
+
+    private void handleValidate(HttpExchange exchange) throws IOException {
+        if (!"POST".equals(exchange.getRequestMethod())) {
+            sendError(exchange, 405, "Använd POST med PDF-filen som innehåll.");
+            return;
+        }
+        try {
+            workers.execute(() -> validate(exchange));
+        } catch (RejectedExecutionException e) {
+            sendError(exchange, 503, "För många samtidiga valideringar.");
+        }
+    }
+
+    private void validate(HttpExchange exchange) {
+        long start = System.nanoTime();
+        try (InputStream pdf = exchange.getRequestBody()) {
+            ValidationReport report = engine.validate(PdfSource.of(pdf));
+            JsonObject json = toJson(report.isValid(), report.getErrors(), System.nanoTime() - start);
+            if (!report.getUnsealedAttachments().isEmpty()) {
+                JsonArray unsealed = new JsonArray();
+                for (String filename : report.getUnsealedAttachments()) {
+                    unsealed.add(filename);
+                }
+                json.add("unsealedAttachments", unsealed);
+            }
+            sendJson(exchange, 200, json);
+        } catch (IOException | RuntimeException e) {
+            logger.debug("Valideringen avbröts.", e);
+            try {
+                List<String> errors = Collections.singletonList(String.valueOf(e.getMessage()));
+                sendJson(exchange, 200, toJson(false, errors, System.nanoTime() - start));
+            } catch (IOException ignored) {
+                exchange.close();
+            }
+        }
+    }
+
+    private void handleHealth(HttpExchange exchange) throws IOException {
+        JsonObject json = new JsonObject();
+        json.addProperty("status", "ok");
+        json.addProperty("active", workers.getActiveCount());
+        json.addProperty("queued", workers.getQueue().size());
+        json.addProperty("concurrency", workers.getMaximumPoolSize());
+        sendJson(exchange, 200, json);
+    }
+
+    private void handleMetrics(HttpExchange exchange) throws IOException {
+        ValidationMetrics.Snapshot snapshot = ValidationMetrics.snapshot();
+        JsonObject json = new JsonObject();
+        json.addProperty("documentsInFlight", snapshot.getDocumentsInFlight());
+        json.addProperty("documentsValidated", snapshot.getDocumentsValidated());
+        json.addProperty("documentsInvalid", snapshot.getDocumentsInvalid());
+        JsonObject phases = new JsonObject();
+        for (ValidationMetrics.PhaseSnapshot phase : snapshot.getPhases().values()) {
+            JsonObject phaseJson = new JsonObject();
+            phaseJson.addProperty("count", phase.getCount());
+            phaseJson.addProperty("meanMillis", phase.getMeanMillis());
+            phaseJson.addProperty("p50Millis", phase.getPercentileMillis(50));
+            phaseJson.addProperty("p99Millis", phase.getPercentileMillis(99));
+            phaseJson.addProperty("maxMillis", phase.getMaxMillis());
+            phases.add(phase.getPhase().name(), phaseJson);
+        }
+        json.add("phases", phases);
+        sendJson(exchange, 200, json);
+    }
+
+    private static JsonObject toJson(boolean valid, List<String> errors, long nanos) {
+        JsonObject json = new JsonObject();
+        json.addProperty("valid", valid);
+        JsonArray errorArray = new JsonArray();
+        for (String error : errors) {
+            errorArray.add(error);
+        }
+        json.add("errors", errorArray);
+        json.addProperty("millis", TimeUnit.NANOSECONDS.toMillis(nanos));
+        return json;
+    }
+
+    private static void sendError(HttpExchange exchange, int status, String message) throws IOException {
+        JsonObject json = new JsonObject();
+        json.addProperty("error", message);
+        sendJson(exchange, status, json);
+    }
+
+    private static void sendJson(HttpExchange exchange, int status, JsonObject json) throws IOException {
+        byte[] body = gson.toJson(json).getBytes(StandardCharsets.UTF_8);
+        exchange.getResponseHeaders().set("Content-Type", "application/json; charset=utf-8");
+        exchange.sendResponseHeaders(status, body.length);
+        try (OutputStream out = exchange.getResponseBody()) {
+            out.write(body);
+        }
+    }
+
+    public static void main(String[] args) throws IOException {
+        List<String> argList = new ArrayList<>(Arrays.asList(args));
+        boolean test = argList.remove("-t");
+        boolean incremental = argList.remove("-incremental");
+        int port = 8080;
+        int concurrency = Runtime.getRuntime().availableProcessors();
+        int queueSize = concurrency * 4;
+        MemoryPolicy memoryPolicy = MemoryPolicy.mainMemoryOnly();
+        String cacheFile = null;
+        ValidationMode mode = ValidationMode.EXHAUSTIVE;
+        String ocspDirectory = null;
+        String sealRoots = null;
+        int warmupIterations = 0;
+        int signatureThreads = 0;
+        ValidationLimits limits = ValidationLimits.defaults();
+        try {
+            for (int i = 0; i + 1 < argList.size(); i += 2) {
+                switch (argList.get(i)) {
+                    case "-port":
+                        port = Integer.parseInt(argList.get(i + 1));
+                        break;
+                    case "-threads":
+                        concurrency = Integer.parseInt(argList.get(i + 1));
+                        break;
+                    case "-queue":
+                        queueSize = Integer.parseInt(argList.get(i + 1));
+                        break;
+                    case "-memory":
+                        memoryPolicy = MemoryPolicy.parse(argList.get(i + 1));
+                        break;
+                    case "-mode":
+                        mode = ValidationMode.valueOf(argList.get(i + 1).toUpperCase(Locale.ROOT).replace('-', '_'));
+                        break;
+                    case "-ocsp":
+                        ocspDirectory = argList.get(i + 1);
+                        break;
+                    case "-sealroots":
+                        sealRoots = argList.get(i + 1);
+                        break;
+                    case "-xmlprovider":
+                        CryptoProviders.setXmlSignatureProvider(argList.get(i + 1));
+                        break;
+                    case "-jcaprovider":
+                        CryptoProviders.setJcaProvider(argList.get(i + 1));
+                        break;
+                    case "-signaturethreads":
+                        signatureThreads = Integer.parseInt(argList.get(i + 1));
+                        break;
+                    case "-warmup":
+                        warmupIterations = Integer.parseInt(argList.get(i + 1));
+                        break;
+                    case "-limits":
+                        limits = ValidationLimits.parse(argList.get(i + 1));
+                        break;
+                    case "-cache":
+                        cacheFile = argList.get(i + 1);
+                        break;
+                    default:
+                        throw new IllegalArgumentException(argList.get(i));
+                }
+            }
+            if (argList.size() % 2 != 0) {
+                throw new IllegalArgumentException(argList.get(argList.size() - 1));
+            }
+        } catch (IllegalArgumentException e) {
+            System.out.println("Användning: ");
+            System.out.println("java " + ValidationServer.class.getCanonicalName() + " [-t] [-incremental] [-port 8080] [-threads n] [-queue n] [-memory memory|mixed:64m|tempfile] [-cache cachefil] [-mode exhaustive|fail-fast] [-ocsp ocspkatalog] [-sealroots rotcertifikat.pem] [-xmlprovider namn] [-jcaprovider namn] [-signaturethreads n] [-warmup n] [-limits pdf=1g,attachment=256m,signatures=1000,depth=100,time=300|none]");
+            System.exit(1);
+        }
+
+        ResultCache resultCache = cacheFile == null ? null : new ResultCache(Paths.get(cacheFile));
+        ExecutorService signatureExecutor = signatureThreads > 0 ? Executors.newFixedThreadPool(signatureThreads) : null;
+        ValidationEngine engine = ValidationEngine.builder(test)
+                .memoryPolicy(memoryPolicy)
+                .resultCache(resultCache)
+                .validationMode(mode)
+                .ocspChecker(ocspDirectory == null ? null : new OcspChecker(OcspResponseSource.fromDirectory(Paths.get(ocspDirectory))))
+                .sealTrustAnchors(sealRoots == null ? null : TrustAnchors.fromFile(Paths.get(sealRoots)))
+                .limits(limits)
+                .incremental(incremental)
+                .signatureExecutor(signatureExecutor)
+                .build();
+        ValidationServer server = new ValidationServer(new InetSocketAddress(InetAddress.getLoopbackAddress(), port), engine, concurrency, queueSize);
+        Runtime.getRuntime().addShutdownHook(new Thread(() -> {
+            server.stop();
+            if (signatureExecutor != null) {
+                signatureExecutor.shutdown();
+            }
+            if (resultCache != null) {
+                try {
+                    resultCache.close();
+                } catch (IOException ignored) {
+                }
+            }
+        }));
+        if (warmupIterations > 0) {
+            // Before requests are served, so that the first one is as fast as the rest
+            ValidatorWarmup.run(warmupIterations);
+        }
+        server.start();
+    }
+}
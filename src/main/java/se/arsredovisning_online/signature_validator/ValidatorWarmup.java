@@ -0,0 +1,59 @@
+package se.arsredovisning_online.signature_validator;
+
+import org.apache.commons.io.IOUtils;
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.time.Duration;
+
+/**
+ * Validates a signed PDF bundled with the validator a number of times, so that the first real document does not pay
+ * for class loading, JIT compilation and security provider initialization.
+ * <p>
+ * Meant to run once at startup, before any documents are validated: every round clears the process-wide signature
+ * and certificate caches so that it does the cryptography a new document needs, and the metrics are reset
+ * afterwards so that they only show real documents. The bundled PDF is signed in BankID's test environment.
+ */
+public final class ValidatorWarmup {
+    public static final int DEFAULT_ITERATIONS = 20;
+
+    static final String FIXTURE = "/warmup/Revisionsberättelse (signerat original) - Demo med revision AB - räkenskapsåret 2017.pdf";
+
+    private static final Logger logger = LogManager.getLogger(ValidatorWarmup.class);
+
+    private ValidatorWarmup() {
+    }
+
+    /**
+     * Validates the bundled PDF {@code iterations} times, alternating between reading the whole PDF and only its
+     * attachments. Throws if it is not valid, which means the selected providers cannot verify it.
+     */
+    public static Duration run(int iterations) throws IOException {
+        byte[] pdf = readFixture();
+        long start = System.nanoTime();
+        for (int i = 0; i < iterations; i++) {
+            SignatureVerificationCache.clear();
+            TrustAnchors.clearVerificationCache();
+            SignedPdfValidator validator = new SignedPdfValidator(PdfSource.of(pdf), true);
+            validator.setAttachmentsOnly(i % 2 == 1);
+            if (!validator.validate()) {
+                throw new IllegalStateException("Uppvärmningen misslyckades: " + validator.getValidationErrors());
+            }
+        }
+        Duration duration = Duration.ofNanos(System.nanoTime() - start);
+        ValidationMetrics.reset();
+        logger.info("Uppvärmning med " + iterations + " valideringar tog " + duration.toMillis() + " ms. " + CryptoProviders.describe());
+        return duration;
+    }
+
+    static byte[] readFixture() throws IOException {
+        try (InputStream in = ValidatorWarmup.class.getResourceAsStream(FIXTURE)) {
+            if (in == null) {
+                throw new IOException("Hittar inte " + FIXTURE);
+            }
+            return IOUtils.toByteArray(in);
+        }
+    }
+}
@@ -0,0 +1,107 @@
+package se.arsredovisning_online.signature_validator;
+
+import org.xml.sax.SAXException;
+
+import javax.xml.XMLConstants;
+import javax.xml.crypto.dsig.XMLSignatureFactory;
+import javax.xml.parsers.DocumentBuilder;
+import javax.xml.parsers.DocumentBuilderFactory;
+import javax.xml.parsers.ParserConfigurationException;
+import java.security.Provider;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Shared XML parsers and signature factories, configured once.
+ * <p>
+ * Looking these up through the service loader for every signature is slow and contends on class loader locks
+ * under concurrent load. Neither {@link DocumentBuilder} nor {@link XMLSignatureFactory} instances may be used
+ * by several threads at once, so each thread gets its own, reused for every signature it validates.
+ */
+final class XmlFactories {
+    /**
+     * JAXP property limiting how deeply elements may nest, honoured by the parser in the JDK.
+     */
+    private static final String MAX_ELEMENT_DEPTH = "http://www.oracle.com/xml/jaxp/properties/maxElementDepth";
+
+    private static final Map<Integer, DocumentBuilderFactory> documentBuilderFactories = new ConcurrentHashMap<>();
+
+    private static final ThreadLocal<Map<Integer, DocumentBuilder>> documentBuilders = ThreadLocal.withInitial(HashMap::new);
+
+    private static final ThreadLocal<XMLSignatureFactory> signatureFactories =
+            ThreadLocal.withInitial(() -> XMLSignatureFactory.getInstance("DOM", CryptoProviders.xmlSignatureProvider()));
+
+    private XmlFactories() {
+    }
+
+    /**
+     * Returns this thread's namespace-aware document builder, reset to its initial configuration.
+     */
+    static DocumentBuilder documentBuilder() {
+        return documentBuilderWithMaxDepth(0);
+    }
+
+    /**
+     * Like {@link #documentBuilder()}, but the builder refuses documents nested deeper than {@code maxDepth}
+     * elements, or any depth with {@code 0}.
+     */
+    static DocumentBuilder documentBuilderWithMaxDepth(int maxDepth) {
+        DocumentBuilder builder = documentBuilders.get().computeIfAbsent(maxDepth, XmlFactories::createDocumentBuilder);
+        builder.reset();
+        return builder;
+    }
+
+    /**
+     * Whether parsing failed because of the depth limit of {@link #documentBuilderWithMaxDepth(int)}. The JDK parser reports
+     * it as an ordinary parse error naming the limit.
+     */
+    static boolean isDepthLimitExceeded(SAXException e) {
+        return e.getMessage() != null && e.getMessage().contains("maxElementDepth");
+    }
+
+    /**
+     * Returns this thread's signature factory, from the provider selected in {@link CryptoProviders}.
+     */
+    static XMLSignatureFactory signatureFactory() {
+        XMLSignatureFactory factory = signatureFactories.get();
+        Provider provider = CryptoProviders.xmlSignatureProvider();
+        if (factory.getProvider() != provider) {
+            factory = XMLSignatureFactory.getInstance("DOM", provider);
+            signatureFactories.set(factory);
+        }
+        return factory;
+    }
+
+    private static DocumentBuilder createDocumentBuilder(int maxDepth) {
+        DocumentBuilderFactory factory = documentBuilderFactories.computeIfAbsent(maxDepth, XmlFactories::createDocumentBuilderFactory);
+        try {
+            synchronized (factory) {
+                return factory.newDocumentBuilder();
+            }
+        } catch (ParserConfigurationException e) {
+            throw new RuntimeException(e);
+        }
+    }
+
+    private static DocumentBuilderFactory createDocumentBuilderFactory(int maxDepth) {
+        DocumentBuilderFactory factory = DocumentBuilderFactory.newInstance();
+        factory.setNamespaceAware(true);
+        factory.setXIncludeAware(false);
+        factory.setExpandEntityReferences(false);
+        try {
+            // Signature files never carry a DTD, so there is no reason to let one in
+            factory.setFeature(XMLConstants.FEATURE_SECURE_PROCESSING, true);
+            factory.setFeature("http://apache.org/xml/features/disallow-doctype-decl", true);
+            factory.setFeature("http://xml.org/sax/features/external-general-entities", false);
+            factory.setFeature("http://xml.org/sax/features/external-parameter-entities", false);
+            factory.setFeature("http://apache.org/xml/features/nonvalidating/load-external-dtd", false);
+        } catch (ParserConfigurationException e) {
+            throw new RuntimeException(e);
+        }
+        if (maxDepth > 0) {
+            factory.setAttribute(MAX_ELEMENT_DEPTH, String.valueOf(maxDepth));
+        }
+        return factory;
+    }
+}
@@ -0,0 +1,185 @@
+package se.arsredovisning_online.signature_validator;
+
+import org.apache.commons.io.IOUtils;
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import static org.junit.Assert.*;
+
+public class AsyncValidatorTest {
+    private static byte[] pdf;
+
+    @BeforeClass
+    public static void readFixture() throws IOException {
+        pdf = IOUtils.toByteArray(TestUtil.getFixtureFile("/Årsredovisning (signerat original) - Demobolaget AB - räkenskapsåret 2017.pdf"));
+    }
+
+    @Test
+    public void completesWithReport() throws Exception {
+        try (AsyncValidator validator = new AsyncValidator(true)) {
+            ValidationReport report = validator.validate(PdfSource.of(pdf)).get(30, TimeUnit.SECONDS);
+            assertTrue(report.isValid());
+            assertTrue(report.getErrors().isEmpty());
+        }
+    }
+
+    @Test
+    public void reportIsImmutable() throws Exception {
+        try (AsyncValidator validator = new AsyncValidator(false)) {
+            ValidationReport report = validator.validate(PdfSource.of(pdf)).get(30, TimeUnit.SECONDS);
+            assertFalse(report.isValid());
+            try {
+                report.getErrors().clear();
+                fail();
+            } catch (UnsupportedOperationException expected) {
+            }
+        }
+    }
+
+    @Test
+    public void rejectsWhenFull() {
+        QueuingExecutor executor = new QueuingExecutor();
+        AsyncValidator validator = new AsyncValidator(true, executor, 1, AsyncValidator.Backpressure.REJECT);
+        CompletableFuture<ValidationReport> first = validator.validate(PdfSource.of(pdf));
+        CompletableFuture<ValidationReport> second = validator.validate(PdfSource.of(pdf));
+
+        assertFalse(first.isDone());
+        assertTrue(second.isCompletedExceptionally());
+        try {
+            second.join();
+            fail();
+        } catch (Exception e) {
+            assertTrue(e.getCause() instanceof RejectedExecutionException);
+        }
+
+        executor.runAll();
+        assertTrue(first.join().isValid());
+        assertEquals(1, validator.getAvailableCapacity());
+    }
+
+    @Test
+    public void waitsForRoomWhenFull() throws Exception {
+        QueuingExecutor executor = new QueuingExecutor();
+        AsyncValidator validator = new AsyncValidator(true, executor, 1, AsyncValidator.Backpressure.WAIT);
+        validator.validate(PdfSource.of(pdf));
+
+        CountDownLatch submitted = new CountDownLatch(1);
+        Thread submitter = new Thread(() -> {
+            validator.validate(PdfSource.of(pdf));
+            submitted.countDown();
+        });
+        submitter.start();
+        assertFalse(submitted.await(200, TimeUnit.MILLISECONDS));
+
+        executor.runAll();
+        assertTrue(submitted.await(30, TimeUnit.SECONDS));
+        submitter.join();
+        executor.runAll();
+        assertEquals(1, validator.getAvailableCapacity());
+    }
+
+    @Test
+    public void skipsDocumentCancelledWhileQueued() {
+        QueuingExecutor executor = new QueuingExecutor();
+        AsyncValidator validator = new AsyncValidator(true, executor, 1, AsyncValidator.Backpressure.REJECT);
+        CompletableFuture<ValidationReport> future = validator.validate(PdfSource.of(pdf));
+        long loads = ValidationMetrics.snapshot().getPhase(ValidationMetrics.Phase.PDF_LOAD).getCount();
+
+        assertTrue(future.cancel(true));
+        executor.runAll();
+
+        assertTrue(future.isCancelled());
+        assertEquals(loads, ValidationMetrics.snapshot().getPhase(ValidationMetrics.Phase.PDF_LOAD).getCount());
+        assertEquals(1, validator.getAvailableCapacity());
+    }
+
+    @Test
+    public void stopsInFlightValidationBetweenPhases() {
+        AtomicBoolean cancelled = new AtomicBoolean();
+        List<String> phases = new ArrayList<>();
+        SignedPdfValidator validator = new SignedPdfValidator(PdfSource.of(pdf), true);
+        validator.setCancellation(() -> {
+            phases.add("check");
+            // Cancel once the document has been loaded
+            return cancelled.getAndSet(true);
+        });
+
+        try {
+            validator.validate();
+            fail();
+        } catch (CancellationException expected) {
+        }
+        assertEquals(2, phases.size());
+    }
+
+    @Test
+    public void failsFutureOfCancelledValidation() throws Exception {
+        try (AsyncValidator validator = new AsyncValidator(true)) {
+            CompletableFuture<ValidationReport> future = validator.validate(PdfSource.of(pdf));
+            future.cancel(true);
+            try {
+                future.get(30, TimeUnit.SECONDS);
+                fail();
+            } catch (CancellationException expected) {
+            } catch (ExecutionException e) {
+                fail(e.toString());
+            }
+        }
+    }
+
+    @Test
+    public void cancelsQueuedDocumentsOnClose() throws Exception {
+        AsyncValidator validator = new AsyncValidator(true, 1, AsyncValidator.Backpressure.REJECT);
+        List<CompletableFuture<ValidationReport>> futures = new ArrayList<>();
+        for (int i = 0; i < 5; i++) {
+            futures.add(validator.validate(PdfSource.of(pdf)));
+        }
+        validator.close();
+
+        int cancelled = 0;
+        for (CompletableFuture<ValidationReport> future : futures) {
+            try {
+                assertTrue(future.get(30, TimeUnit.SECONDS).isValid());
+            } catch (CancellationException e) {
+                cancelled++;
+            }
+        }
+        assertTrue(cancelled > 0);
+        assertEquals(5, validator.getAvailableCapacity());
+    }
+
+    /**
+     * Holds tasks until the test runs them.
+     */
+    private static class QueuingExecutor implements Executor {
+        private final List<Runnable> tasks = new ArrayList<>();
+
+        @Override
+        public synchronized void execute(Runnable task) {
+            tasks.add(task);
+        }
+
+        void runAll() {
+            List<Runnable> pending;
+            synchronized (this) {
+                pending = new ArrayList<>(tasks);
+                tasks.clear();
+            }
+            for (Runnable task : pending) {
+                task.run();
+            }
+        }
+    }
+}
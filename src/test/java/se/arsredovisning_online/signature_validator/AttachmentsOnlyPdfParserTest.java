@@ -0,0 +1,63 @@
+package se.arsredovisning_online.signature_validator;
+
+import org.apache.commons.io.IOUtils;
+import org.apache.pdfbox.cos.COSArray;
+import org.apache.pdfbox.cos.COSBase;
+import org.apache.pdfbox.cos.COSDictionary;
+import org.apache.pdfbox.cos.COSName;
+import org.apache.pdfbox.cos.COSObject;
+import org.apache.pdfbox.io.MemoryUsageSetting;
+import org.apache.pdfbox.pdmodel.PDDocument;
+import org.apache.pdfbox.pdmodel.interactive.digitalsignature.PDSignature;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.util.List;
+
+import static org.junit.Assert.*;
+
+public class AttachmentsOnlyPdfParserTest {
+    private static final String FIXTURE = "/Årsredovisning (signerat original) - Demobolaget AB - räkenskapsåret 2017.pdf";
+
+    @Test
+    public void leavesPagesUnparsed() throws IOException {
+        try (PDDocument document = load(true)) {
+            COSDictionary pages = (COSDictionary) document.getDocumentCatalog().getCOSObject().getDictionaryObject(COSName.PAGES);
+            COSArray kids = (COSArray) pages.getDictionaryObject(COSName.KIDS);
+            assertTrue(kids.size() > 0);
+            for (int i = 0; i < kids.size(); i++) {
+                COSBase kid = kids.get(i);
+                assertTrue(kid instanceof COSObject);
+                assertNull(((COSObject) kid).getObject());
+            }
+        }
+    }
+
+    @Test
+    public void readsSameAttachmentsAsFullParse() throws IOException {
+        try (PDDocument lazy = load(true); PDDocument full = load(false)) {
+            EmbeddedFileIndex lazyIndex = EmbeddedFileIndex.build(lazy);
+            EmbeddedFileIndex fullIndex = EmbeddedFileIndex.build(full);
+            assertEquals(fullIndex.getNames(), lazyIndex.getNames());
+            for (String name : fullIndex.getNames()) {
+                assertArrayEquals(name, IOUtils.toByteArray(fullIndex.open(name)), IOUtils.toByteArray(lazyIndex.open(name)));
+            }
+        }
+    }
+
+    @Test
+    public void readsSameSignatureDictionariesAsFullParse() throws IOException {
+        try (PDDocument lazy = load(true); PDDocument full = load(false)) {
+            List<PDSignature> lazySignatures = lazy.getSignatureDictionaries();
+            List<PDSignature> fullSignatures = full.getSignatureDictionaries();
+            assertEquals(1, lazySignatures.size());
+            assertEquals(fullSignatures.size(), lazySignatures.size());
+            assertArrayEquals(fullSignatures.get(0).getByteRange(), lazySignatures.get(0).getByteRange());
+            assertEquals(fullSignatures.get(0).getSubFilter(), lazySignatures.get(0).getSubFilter());
+        }
+    }
+
+    private static PDDocument load(boolean attachmentsOnly) throws IOException {
+        return PdfSource.of(TestUtil.getFixtureFile(FIXTURE)).load(MemoryUsageSetting.setupMainMemoryOnly(), attachmentsOnly);
+    }
+}
@@ -53,4 +53,12 @@ public class BankIdSignatureValidatorTest {
         assertFalse(validator.validate());
         assertThat(validator.getValidationErrors(), hasItem("Certifikatkedjan är inte giltig."));
     }
-}
\ No newline at end of file
+
+    @Test
+    public void leavesDocumentUntouched() {
+        Document signatureFile = TestUtil.getSignatureDocument("/signatur_1_Anna_Andersson.xml");
+        BankIdSignatureValidator validator = new BankIdSignatureValidator(signatureFile, true);
+        assertTrue(validator.validate());
+        assertNull(signatureFile.getElementById("bidSignedData"));
+    }
+}
@@ -0,0 +1,39 @@
+package se.arsredovisning_online.signature_validator;
+
+import org.junit.Test;
+import org.w3c.dom.Document;
+
+import static org.junit.Assert.assertEquals;
+
+public class BankIdSignedDataTest {
+    @Test
+    public void extractsUserData() {
+        BankIdSignedData signedData = BankIdSignedData.extract(TestUtil.getSignatureDocument("/signatur_1_Anna_Andersson.xml"));
+        assertEquals("swtcuxgw3CyoRvS8cRtiKbbqjo5K311CPJKfXDSSZU0=", signedData.getUserNonVisibleData());
+        assertEquals(DigestMaker.getEncodedDigest(TestUtil.getFixtureFile("/styrelseledamot_vd_visible_data.txt"), "plaintext"),
+                signedData.getUserVisibleData());
+    }
+
+    @Test
+    public void extractsSignerIdentity() {
+        BankIdSignedData signedData = BankIdSignedData.extract(TestUtil.getSignatureDocument("/signatur_1_Anna_Andersson.xml"));
+        assertEquals("cn=FP Testcert 2,name=Test av BankID,serialNumber=12345678,o=Testbank A AB (publ),c=SE", signedData.getServerName());
+        assertEquals("Test av BankID", signedData.getDisplayName());
+        assertEquals("n6OzMMNl7dpdkQl5ns8hDNrUmoc=", signedData.getNonce());
+    }
+
+    @Test
+    public void returnsEmptyFieldsWhenSignedDataIsMissing() {
+        Document document = TestUtil.parseXml("<Signature><Object><other/></Object></Signature>");
+        BankIdSignedData signedData = BankIdSignedData.extract(document);
+        assertEquals("", signedData.getUserVisibleData());
+        assertEquals("", signedData.getUserNonVisibleData());
+        assertEquals("", signedData.getServerName());
+    }
+
+    @Test
+    public void ignoresSignedDataOutsideSignatureObject() {
+        Document document = TestUtil.parseXml("<Signature><bankIdSignedData><usrVisibleData>YQ==</usrVisibleData></bankIdSignedData></Signature>");
+        assertEquals("", BankIdSignedData.extract(document).getUserVisibleData());
+    }
+}
@@ -0,0 +1,97 @@
+package se.arsredovisning_online.signature_validator;
+
+import com.google.gson.JsonObject;
+import com.google.gson.JsonParser;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.PrintStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+import static org.junit.Assert.*;
+
+public class BatchValidatorTest {
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private Path archive;
+
+    @Before
+    public void createArchive() throws IOException {
+        archive = folder.newFolder("archive").toPath();
+        copyFixture("/Årsredovisning (signerat original) - Demobolaget AB - räkenskapsåret 2017.pdf", archive.resolve("a.pdf"));
+        copyFixture("/Revisionsberättelse (signerat original) - Demo med revision AB - räkenskapsåret 2017.pdf", archive.resolve("b.pdf"));
+        Files.createDirectory(archive.resolve("2017"));
+        copyFixture("/Årsredovisning (signerat original) - Demo med revision AB - räkenskapsåret 2017.pdf", archive.resolve("2017/c.pdf"));
+        Files.write(archive.resolve("notes.txt"), "not a pdf".getBytes(StandardCharsets.UTF_8));
+    }
+
+    @Test
+    public void resolvesDirectory() throws IOException {
+        List<Path> files = BatchValidator.resolveInputs(Collections.singletonList(archive.toString()));
+        assertEquals(Arrays.asList(archive.resolve("a.pdf"), archive.resolve("b.pdf")), files);
+    }
+
+    @Test
+    public void resolvesGlob() throws IOException {
+        List<Path> files = BatchValidator.resolveInputs(Collections.singletonList(archive + "/**.pdf"));
+        assertEquals(Arrays.asList(archive.resolve("2017/c.pdf"), archive.resolve("a.pdf"), archive.resolve("b.pdf")), files);
+    }
+
+    @Test
+    public void resolvesFileList() throws IOException {
+        Path list = folder.newFile("list.txt").toPath();
+        Files.write(list, Arrays.asList(archive.resolve("b.pdf").toString(), "", archive.resolve("2017/c.pdf").toString()), StandardCharsets.UTF_8);
+        List<Path> files = BatchValidator.resolveInputs(Collections.singletonList("@" + list));
+        assertEquals(Arrays.asList(archive.resolve("b.pdf"), archive.resolve("2017/c.pdf")), files);
+    }
+
+    @Test
+    public void writesOneResultLinePerDocument() throws IOException {
+        List<Path> files = BatchValidator.resolveInputs(Collections.singletonList(archive + "/**.pdf"));
+        ByteArrayOutputStream output = new ByteArrayOutputStream();
+        BatchValidator.Summary summary = new BatchValidator(true, 2).validate(files, new PrintStream(output, true, "UTF-8"));
+
+        String[] lines = new String(output.toByteArray(), StandardCharsets.UTF_8).trim().split("\n");
+        assertEquals(3, lines.length);
+        for (String line : lines) {
+            JsonObject result = new JsonParser().parse(line).getAsJsonObject();
+            assertTrue(result.get("valid").getAsBoolean());
+            assertEquals(0, result.getAsJsonArray("errors").size());
+            assertTrue(result.has("millis"));
+        }
+        assertEquals(3, summary.getDocumentCount());
+        assertEquals(0, summary.getInvalidCount());
+        assertTrue(summary.getPercentileMillis(99) >= summary.getPercentileMillis(50));
+    }
+
+    @Test
+    public void reportsErrorsOfInvalidDocuments() throws IOException {
+        ByteArrayOutputStream output = new ByteArrayOutputStream();
+        List<Path> files = Arrays.asList(archive.resolve("a.pdf"), archive.resolve("notes.txt"));
+        BatchValidator.Summary summary = new BatchValidator(false, 2).validate(files, new PrintStream(output, true, "UTF-8"));
+
+        assertEquals(2, summary.getInvalidCount());
+        for (String line : new String(output.toByteArray(), StandardCharsets.UTF_8).trim().split("\n")) {
+            JsonObject result = new JsonParser().parse(line).getAsJsonObject();
+            assertFalse(result.get("valid").getAsBoolean());
+            assertTrue(result.getAsJsonArray("errors").size() > 0);
+        }
+    }
+
+    private static void copyFixture(String fixture, Path target) throws IOException {
+        try (InputStream input = TestUtil.getFixtureFile(fixture)) {
+            Files.copy(input, target);
+        }
+    }
+}
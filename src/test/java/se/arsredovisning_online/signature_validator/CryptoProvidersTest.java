@@ -0,0 +1,64 @@
+package se.arsredovisning_online.signature_validator;
+
+import org.junit.After;
+import org.junit.Test;
+import org.w3c.dom.Document;
+
+import static org.junit.Assert.*;
+
+public class CryptoProvidersTest {
+    @After
+    public void restoreDefaults() {
+        CryptoProviders.setXmlSignatureProvider(CryptoProviders.DEFAULT);
+        CryptoProviders.setJcaProvider(CryptoProviders.DEFAULT);
+    }
+
+    @Test
+    public void usesJdkProvidersByDefault() {
+        assertNull(CryptoProviders.jcaProvider());
+        assertEquals("XMLDSig", XmlFactories.signatureFactory().getProvider().getName());
+    }
+
+    @Test
+    public void validatesWithBouncyCastle() {
+        CryptoProviders.setJcaProvider("BC");
+        assertEquals("BC", CryptoProviders.jcaProvider().getName());
+
+        assertTrue(validate("/signatur_1_Anna_Andersson.xml"));
+        assertFalse(validate("/invalid_signature.xml"));
+    }
+
+    @Test
+    public void validatesPdfWithBouncyCastle() {
+        CryptoProviders.setJcaProvider("BC");
+        SignedPdfValidator validator = new SignedPdfValidator(PdfSource.of(TestUtil.getFixtureFile(
+                "/Årsredovisning (signerat original) - Demobolaget AB - räkenskapsåret 2017.pdf")), true);
+        assertTrue(validator.getValidationErrors().toString(), validator.validate());
+    }
+
+    @Test
+    public void selectsXmlSignatureProviderByName() {
+        CryptoProviders.setXmlSignatureProvider("XMLDSig");
+        assertEquals("XMLDSig", XmlFactories.signatureFactory().getProvider().getName());
+        assertTrue(validate("/signatur_1_Anna_Andersson.xml"));
+    }
+
+    @Test
+    public void forgetsVerificationsOfOtherProvider() {
+        assertTrue(validate("/signatur_1_Anna_Andersson.xml"));
+        assertTrue(TrustAnchors.cachedVerificationCount() > 0);
+
+        CryptoProviders.setJcaProvider("BC");
+        assertEquals(0, TrustAnchors.cachedVerificationCount());
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void rejectsUnknownProvider() {
+        CryptoProviders.setJcaProvider("NoSuchProvider");
+    }
+
+    private static boolean validate(String signatureFile) {
+        Document document = TestUtil.getSignatureDocument(signatureFile);
+        return new BankIdSignatureValidator(document, true).validate();
+    }
+}
@@ -6,7 +6,7 @@ import java.io.ByteArrayInputStream;
 import java.io.InputStream;
 import java.nio.charset.StandardCharsets;
 
-import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.*;
 
 public class DigestMakerTest {
     @Test
@@ -22,4 +22,54 @@ public class DigestMakerTest {
         InputStream stream = new ByteArrayInputStream(input.getBytes(StandardCharsets.UTF_8));
         assertEquals("bKE9UspwyIPg8LsQHkJaiehiTeUdstI5JZOvaoQRgJA=", DigestMaker.getEncodedDigest(stream, "sha256"));
     }
-}
\ No newline at end of file
+
+    @Test
+    public void encodesUsingSha384AndSha512() {
+        assertEquals("ox15iRkZytJPMmRHnXaIT1gb7jLoZ3g3PbOhJN6XXdhqQPx/OZszETOygatLEabK",
+                DigestMaker.getEncodedDigest(stream("abc123"), "sha384"));
+        assertEquals("xwtd2ev7b1HQnUEytxcMnSB1CnhS8AaA9lZY8DEOgQBW5nY8NMmgCw6UAHb1RJXBafwjAszrMSA5JxxDRpUH3A==",
+                DigestMaker.getEncodedDigest(stream("abc123"), "sha512"));
+    }
+
+    @Test
+    public void matchesDigestAsRawBytes() {
+        assertTrue(DigestMaker.matches(stream("abc123"), "sha256", "bKE9UspwyIPg8LsQHkJaiehiTeUdstI5JZOvaoQRgJA="));
+        assertFalse(DigestMaker.matches(stream("abc124"), "sha256", "bKE9UspwyIPg8LsQHkJaiehiTeUdstI5JZOvaoQRgJA="));
+        assertFalse(DigestMaker.matches(stream("abc123"), "sha256", "not base64!"));
+    }
+
+    @Test
+    public void rejectsDigestWithCharactersOutsideBase64() {
+        assertTrue(DigestMaker.matches(stream("abc123"), "sha256", " bKE9UspwyIPg8LsQHkJaiehiTeUdstI5JZOvaoQRgJA=\n"));
+        assertFalse(DigestMaker.matches(stream("abc123"), "sha256", "bKE9UspwyIPg8LsQ!HkJaiehiTeUdstI5JZOvaoQRgJA="));
+        assertFalse(DigestMaker.matches(stream("abc123"), "plaintext", "YWJj\nMTIz"));
+    }
+
+    @Test
+    public void matchesPlaintextWhileStreaming() {
+        assertTrue(DigestMaker.matches(stream("abc123"), "plaintext", "YWJjMTIz"));
+        assertFalse(DigestMaker.matches(stream("abc12"), "plaintext", "YWJjMTIz"));
+        assertFalse(DigestMaker.matches(stream("abc1234"), "plaintext", "YWJjMTIz"));
+    }
+
+    @Test
+    public void digestsInputLargerThanBuffer() {
+        StringBuilder builder = new StringBuilder();
+        for (int i = 0; i < 10000; i++) {
+            builder.append("abc123");
+        }
+        String input = builder.toString();
+        String expected = DigestMaker.getEncodedDigest(stream(input), "sha256");
+        assertTrue(DigestMaker.matches(stream(input), "sha256", expected));
+        assertTrue(DigestMaker.matches(stream(input), "plaintext", DigestMaker.getEncodedDigest(stream(input), "plaintext")));
+    }
+
+    @Test(expected = RuntimeException.class)
+    public void rejectsUnknownDigestMethod() {
+        DigestMaker.getEncodedDigest(stream("abc123"), "md5");
+    }
+
+    private static InputStream stream(String input) {
+        return new ByteArrayInputStream(input.getBytes(StandardCharsets.UTF_8));
+    }
+}
@@ -0,0 +1,111 @@
+package se.arsredovisning_online.signature_validator;
+
+import org.apache.commons.io.IOUtils;
+import org.apache.pdfbox.cos.COSName;
+import org.apache.pdfbox.pdmodel.PDDocument;
+import org.apache.pdfbox.pdmodel.PDEmbeddedFilesNameTreeNode;
+import org.apache.pdfbox.pdmodel.common.PDNameTreeNode;
+import org.apache.pdfbox.pdmodel.common.filespecification.PDComplexFileSpecification;
+import org.apache.pdfbox.pdmodel.common.filespecification.PDEmbeddedFile;
+import org.junit.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+
+import static org.junit.Assert.*;
+
+public class EmbeddedFileIndexTest {
+    static final String PDF = "/Årsredovisning (signerat original) - Demobolaget AB - räkenskapsåret 2017.pdf";
+
+    @Test
+    public void indexesFlatNameTree() throws IOException {
+        try (PDDocument document = PDDocument.load(TestUtil.getFixtureFile(PDF))) {
+            EmbeddedFileIndex index = EmbeddedFileIndex.build(document);
+            assertEquals(6, index.getNames().size());
+            assertTrue(index.contains("manifest.json"));
+            assertFalse(index.contains("missing.txt"));
+        }
+    }
+
+    @Test
+    public void indexesNameTreeWithKids() throws IOException {
+        try (PDDocument document = PDDocument.load(splitIntoKids(TestUtil.getFixtureFile(PDF)))) {
+            assertNull(document.getDocumentCatalog().getNames().getEmbeddedFiles().getNames());
+            EmbeddedFileIndex index = EmbeddedFileIndex.build(document);
+            assertEquals(6, index.getNames().size());
+            assertTrue(index.contains("signatur_2_Karl_Karlsson.xml"));
+        }
+    }
+
+    @Test
+    public void opensEmbeddedFiles() throws IOException {
+        try (PDDocument document = PDDocument.load(TestUtil.getFixtureFile(PDF))) {
+            EmbeddedFileIndex index = EmbeddedFileIndex.build(document);
+            try (InputStream visibleData = index.open("styrelseledamot_vd_visible_data.txt")) {
+                assertArrayEquals(IOUtils.toByteArray(TestUtil.getFixtureFile("/styrelseledamot_vd_visible_data.txt")), IOUtils.toByteArray(visibleData));
+            }
+            assertNull(index.open("missing.txt"));
+        }
+    }
+
+    @Test
+    public void refusesFilterItCannotStreamOnlyWhenAsked() throws IOException {
+        try (PDDocument document = PDDocument.load(TestUtil.getFixtureFile(PDF))) {
+            EmbeddedFileIndex index = EmbeddedFileIndex.build(document);
+            PDEmbeddedFile manifest = document.getDocumentCatalog().getNames().getEmbeddedFiles().getNames().get("manifest.json").getEmbeddedFile();
+            byte[] expected = IOUtils.toByteArray(manifest.createInputStream());
+            manifest.setFilters(Arrays.asList(COSName.ASCII_HEX_DECODE, COSName.FLATE_DECODE));
+            try (OutputStream output = manifest.getCOSObject().createOutputStream()) {
+                output.write(expected);
+            }
+
+            try (InputStream stream = index.open("manifest.json")) {
+                assertArrayEquals(expected, IOUtils.toByteArray(stream));
+            }
+            try {
+                index.open("manifest.json", true);
+                fail();
+            } catch (IOException e) {
+                assertEquals("Den bifogade filen manifest.json är kodad med [COSName{ASCIIHexDecode}, COSName{FlateDecode}], som inte kan läsas med en storleksgräns.", e.getMessage());
+            }
+        }
+    }
+
+    @Test
+    public void indexesDocumentWithoutAttachments() throws IOException {
+        try (PDDocument document = new PDDocument()) {
+            assertTrue(EmbeddedFileIndex.build(document).isEmpty());
+        }
+    }
+
+    /**
+     * Moves the embedded files of a PDF into two kid nodes, the way large name trees are split.
+     */
+    static byte[] splitIntoKids(InputStream pdf) throws IOException {
+        try (PDDocument document = PDDocument.load(pdf)) {
+            PDEmbeddedFilesNameTreeNode root = document.getDocumentCatalog().getNames().getEmbeddedFiles();
+            TreeMap<String, PDComplexFileSpecification> names = new TreeMap<>(root.getNames());
+            String middle = new ArrayList<>(names.keySet()).get(names.size() / 2);
+
+            List<PDNameTreeNode<PDComplexFileSpecification>> kids = new ArrayList<>();
+            for (Map<String, PDComplexFileSpecification> part : Arrays.asList(names.headMap(middle), names.tailMap(middle))) {
+                PDEmbeddedFilesNameTreeNode kid = new PDEmbeddedFilesNameTreeNode();
+                kid.setNames(part);
+                kids.add(kid);
+            }
+            root.setNames(null);
+            root.setKids(kids);
+
+            ByteArrayOutputStream output = new ByteArrayOutputStream();
+            document.save(output);
+            return output.toByteArray();
+        }
+    }
+}
@@ -1,19 +1,25 @@
 package se.arsredovisning_online.signature_validator;
 
+import com.google.gson.JsonParseException;
 import org.junit.Test;
 
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+
 import static org.junit.Assert.*;
 
 public class ManifestTest {
     @Test
-    public void readsManifestFromJson() {
+    public void readsManifestFromJson() throws IOException {
         Manifest manifest = Manifest.createFromStream(TestUtil.getFixtureFile("/manifest.json"));
         assertFalse(manifest.getDocuments().isEmpty());
         assertFalse(manifest.getSignatures().isEmpty());
     }
 
     @Test
-    public void readsDocuments() {
+    public void readsDocuments() throws IOException {
         Manifest manifest = Manifest.createFromStream(TestUtil.getFixtureFile("/manifest.json"));
         Manifest.Document firstDocument = manifest.getDocuments().get(0);
         assertEquals("styrelseledamot_vd_visible_data.txt", firstDocument.getName());
@@ -22,11 +28,76 @@ public class ManifestTest {
     }
 
     @Test
-    public void readsSignatures() {
+    public void readsSignatures() throws IOException {
         Manifest manifest = Manifest.createFromStream(TestUtil.getFixtureFile("/manifest.json"));
         Manifest.Signature firstSignature = manifest.getSignatures().get(0);
         assertEquals("signatur_1_Anna_Andersson.xml", firstSignature.getSignatureFile());
         assertEquals("styrelseledamot_vd_visible_data.txt", firstSignature.getVisibleData());
         assertEquals("original_årsredovisning.xhtml", firstSignature.getNonVisibleData());
     }
-}
\ No newline at end of file
+
+    @Test
+    public void findsDocumentsByName() throws IOException {
+        Manifest manifest = Manifest.createFromStream(TestUtil.getFixtureFile("/manifest.json"));
+        assertEquals("sha256", manifest.getDocumentByName("original_årsredovisning.xhtml").getDigestMethod());
+        assertNull(manifest.getDocumentByName("saknas.txt"));
+    }
+
+    @Test
+    public void readsUtf8RegardlessOfDefaultCharset() {
+        Manifest manifest = parse("{\"documents\":[{\"name\":\"räkenskapsår.txt\",\"digest_method\":\"plaintext\"}],\"signatures\":[]}");
+        assertEquals("räkenskapsår.txt", manifest.getDocuments().get(0).getName());
+    }
+
+    @Test
+    public void skipsUnknownFields() {
+        Manifest manifest = parse("{\"version\":{\"major\":2},\"documents\":[{\"name\":\"a.txt\",\"size\":12}],\"signatures\":[]}");
+        assertEquals(1, manifest.getDocuments().size());
+    }
+
+    @Test
+    public void rejectsSignatureReferringToUnknownDocument() {
+        try {
+            parse("{\"documents\":[{\"name\":\"a.txt\"}],\"signatures\":[{\"signature_file\":\"s.xml\",\"visible_data\":\"a.txt\",\"non_visible_data\":\"b.xhtml\"}]}");
+            fail();
+        } catch (JsonParseException e) {
+            assertEquals("Innehållsförteckningen (manifest.json) saknar dokumentet b.xhtml som s.xml hänvisar till.", e.getMessage());
+        }
+    }
+
+    @Test
+    public void rejectsMalformedJson() {
+        try {
+            parse("{\"documents\":[{\"name\":");
+            fail();
+        } catch (JsonParseException e) {
+            assertEquals("Innehållsförteckningen (manifest.json) är inte giltig JSON.", e.getMessage());
+        }
+    }
+
+    @Test
+    public void stopsAtSignatureLimitWhileReading() {
+        // Lists signatures without end, so reading them all before counting would never finish
+        byte[] start = "{\"documents\":[],\"signatures\":[".getBytes(StandardCharsets.UTF_8);
+        byte[] entry = "{\"signature_file\":\"s.xml\"},".getBytes(StandardCharsets.UTF_8);
+        InputStream json = new InputStream() {
+            private long position;
+
+            @Override
+            public int read() {
+                long index = position++;
+                return index < start.length ? start[(int) index] : entry[(int) ((index - start.length) % entry.length)];
+            }
+        };
+        try {
+            Manifest.createFromStream(json, 10);
+            fail();
+        } catch (ValidationLimits.ExceededException e) {
+            assertEquals("Innehållsförteckningen (manifest.json) listar fler än 10 signaturer.", e.getMessage());
+        }
+    }
+
+    private static Manifest parse(String json) {
+        return Manifest.createFromStream(new ByteArrayInputStream(json.getBytes(StandardCharsets.UTF_8)));
+    }
+}
@@ -0,0 +1,70 @@
+package se.arsredovisning_online.signature_validator;
+
+import org.apache.pdfbox.io.MemoryUsageSetting;
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+public class MemoryPolicyTest {
+    @Test
+    public void parsesMainMemoryOnly() {
+        MemoryUsageSetting setting = MemoryPolicy.parse("memory").toMemoryUsageSetting();
+        assertTrue(setting.useMainMemory());
+        assertFalse(setting.useTempFile());
+        assertFalse(setting.isMainMemoryRestricted());
+    }
+
+    @Test
+    public void parsesRestrictedMainMemory() {
+        MemoryUsageSetting setting = MemoryPolicy.parse("memory:512k").toMemoryUsageSetting();
+        assertFalse(setting.useTempFile());
+        assertEquals(512 * 1024, setting.getMaxMainMemoryBytes());
+    }
+
+    @Test
+    public void parsesMixed() {
+        MemoryUsageSetting setting = MemoryPolicy.parse("mixed:64m").toMemoryUsageSetting();
+        assertTrue(setting.useMainMemory());
+        assertTrue(setting.useTempFile());
+        assertEquals(64L * 1024 * 1024, setting.getMaxMainMemoryBytes());
+    }
+
+    @Test
+    public void parsesTempFileOnly() {
+        MemoryUsageSetting setting = MemoryPolicy.parse("tempfile").toMemoryUsageSetting();
+        assertFalse(setting.useMainMemory());
+        assertTrue(setting.useTempFile());
+    }
+
+    @Test
+    public void parsesSizes() {
+        assertEquals(100, MemoryPolicy.parseSize("100"));
+        assertEquals(2L * 1024 * 1024 * 1024, MemoryPolicy.parseSize("2g"));
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void rejectsMissingSize() {
+        MemoryPolicy.parse("mixed:");
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void rejectsSizeThatOverflows() {
+        MemoryPolicy.parseSize("9000000000000g");
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void rejectsUnknownPolicy() {
+        MemoryPolicy.parse("disk");
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void requiresSizeForMixed() {
+        MemoryPolicy.parse("mixed");
+    }
+
+    @Test
+    public void createsNewSettingForEveryDocument() {
+        MemoryPolicy policy = MemoryPolicy.mixed(1024);
+        assertNotSame(policy.toMemoryUsageSetting(), policy.toMemoryUsageSetting());
+    }
+}
@@ -0,0 +1,216 @@
+package se.arsredovisning_online.signature_validator;
+
+import org.bouncycastle.asn1.x509.KeyPurposeId;
+import org.bouncycastle.cert.ocsp.CertificateStatus;
+import org.bouncycastle.cert.ocsp.RevokedStatus;
+import org.junit.BeforeClass;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.security.GeneralSecurityException;
+import java.security.KeyPair;
+import java.security.cert.X509Certificate;
+import java.time.Clock;
+import java.time.Duration;
+import java.time.Instant;
+import java.time.ZoneId;
+import java.util.Base64;
+import java.util.Date;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static org.hamcrest.CoreMatchers.hasItem;
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.junit.Assert.*;
+
+public class OcspCheckerTest {
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private static KeyPair caKeys;
+    private static X509Certificate ca;
+    private static X509Certificate signer;
+    private static KeyPair responderKeys;
+    private static X509Certificate responder;
+    private static X509Certificate responderWithoutOcspSigning;
+
+    @BeforeClass
+    public static void createCertificates() {
+        caKeys = TestPki.keyPair();
+        ca = TestPki.rootCertificate("Test CA", caKeys);
+        signer = TestPki.certificate("Anna Andersson", TestPki.keyPair(), ca, caKeys.getPrivate(), false);
+        responderKeys = TestPki.keyPair();
+        responder = TestPki.certificate("OCSP", responderKeys, ca, caKeys.getPrivate(), false, KeyPurposeId.id_kp_OCSPSigning);
+        responderWithoutOcspSigning = TestPki.certificate("Not OCSP", responderKeys, ca, caKeys.getPrivate(), false);
+    }
+
+    @Test
+    public void acceptsGoodResponseSignedByIssuer() throws GeneralSecurityException {
+        byte[] response = TestPki.ocspResponse(signer, ca, ca, caKeys.getPrivate(), CertificateStatus.GOOD, null);
+        new OcspChecker((certificate, issuer) -> response).check(signer, ca);
+    }
+
+    @Test
+    public void acceptsGoodResponseFromDelegatedResponder() throws GeneralSecurityException {
+        byte[] response = TestPki.ocspResponse(signer, ca, responder, responderKeys.getPrivate(), CertificateStatus.GOOD, null);
+        new OcspChecker((certificate, issuer) -> response).check(signer, ca);
+    }
+
+    @Test
+    public void rejectsResponderNotAuthorizedForOcsp() {
+        byte[] response = TestPki.ocspResponse(signer, ca, responderWithoutOcspSigning, responderKeys.getPrivate(), CertificateStatus.GOOD, null);
+        assertRejected(new OcspChecker((certificate, issuer) -> response), "OCSP-svaret är inte signerat av certifikatets utfärdare.");
+    }
+
+    @Test
+    public void rejectsResponseFromOtherIssuer() {
+        KeyPair otherKeys = TestPki.keyPair();
+        X509Certificate otherCa = TestPki.rootCertificate("Other CA", otherKeys);
+        byte[] response = TestPki.ocspResponse(signer, ca, otherCa, otherKeys.getPrivate(), CertificateStatus.GOOD, null);
+        assertRejected(new OcspChecker((certificate, issuer) -> response), "OCSP-svaret är inte signerat av certifikatets utfärdare.");
+    }
+
+    @Test
+    public void rejectsRevokedCertificate() {
+        byte[] response = TestPki.ocspResponse(signer, ca, ca, caKeys.getPrivate(), new RevokedStatus(new Date(), 1), null);
+        assertRejected(new OcspChecker((certificate, issuer) -> response), "Certifikatet är spärrat.");
+    }
+
+    @Test
+    public void rejectsResponseAboutOtherCertificate() {
+        X509Certificate other = TestPki.certificate("Bertil Bengtsson", TestPki.keyPair(), ca, caKeys.getPrivate(), false);
+        byte[] response = TestPki.ocspResponse(other, ca, ca, caKeys.getPrivate(), CertificateStatus.GOOD, null);
+        assertRejected(new OcspChecker((certificate, issuer) -> response), "OCSP-svaret gäller inte certifikatet.");
+    }
+
+    @Test
+    public void rejectsMissingAndMalformedResponses() {
+        assertRejected(new OcspChecker((certificate, issuer) -> null), "OCSP-svar saknas för certifikatet.");
+        assertRejected(new OcspChecker((certificate, issuer) -> new byte[]{1, 2, 3}), "OCSP-svaret är inte giltigt.");
+    }
+
+    @Test
+    public void reusesStatusUntilTtlExpires() throws GeneralSecurityException {
+        byte[] response = TestPki.ocspResponse(signer, ca, responder, responderKeys.getPrivate(), CertificateStatus.GOOD, null);
+        AtomicInteger reads = new AtomicInteger();
+        AdjustableClock clock = new AdjustableClock();
+        OcspChecker checker = new OcspChecker((certificate, issuer) -> {
+            reads.incrementAndGet();
+            return response;
+        }, Duration.ofMinutes(10), clock);
+
+        checker.check(signer, ca);
+        checker.check(signer, ca);
+        assertEquals(1, reads.get());
+        assertEquals(1, checker.cachedStatusCount());
+
+        clock.advance(Duration.ofMinutes(11));
+        checker.check(signer, ca);
+        assertEquals(2, reads.get());
+    }
+
+    @Test
+    public void expiresStatusAtNextUpdate() throws GeneralSecurityException {
+        byte[] response = TestPki.ocspResponse(signer, ca, ca, caKeys.getPrivate(), CertificateStatus.GOOD,
+                new Date(System.currentTimeMillis() + Duration.ofMinutes(1).toMillis()));
+        AdjustableClock clock = new AdjustableClock();
+        AtomicInteger reads = new AtomicInteger();
+        OcspChecker checker = new OcspChecker((certificate, issuer) -> {
+            reads.incrementAndGet();
+            return response;
+        }, Duration.ofHours(1), clock);
+
+        checker.check(signer, ca);
+        clock.advance(Duration.ofMinutes(2));
+        assertRejected(checker, "OCSP-svaret har gått ut.");
+        assertEquals(2, reads.get());
+    }
+
+    @Test
+    public void rejectsExpiredResponse() {
+        byte[] response = TestPki.ocspResponse(signer, ca, ca, caKeys.getPrivate(), CertificateStatus.GOOD,
+                new Date(System.currentTimeMillis() - Duration.ofMinutes(1).toMillis()));
+        assertRejected(new OcspChecker((certificate, issuer) -> response), "OCSP-svaret har gått ut.");
+    }
+
+    @Test
+    public void acceptsExpiredResponseAtEarlierValidationTime() throws GeneralSecurityException {
+        Instant signed = Instant.now().minus(Duration.ofDays(30));
+        byte[] response = TestPki.ocspResponse(signer, ca, ca, caKeys.getPrivate(), CertificateStatus.GOOD,
+                Date.from(signed.plus(Duration.ofDays(1))));
+        OcspChecker checker = new OcspChecker((certificate, issuer) -> response);
+        checker.withValidationTime(signed).check(signer, ca);
+        assertRejected(checker.withValidationTime(signed.plus(Duration.ofDays(2))), "OCSP-svaret har gått ut.");
+    }
+
+    @Test
+    public void rejectsResponseFromTheFuture() {
+        byte[] response = TestPki.ocspResponse(signer, ca, ca, caKeys.getPrivate(), CertificateStatus.GOOD, null);
+        AdjustableClock clock = new AdjustableClock();
+        clock.advance(Duration.ofHours(-1));
+        assertRejected(new OcspChecker((certificate, issuer) -> response, Duration.ofHours(1), clock),
+                "OCSP-svaret är utfärdat i framtiden.");
+    }
+
+    @Test
+    public void readsResponsesFromDirectory() throws IOException, GeneralSecurityException {
+        Path directory = folder.newFolder("ocsp").toPath();
+        byte[] response = TestPki.ocspResponse(signer, ca, ca, caKeys.getPrivate(), CertificateStatus.GOOD, null);
+        Files.write(directory.resolve(signer.getSerialNumber().toString(16) + ".ocsp"),
+                Base64.getMimeEncoder().encode(response));
+        OcspResponseSource source = OcspResponseSource.fromDirectory(directory);
+
+        assertArrayEquals(response, source.getResponse(signer, ca));
+        assertNull(source.getResponse(ca, ca));
+        new OcspChecker(source).check(signer, ca);
+    }
+
+    @Test
+    public void reportsMissingResponseForBankIdSignature() {
+        InputStream visibleData = TestUtil.getFixtureFile("/styrelseledamot_vd_visible_data.txt");
+        InputStream nonVisibleData = TestUtil.getFixtureFile("/original_årsredovisning.xhtml");
+        InputStream signature = TestUtil.getFixtureFile("/signatur_1_Anna_Andersson.xml");
+        SingleSignatureValidator validator = new SingleSignatureValidator(visibleData, "plaintext", nonVisibleData, "sha256", signature, true);
+        validator.setOcspChecker(new OcspChecker((certificate, issuer) -> null));
+
+        assertFalse(validator.validate());
+        assertThat(validator.getValidationErrors(), hasItem("OCSP-svar saknas för certifikatet."));
+    }
+
+    private void assertRejected(OcspChecker checker, String message) {
+        try {
+            checker.check(signer, ca);
+            fail("Expected " + message);
+        } catch (GeneralSecurityException e) {
+            assertEquals(message, e.getMessage());
+        }
+    }
+
+    private static class AdjustableClock extends Clock {
+        private final AtomicLong millis = new AtomicLong(System.currentTimeMillis());
+
+        void advance(Duration duration) {
+            millis.addAndGet(duration.toMillis());
+        }
+
+        @Override
+        public ZoneId getZone() {
+            return ZoneId.of("UTC");
+        }
+
+        @Override
+        public Clock withZone(ZoneId zone) {
+            return this;
+        }
+
+        @Override
+        public Instant instant() {
+            return Instant.ofEpochMilli(millis.get());
+        }
+    }
+}
@@ -0,0 +1,180 @@
+package se.arsredovisning_online.signature_validator;
+
+import org.apache.pdfbox.io.MemoryUsageSetting;
+import org.apache.pdfbox.pdmodel.PDDocument;
+import org.junit.Before;
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+import static org.junit.Assert.*;
+
+public class PdfRevisionsTest {
+    private static SyntheticPdfs pdfs;
+    private ValidationEngine engine;
+
+    @BeforeClass
+    public static void createPki() {
+        pdfs = new SyntheticPdfs();
+    }
+
+    @Before
+    public void createEngine() {
+        SignatureVerificationCache.clear();
+        engine = ValidationEngine.builder(false)
+                .signatureTrustAnchors(pdfs.trustAnchors())
+                .sealTrustAnchors(pdfs.trustAnchors())
+                .incremental(true)
+                .build();
+    }
+
+    @Test
+    public void fingerprintsEarlierRevisionsTheSameAfterUpdate() throws Exception {
+        byte[] pdf = pdfs.pdf(2, 4096, SyntheticPdfs.Layout.FLAT, SyntheticPdfs.Defect.NONE);
+        byte[] amended = pdfs.addSignature(pdf);
+
+        List<String> before = fingerprints(pdf);
+        List<String> after = fingerprints(amended);
+        assertEquals(before.size() + 1, after.size());
+        assertEquals(before, after.subList(0, before.size()));
+    }
+
+    @Test
+    public void validatesOnlyWhatTheUpdateAdded() throws Exception {
+        byte[] pdf = pdfs.pdf(3, 64 * 1024, SyntheticPdfs.Layout.FLAT, SyntheticPdfs.Defect.NONE);
+        ValidationReport first = engine.validate(PdfSource.of(pdf));
+        assertTrue(first.getErrors().toString(), first.isValid());
+        // Three signatures and the seal
+        assertEquals(4, engine.getRevisionCache().size());
+
+        byte[] amended = pdfs.addSignature(pdf);
+        long parsed = xmlParseCount();
+        ValidationReport second = engine.validate(PdfSource.of(amended));
+        assertTrue(second.getErrors().toString(), second.isValid());
+        assertEquals(1, xmlParseCount() - parsed);
+        // The new signature and the new seal; the first seal covers a revision that was seen before
+        assertEquals(6, engine.getRevisionCache().size());
+    }
+
+    @Test
+    public void reusesErrorsOfUnchangedSignatures() throws Exception {
+        byte[] pdf = pdfs.pdf(1, 4096, SyntheticPdfs.Layout.FLAT, SyntheticPdfs.Defect.SIGNATURE_VALUE);
+        List<String> errors = engine.validate(PdfSource.of(pdf)).getErrors();
+        assertTrue(errors.toString(), errors.contains("Signaturen är ogiltig."));
+
+        ValidationReport amended = engine.validate(PdfSource.of(pdfs.addSignature(pdf)));
+        assertEquals(errors, amended.getErrors());
+    }
+
+    @Test
+    public void doesNotReuseChangedEarlierRevision() throws Exception {
+        byte[] pdf = pdfs.addSignature(pdfs.pdf(1, 4096, SyntheticPdfs.Layout.FLAT, SyntheticPdfs.Defect.NONE));
+        assertTrue(engine.validate(PdfSource.of(pdf)).isValid());
+
+        byte[] tampered = pdf.clone();
+        int offset = indexOf(tampered, "Nettoomsättning 7919".getBytes(StandardCharsets.UTF_8));
+        tampered[offset + "Nettoomsättning ".getBytes(StandardCharsets.UTF_8).length] = '8';
+        List<String> errors = engine.validate(PdfSource.of(tampered)).getErrors();
+        assertTrue(errors.toString(), errors.contains("Osynligt data (\"non-visible data\") i separat fil matchar inte signaturfilen."));
+    }
+
+    @Test
+    public void isOffByDefault() throws Exception {
+        byte[] pdf = pdfs.pdf(1, 4096, SyntheticPdfs.Layout.FLAT, SyntheticPdfs.Defect.NONE);
+        ValidationEngine plain = engine.toBuilder().incremental(false).build();
+        assertTrue(plain.validate(PdfSource.of(pdf)).isValid());
+        assertNull(plain.getRevisionCache());
+        assertEquals(0, engine.getRevisionCache().size());
+    }
+
+    @Test
+    public void keepsOutcomesPerEngine() throws Exception {
+        byte[] pdf = pdfs.pdf(2, 4096, SyntheticPdfs.Layout.FLAT, SyntheticPdfs.Defect.NONE);
+        assertTrue(engine.validate(PdfSource.of(pdf)).isValid());
+
+        ValidationEngine other = engine.toBuilder().build();
+        long parsed = xmlParseCount();
+        assertTrue(other.validate(PdfSource.of(pdfs.addSignature(pdf))).isValid());
+        assertEquals(3, xmlParseCount() - parsed);
+    }
+
+    @Test
+    public void reusesOutcomesOfUnsealedUpdate() throws Exception {
+        byte[] pdf = pdfs.pdf(2, 4096, SyntheticPdfs.Layout.FLAT, SyntheticPdfs.Defect.NONE);
+        assertTrue(engine.validate(PdfSource.of(pdf)).isValid());
+
+        byte[] stamped = pdfs.addAttachment(pdf, "registrering.txt", "Registrerad".getBytes(StandardCharsets.UTF_8));
+        long parsed = xmlParseCount();
+        ValidationReport report = engine.validate(PdfSource.of(stamped));
+        assertTrue(report.getErrors().toString(), report.isValid());
+        assertEquals(Collections.singletonList("registrering.txt"), report.getUnsealedAttachments());
+        assertEquals(0, xmlParseCount() - parsed);
+    }
+
+    @Test
+    public void failsSealOfUnsealedUpdateReplacingSealedFile() throws Exception {
+        byte[] pdf = pdfs.pdf(1, 4096, SyntheticPdfs.Layout.FLAT, SyntheticPdfs.Defect.NONE);
+        byte[] replaced = pdfs.addAttachment(pdf, SyntheticPdfs.MANIFEST, "{\"signatures\": []}".getBytes(StandardCharsets.UTF_8));
+
+        ValidationReport report = engine.validate(PdfSource.of(replaced));
+        assertTrue(report.getErrors().toString(), report.getErrors().contains("PDF:en har ändrats efter att den signerades."));
+        assertEquals(Collections.emptyList(), report.getUnsealedAttachments());
+    }
+
+    @Test
+    public void rejectsSignatureFileAddedAfterSeal() throws Exception {
+        byte[] pdf = pdfs.pdf(1, 4096, SyntheticPdfs.Layout.FLAT, SyntheticPdfs.Defect.NONE);
+        byte[] signature;
+        try (PDDocument document = PDDocument.load(pdf)) {
+            signature = document.getDocumentCatalog().getNames().getEmbeddedFiles().getNames().get("signatur_1.xml").getEmbeddedFile().toByteArray();
+        }
+        // The same signature file, but put back after the document was sealed without it
+        byte[] added = pdfs.addAttachment(pdfs.removeAttachment(pdf, "signatur_1.xml"), "signatur_1.xml", signature);
+
+        for (ValidationMode mode : ValidationMode.values()) {
+            ValidationReport report = engine.toBuilder().validationMode(mode).build().validate(PdfSource.of(added));
+            assertTrue(mode + ": " + report.getErrors(), report.getErrors().contains("Den bifogade filen signatur_1.xml har lagts till efter att PDF:en signerades."));
+            assertEquals(Collections.singletonList("signatur_1.xml"), report.getUnsealedAttachments());
+        }
+    }
+
+    private static List<String> fingerprints(byte[] pdf) throws IOException {
+        PdfSource source = PdfSource.of(pdf);
+        try (PDDocument document = source.load(MemoryUsageSetting.setupMainMemoryOnly(), false)) {
+            PdfRevisions revisions = PdfRevisions.scan(document, source);
+            List<String> fingerprints = new ArrayList<>();
+            long end = 0;
+            for (int i = 0; i < revisions.size(); i++) {
+                end = indexOf(pdf, "%%EOF".getBytes(StandardCharsets.US_ASCII), (int) end) + 5;
+                fingerprints.add(revisions.fingerprintOf(end));
+            }
+            return fingerprints;
+        }
+    }
+
+    private static long xmlParseCount() {
+        return ValidationMetrics.snapshot().getPhase(ValidationMetrics.Phase.XML_PARSE).getCount();
+    }
+
+    private static int indexOf(byte[] bytes, byte[] pattern) {
+        return indexOf(bytes, pattern, 0);
+    }
+
+    private static int indexOf(byte[] bytes, byte[] pattern, int from) {
+        outer:
+        for (int i = from; i <= bytes.length - pattern.length; i++) {
+            for (int j = 0; j < pattern.length; j++) {
+                if (bytes[i + j] != pattern[j]) {
+                    continue outer;
+                }
+            }
+            return i;
+        }
+        throw new AssertionError("Hittades inte");
+    }
+}
@@ -0,0 +1,224 @@
+package se.arsredovisning_online.signature_validator;
+
+import org.apache.commons.io.IOUtils;
+import org.apache.pdfbox.io.MemoryUsageSetting;
+import org.apache.pdfbox.pdmodel.PDDocument;
+import org.apache.pdfbox.pdmodel.PDPage;
+import org.apache.pdfbox.pdmodel.interactive.digitalsignature.PDSignature;
+import org.bouncycastle.cert.X509CertificateHolder;
+import org.bouncycastle.cert.jcajce.JcaX509CertificateConverter;
+import org.bouncycastle.cms.CMSSignedData;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.security.cert.X509Certificate;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
+
+import static org.junit.Assert.*;
+
+public class PdfSealValidatorTest {
+    private static final String[] FIXTURES = {
+            "/Årsredovisning (signerat original) - Demobolaget AB - räkenskapsåret 2017.pdf",
+            "/Årsredovisning (signerat original) - Demo med revision AB - räkenskapsåret 2017.pdf",
+            "/Revisionsberättelse (signerat original) - Demo med revision AB - räkenskapsåret 2017.pdf"
+    };
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    @Test
+    public void acceptsSealOfAllFixtures() throws IOException {
+        for (String fixture : FIXTURES) {
+            assertEquals(fixture, Collections.emptyList(), validate(PdfSource.of(TestUtil.getFixtureFile(fixture)), TrustAnchors.sealTest(), false));
+            assertEquals(fixture, Collections.emptyList(), validate(PdfSource.of(TestUtil.getFixtureFile(fixture)), TrustAnchors.sealTest(), true));
+        }
+    }
+
+    @Test
+    public void readsSignedBytesFromFile() throws IOException {
+        Path file = folder.newFile("arsredovisning.pdf").toPath();
+        Files.write(file, fixture());
+        assertEquals(Collections.emptyList(), validate(PdfSource.of(file), TrustAnchors.sealTest(), true));
+    }
+
+    @Test
+    public void rejectsChangedByte() throws IOException {
+        byte[] pdf = fixture();
+        int[] byteRange = signature(pdf).getByteRange();
+        // Inside the compressed data of the first stream after the signature, so the document still parses
+        int position = indexOf(pdf, "stream\n", byteRange[2]) + "stream\n".length() + 16;
+        pdf[position] ^= 1;
+
+        assertEquals(Collections.singletonList("PDF-signaturen är ogiltig."), validate(PdfSource.of(pdf), TrustAnchors.sealTest(), true));
+    }
+
+    @Test
+    public void rejectsBytesAddedAfterSigning() throws IOException {
+        ByteArrayOutputStream pdf = new ByteArrayOutputStream();
+        pdf.write(fixture());
+        pdf.write("\n% Tillagt efter signering\n".getBytes(StandardCharsets.US_ASCII));
+
+        assertEquals(Collections.singletonList("PDF:en har ändrats efter att den signerades."), validate(PdfSource.of(pdf.toByteArray()), TrustAnchors.sealTest(), false));
+    }
+
+    @Test
+    public void acceptsFileAddedAfterSigning() throws IOException {
+        SyntheticPdfs pdfs = new SyntheticPdfs();
+        for (String fixture : FIXTURES) {
+            byte[] pdf = pdfs.addAttachment(IOUtils.toByteArray(TestUtil.getFixtureFile(fixture)), "registrering.txt", "Registrerad".getBytes(StandardCharsets.UTF_8));
+            for (boolean attachmentsOnly : new boolean[]{false, true}) {
+                PdfSource source = PdfSource.of(pdf);
+                try (PDDocument document = source.load(MemoryUsageSetting.setupMainMemoryOnly(), attachmentsOnly)) {
+                    PdfSealValidator validator = new PdfSealValidator(TrustAnchors.sealTest());
+                    assertEquals(fixture, Collections.emptyList(), validator.validate(document, source.getLoadedBytes()));
+                    assertEquals(fixture, Collections.singletonList("registrering.txt"), validator.getUnsealedFiles());
+                }
+            }
+        }
+    }
+
+    @Test
+    public void rejectsPageChangedAfterSigning() throws IOException {
+        byte[] pdf = new SyntheticPdfs().addAttachment(fixture(), "registrering.txt", "Registrerad".getBytes(StandardCharsets.UTF_8));
+        ByteArrayOutputStream changed = new ByteArrayOutputStream();
+        try (PDDocument document = PDDocument.load(pdf)) {
+            PDPage page = document.getPage(0);
+            page.setRotation(90);
+            page.getCOSObject().setNeedToBeUpdated(true);
+            document.getPages().getCOSObject().setNeedToBeUpdated(true);
+            document.getDocumentCatalog().getCOSObject().setNeedToBeUpdated(true);
+            document.saveIncremental(changed);
+        }
+
+        assertEquals(Collections.singletonList("PDF:en har ändrats efter att den signerades."), validate(PdfSource.of(changed.toByteArray()), TrustAnchors.sealTest(), false));
+    }
+
+    @Test
+    public void rejectsByteRangeNotStartingAtZero() throws IOException {
+        byte[] pdf = fixture();
+        int[] byteRange = signature(pdf).getByteRange();
+        byte[] changed = withByteRange(pdf, 1, byteRange[1] - 1, byteRange[2], byteRange[3]);
+
+        assertTrue(validate(PdfSource.of(changed), null, false).contains("PDF-signaturens ByteRange är ogiltig."));
+    }
+
+    @Test
+    public void rejectsByteRangeWithGapOtherThanSignatureValue() throws IOException {
+        byte[] pdf = fixture();
+        int[] byteRange = signature(pdf).getByteRange();
+        // One more byte outside the signature, still covering the whole file in length
+        byte[] changed = withByteRange(pdf, 0, byteRange[1], byteRange[2] + 1, byteRange[3] - 1);
+
+        assertTrue(validate(PdfSource.of(changed), null, false).contains("PDF-signaturens ByteRange är ogiltig."));
+    }
+
+    @Test
+    public void rejectsGapWithoutSignatureValue() throws IOException {
+        byte[] pdf = fixture();
+        int contents = indexOf(pdf, "/Contents <", 0);
+        // Renamed in place, so the signature dictionary has no /Contents for the gap to be compared with
+        byte[] changed = pdf.clone();
+        changed[contents + "/Content".length()] = 'z';
+
+        assertTrue(validate(PdfSource.of(changed), TrustAnchors.sealTest(), false).contains("PDF-signaturens ByteRange är ogiltig."));
+    }
+
+    @Test
+    public void rejectsSealWithoutTrustAnchors() throws IOException {
+        assertEquals(Collections.singletonList("Det går inte att kontrollera vem som har signerat PDF:en, eftersom inga betrodda rotcertifikat för PDF-signaturen har angetts."),
+                validate(PdfSource.of(fixture()), null, false));
+    }
+
+    @Test
+    public void rejectsDocumentWithoutSignature() throws IOException {
+        ByteArrayOutputStream pdf = new ByteArrayOutputStream();
+        try (PDDocument document = new PDDocument()) {
+            document.addPage(new PDPage());
+            document.save(pdf);
+        }
+
+        assertEquals(Collections.singletonList("PDF:en saknar signatur."), validate(PdfSource.of(pdf.toByteArray()), null, false));
+    }
+
+    @Test
+    public void acceptsSealIssuedByTrustedRoot() throws Exception {
+        byte[] pdf = fixture();
+        TrustAnchors roots = new TrustAnchors(Collections.singletonList(sealRoot(pdf)));
+        assertEquals(Collections.emptyList(), validate(PdfSource.of(pdf), roots, true));
+    }
+
+    @Test
+    public void rejectsSealIssuedByOtherRoot() throws IOException {
+        assertEquals(Collections.singletonList("PDF-signaturens certifikat är inte utfärdat av en betrodd utfärdare."),
+                validate(PdfSource.of(fixture()), TrustAnchors.test(), false));
+    }
+
+    private static List<String> validate(PdfSource pdf, TrustAnchors trustAnchors, boolean attachmentsOnly) throws IOException {
+        try (PDDocument document = pdf.load(MemoryUsageSetting.setupMainMemoryOnly(), attachmentsOnly)) {
+            return new PdfSealValidator(trustAnchors).validate(document, pdf.getLoadedBytes());
+        }
+    }
+
+    /**
+     * Rewrites the {@code /ByteRange} in place, padded with spaces so that no offsets in the file change.
+     */
+    private static byte[] withByteRange(byte[] pdf, long... byteRange) {
+        int start = indexOf(pdf, "/ByteRange [", 0) + "/ByteRange [".length();
+        int end = indexOf(pdf, "]", start);
+        StringBuilder replacement = new StringBuilder();
+        for (long value : byteRange) {
+            replacement.append(value).append(' ');
+        }
+        assertTrue(replacement.length() <= end - start);
+        while (replacement.length() < end - start) {
+            replacement.append(' ');
+        }
+        byte[] changed = pdf.clone();
+        System.arraycopy(replacement.toString().getBytes(StandardCharsets.US_ASCII), 0, changed, start, end - start);
+        return changed;
+    }
+
+    private static byte[] fixture() throws IOException {
+        return IOUtils.toByteArray(TestUtil.getFixtureFile(FIXTURES[0]));
+    }
+
+    private static PDSignature signature(byte[] pdf) throws IOException {
+        try (PDDocument document = PDDocument.load(pdf)) {
+            return document.getLastSignatureDictionary();
+        }
+    }
+
+    @SuppressWarnings("unchecked")
+    private static X509Certificate sealRoot(byte[] pdf) throws Exception {
+        PDSignature signature = signature(pdf);
+        CMSSignedData signedData = new CMSSignedData(signature.getContents(pdf));
+        for (X509CertificateHolder holder : (Collection<X509CertificateHolder>) signedData.getCertificates().getMatches(null)) {
+            if (holder.getSubject().equals(holder.getIssuer())) {
+                return new JcaX509CertificateConverter().getCertificate(holder);
+            }
+        }
+        throw new AssertionError("Ingen rot i PDF-signaturen");
+    }
+
+    private static int indexOf(byte[] bytes, String text, int from) {
+        byte[] pattern = text.getBytes(StandardCharsets.US_ASCII);
+        outer:
+        for (int i = from; i <= bytes.length - pattern.length; i++) {
+            for (int j = 0; j < pattern.length; j++) {
+                if (bytes[i + j] != pattern[j]) {
+                    continue outer;
+                }
+            }
+            return i;
+        }
+        throw new AssertionError(text + " saknas");
+    }
+}
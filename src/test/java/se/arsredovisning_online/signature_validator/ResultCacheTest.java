@@ -0,0 +1,175 @@
+package se.arsredovisning_online.signature_validator;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+import java.util.Collections;
+
+import static org.junit.Assert.*;
+
+public class ResultCacheTest {
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private static final byte[] DIGEST_A = digest(1);
+    private static final byte[] DIGEST_B = digest(2);
+
+    @Test
+    public void keepsResultsBetweenRuns() throws IOException {
+        Path file = folder.getRoot().toPath().resolve("cache");
+        try (ResultCache cache = new ResultCache(file)) {
+            cache.put(DIGEST_A, true, Collections.emptyList());
+            cache.put(DIGEST_B, true, Arrays.asList("Validering av signatur.xml misslyckades.", "Åäö"));
+        }
+
+        try (ResultCache cache = new ResultCache(file)) {
+            assertEquals(Collections.emptyList(), cache.get(DIGEST_A, true));
+            assertEquals(Arrays.asList("Validering av signatur.xml misslyckades.", "Åäö"), cache.get(DIGEST_B, true));
+            assertNull(cache.get(DIGEST_A, false));
+        }
+    }
+
+    @Test
+    public void discardsResultsWhenRootsChange() throws IOException {
+        Path file = folder.getRoot().toPath().resolve("cache");
+        try (ResultCache cache = new ResultCache(file, 10, "old roots")) {
+            cache.put(DIGEST_A, false, Collections.emptyList());
+        }
+
+        try (ResultCache cache = new ResultCache(file, 10, "new roots")) {
+            assertNull(cache.get(DIGEST_A, false));
+            assertEquals(0, cache.size());
+        }
+    }
+
+    @Test
+    public void ignoresPartlyWrittenRecord() throws IOException {
+        Path file = folder.getRoot().toPath().resolve("cache");
+        try (ResultCache cache = new ResultCache(file)) {
+            cache.put(DIGEST_A, false, Collections.emptyList());
+        }
+        Files.write(file, new byte[]{0, 0, 0, 100, 1, 2}, StandardOpenOption.APPEND);
+
+        try (ResultCache cache = new ResultCache(file)) {
+            assertEquals(Collections.emptyList(), cache.get(DIGEST_A, false));
+            cache.put(DIGEST_B, false, Collections.emptyList());
+        }
+        try (ResultCache cache = new ResultCache(file)) {
+            assertEquals(2, cache.size());
+        }
+    }
+
+    @Test
+    public void dropsCorruptRecordAndWhatFollows() throws IOException {
+        Path file = folder.getRoot().toPath().resolve("cache");
+        try (ResultCache cache = new ResultCache(file)) {
+            cache.put(DIGEST_A, false, Collections.emptyList());
+        }
+        Path other = folder.getRoot().toPath().resolve("other");
+        new ResultCache(other).close();
+        long headerLength = Files.size(other);
+        try (ResultCache cache = new ResultCache(other)) {
+            cache.put(DIGEST_B, false, Collections.emptyList());
+        }
+        byte[] otherBytes = Files.readAllBytes(other);
+        // Malformed UTF-8 in the key, then a well-formed record that can no longer be trusted
+        Files.write(file, new byte[]{0, 0, 0, 4, 0, 2, (byte) 0xc3, 0x28}, StandardOpenOption.APPEND);
+        Files.write(file, Arrays.copyOfRange(otherBytes, (int) headerLength, otherBytes.length), StandardOpenOption.APPEND);
+
+        try (ResultCache cache = new ResultCache(file)) {
+            assertEquals(1, cache.size());
+            assertEquals(Collections.emptyList(), cache.get(DIGEST_A, false));
+            cache.put(DIGEST_B, false, Collections.singletonList("Fel"));
+        }
+        try (ResultCache cache = new ResultCache(file)) {
+            assertEquals(Collections.singletonList("Fel"), cache.get(DIGEST_B, false));
+        }
+    }
+
+    @Test
+    public void keepsFileLockedThroughCompaction() throws IOException {
+        Path file = folder.getRoot().toPath().resolve("cache");
+        try (ResultCache cache = new ResultCache(file, 1)) {
+            for (int i = 0; i < 5; i++) {
+                cache.put(digest(i), false, Collections.emptyList());
+            }
+            try {
+                new ResultCache(file, 1).close();
+                fail("The cache should still be locked after it has been compacted");
+            } catch (IOException e) {
+                assertTrue(e.getMessage(), e.getMessage().contains("används redan"));
+            }
+        }
+    }
+
+    @Test
+    public void evictsLeastRecentlyUsedAndCompacts() throws IOException {
+        Path file = folder.getRoot().toPath().resolve("cache");
+        try (ResultCache cache = new ResultCache(file, 2)) {
+            cache.put(digest(1), false, Collections.emptyList());
+            cache.put(digest(2), false, Collections.emptyList());
+            cache.get(digest(1), false);
+            cache.put(digest(3), false, Collections.emptyList());
+            assertNotNull(cache.get(digest(1), false));
+            assertNull(cache.get(digest(2), false));
+
+            long sizeBeforeCompaction = Files.size(file);
+            for (int i = 4; i < 10; i++) {
+                cache.put(digest(i), false, Collections.emptyList());
+            }
+            assertTrue(Files.size(file) < sizeBeforeCompaction * 2);
+        }
+
+        try (ResultCache cache = new ResultCache(file, 2)) {
+            assertEquals(2, cache.size());
+            assertNotNull(cache.get(digest(9), false));
+        }
+    }
+
+    @Test(expected = IOException.class)
+    public void refusesFileAlreadyInUse() throws IOException {
+        Path file = folder.getRoot().toPath().resolve("cache");
+        try (ResultCache ignored = new ResultCache(file)) {
+            new ResultCache(file);
+        }
+    }
+
+    @Test
+    public void reusesResultOfUnchangedDocument() throws IOException {
+        Path pdf = folder.getRoot().toPath().resolve("arsredovisning.pdf");
+        try (InputStream input = TestUtil.getFixtureFile("/Årsredovisning (signerat original) - Demobolaget AB - räkenskapsåret 2017.pdf")) {
+            Files.copy(input, pdf);
+        }
+
+        try (ResultCache cache = new ResultCache(folder.getRoot().toPath().resolve("cache"))) {
+            SignedPdfValidator first = new SignedPdfValidator(PdfSource.of(pdf), true);
+            first.setResultCache(cache);
+            assertTrue(first.validate());
+            assertEquals(1, cache.size());
+
+            SignedPdfValidator stream = new SignedPdfValidator(Files.newInputStream(pdf), true);
+            stream.setResultCache(cache);
+            assertTrue(stream.validate());
+            assertEquals(1, cache.size());
+
+            SignedPdfValidator production = new SignedPdfValidator(PdfSource.of(pdf), false);
+            production.setResultCache(cache);
+            assertFalse(production.validate());
+            assertEquals(2, cache.size());
+            assertEquals(production.getValidationErrors(), cache.get(PdfSource.of(pdf).sha256(), false, "seal"));
+        }
+    }
+
+    private static byte[] digest(int value) {
+        byte[] digest = new byte[32];
+        digest[31] = (byte) value;
+        return digest;
+    }
+}
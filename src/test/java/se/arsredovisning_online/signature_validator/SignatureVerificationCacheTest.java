@@ -0,0 +1,64 @@
+package se.arsredovisning_online.signature_validator;
+
+import org.apache.commons.io.IOUtils;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.util.Collections;
+
+import static org.hamcrest.CoreMatchers.hasItem;
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.junit.Assert.*;
+
+public class SignatureVerificationCacheTest {
+    @Before
+    public void clearCache() {
+        SignatureVerificationCache.clear();
+    }
+
+    @Test
+    public void reusesOutcomePerSignatureAndMode() {
+        assertTrue(validate(true));
+        assertEquals(1, SignatureVerificationCache.size());
+        assertTrue(validate(true));
+        assertEquals(1, SignatureVerificationCache.size());
+
+        assertFalse(validate(false));
+        assertEquals(2, SignatureVerificationCache.size());
+        assertFalse(validate(false));
+        assertEquals(2, SignatureVerificationCache.size());
+    }
+
+    @Test
+    public void stillComparesDataWhenSignatureIsCached() throws IOException {
+        assertTrue(validate(true));
+
+        SingleSignatureValidator validator = new SingleSignatureValidator(
+                IOUtils.toInputStream("incorrect visible data", "UTF-8"), "plaintext",
+                TestUtil.getFixtureFile("/original_årsredovisning.xhtml"), "sha256",
+                TestUtil.getFixtureFile("/signatur_1_Anna_Andersson.xml"), true);
+        assertFalse(validator.validate());
+        assertThat(validator.getValidationErrors(), hasItem("Synligt data (\"user visible data\") i separat fil matchar inte signaturfilen."));
+        assertEquals(1, validator.getValidationErrors().size());
+    }
+
+    @Test
+    public void evictsLeastRecentlyUsed() {
+        for (int i = 0; i <= SignatureVerificationCache.MAX_ENTRIES; i++) {
+            byte[] digest = new byte[32];
+            digest[0] = (byte) (i >> 8);
+            digest[1] = (byte) i;
+            SignatureVerificationCache.put(digest, true, Collections.emptyList());
+        }
+        assertEquals(SignatureVerificationCache.MAX_ENTRIES, SignatureVerificationCache.size());
+        assertNull(SignatureVerificationCache.get(new byte[32], true));
+    }
+
+    private static boolean validate(boolean test) {
+        return new SingleSignatureValidator(
+                TestUtil.getFixtureFile("/styrelseledamot_vd_visible_data.txt"), "plaintext",
+                TestUtil.getFixtureFile("/original_årsredovisning.xhtml"), "sha256",
+                TestUtil.getFixtureFile("/signatur_1_Anna_Andersson.xml"), test).validate();
+    }
+}
@@ -1,13 +1,28 @@
 package se.arsredovisning_online.signature_validator;
 
+import org.junit.Rule;
 import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
 
+import java.io.ByteArrayInputStream;
 import java.io.IOException;
 import java.io.InputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.List;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
 
 import static org.junit.Assert.*;
 
 public class SignedPdfValidatorTest {
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
     @Test
     public void validatesSealedDocument() throws IOException {
         InputStream pdf = TestUtil.getFixtureFile("/Årsredovisning (signerat original) - Demobolaget AB - räkenskapsåret 2017.pdf");
@@ -32,4 +47,157 @@ public class SignedPdfValidatorTest {
         // Use root cert for production to force failure (files are created using test cert)
         assertFalse(new SignedPdfValidator(pdf).validate());
     }
-}
\ No newline at end of file
+
+    @Test
+    public void validatesSignaturesInParallel() throws IOException {
+        ExecutorService executor = Executors.newFixedThreadPool(4);
+        try {
+            InputStream pdf = TestUtil.getFixtureFile("/Årsredovisning (signerat original) - Demo med revision AB - räkenskapsåret 2017.pdf");
+            SignedPdfValidator validator = new SignedPdfValidator(pdf, true);
+            validator.setExecutor(executor);
+            assertTrue(validator.validate());
+        } finally {
+            executor.shutdown();
+        }
+    }
+
+    @Test
+    public void reportsParallelErrorsInManifestOrder() throws IOException {
+        String filename = "/Årsredovisning (signerat original) - Demo med revision AB - räkenskapsåret 2017.pdf";
+        SignedPdfValidator sequential = new SignedPdfValidator(TestUtil.getFixtureFile(filename));
+        assertFalse(sequential.validate());
+
+        ExecutorService executor = Executors.newFixedThreadPool(4);
+        try {
+            SignedPdfValidator parallel = new SignedPdfValidator(TestUtil.getFixtureFile(filename));
+            parallel.setExecutor(executor);
+            assertFalse(parallel.validate());
+            assertEquals(sequential.getValidationErrors(), parallel.getValidationErrors());
+        } finally {
+            executor.shutdown();
+        }
+    }
+
+    @Test
+    public void waitsForOtherSignaturesBeforeFailing() throws IOException {
+        AtomicBoolean lateTaskStarted = new AtomicBoolean();
+        AtomicInteger submitted = new AtomicInteger();
+        Executor executor = task -> {
+            boolean late = submitted.incrementAndGet() > 1;
+            new Thread(() -> {
+                if (late) {
+                    try {
+                        Thread.sleep(500);
+                    } catch (InterruptedException e) {
+                        Thread.currentThread().interrupt();
+                    }
+                }
+                if (late) {
+                    lateTaskStarted.set(true);
+                }
+                task.run();
+            }).start();
+        };
+        SignedPdfValidator validator = new SignedPdfValidator(TestUtil.getFixtureFile("/Årsredovisning (signerat original) - Demo med revision AB - räkenskapsåret 2017.pdf"), true);
+        validator.setExecutor(executor);
+        validator.setLimits(ValidationLimits.defaults().withMaxAttachmentBytes(4096));
+        assertFalse(validator.validate());
+        // The document is closed once validate() returns, so no task may still be reading from it
+        assertTrue(lateTaskStarted.get());
+    }
+
+    @Test
+    public void validatesDocumentWithSplitNameTree() throws IOException {
+        byte[] pdf = EmbeddedFileIndexTest.splitIntoKids(TestUtil.getFixtureFile("/Årsredovisning (signerat original) - Demobolaget AB - räkenskapsåret 2017.pdf"));
+        SignedPdfValidator validator = new SignedPdfValidator(new ByteArrayInputStream(pdf), true);
+        // Rewriting the document breaks its seal
+        validator.setSealValidation(false);
+        assertTrue(validator.validate());
+    }
+
+    @Test
+    public void reportsSealBrokenByRewrite() throws IOException {
+        byte[] pdf = EmbeddedFileIndexTest.splitIntoKids(TestUtil.getFixtureFile("/Årsredovisning (signerat original) - Demobolaget AB - räkenskapsåret 2017.pdf"));
+        SignedPdfValidator validator = new SignedPdfValidator(new ByteArrayInputStream(pdf), true);
+        assertFalse(validator.validate());
+        // The rewrite moves the signature value, so the old byte range no longer leaves out just that
+        assertTrue(validator.getValidationErrors().contains("PDF-signaturens ByteRange är ogiltig."));
+    }
+
+    @Test
+    public void validatesFileWithTempFileOnlyPolicy() throws IOException {
+        Path file = folder.newFile("arsredovisning.pdf").toPath();
+        Files.copy(TestUtil.getFixtureFile("/Årsredovisning (signerat original) - Demobolaget AB - räkenskapsåret 2017.pdf"), file, StandardCopyOption.REPLACE_EXISTING);
+        SignedPdfValidator validator = new SignedPdfValidator(PdfSource.of(file), true);
+        validator.setMemoryPolicy(MemoryPolicy.tempFileOnly().withTempDirectory(folder.getRoot()));
+        assertTrue(validator.validate());
+    }
+
+    @Test
+    public void validatesStreamWithMixedPolicy() throws IOException {
+        InputStream pdf = TestUtil.getFixtureFile("/Årsredovisning (signerat original) - Demobolaget AB - räkenskapsåret 2017.pdf");
+        SignedPdfValidator validator = new SignedPdfValidator(PdfSource.of(pdf), true);
+        validator.setMemoryPolicy(MemoryPolicy.mixed(64 * 1024).withTempDirectory(folder.getRoot()));
+        assertTrue(validator.validate());
+    }
+
+    @Test
+    public void reportsErrorWhenDocumentExceedsMainMemoryLimit() throws IOException {
+        InputStream pdf = TestUtil.getFixtureFile("/Årsredovisning (signerat original) - Demobolaget AB - räkenskapsåret 2017.pdf");
+        SignedPdfValidator validator = new SignedPdfValidator(PdfSource.of(pdf), true);
+        validator.setMemoryPolicy(MemoryPolicy.mainMemoryOnly(64 * 1024));
+        assertFalse(validator.validate());
+        assertFalse(validator.getValidationErrors().isEmpty());
+    }
+
+    @Test
+    public void validatesAllFixturesParsingOnlyAttachments() throws IOException {
+        String[] fixtures = {
+                "/Årsredovisning (signerat original) - Demobolaget AB - räkenskapsåret 2017.pdf",
+                "/Årsredovisning (signerat original) - Demo med revision AB - räkenskapsåret 2017.pdf",
+                "/Revisionsberättelse (signerat original) - Demo med revision AB - räkenskapsåret 2017.pdf"
+        };
+        for (String fixture : fixtures) {
+            SignedPdfValidator validator = new SignedPdfValidator(TestUtil.getFixtureFile(fixture), true);
+            validator.setAttachmentsOnly(true);
+            assertTrue(fixture, validator.validate());
+        }
+    }
+
+    @Test
+    public void validatesSplitNameTreeParsingOnlyAttachments() throws IOException {
+        byte[] pdf = EmbeddedFileIndexTest.splitIntoKids(TestUtil.getFixtureFile("/Årsredovisning (signerat original) - Demobolaget AB - räkenskapsåret 2017.pdf"));
+        SignedPdfValidator validator = new SignedPdfValidator(PdfSource.of(pdf), true);
+        validator.setAttachmentsOnly(true);
+        validator.setSealValidation(false);
+        assertTrue(validator.validate());
+    }
+
+    @Test
+    public void validatesDocumentFailingFast() throws IOException {
+        SignedPdfValidator validator = new SignedPdfValidator(TestUtil.getFixtureFile("/Årsredovisning (signerat original) - Demo med revision AB - räkenskapsåret 2017.pdf"), true);
+        validator.setValidationMode(ValidationMode.FAIL_FAST);
+        assertTrue(validator.validate());
+    }
+
+    @Test
+    public void stopsAtFirstInvalidSignatureWhenFailingFast() throws IOException {
+        String filename = "/Årsredovisning (signerat original) - Demo med revision AB - räkenskapsåret 2017.pdf";
+        SignedPdfValidator exhaustive = new SignedPdfValidator(TestUtil.getFixtureFile(filename));
+        exhaustive.setSealTrustAnchors(TrustAnchors.sealTest());
+        assertFalse(exhaustive.validate());
+
+        SignedPdfValidator failFast = new SignedPdfValidator(TestUtil.getFixtureFile(filename));
+        failFast.setSealTrustAnchors(TrustAnchors.sealTest());
+        failFast.setValidationMode(ValidationMode.FAIL_FAST);
+        assertFalse(failFast.validate());
+
+        assertTrue(countFailedSignatures(exhaustive.getValidationErrors()) > 1);
+        assertEquals(1, countFailedSignatures(failFast.getValidationErrors()));
+        assertEquals(exhaustive.getValidationErrors().get(0), failFast.getValidationErrors().get(0));
+    }
+
+    private static long countFailedSignatures(List<String> errors) {
+        return errors.stream().filter(error -> error.startsWith("Validering av ")).count();
+    }
+}
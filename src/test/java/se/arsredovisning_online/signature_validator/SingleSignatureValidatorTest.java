@@ -9,6 +9,7 @@ import java.io.InputStream;
 import static junit.framework.TestCase.assertTrue;
 import static org.hamcrest.CoreMatchers.hasItem;
 import static org.hamcrest.MatcherAssert.assertThat;
+import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertFalse;
 
 public class SingleSignatureValidatorTest {
@@ -54,4 +55,18 @@ public class SingleSignatureValidatorTest {
 
         assertFalse(validator.validate());
     }
+
+    @Test
+    public void stopsAtFirstDataMismatchWhenFailingFast() throws IOException {
+        SignatureVerificationCache.clear();
+        InputStream visibleData = IOUtils.toInputStream("incorrect visible data", "UTF-8");
+        InputStream nonVisibleData = IOUtils.toInputStream("incorrect non-visible data", "UTF-8");
+        InputStream signature = TestUtil.getFixtureFile("/signatur_1_Anna_Andersson.xml");
+        SingleSignatureValidator validator = new SingleSignatureValidator(visibleData, "plaintext", nonVisibleData, "sha256", signature);
+
+        assertFalse(validator.validate(ValidationMode.FAIL_FAST));
+        assertEquals(1, validator.getValidationErrors().size());
+        assertThat(validator.getValidationErrors(), hasItem("Synligt data (\"user visible data\") i separat fil matchar inte signaturfilen."));
+        assertEquals(0, SignatureVerificationCache.size());
+    }
 }
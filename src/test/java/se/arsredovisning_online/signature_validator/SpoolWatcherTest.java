@@ -0,0 +1,172 @@
+package se.arsredovisning_online.signature_validator;
+
+import com.google.gson.JsonObject;
+import com.google.gson.JsonParser;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.time.Duration;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+import static org.junit.Assert.*;
+
+public class SpoolWatcherTest {
+    private static final String FIXTURE = "/Årsredovisning (signerat original) - Demobolaget AB - räkenskapsåret 2017.pdf";
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private Path incoming;
+    private AsyncValidator validator;
+    private SpoolWatcher watcher;
+    private Thread thread;
+
+    @Before
+    public void createIncoming() throws IOException {
+        incoming = folder.newFolder("inkorg").toPath();
+        validator = new AsyncValidator(true, 2, AsyncValidator.Backpressure.WAIT);
+    }
+
+    @After
+    public void stop() throws Exception {
+        if (watcher != null) {
+            watcher.close();
+            thread.join(10_000);
+        }
+        validator.close();
+    }
+
+    @Test
+    public void validatesNewFilesAndMovesThemByOutcome() throws Exception {
+        start();
+        copyFixture(incoming.resolve("arsredovisning.pdf"));
+        Files.write(incoming.resolve("trasig.pdf"), "inte en pdf".getBytes(StandardCharsets.UTF_8));
+
+        awaitFile(incoming.resolve(SpoolWatcher.VALID).resolve("arsredovisning.pdf"));
+        awaitFile(incoming.resolve(SpoolWatcher.INVALID).resolve("trasig.pdf"));
+        assertFalse(Files.exists(incoming.resolve("arsredovisning.pdf")));
+
+        List<String> results = Files.readAllLines(incoming.resolve(SpoolWatcher.RESULTS), StandardCharsets.UTF_8);
+        assertEquals(2, results.size());
+        for (String line : results) {
+            JsonObject result = new JsonParser().parse(line).getAsJsonObject();
+            assertEquals(result.get("file").getAsString().equals("arsredovisning.pdf"), result.get("valid").getAsBoolean());
+        }
+    }
+
+    @Test
+    public void validatesFilesAlreadyThereOnStart() throws Exception {
+        copyFixture(incoming.resolve("arsredovisning.pdf"));
+        start();
+        awaitFile(incoming.resolve(SpoolWatcher.VALID).resolve("arsredovisning.pdf"));
+    }
+
+    @Test
+    public void ignoresFilesThatAreNotPdfs() throws Exception {
+        Files.write(incoming.resolve("anteckning.txt"), "hej".getBytes(StandardCharsets.UTF_8));
+        start();
+        copyFixture(incoming.resolve("arsredovisning.pdf"));
+        awaitFile(incoming.resolve(SpoolWatcher.VALID).resolve("arsredovisning.pdf"));
+        assertTrue(Files.exists(incoming.resolve("anteckning.txt")));
+    }
+
+    @Test
+    public void movesRecordedFileWithoutValidatingAgain() throws Exception {
+        // As if the watcher crashed after recording the result but before moving the file. The file is not a
+        // PDF, so it only ends up among the valid ones if the recorded result is used.
+        Path file = incoming.resolve("redan_validerad.pdf");
+        Files.write(file, "inte en pdf".getBytes(StandardCharsets.UTF_8));
+        JsonObject result = new JsonObject();
+        result.addProperty("file", "redan_validerad.pdf");
+        result.addProperty("valid", true);
+        result.addProperty("size", Files.size(file));
+        result.addProperty("modified", Files.getLastModifiedTime(file).toMillis());
+        Files.write(incoming.resolve(SpoolWatcher.RESULTS), (result + "\n").getBytes(StandardCharsets.UTF_8));
+
+        start();
+        awaitFile(incoming.resolve(SpoolWatcher.VALID).resolve("redan_validerad.pdf"));
+        assertEquals(1, Files.readAllLines(incoming.resolve(SpoolWatcher.RESULTS), StandardCharsets.UTF_8).size());
+    }
+
+    @Test
+    public void rotatesJournalOnStart() throws Exception {
+        start();
+        copyFixture(incoming.resolve("arsredovisning.pdf"));
+        awaitFile(incoming.resolve(SpoolWatcher.VALID).resolve("arsredovisning.pdf"));
+        watcher.close();
+        thread.join(10_000);
+
+        // Recorded but not yet moved, which must survive the rotation
+        Path file = incoming.resolve("redan_validerad.pdf");
+        Files.write(file, "inte en pdf".getBytes(StandardCharsets.UTF_8));
+        JsonObject result = new JsonObject();
+        result.addProperty("file", "redan_validerad.pdf");
+        result.addProperty("valid", true);
+        result.addProperty("size", Files.size(file));
+        result.addProperty("modified", Files.getLastModifiedTime(file).toMillis());
+        Files.write(incoming.resolve(SpoolWatcher.RESULTS), (result + "\n").getBytes(StandardCharsets.UTF_8), StandardOpenOption.APPEND);
+
+        start();
+        awaitFile(incoming.resolve(SpoolWatcher.VALID).resolve("redan_validerad.pdf"));
+        List<String> results = Files.readAllLines(incoming.resolve(SpoolWatcher.RESULTS), StandardCharsets.UTF_8);
+        assertEquals(1, results.size());
+        assertTrue(results.get(0).contains("redan_validerad.pdf"));
+        try (Stream<Path> archives = Files.list(incoming)) {
+            List<Path> archived = archives.filter(path -> path.getFileName().toString().startsWith("results-")).collect(Collectors.toList());
+            assertEquals(1, archived.size());
+            assertEquals(2, Files.readAllLines(archived.get(0), StandardCharsets.UTF_8).size());
+        }
+    }
+
+    @Test
+    public void keepsBothFilesWithSameName() throws Exception {
+        start();
+        copyFixture(incoming.resolve("arsredovisning.pdf"));
+        awaitFile(incoming.resolve(SpoolWatcher.VALID).resolve("arsredovisning.pdf"));
+        copyFixture(incoming.resolve("arsredovisning.pdf"));
+        awaitFile(incoming.resolve(SpoolWatcher.VALID).resolve("arsredovisning-1.pdf"));
+    }
+
+    private void start() throws IOException {
+        watcher = new SpoolWatcher(incoming, validator);
+        watcher.setQuietPeriod(Duration.ofMillis(100));
+        thread = new Thread(() -> {
+            try {
+                watcher.run();
+            } catch (IOException e) {
+                throw new RuntimeException(e);
+            }
+        });
+        thread.start();
+    }
+
+    private void copyFixture(Path target) throws IOException {
+        // Written next to the target and renamed, the way a well-behaved producer delivers files
+        Path temporary = target.resolveSibling(target.getFileName() + ".part");
+        try (InputStream pdf = TestUtil.getFixtureFile(FIXTURE)) {
+            Files.copy(pdf, temporary, StandardCopyOption.REPLACE_EXISTING);
+        }
+        Files.move(temporary, target, StandardCopyOption.ATOMIC_MOVE);
+    }
+
+    private static void awaitFile(Path file) throws InterruptedException {
+        long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(30);
+        while (!Files.exists(file)) {
+            assertTrue("Väntade på " + file, System.nanoTime() < deadline);
+            Thread.sleep(20);
+        }
+    }
+}
@@ -0,0 +1,435 @@
+package se.arsredovisning_online.signature_validator;
+
+import com.google.gson.JsonArray;
+import com.google.gson.JsonObject;
+import com.google.gson.JsonParser;
+import org.apache.commons.io.IOUtils;
+import org.apache.pdfbox.pdmodel.PDDocument;
+import org.apache.pdfbox.pdmodel.PDDocumentNameDictionary;
+import org.apache.pdfbox.pdmodel.PDEmbeddedFilesNameTreeNode;
+import org.apache.pdfbox.pdmodel.PDPage;
+import org.apache.pdfbox.pdmodel.common.PDNameTreeNode;
+import org.apache.pdfbox.pdmodel.common.filespecification.PDComplexFileSpecification;
+import org.apache.pdfbox.pdmodel.common.filespecification.PDEmbeddedFile;
+import org.apache.pdfbox.pdmodel.interactive.digitalsignature.PDSignature;
+import org.bouncycastle.cert.jcajce.JcaCertStore;
+import org.bouncycastle.cms.CMSProcessableByteArray;
+import org.bouncycastle.cms.CMSSignedDataGenerator;
+import org.bouncycastle.cms.jcajce.JcaSignerInfoGeneratorBuilder;
+import org.bouncycastle.operator.jcajce.JcaContentSignerBuilder;
+import org.bouncycastle.operator.jcajce.JcaDigestCalculatorProviderBuilder;
+import org.w3c.dom.Document;
+import org.w3c.dom.Element;
+
+import javax.xml.crypto.dom.DOMStructure;
+import javax.xml.crypto.dsig.CanonicalizationMethod;
+import javax.xml.crypto.dsig.DigestMethod;
+import javax.xml.crypto.dsig.Reference;
+import javax.xml.crypto.dsig.SignedInfo;
+import javax.xml.crypto.dsig.Transform;
+import javax.xml.crypto.dsig.XMLObject;
+import javax.xml.crypto.dsig.XMLSignature;
+import javax.xml.crypto.dsig.XMLSignatureFactory;
+import javax.xml.crypto.dsig.dom.DOMSignContext;
+import javax.xml.crypto.dsig.keyinfo.KeyInfo;
+import javax.xml.crypto.dsig.keyinfo.KeyInfoFactory;
+import javax.xml.crypto.dsig.spec.C14NMethodParameterSpec;
+import javax.xml.crypto.dsig.spec.TransformParameterSpec;
+import javax.xml.parsers.DocumentBuilderFactory;
+import javax.xml.transform.TransformerFactory;
+import javax.xml.transform.dom.DOMSource;
+import javax.xml.transform.stream.StreamResult;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.security.KeyPair;
+import java.security.MessageDigest;
+import java.security.cert.X509Certificate;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Base64;
+import java.util.Calendar;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Signed PDFs shaped like the ones Årsredovisning Online produces, for tests and load tests at sizes the demo
+ * fixtures do not reach.
+ * <p>
+ * Everything is issued by a throwaway CA chain shaped like BankID's: a root, a bank intermediate and signer
+ * certificates below it. Validate the PDFs with {@link #trustAnchors()} as both signature and seal roots. Signer
+ * keys are expensive to generate, so at most {@link #MAX_SIGNERS} distinct signers take turns.
+ */
+class SyntheticPdfs {
+    static final int MAX_SIGNERS = 8;
+    static final String MANIFEST = "manifest.json";
+    static final String ORIGINAL = "original_årsredovisning.xhtml";
+    static final String VISIBLE_DATA = "styrelseledamot_vd_visible_data.txt";
+
+    private static final String BANKID_TYPES = "http://www.bankid.com/signature/v1.0.0/types";
+
+    /**
+     * How the embedded files are arranged in the name tree.
+     */
+    enum Layout {
+        /** All files in the /Names array of the root node. */
+        FLAT,
+        /** Leaves of {@link #LEAF_SIZE} files below the root, the way large name trees are split. */
+        KIDS;
+
+        static final int LEAF_SIZE = 16;
+    }
+
+    /**
+     * What is wrong with the first signature of a generated PDF.
+     */
+    enum Defect {
+        NONE,
+        /** The signature value does not match the signed info. */
+        SIGNATURE_VALUE,
+        /** bankIdSignedData was changed after signing. */
+        SIGNED_DATA,
+        /** Signed by a chain from another root. */
+        UNTRUSTED_SIGNER,
+        /** The visible data file in the PDF is not what was signed. */
+        VISIBLE_DATA
+    }
+
+    private final KeyPair rootKeys = TestPki.keyPair();
+    private final X509Certificate root = TestPki.rootCertificate("Test Root CA v1 for BankID", rootKeys);
+    private final KeyPair bankKeys = TestPki.keyPair();
+    private final X509Certificate bank = TestPki.certificate("Testbank A Customer CA1 v1 for BankID", bankKeys, root, rootKeys.getPrivate(), true);
+    private final List<KeyPair> signerKeys = new ArrayList<>();
+    private final List<X509Certificate> signers = new ArrayList<>();
+    private final AtomicLong nonces = new AtomicLong();
+    private KeyPair sealKeys;
+    private X509Certificate seal;
+    private KeyPair untrustedKeys;
+    private X509Certificate untrustedSigner;
+    private X509Certificate untrustedBank;
+
+    TrustAnchors trustAnchors() {
+        return new TrustAnchors(Collections.singletonList(root));
+    }
+
+    /**
+     * A sealed PDF with {@code signatureCount} signatures over an original of {@code originalSize} bytes.
+     */
+    byte[] pdf(int signatureCount, int originalSize, Layout layout, Defect defect) throws IOException {
+        byte[] original = original(originalSize);
+        byte[] visibleData = ("Jag har granskat årsredovisningen och skriver under den (" + originalSize + " byte).").getBytes(StandardCharsets.UTF_8);
+
+        Map<String, byte[]> files = new TreeMap<>();
+        files.put(ORIGINAL, original);
+        files.put(VISIBLE_DATA, defect == Defect.VISIBLE_DATA ? "Något annat.".getBytes(StandardCharsets.UTF_8) : visibleData);
+        JsonArray signatures = new JsonArray();
+        for (int i = 0; i < signatureCount; i++) {
+            String name = "signatur_" + (i + 1) + ".xml";
+            files.put(name, signature(visibleData, original, i == 0 ? defect : Defect.NONE));
+            JsonObject signature = new JsonObject();
+            signature.addProperty("signature_file", name);
+            signature.addProperty("visible_data", VISIBLE_DATA);
+            signature.addProperty("non_visible_data", ORIGINAL);
+            signatures.add(signature);
+        }
+        files.put(MANIFEST, manifest(signatures));
+        return seal(document(files, layout));
+    }
+
+    /**
+     * A BankID style signature file over {@code visibleData} and the SHA-256 of {@code nonVisibleData}.
+     */
+    byte[] signature(byte[] visibleData, byte[] nonVisibleData, Defect defect) {
+        try {
+            DocumentBuilderFactory factory = DocumentBuilderFactory.newInstance();
+            factory.setNamespaceAware(true);
+            Document document = factory.newDocumentBuilder().newDocument();
+
+            Element signedData = document.createElementNS(BANKID_TYPES, "bankIdSignedData");
+            // Declared explicitly, so that it is canonicalized the same when signing as after parsing
+            signedData.setAttributeNS("http://www.w3.org/2000/xmlns/", "xmlns", BANKID_TYPES);
+            signedData.setAttribute("Id", "bidSignedData");
+            Element userVisibleData = append(signedData, "usrVisibleData", Base64.getEncoder().encodeToString(visibleData));
+            userVisibleData.setAttribute("charset", "UTF-8");
+            userVisibleData.setAttribute("visible", "wysiwys");
+            append(signedData, "usrNonVisibleData", Base64.getEncoder().encodeToString(MessageDigest.getInstance("SHA-256").digest(nonVisibleData)));
+            Element serverInfo = append(signedData, "srvInfo", null);
+            append(serverInfo, "name", Base64.getEncoder().encodeToString("cn=Test,o=Testbank A AB (publ),c=SE".getBytes(StandardCharsets.UTF_8)));
+            long serial = nonces.incrementAndGet();
+            Element nonce = append(serverInfo, "nonce", Base64.getEncoder().encodeToString(Long.toString(serial).getBytes(StandardCharsets.US_ASCII)));
+            append(serverInfo, "displayName", Base64.getEncoder().encodeToString("Test av BankID".getBytes(StandardCharsets.UTF_8)));
+
+            List<X509Certificate> chain;
+            KeyPair keys;
+            if (defect == Defect.UNTRUSTED_SIGNER) {
+                keys = untrustedKeys();
+                chain = Arrays.asList(untrustedSigner, untrustedBank);
+            } else {
+                int signer = (int) (serial % MAX_SIGNERS);
+                keys = signerKeys(signer);
+                chain = Arrays.asList(signers.get(signer), bank);
+            }
+
+            XMLSignatureFactory signatureFactory = XMLSignatureFactory.getInstance("DOM");
+            DigestMethod sha256 = signatureFactory.newDigestMethod(DigestMethod.SHA256, null);
+            List<Transform> c14n = Collections.singletonList(signatureFactory.newTransform(CanonicalizationMethod.INCLUSIVE, (TransformParameterSpec) null));
+            SignedInfo signedInfo = signatureFactory.newSignedInfo(
+                    signatureFactory.newCanonicalizationMethod(CanonicalizationMethod.INCLUSIVE, (C14NMethodParameterSpec) null),
+                    signatureFactory.newSignatureMethod("http://www.w3.org/2001/04/xmldsig-more#rsa-sha256", null),
+                    Arrays.asList(
+                            signatureFactory.newReference("#bidSignedData", sha256, c14n, BANKID_TYPES, null),
+                            signatureFactory.newReference("#bidKeyInfo", sha256, c14n, null, null)));
+            KeyInfoFactory keyInfoFactory = signatureFactory.getKeyInfoFactory();
+            KeyInfo keyInfo = keyInfoFactory.newKeyInfo(Collections.singletonList(keyInfoFactory.newX509Data(chain)), "bidKeyInfo");
+            XMLObject object = signatureFactory.newXMLObject(Collections.singletonList(new DOMStructure(signedData)), null, null, null);
+            XMLSignature signature = signatureFactory.newXMLSignature(signedInfo, keyInfo, Collections.singletonList(object), null, null);
+
+            DOMSignContext context = new DOMSignContext(keys.getPrivate(), document);
+            context.setIdAttributeNS(signedData, null, "Id");
+            signature.sign(context);
+
+            if (defect == Defect.SIGNATURE_VALUE) {
+                Element value = (Element) document.getElementsByTagNameNS(XMLSignature.XMLNS, "SignatureValue").item(0);
+                String text = value.getTextContent();
+                value.setTextContent((text.charAt(0) == 'A' ? 'B' : 'A') + text.substring(1));
+            } else if (defect == Defect.SIGNED_DATA) {
+                nonce.setTextContent(nonce.getTextContent() + "AA==");
+            }
+
+            ByteArrayOutputStream output = new ByteArrayOutputStream();
+            TransformerFactory.newInstance().newTransformer().transform(new DOMSource(document), new StreamResult(output));
+            return output.toByteArray();
+        } catch (Exception e) {
+            throw new RuntimeException(e);
+        }
+    }
+
+    private static Element append(Element parent, String name, String text) {
+        Element child = parent.getOwnerDocument().createElementNS(BANKID_TYPES, name);
+        if (text != null) {
+            child.setTextContent(text);
+        }
+        parent.appendChild(child);
+        return child;
+    }
+
+    /**
+     * An XHTML document of about {@code size} bytes, standing in for the original annual report.
+     */
+    private static byte[] original(int size) {
+        StringBuilder xhtml = new StringBuilder("<?xml version=\"1.0\" encoding=\"UTF-8\"?><html xmlns=\"http://www.w3.org/1999/xhtml\"><body>");
+        for (int i = 0; xhtml.length() < size - 14; i++) {
+            xhtml.append("<p>Not ").append(i).append(": Nettoomsättning ").append(i * 7919 % 100000).append(" kr.</p>");
+        }
+        return xhtml.append("</body></html>").toString().getBytes(StandardCharsets.UTF_8);
+    }
+
+    private static byte[] manifest(JsonArray signatures) {
+        JsonArray documents = new JsonArray();
+        documents.add(document(VISIBLE_DATA, "board_ceo_visible_data", DigestMaker.PLAINTEXT));
+        documents.add(document(ORIGINAL, "original_xbrl", "sha256"));
+        JsonObject manifest = new JsonObject();
+        manifest.add("documents", documents);
+        manifest.add("signatures", signatures);
+        return manifest.toString().getBytes(StandardCharsets.UTF_8);
+    }
+
+    private static JsonObject document(String name, String type, String digestMethod) {
+        JsonObject document = new JsonObject();
+        document.addProperty("name", name);
+        document.addProperty("type", type);
+        document.addProperty("digest_method", digestMethod);
+        return document;
+    }
+
+    private static byte[] document(Map<String, byte[]> files, Layout layout) throws IOException {
+        try (PDDocument document = new PDDocument()) {
+            document.addPage(new PDPage());
+            TreeMap<String, PDComplexFileSpecification> specifications = new TreeMap<>();
+            for (Map.Entry<String, byte[]> file : files.entrySet()) {
+                specifications.put(file.getKey(), specification(document, file.getKey(), file.getValue()));
+            }
+
+            PDEmbeddedFilesNameTreeNode root = new PDEmbeddedFilesNameTreeNode();
+            if (layout == Layout.FLAT) {
+                root.setNames(specifications);
+            } else {
+                List<PDNameTreeNode<PDComplexFileSpecification>> kids = new ArrayList<>();
+                List<String> names = new ArrayList<>(specifications.keySet());
+                for (int i = 0; i < names.size(); i += Layout.LEAF_SIZE) {
+                    PDEmbeddedFilesNameTreeNode kid = new PDEmbeddedFilesNameTreeNode();
+                    kid.setNames(specifications.subMap(names.get(i), true, names.get(Math.min(i + Layout.LEAF_SIZE, names.size()) - 1), true));
+                    kids.add(kid);
+                }
+                root.setKids(kids);
+            }
+            PDDocumentNameDictionary names = new PDDocumentNameDictionary(document.getDocumentCatalog());
+            names.setEmbeddedFiles(root);
+            document.getDocumentCatalog().setNames(names);
+
+            ByteArrayOutputStream output = new ByteArrayOutputStream();
+            document.save(output);
+            return output.toByteArray();
+        }
+    }
+
+    private static PDComplexFileSpecification specification(PDDocument document, String name, byte[] content) throws IOException {
+        PDEmbeddedFile embeddedFile = new PDEmbeddedFile(document, new ByteArrayInputStream(content));
+        embeddedFile.setSize(content.length);
+        PDComplexFileSpecification specification = new PDComplexFileSpecification();
+        specification.setFile(name);
+        specification.setFileUnicode(name);
+        specification.setEmbeddedFile(embeddedFile);
+        specification.setEmbeddedFileUnicode(embeddedFile);
+        return specification;
+    }
+
+    /**
+     * Appends an incremental update to a {@link Layout#FLAT} PDF from {@link #pdf} with one more signature over the
+     * same original and a manifest listing it, and seals the result again: a document signed by one more board
+     * member after it was first sealed. Everything the first revisions hold is left as it was.
+     */
+    byte[] addSignature(byte[] pdf) throws IOException {
+        try (PDDocument document = PDDocument.load(pdf)) {
+            PDDocumentNameDictionary names = document.getDocumentCatalog().getNames();
+            PDEmbeddedFilesNameTreeNode root = names.getEmbeddedFiles();
+            Map<String, PDComplexFileSpecification> specifications = new TreeMap<>(root.getNames());
+            byte[] original = read(specifications.get(ORIGINAL));
+            byte[] visibleData = read(specifications.get(VISIBLE_DATA));
+            JsonObject manifest = new JsonParser().parse(new String(read(specifications.get(MANIFEST)), StandardCharsets.UTF_8)).getAsJsonObject();
+
+            JsonArray signatures = manifest.getAsJsonArray("signatures");
+            String name = "signatur_" + (signatures.size() + 1) + ".xml";
+            JsonObject signature = new JsonObject();
+            signature.addProperty("signature_file", name);
+            signature.addProperty("visible_data", VISIBLE_DATA);
+            signature.addProperty("non_visible_data", ORIGINAL);
+            signatures.add(signature);
+
+            specifications.put(name, specification(document, name, signature(visibleData, original, Defect.NONE)));
+            specifications.put(MANIFEST, specification(document, MANIFEST, manifest.toString().getBytes(StandardCharsets.UTF_8)));
+            root.setNames(specifications);
+            for (String updated : Arrays.asList(name, MANIFEST)) {
+                PDComplexFileSpecification specification = specifications.get(updated);
+                specification.getCOSObject().setNeedToBeUpdated(true);
+                specification.getEmbeddedFile().getCOSObject().setNeedToBeUpdated(true);
+            }
+            root.getCOSObject().setNeedToBeUpdated(true);
+            names.getCOSObject().setNeedToBeUpdated(true);
+            document.getDocumentCatalog().getCOSObject().setNeedToBeUpdated(true);
+            return seal(document);
+        }
+    }
+
+    /**
+     * Appends an incremental update to a {@link Layout#FLAT} PDF from {@link #pdf} that adds one attachment and is
+     * not sealed again, like a registration stamp added after the document was signed.
+     */
+    byte[] addAttachment(byte[] pdf, String name, byte[] content) throws IOException {
+        try (PDDocument document = PDDocument.load(pdf)) {
+            PDDocumentNameDictionary names = document.getDocumentCatalog().getNames();
+            PDEmbeddedFilesNameTreeNode root = names.getEmbeddedFiles();
+            Map<String, PDComplexFileSpecification> specifications = new TreeMap<>(root.getNames());
+            PDComplexFileSpecification specification = specification(document, name, content);
+            specifications.put(name, specification);
+            root.setNames(specifications);
+            specification.getCOSObject().setNeedToBeUpdated(true);
+            specification.getEmbeddedFile().getCOSObject().setNeedToBeUpdated(true);
+            root.getCOSObject().setNeedToBeUpdated(true);
+            names.getCOSObject().setNeedToBeUpdated(true);
+            document.getDocumentCatalog().getCOSObject().setNeedToBeUpdated(true);
+            ByteArrayOutputStream output = new ByteArrayOutputStream();
+            document.saveIncremental(output);
+            return output.toByteArray();
+        }
+    }
+
+    /**
+     * Appends an incremental update to a {@link Layout#FLAT} PDF from {@link #pdf} without one attachment, and seals
+     * the result again.
+     */
+    byte[] removeAttachment(byte[] pdf, String name) throws IOException {
+        try (PDDocument document = PDDocument.load(pdf)) {
+            PDDocumentNameDictionary names = document.getDocumentCatalog().getNames();
+            PDEmbeddedFilesNameTreeNode root = names.getEmbeddedFiles();
+            Map<String, PDComplexFileSpecification> specifications = new TreeMap<>(root.getNames());
+            specifications.remove(name);
+            root.setNames(specifications);
+            root.getCOSObject().setNeedToBeUpdated(true);
+            names.getCOSObject().setNeedToBeUpdated(true);
+            document.getDocumentCatalog().getCOSObject().setNeedToBeUpdated(true);
+            return seal(document);
+        }
+    }
+
+    private static byte[] read(PDComplexFileSpecification specification) throws IOException {
+        try (InputStream input = specification.getEmbeddedFile().createInputStream()) {
+            return IOUtils.toByteArray(input);
+        }
+    }
+
+    /**
+     * Adds a PAdES signature over the whole file as an incremental update, like the seal of the real PDFs.
+     */
+    private byte[] seal(byte[] pdf) throws IOException {
+        try (PDDocument document = PDDocument.load(pdf)) {
+            return seal(document);
+        }
+    }
+
+    private byte[] seal(PDDocument document) throws IOException {
+        KeyPair keys = sealKeys();
+        PDSignature signature = new PDSignature();
+        signature.setFilter(PDSignature.FILTER_ADOBE_PPKLITE);
+        signature.setSubFilter(PDSignature.SUBFILTER_ETSI_CADES_DETACHED);
+        signature.setSignDate(Calendar.getInstance());
+        document.addSignature(signature, content -> {
+            try {
+                CMSSignedDataGenerator generator = new CMSSignedDataGenerator();
+                generator.addSignerInfoGenerator(new JcaSignerInfoGeneratorBuilder(new JcaDigestCalculatorProviderBuilder().build())
+                        .build(new JcaContentSignerBuilder("SHA256withRSA").build(keys.getPrivate()), seal));
+                generator.addCertificates(new JcaCertStore(Arrays.asList(seal, bank)));
+                return generator.generate(new CMSProcessableByteArray(IOUtils.toByteArray(content)), false).getEncoded();
+            } catch (Exception e) {
+                throw new IOException(e);
+            }
+        });
+        ByteArrayOutputStream output = new ByteArrayOutputStream();
+        document.saveIncremental(output);
+        return output.toByteArray();
+    }
+
+    private synchronized KeyPair signerKeys(int index) {
+        while (signers.size() <= index) {
+            KeyPair keys = TestPki.keyPair();
+            signerKeys.add(keys);
+            signers.add(TestPki.certificate("Signer " + (signers.size() + 1), keys, bank, bankKeys.getPrivate(), false));
+        }
+        return signerKeys.get(index);
+    }
+
+    private synchronized KeyPair sealKeys() {
+        if (sealKeys == null) {
+            sealKeys = TestPki.keyPair();
+            seal = TestPki.certificate("Årsredovisning Online seal", sealKeys, bank, bankKeys.getPrivate(), false);
+        }
+        return sealKeys;
+    }
+
+    private synchronized KeyPair untrustedKeys() {
+        if (untrustedKeys == null) {
+            KeyPair otherRootKeys = TestPki.keyPair();
+            X509Certificate otherRoot = TestPki.rootCertificate("Other Root CA", otherRootKeys);
+            KeyPair otherBankKeys = TestPki.keyPair();
+            untrustedBank = TestPki.certificate("Testbank A Customer CA1 v1 for BankID", otherBankKeys, otherRoot, otherRootKeys.getPrivate(), true);
+            untrustedKeys = TestPki.keyPair();
+            untrustedSigner = TestPki.certificate("Signer", untrustedKeys, untrustedBank, otherBankKeys.getPrivate(), false);
+        }
+        return untrustedKeys;
+    }
+}
@@ -0,0 +1,70 @@
+package se.arsredovisning_online.signature_validator;
+
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+import java.util.List;
+
+import static org.junit.Assert.*;
+
+public class SyntheticPdfsTest {
+    private static SyntheticPdfs pdfs;
+    private static ValidationEngine engine;
+
+    @BeforeClass
+    public static void createPki() {
+        pdfs = new SyntheticPdfs();
+        engine = ValidationEngine.builder(false)
+                .signatureTrustAnchors(pdfs.trustAnchors())
+                .sealTrustAnchors(pdfs.trustAnchors())
+                .build();
+    }
+
+    @Test
+    public void generatesValidPdf() throws Exception {
+        byte[] pdf = pdfs.pdf(3, 4096, SyntheticPdfs.Layout.FLAT, SyntheticPdfs.Defect.NONE);
+        ValidationReport report = engine.validate(PdfSource.of(pdf));
+        assertTrue(report.getErrors().toString(), report.isValid());
+    }
+
+    @Test
+    public void generatesNameTreeWithKids() throws Exception {
+        byte[] pdf = pdfs.pdf(40, 4096, SyntheticPdfs.Layout.KIDS, SyntheticPdfs.Defect.NONE);
+        assertTrue(engine.validate(PdfSource.of(pdf)).isValid());
+        ValidationReport report = engine.toBuilder().attachmentsOnly(true).build().validate(PdfSource.of(pdf));
+        assertTrue(report.getErrors().toString(), report.isValid());
+    }
+
+    @Test
+    public void isNotTrustedByBankIdRoots() throws Exception {
+        byte[] pdf = pdfs.pdf(1, 1024, SyntheticPdfs.Layout.FLAT, SyntheticPdfs.Defect.NONE);
+        List<String> errors = ValidationEngine.builder(true).build().validate(PdfSource.of(pdf)).getErrors();
+        assertTrue(errors.toString(), errors.contains("Certifikatkedjan är inte giltig."));
+    }
+
+    @Test
+    public void breaksSignatureValue() throws Exception {
+        assertErrors(SyntheticPdfs.Defect.SIGNATURE_VALUE, "Signaturen är ogiltig.");
+    }
+
+    @Test
+    public void breaksSignedData() throws Exception {
+        assertErrors(SyntheticPdfs.Defect.SIGNED_DATA, "Referens med uri \"#bidSignedData\" är inte giltig.");
+    }
+
+    @Test
+    public void signsWithUntrustedChain() throws Exception {
+        assertErrors(SyntheticPdfs.Defect.UNTRUSTED_SIGNER, "Certifikatkedjan är inte giltig.");
+    }
+
+    @Test
+    public void replacesVisibleData() throws Exception {
+        assertErrors(SyntheticPdfs.Defect.VISIBLE_DATA, "Synligt data (\"user visible data\") i separat fil matchar inte signaturfilen.");
+    }
+
+    private static void assertErrors(SyntheticPdfs.Defect defect, String expected) throws Exception {
+        byte[] pdf = pdfs.pdf(2, 1024, SyntheticPdfs.Layout.FLAT, defect);
+        List<String> errors = engine.validate(PdfSource.of(pdf)).getErrors();
+        assertTrue(errors.toString(), errors.contains(expected));
+    }
+}
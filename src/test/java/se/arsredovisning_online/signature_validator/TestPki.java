@@ -0,0 +1,101 @@
+package se.arsredovisning_online.signature_validator;
+
+import org.bouncycastle.asn1.x500.X500Name;
+import org.bouncycastle.asn1.x509.BasicConstraints;
+import org.bouncycastle.asn1.x509.ExtendedKeyUsage;
+import org.bouncycastle.asn1.x509.Extension;
+import org.bouncycastle.asn1.x509.KeyPurposeId;
+import org.bouncycastle.cert.X509v3CertificateBuilder;
+import org.bouncycastle.cert.jcajce.JcaX509CertificateConverter;
+import org.bouncycastle.cert.jcajce.JcaX509CertificateHolder;
+import org.bouncycastle.cert.jcajce.JcaX509ExtensionUtils;
+import org.bouncycastle.cert.jcajce.JcaX509v3CertificateBuilder;
+import org.bouncycastle.cert.ocsp.BasicOCSPRespBuilder;
+import org.bouncycastle.cert.ocsp.CertificateID;
+import org.bouncycastle.cert.ocsp.CertificateStatus;
+import org.bouncycastle.cert.ocsp.OCSPResp;
+import org.bouncycastle.cert.ocsp.OCSPRespBuilder;
+import org.bouncycastle.cert.ocsp.RespID;
+import org.bouncycastle.operator.ContentSigner;
+import org.bouncycastle.operator.jcajce.JcaContentSignerBuilder;
+import org.bouncycastle.operator.jcajce.JcaDigestCalculatorProviderBuilder;
+
+import java.math.BigInteger;
+import java.security.KeyPair;
+import java.security.KeyPairGenerator;
+import java.security.PrivateKey;
+import java.security.cert.X509Certificate;
+import java.util.Date;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Certificates and OCSP responses for tests, issued by throwaway keys.
+ */
+class TestPki {
+    private static final AtomicLong serials = new AtomicLong(1000);
+
+    static KeyPair keyPair() {
+        try {
+            KeyPairGenerator generator = KeyPairGenerator.getInstance("RSA");
+            generator.initialize(2048);
+            return generator.generateKeyPair();
+        } catch (Exception e) {
+            throw new RuntimeException(e);
+        }
+    }
+
+    static X509Certificate rootCertificate(String commonName, KeyPair keys) {
+        return certificate(commonName, keys, null, keys.getPrivate(), true);
+    }
+
+    /**
+     * A certificate for {@code keys} issued by {@code issuer}, with the given extended key usages.
+     */
+    static X509Certificate certificate(String commonName, KeyPair keys, X509Certificate issuer, PrivateKey issuerKey,
+                                       boolean ca, KeyPurposeId... extendedKeyUsages) {
+        try {
+            X500Name subject = new X500Name("CN=" + commonName + ",O=Test,C=SE");
+            X500Name issuerName = issuer == null ? subject : new JcaX509CertificateHolder(issuer).getSubject();
+            Date notBefore = new Date(System.currentTimeMillis() - TimeUnit.DAYS.toMillis(1));
+            Date notAfter = new Date(System.currentTimeMillis() + TimeUnit.DAYS.toMillis(365));
+            X509v3CertificateBuilder builder = new JcaX509v3CertificateBuilder(issuerName,
+                    BigInteger.valueOf(serials.incrementAndGet()), notBefore, notAfter, subject, keys.getPublic());
+
+            JcaX509ExtensionUtils extensionUtils = new JcaX509ExtensionUtils();
+            builder.addExtension(Extension.subjectKeyIdentifier, false, extensionUtils.createSubjectKeyIdentifier(keys.getPublic()));
+            builder.addExtension(Extension.authorityKeyIdentifier, false, issuer == null
+                    ? extensionUtils.createAuthorityKeyIdentifier(keys.getPublic())
+                    : extensionUtils.createAuthorityKeyIdentifier(issuer));
+            builder.addExtension(Extension.basicConstraints, true, new BasicConstraints(ca));
+            if (extendedKeyUsages.length > 0) {
+                builder.addExtension(Extension.extendedKeyUsage, false, new ExtendedKeyUsage(extendedKeyUsages));
+            }
+            return new JcaX509CertificateConverter().getCertificate(builder.build(signer(issuerKey)));
+        } catch (Exception e) {
+            throw new RuntimeException(e);
+        }
+    }
+
+    /**
+     * A DER encoded OCSP response about {@code certificate}, signed by {@code responder}.
+     */
+    static byte[] ocspResponse(X509Certificate certificate, X509Certificate issuer, X509Certificate responder,
+                               PrivateKey responderKey, CertificateStatus status, Date nextUpdate) {
+        try {
+            CertificateID id = new CertificateID(new JcaDigestCalculatorProviderBuilder().build().get(CertificateID.HASH_SHA1),
+                    new JcaX509CertificateHolder(issuer), certificate.getSerialNumber());
+            JcaX509CertificateHolder responderHolder = new JcaX509CertificateHolder(responder);
+            BasicOCSPRespBuilder builder = new BasicOCSPRespBuilder(new RespID(responderHolder.getSubject()));
+            builder.addResponse(id, status, new Date(), nextUpdate, null);
+            return new OCSPRespBuilder().build(OCSPResp.SUCCESSFUL,
+                    builder.build(signer(responderKey), new JcaX509CertificateHolder[]{responderHolder}, new Date())).getEncoded();
+        } catch (Exception e) {
+            throw new RuntimeException(e);
+        }
+    }
+
+    private static ContentSigner signer(PrivateKey key) throws Exception {
+        return new JcaContentSignerBuilder("SHA256withRSA").build(key);
+    }
+}
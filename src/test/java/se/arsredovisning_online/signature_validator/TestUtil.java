@@ -3,7 +3,9 @@ package se.arsredovisning_online.signature_validator;
 import org.w3c.dom.Document;
 
 import javax.xml.parsers.DocumentBuilderFactory;
+import java.io.ByteArrayInputStream;
 import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
 
 class TestUtil {
     static InputStream getFixtureFile(String filename) {
@@ -14,6 +16,10 @@ class TestUtil {
         return parseSignatureFile(getFixtureFile(filename));
     }
 
+    static Document parseXml(String xml) {
+        return parseSignatureFile(new ByteArrayInputStream(xml.getBytes(StandardCharsets.UTF_8)));
+    }
+
     private static Document parseSignatureFile(InputStream signatureAsStream) {
         DocumentBuilderFactory dbf = DocumentBuilderFactory.newInstance();
         dbf.setNamespaceAware(true);
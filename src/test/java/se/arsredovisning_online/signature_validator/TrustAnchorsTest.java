@@ -0,0 +1,88 @@
+package se.arsredovisning_online.signature_validator;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.w3c.dom.Document;
+import org.w3c.dom.NodeList;
+
+import javax.xml.crypto.dsig.XMLSignature;
+import java.io.ByteArrayInputStream;
+import java.security.GeneralSecurityException;
+import java.security.cert.CertificateFactory;
+import java.security.cert.X509Certificate;
+import java.util.ArrayList;
+import java.util.Base64;
+import java.util.List;
+
+import static org.junit.Assert.*;
+
+public class TrustAnchorsTest {
+    @Before
+    public void clearCache() {
+        TrustAnchors.clearVerificationCache();
+    }
+
+    @Test
+    public void indexesRootsBySubjectKeyIdentifier() {
+        X509Certificate root = TrustAnchors.test().getRoots().get(0);
+        byte[] keyIdentifier = TrustAnchors.getSubjectKeyIdentifier(root);
+        assertNotNull(keyIdentifier);
+        assertSame(root, TrustAnchors.test().findBySubjectKeyIdentifier(keyIdentifier));
+        assertNull(TrustAnchors.production().findBySubjectKeyIdentifier(keyIdentifier));
+    }
+
+    @Test
+    public void parsesRootsOnlyOnce() {
+        assertSame(TrustAnchors.test(), TrustAnchors.forMode(true));
+        assertSame(TrustAnchors.production(), TrustAnchors.forMode(false));
+    }
+
+    @Test
+    public void fingerprintsDifferBetweenRootSets() {
+        assertEquals(TrustAnchors.test().getFingerprint(), new TrustAnchors(TrustAnchors.test().getRoots()).getFingerprint());
+        assertNotEquals(TrustAnchors.test().getFingerprint(), TrustAnchors.production().getFingerprint());
+    }
+
+    @Test
+    public void anchorsChainInTestRoot() throws Exception {
+        List<X509Certificate> chain = getChain("/signatur_1_Anna_Andersson.xml");
+        TrustAnchors.test().verifyAnchored(chain.get(chain.size() - 1));
+    }
+
+    @Test(expected = GeneralSecurityException.class)
+    public void doesNotAnchorChainInProductionRoot() throws Exception {
+        List<X509Certificate> chain = getChain("/signatur_1_Anna_Andersson.xml");
+        TrustAnchors.production().verifyAnchored(chain.get(chain.size() - 1));
+    }
+
+    @Test
+    public void cachesSuccessfulVerifications() throws Exception {
+        List<X509Certificate> chain = getChain("/signatur_1_Anna_Andersson.xml");
+        TrustAnchors.verifyIssuedBy(chain.get(0), chain.get(1));
+        TrustAnchors.verifyIssuedBy(chain.get(0), chain.get(1));
+        assertEquals(1, TrustAnchors.cachedVerificationCount());
+    }
+
+    @Test
+    public void doesNotCacheFailedVerifications() throws Exception {
+        List<X509Certificate> chain = getChain("/signatur_1_Anna_Andersson.xml");
+        try {
+            TrustAnchors.verifyIssuedBy(chain.get(1), chain.get(0));
+            fail();
+        } catch (GeneralSecurityException e) {
+            assertEquals(0, TrustAnchors.cachedVerificationCount());
+        }
+    }
+
+    private static List<X509Certificate> getChain(String filename) throws Exception {
+        Document document = TestUtil.getSignatureDocument(filename);
+        NodeList nodes = document.getElementsByTagNameNS(XMLSignature.XMLNS, "X509Certificate");
+        CertificateFactory certificateFactory = CertificateFactory.getInstance("X.509");
+        List<X509Certificate> chain = new ArrayList<>();
+        for (int i = 0; i < nodes.getLength(); i++) {
+            byte[] bytes = Base64.getMimeDecoder().decode(nodes.item(i).getTextContent());
+            chain.add((X509Certificate) certificateFactory.generateCertificate(new ByteArrayInputStream(bytes)));
+        }
+        return chain;
+    }
+}
@@ -0,0 +1,106 @@
+package se.arsredovisning_online.signature_validator;
+
+import org.apache.commons.io.IOUtils;
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.*;
+
+public class ValidationEngineTest {
+    private static byte[] pdf;
+
+    @BeforeClass
+    public static void readFixture() throws IOException {
+        pdf = IOUtils.toByteArray(TestUtil.getFixtureFile("/Årsredovisning (signerat original) - Demobolaget AB - räkenskapsåret 2017.pdf"));
+    }
+
+    @Test
+    public void validatesPdf() {
+        ValidationReport report = ValidationEngine.builder(true).build().validate(PdfSource.of(pdf));
+        assertTrue(report.getErrors().toString(), report.isValid());
+    }
+
+    @Test
+    public void validatesAgainstProductionRoots() {
+        ValidationReport report = ValidationEngine.builder(false).build().validate(PdfSource.of(pdf));
+        assertFalse(report.isValid());
+        assertTrue(report.getErrors().contains("Certifikatkedjan är inte giltig."));
+    }
+
+    @Test
+    public void isSharedByThreads() throws Exception {
+        ValidationEngine engine = ValidationEngine.builder(true).attachmentsOnly(true).build();
+        ExecutorService executor = Executors.newFixedThreadPool(4);
+        try {
+            List<Future<ValidationReport>> reports = new ArrayList<>();
+            for (int i = 0; i < 16; i++) {
+                if (i % 4 == 0) {
+                    SignatureVerificationCache.clear();
+                }
+                reports.add(executor.submit(() -> engine.validate(PdfSource.of(pdf))));
+            }
+            for (Future<ValidationReport> report : reports) {
+                assertTrue(report.get().getErrors().toString(), report.get().isValid());
+            }
+        } finally {
+            executor.shutdown();
+        }
+    }
+
+    @Test
+    public void validatesSignaturesOnExecutor() {
+        AtomicInteger tasks = new AtomicInteger();
+        Executor executor = task -> {
+            tasks.incrementAndGet();
+            task.run();
+        };
+        ValidationEngine engine = ValidationEngine.builder(true).signatureExecutor(executor).build();
+        ValidationReport report = engine.toBuilder().build().validate(PdfSource.of(pdf));
+        assertTrue(report.getErrors().toString(), report.isValid());
+        assertEquals(2, tasks.get());
+    }
+
+    @Test
+    public void copiesSettingsToBuilder() {
+        ValidationEngine engine = ValidationEngine.builder(true).validationMode(ValidationMode.FAIL_FAST).build();
+        ValidationEngine copy = engine.toBuilder().attachmentsOnly(true).build();
+        assertTrue(copy.isTest());
+        assertEquals(ValidationMode.FAIL_FAST, copy.getValidationMode());
+        assertNotSame(engine, copy);
+    }
+
+    @Test
+    public void validatesSignature() {
+        ValidationEngine engine = ValidationEngine.builder(true).build();
+        assertTrue(validateSignature(engine, "/styrelseledamot_vd_visible_data.txt").isValid());
+
+        ValidationReport report = validateSignature(engine, "/manifest.json");
+        assertEquals(1, report.getErrors().size());
+        assertEquals("Synligt data (\"user visible data\") i separat fil matchar inte signaturfilen.", report.getErrors().get(0));
+    }
+
+    @Test
+    public void reportsUnreadableSignatureFile() {
+        ValidationReport report = ValidationEngine.builder(true).build().validateSignature(
+                TestUtil.getFixtureFile("/styrelseledamot_vd_visible_data.txt"), "plaintext",
+                TestUtil.getFixtureFile("/original_årsredovisning.xhtml"), "sha256",
+                TestUtil.getFixtureFile("/manifest.json"));
+        assertFalse(report.isValid());
+    }
+
+    private static ValidationReport validateSignature(ValidationEngine engine, String visibleData) {
+        return engine.validateSignature(
+                TestUtil.getFixtureFile(visibleData), "plaintext",
+                TestUtil.getFixtureFile("/original_årsredovisning.xhtml"), "sha256",
+                TestUtil.getFixtureFile("/signatur_1_Anna_Andersson.xml"));
+    }
+}
@@ -0,0 +1,173 @@
+package se.arsredovisning_online.signature_validator;
+
+import org.apache.commons.io.IOUtils;
+import org.apache.pdfbox.cos.COSName;
+import org.apache.pdfbox.pdmodel.PDDocument;
+import org.apache.pdfbox.pdmodel.PDDocumentNameDictionary;
+import org.apache.pdfbox.pdmodel.PDEmbeddedFilesNameTreeNode;
+import org.apache.pdfbox.pdmodel.PDPage;
+import org.apache.pdfbox.pdmodel.common.filespecification.PDComplexFileSpecification;
+import org.apache.pdfbox.pdmodel.common.filespecification.PDEmbeddedFile;
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.time.Duration;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.zip.Deflater;
+
+import static org.junit.Assert.*;
+
+public class ValidationLimitsTest {
+    private static final int MEGABYTE = 1024 * 1024;
+
+    private static byte[] pdf;
+
+    @BeforeClass
+    public static void readFixture() throws IOException {
+        pdf = IOUtils.toByteArray(TestUtil.getFixtureFile("/Årsredovisning (signerat original) - Demobolaget AB - räkenskapsåret 2017.pdf"));
+    }
+
+    @Test
+    public void defaultsAcceptFixture() {
+        ValidationReport report = engine(ValidationLimits.defaults()).validate(PdfSource.of(pdf));
+        assertTrue(report.getErrors().toString(), report.isValid());
+    }
+
+    @Test
+    public void rejectsLargePdfBeforeReadingIt() {
+        ValidationReport report = engine(ValidationLimits.defaults().withMaxPdfBytes(pdf.length - 1)).validate(PdfSource.of(pdf));
+        assertEquals(Collections.singletonList("PDF:en är större än " + (pdf.length - 1) + " byte."), report.getErrors());
+    }
+
+    @Test
+    public void rejectsLargePdfStream() {
+        ValidationReport report = engine(ValidationLimits.defaults().withMaxPdfBytes(1024))
+                .validate(PdfSource.of(new ByteArrayInputStream(pdf)));
+        assertEquals(Collections.singletonList("PDF:en är större än 1024 byte."), report.getErrors());
+    }
+
+    @Test
+    public void rejectsLargeAttachmentAsItIsDecompressed() {
+        ValidationReport report = engine(ValidationLimits.defaults().withMaxAttachmentBytes(512)).validate(PdfSource.of(pdf));
+        assertFalse(report.isValid());
+        assertTrue(report.getErrors().toString(), report.getErrors().get(report.getErrors().size() - 1).endsWith(" är större än 512 byte."));
+    }
+
+    @Test
+    public void stopsFlateBombWithoutDecodingItInFull() throws IOException {
+        // Inflates to more than the whole heap, so decoding it before applying the limit runs out of memory
+        long size = Runtime.getRuntime().maxMemory() + MEGABYTE;
+        ValidationReport report = engine(ValidationLimits.defaults().withMaxAttachmentBytes(MEGABYTE))
+                .validate(PdfSource.of(flateBomb("manifest.json", size)));
+        assertTrue(report.getErrors().toString(),
+                report.getErrors().contains("Den bifogade filen manifest.json är större än " + MEGABYTE + " byte."));
+    }
+
+    @Test
+    public void rejectsTooManySignatures() {
+        ValidationReport report = engine(ValidationLimits.defaults().withMaxSignatures(1)).validate(PdfSource.of(pdf));
+        assertEquals(Collections.singletonList("Innehållsförteckningen (manifest.json) listar fler än 1 signaturer."), report.getErrors());
+    }
+
+    @Test
+    public void rejectsDocumentPastDeadline() {
+        ValidationReport report = engine(ValidationLimits.defaults().withMaxDuration(Duration.ofNanos(1))).validate(PdfSource.of(pdf));
+        assertEquals(Collections.singletonList("Valideringen tog för lång tid och avbröts."), report.getErrors());
+    }
+
+    @Test
+    public void rejectsDeeplyNestedSignatureFile() throws IOException {
+        StringBuilder xml = new StringBuilder();
+        for (int i = 0; i < 50; i++) {
+            xml.append("<a>");
+        }
+        for (int i = 0; i < 50; i++) {
+            xml.append("</a>");
+        }
+        ValidationReport report = engine(ValidationLimits.defaults().withMaxXmlDepth(20)).validateSignature(
+                stream("visible"), DigestMaker.PLAINTEXT, stream("non-visible"), DigestMaker.PLAINTEXT, stream(xml.toString()));
+        assertEquals(Collections.singletonList("Signaturfilen är nästlad djupare än 20 nivåer."), report.getErrors());
+    }
+
+    @Test
+    public void noneTurnsLimitsOff() {
+        ValidationLimits limits = ValidationLimits.parse("none");
+        assertEquals(0, limits.getMaxPdfBytes());
+        assertEquals(0, limits.deadlineFrom(System.nanoTime()));
+    }
+
+    @Test
+    public void parsesOnTopOfDefaults() {
+        ValidationLimits limits = ValidationLimits.parse("pdf=100m, time=30");
+        assertEquals(100L * 1024 * 1024, limits.getMaxPdfBytes());
+        assertEquals(Duration.ofSeconds(30), limits.getMaxDuration());
+        assertEquals(ValidationLimits.defaults().getMaxSignatures(), limits.getMaxSignatures());
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void rejectsUnknownLimit() {
+        ValidationLimits.parse("pages=10");
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void rejectsInvalidValue() {
+        ValidationLimits.parse("signatures=many");
+    }
+
+    private static ValidationEngine engine(ValidationLimits limits) {
+        return ValidationEngine.builder(true).limits(limits).build();
+    }
+
+    /**
+     * A PDF with one FlateDecode attachment of {@code size} spaces, which a JSON reader skips until the limit stops it,, written one compressed megabyte at a time.
+     * The stream is cut off after the last block, before the checksum, which the limit never gets to.
+     */
+    private static byte[] flateBomb(String name, long size) throws IOException {
+        Deflater deflater = new Deflater(Deflater.BEST_COMPRESSION, true);
+        byte[] whitespace = new byte[MEGABYTE];
+        Arrays.fill(whitespace, (byte) ' ');
+        deflater.setInput(whitespace);
+        ByteArrayOutputStream block = new ByteArrayOutputStream();
+        byte[] buffer = new byte[8192];
+        int length;
+        while ((length = deflater.deflate(buffer, 0, buffer.length, Deflater.FULL_FLUSH)) > 0) {
+            block.write(buffer, 0, length);
+        }
+        deflater.end();
+
+        try (PDDocument document = new PDDocument()) {
+            document.addPage(new PDPage());
+            PDEmbeddedFile embeddedFile = new PDEmbeddedFile(document);
+            embeddedFile.getCOSObject().setItem(COSName.FILTER, COSName.FLATE_DECODE);
+            try (OutputStream output = embeddedFile.getCOSObject().createRawOutputStream()) {
+                output.write(new byte[]{0x78, (byte) 0xDA});
+                for (long written = 0; written < size; written += MEGABYTE) {
+                    block.writeTo(output);
+                }
+            }
+            PDComplexFileSpecification specification = new PDComplexFileSpecification();
+            specification.setFile(name);
+            specification.setEmbeddedFile(embeddedFile);
+            PDEmbeddedFilesNameTreeNode files = new PDEmbeddedFilesNameTreeNode();
+            files.setNames(Collections.singletonMap(name, specification));
+            PDDocumentNameDictionary names = new PDDocumentNameDictionary(document.getDocumentCatalog());
+            names.setEmbeddedFiles(files);
+            document.getDocumentCatalog().setNames(names);
+
+            ByteArrayOutputStream output = new ByteArrayOutputStream();
+            document.save(output);
+            return output.toByteArray();
+        }
+    }
+
+    private static InputStream stream(String data) {
+        return new ByteArrayInputStream(data.getBytes(StandardCharsets.UTF_8));
+    }
+}
@@ -0,0 +1,72 @@
+package se.arsredovisning_online.signature_validator;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import javax.management.JMX;
+import javax.management.ObjectName;
+import java.lang.management.ManagementFactory;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.*;
+
+public class ValidationMetricsTest {
+    @Before
+    public void resetMetrics() {
+        ValidationMetrics.reset();
+        SignatureVerificationCache.clear();
+    }
+
+    @Test
+    public void recordsEveryPhaseOfValidation() {
+        SignedPdfValidator validator = new SignedPdfValidator(PdfSource.of(TestUtil.getFixtureFile("/Årsredovisning (signerat original) - Demobolaget AB - räkenskapsåret 2017.pdf")), true);
+        assertTrue(validator.validate());
+
+        ValidationMetrics.Snapshot snapshot = ValidationMetrics.snapshot();
+        assertEquals(0, snapshot.getDocumentsInFlight());
+        assertEquals(1, snapshot.getDocumentsValidated());
+        assertEquals(0, snapshot.getDocumentsInvalid());
+        for (ValidationMetrics.Phase phase : ValidationMetrics.Phase.values()) {
+            if (phase != ValidationMetrics.Phase.REVOCATION_CHECK) {
+                assertTrue(phase.name(), snapshot.getPhase(phase).getCount() > 0);
+            }
+        }
+        assertEquals(1, snapshot.getPhase(ValidationMetrics.Phase.PDF_LOAD).getCount());
+        assertEquals(1, snapshot.getPhase(ValidationMetrics.Phase.MANIFEST).getCount());
+    }
+
+    @Test
+    public void countsInvalidDocuments() {
+        SignedPdfValidator validator = new SignedPdfValidator(PdfSource.of(TestUtil.getFixtureFile("/Årsredovisning (signerat original) - Demobolaget AB - räkenskapsåret 2017.pdf")), false);
+        assertFalse(validator.validate());
+        assertEquals(1, ValidationMetrics.snapshot().getDocumentsInvalid());
+    }
+
+    @Test
+    public void estimatesPercentilesFromBuckets() {
+        for (int i = 1; i <= 100; i++) {
+            ValidationMetrics.record(ValidationMetrics.Phase.DIGEST, TimeUnit.MILLISECONDS.toNanos(i));
+        }
+        ValidationMetrics.PhaseSnapshot digest = ValidationMetrics.snapshot().getPhase(ValidationMetrics.Phase.DIGEST);
+        assertEquals(100, digest.getCount());
+        assertEquals(50.5, digest.getMeanMillis(), 0.001);
+        assertEquals(100, digest.getMaxMillis(), 0.001);
+        double p50 = digest.getPercentileMillis(50);
+        assertTrue(p50 >= 50 && p50 <= 100);
+        assertEquals(100, digest.getPercentileMillis(99), 0.001);
+    }
+
+    @Test
+    public void exposesMetricsOverJmx() throws Exception {
+        ValidationMetrics.registerMBean();
+        ValidationMetrics.registerMBean();
+        ValidationMetrics.record(ValidationMetrics.Phase.XML_PARSE, 1000);
+
+        ValidationMetricsMXBean bean = JMX.newMXBeanProxy(ManagementFactory.getPlatformMBeanServer(),
+                new ObjectName(ValidationMetrics.OBJECT_NAME), ValidationMetricsMXBean.class);
+        assertEquals(Long.valueOf(1), bean.getCounts().get("XML_PARSE"));
+        assertEquals(0, bean.getDocumentsInFlight());
+        bean.reset();
+        assertEquals(Long.valueOf(0), bean.getCounts().get("XML_PARSE"));
+    }
+}
@@ -0,0 +1,141 @@
+package se.arsredovisning_online.signature_validator;
+
+import com.google.gson.JsonObject;
+import com.google.gson.JsonParser;
+import com.google.gson.JsonPrimitive;
+import org.apache.commons.io.IOUtils;
+import org.junit.After;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.HttpURLConnection;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.URL;
+import java.nio.charset.StandardCharsets;
+
+import static org.junit.Assert.*;
+
+public class ValidationServerTest {
+    private static final String PDF = "/Årsredovisning (signerat original) - Demobolaget AB - räkenskapsåret 2017.pdf";
+
+    private ValidationServer server;
+
+    @After
+    public void stopServer() {
+        if (server != null) {
+            server.stop();
+        }
+    }
+
+    @Test
+    public void validatesPostedPdf() throws IOException {
+        startServer(true, 2, 2);
+        HttpURLConnection connection = post("/validate");
+        try (InputStream pdf = TestUtil.getFixtureFile(PDF); OutputStream out = connection.getOutputStream()) {
+            IOUtils.copy(pdf, out);
+        }
+        assertEquals(200, connection.getResponseCode());
+        JsonObject result = readJson(connection);
+        assertTrue(result.get("valid").getAsBoolean());
+        assertEquals(0, result.getAsJsonArray("errors").size());
+    }
+
+    @Test
+    public void returnsValidationErrors() throws IOException {
+        startServer(false, 2, 2);
+        HttpURLConnection connection = post("/validate");
+        try (InputStream pdf = TestUtil.getFixtureFile(PDF); OutputStream out = connection.getOutputStream()) {
+            IOUtils.copy(pdf, out);
+        }
+        assertEquals(200, connection.getResponseCode());
+        JsonObject result = readJson(connection);
+        assertFalse(result.get("valid").getAsBoolean());
+        assertTrue(result.getAsJsonArray("errors").toString(), result.getAsJsonArray("errors").contains(new JsonPrimitive("Validering av signatur_1_Anna_Andersson.xml misslyckades.")));
+    }
+
+    @Test
+    public void reportsHealth() throws IOException {
+        startServer(true, 3, 2);
+        HttpURLConnection connection = open("/health");
+        assertEquals(200, connection.getResponseCode());
+        JsonObject health = readJson(connection);
+        assertEquals("ok", health.get("status").getAsString());
+        assertEquals(3, health.get("concurrency").getAsInt());
+    }
+
+    @Test
+    public void reportsMetrics() throws IOException {
+        startServer(true, 1, 1);
+        JsonObject metrics = readJson(open("/metrics"));
+        assertEquals(0, metrics.get("documentsInFlight").getAsInt());
+        assertTrue(metrics.getAsJsonObject("phases").has("CHAIN_VERIFICATION"));
+    }
+
+    @Test
+    public void rejectsOtherMethods() throws IOException {
+        startServer(true, 1, 1);
+        assertEquals(405, open("/validate").getResponseCode());
+    }
+
+    @Test
+    public void rejectsRequestsWhenQueueIsFull() throws Exception {
+        startServer(true, 1, 1);
+        // Two uploads that never finish occupy the only worker and the only queue slot
+        HttpURLConnection running = startStalledUpload();
+        HttpURLConnection queued = startStalledUpload();
+        waitFor(1, 1);
+
+        HttpURLConnection rejected = post("/validate");
+        rejected.getOutputStream().close();
+        assertEquals(503, rejected.getResponseCode());
+
+        running.disconnect();
+        queued.disconnect();
+    }
+
+    private void startServer(boolean test, int concurrency, int queueSize) throws IOException {
+        server = new ValidationServer(new InetSocketAddress(InetAddress.getLoopbackAddress(), 0), test, concurrency, queueSize);
+        server.start();
+    }
+
+    private HttpURLConnection startStalledUpload() throws IOException {
+        HttpURLConnection connection = post("/validate");
+        connection.setChunkedStreamingMode(16);
+        OutputStream out = connection.getOutputStream();
+        out.write("%PDF-1.7\n".getBytes(StandardCharsets.US_ASCII));
+        out.flush();
+        return connection;
+    }
+
+    private void waitFor(int active, int queued) throws Exception {
+        for (int i = 0; i < 500; i++) {
+            JsonObject health = readJson(open("/health"));
+            if (health.get("active").getAsInt() == active && health.get("queued").getAsInt() == queued) {
+                return;
+            }
+            Thread.sleep(10);
+        }
+        fail("Servern fick aldrig " + active + " aktiva och " + queued + " köade valideringar.");
+    }
+
+    private HttpURLConnection post(String path) throws IOException {
+        HttpURLConnection connection = open(path);
+        connection.setRequestMethod("POST");
+        connection.setDoOutput(true);
+        connection.setRequestProperty("Content-Type", "application/pdf");
+        return connection;
+    }
+
+    private HttpURLConnection open(String path) throws IOException {
+        return (HttpURLConnection) new URL("http://localhost:" + server.getPort() + path).openConnection();
+    }
+
+    private static JsonObject readJson(HttpURLConnection connection) throws IOException {
+        try (InputStream in = connection.getResponseCode() < 400 ? connection.getInputStream() : connection.getErrorStream()) {
+            return new JsonParser().parse(IOUtils.toString(in, StandardCharsets.UTF_8)).getAsJsonObject();
+        }
+    }
+}
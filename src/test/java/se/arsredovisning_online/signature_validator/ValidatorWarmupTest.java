@@ -0,0 +1,35 @@
+package se.arsredovisning_online.signature_validator;
+
+import org.junit.After;
+import org.junit.Test;
+
+import java.time.Duration;
+
+import static org.junit.Assert.*;
+
+public class ValidatorWarmupTest {
+    @After
+    public void restoreDefaults() {
+        CryptoProviders.setJcaProvider(CryptoProviders.DEFAULT);
+    }
+
+    @Test
+    public void validatesBundledPdf() throws Exception {
+        SignedPdfValidator validator = new SignedPdfValidator(PdfSource.of(ValidatorWarmup.readFixture()), true);
+        assertTrue(validator.getValidationErrors().toString(), validator.validate());
+    }
+
+    @Test
+    public void leavesNoTraceInMetrics() throws Exception {
+        Duration duration = ValidatorWarmup.run(2);
+        assertFalse(duration.isNegative() || duration.isZero());
+        assertEquals(0, ValidationMetrics.snapshot().getDocumentsValidated());
+        assertEquals(0, ValidationMetrics.snapshot().getPhase(ValidationMetrics.Phase.REFERENCE_VALIDATION).getCount());
+    }
+
+    @Test
+    public void warmsUpSelectedProvider() throws Exception {
+        CryptoProviders.setJcaProvider("BC");
+        ValidatorWarmup.run(1);
+    }
+}
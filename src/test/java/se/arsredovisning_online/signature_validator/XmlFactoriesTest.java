@@ -0,0 +1,44 @@
+package se.arsredovisning_online.signature_validator;
+
+import org.junit.Test;
+import org.w3c.dom.Document;
+import org.xml.sax.SAXException;
+
+import java.io.ByteArrayInputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import static org.junit.Assert.*;
+
+public class XmlFactoriesTest {
+    @Test
+    public void reusesDocumentBuilderWithinThread() {
+        assertSame(XmlFactories.documentBuilder(), XmlFactories.documentBuilder());
+        assertSame(XmlFactories.signatureFactory(), XmlFactories.signatureFactory());
+    }
+
+    @Test
+    public void givesEachThreadItsOwnDocumentBuilder() throws Exception {
+        ExecutorService executor = Executors.newSingleThreadExecutor();
+        try {
+            Future<Object> other = executor.submit(XmlFactories::documentBuilder);
+            assertNotSame(XmlFactories.documentBuilder(), other.get());
+        } finally {
+            executor.shutdown();
+        }
+    }
+
+    @Test
+    public void parsesNamespaceAware() throws Exception {
+        Document document = XmlFactories.documentBuilder().parse(TestUtil.getFixtureFile("/signatur_1_Anna_Andersson.xml"));
+        assertEquals("http://www.w3.org/2000/09/xmldsig#", document.getDocumentElement().getNamespaceURI());
+    }
+
+    @Test(expected = SAXException.class)
+    public void rejectsDoctypeDeclarations() throws Exception {
+        String xml = "<?xml version=\"1.0\"?><!DOCTYPE a [<!ENTITY e \"x\">]><a>&e;</a>";
+        XmlFactories.documentBuilder().parse(new ByteArrayInputStream(xml.getBytes(StandardCharsets.UTF_8)));
+    }
+}